@@ -0,0 +1,55 @@
+package ch.zhaw.pm2.multichat.protocol;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Measures encoding and decoding of a single message body for both wire formats.
+ * Decoding the {@link WireFormat#LEGACY} format is the parser formerly known as {@code ConnectionHandler.parseData}.
+ */
+@State(Scope.Thread)
+public class CodecBenchmark {
+
+    @Param({"LEGACY", "BINARY"})
+    public WireFormat wireFormat;
+
+    @Param({"16", "1024"})
+    public int payloadSize;
+
+    private FrameCodec<Message> codec;
+    private Message message;
+    private byte[] body;
+    private ByteArrayOutputStream out;
+
+    @Setup
+    public void setUp() throws IOException {
+        codec = wireFormat.newCodec();
+        message = new Message("alice", Config.USER_ALL, Config.MessageType.MESSAGE, "x".repeat(payloadSize));
+        out = new ByteArrayOutputStream();
+        codec.encode(message, out);
+        body = out.toByteArray();
+    }
+
+    @Benchmark
+    public Message decode() throws IOException, ClassNotFoundException {
+        return codec.decode(body, 0, body.length);
+    }
+
+    @Benchmark
+    public int encode() throws IOException {
+        out.reset();
+        codec.encode(message, out);
+        return out.size();
+    }
+
+    @Benchmark
+    public String messageToString() {
+        return message.toString();
+    }
+}
@@ -0,0 +1,59 @@
+package ch.zhaw.pm2.multichat.protocol;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Measures sending a message through a {@link NetworkHandler.NetworkConnection} and receiving it on the other side of
+ * a loopback connection, including encoding, the socket round trip through the kernel and decoding.
+ */
+@State(Scope.Thread)
+public class LoopbackBenchmark {
+
+    @Param({"LEGACY", "BINARY"})
+    public WireFormat wireFormat;
+
+    @Param({"16", "1024"})
+    public int payloadSize;
+
+    private NetworkHandler.NetworkServer<Message> server;
+    private NetworkHandler.NetworkConnection<Message> sender;
+    private NetworkHandler.NetworkConnection<Message> receiver;
+    private Message message;
+
+    @Setup
+    public void setUp() throws Exception {
+        server = NetworkHandler.createServer(0, wireFormat::newCodec);
+        CompletableFuture<NetworkHandler.NetworkConnection<Message>> accepted = CompletableFuture.supplyAsync(() -> {
+            try {
+                return server.waitForConnection();
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to accept benchmark connection", e);
+            }
+        });
+        sender = NetworkHandler.openConnection(NetworkHandler.DEFAULT_ADDRESS, server.getHostPort(),
+            wireFormat.newCodec());
+        receiver = accepted.get();
+        message = new Message("alice", "bob", Config.MessageType.MESSAGE, "x".repeat(payloadSize));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        sender.close();
+        receiver.close();
+        server.close();
+    }
+
+    @Benchmark
+    public Message sendReceive() throws IOException, ClassNotFoundException {
+        sender.send(message);
+        return receiver.receive();
+    }
+}
@@ -0,0 +1,82 @@
+package ch.zhaw.pm2.multichat.server;
+
+import ch.zhaw.pm2.multichat.protocol.Config;
+import ch.zhaw.pm2.multichat.protocol.Message;
+import ch.zhaw.pm2.multichat.protocol.NetworkHandler;
+import ch.zhaw.pm2.multichat.protocol.WireFormat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Measures the cost of a broadcast for the thread receiving it: encoding the message once, iterating the
+ * {@link ConnectionRegistry} and handing the frame to the outbound queue of every recipient.
+ * <p>The recipients are real loopback connections of an event driven server, but their writer tasks are never run,
+ * so the measurement does not depend on the network. The queues fill up to their capacity and then drop their
+ * oldest frame for every new one. As nothing is ever written or read, the client side of each connection is closed
+ * right after it has been accepted, which keeps the number of open files at one per recipient.</p>
+ */
+@State(Scope.Benchmark)
+public class FanoutBenchmark {
+
+    /** Writer executor discarding all writer tasks, see class comment */
+    private static final Executor NO_WRITERS = task -> { };
+
+    @Param({"10", "1000", "10000"})
+    public int recipients;
+
+    @Param({"BINARY"})
+    public WireFormat wireFormat;
+
+    private NetworkHandler.NetworkServer<Message> server;
+    private final List<NetworkHandler.NetworkConnection<Message>> connections = new ArrayList<>();
+    private ServerConnectionHandler sender;
+    private Message broadcast;
+
+    @Setup
+    public void setUp() throws IOException {
+        ServerSettings settings = new ServerSettings();
+        settings.setWireFormat(wireFormat);
+        settings.setOutboundQueueCapacity(64);
+        settings.setOutboundQueuePolicy(OutboundQueue.OverflowPolicy.DROP_OLDEST);
+        ConnectionRegistry registry = new ConnectionRegistry();
+        ServerMetrics metrics = new ServerMetrics(registry);
+        server = NetworkHandler.createEventDrivenServer(0, 1, wireFormat::newCodec);
+        for (int i = 0; i < recipients; i++) {
+            NetworkHandler.NetworkConnection<Message> client = NetworkHandler.openConnection(
+                NetworkHandler.DEFAULT_ADDRESS, server.getHostPort(), wireFormat.newCodec());
+            NetworkHandler.NetworkConnection<Message> connection = server.waitForConnection();
+            client.close();
+            connections.add(connection);
+            ServerConnectionHandler handler = new ServerConnectionHandler(connection, registry, NO_WRITERS, settings,
+                metrics);
+            registry.register(handler);
+            handler.processData(new Message("user-" + i, Config.USER_NONE, Config.MessageType.CONNECT, null));
+            if (sender == null) {
+                sender = handler;
+            }
+        }
+        broadcast = new Message("user-0", Config.USER_ALL, Config.MessageType.MESSAGE, "Hello everybody");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        for (NetworkHandler.NetworkConnection<Message> connection : connections) {
+            connection.close();
+        }
+        server.close();
+    }
+
+    @Benchmark
+    public void broadcast() {
+        sender.processData(broadcast);
+    }
+}
@@ -1,273 +1,408 @@
-package ch.zhaw.pm2.multichat.client;
-
-import ch.zhaw.pm2.multichat.protocol.ChatProtocolException;
-import ch.zhaw.pm2.multichat.protocol.Config;
-import ch.zhaw.pm2.multichat.protocol.Message;
-import ch.zhaw.pm2.multichat.protocol.NetworkHandler;
-import javafx.application.Platform;
-import javafx.beans.value.ChangeListener;
-import javafx.beans.value.ObservableValue;
-import javafx.event.EventHandler;
-import javafx.fxml.FXML;
-import javafx.scene.control.Button;
-import javafx.scene.control.TextArea;
-import javafx.scene.control.TextField;
-import javafx.scene.layout.Pane;
-import javafx.stage.WindowEvent;
-
-import java.io.IOException;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
-
-/**
- * This controller class handles events which occur in the chat window
- */
-
-public class ChatWindowController {
-    private final Pattern messagePattern = Pattern.compile( "^(?:@(\\w+(?:-\\d+)?))?\\s*(.*)$" );
-    private ClientConnectionHandler connectionHandler;
-    private ClientMessageList messages;
-
-    private final WindowCloseHandler windowCloseHandler = new WindowCloseHandler();
-
-    @FXML private Pane rootPane;
-    @FXML private TextField serverAddressField;
-    @FXML private TextField serverPortField;
-    @FXML private TextField userNameField;
-    @FXML private TextField messageField;
-    @FXML private TextArea messageArea;
-    @FXML private Button connectButton;
-    @FXML private Button sendButton;
-    @FXML private TextField filterValue;
-
-
-    /**
-     * initialize method is called automatically and should only be called when creating a new instance of the controller class
-     */
-    @FXML
-    public void initialize() {
-        serverAddressField.setText(NetworkHandler.DEFAULT_ADDRESS.getCanonicalHostName());
-        serverPortField.setText(String.valueOf(NetworkHandler.DEFAULT_PORT));
-        stateChanged(Config.State.NEW);
-        messages = new ClientMessageList();
-        initializeMessageList();
-        sendButton.disableProperty().bind(messageField.textProperty().isEmpty());
-    }
-
-    private void initializeMessageList(){
-        messages.getChatHistory().addListener(new ChangeListener<String>() {
-            @Override
-            public void changed(ObservableValue<? extends String> observable, String oldValue, String newValue) {
-                messageArea.setText(newValue);
-            }
-        });
-    }
-
-    private void initializeConnectionHandler(){
-        connectionHandler.getPropertyState().addListener(new ChangeListener<Config.State>() {
-            @Override
-            public void changed(ObservableValue<? extends Config.State> observable, Config.State oldValue, Config.State newValue) {
-                stateChanged(newValue);
-            }
-        });
-
-        connectionHandler.getPropertyUserName().addListener(new ChangeListener<String>() {
-            @Override
-            public void changed(ObservableValue<? extends String> observable, String oldValue, String newValue) {
-                setUserName(newValue);
-            }
-        });
-
-        connectionHandler.getPropertyConnection().addListener(new ChangeListener<NetworkHandler.NetworkConnection<String>>() {
-            @Override
-            public void changed(ObservableValue<? extends NetworkHandler.NetworkConnection<String>> observable, NetworkHandler.NetworkConnection<String> oldValue, NetworkHandler.NetworkConnection<String> newValue) {
-                setServerPort(newValue.getRemotePort());
-                setServerAddress(newValue.getRemoteHost());
-            }
-        });
-    }
-
-    private void applicationClose() {
-        connectionHandler.setState(Config.State.DISCONNECTED);
-    }
-
-    @FXML
-    private void toggleConnection () {
-        if (connectionHandler == null || connectionHandler.getState() != Config.State.CONNECTED) {
-            messages.emptyChatHistory();
-            connect();
-        } else {
-            disconnect();
-        }
-    }
-
-    private void connect() {
-        try {
-            startConnectionHandler();
-            connectionHandler.connect();
-        } catch(ChatProtocolException | IOException e) {
-            connectionHandler.addError(e.getMessage());
-        }
-    }
-
-    private void disconnect() {
-        if (connectionHandler == null) {
-            messages.addMessage(Config.MessageType.ERROR, null, null,Config.NO_CONNECTION_HANDLER);
-            return;
-        }
-        try {
-            connectionHandler.disconnect();
-        } catch (ChatProtocolException e) {
-            connectionHandler.addError(e.getMessage());
-        }
-    }
-    @FXML
-    private void message() {
-        if (connectionHandler == null) {
-            messages.addMessage(Config.MessageType.ERROR, null, null, Config.NO_CONNECTION_HANDLER);
-            return;
-        }
-        String messageString = messageField.getText().strip();
-        Matcher matcher = messagePattern.matcher(messageString);
-        if (matcher.find()) {
-            String receiver = matcher.group(1);
-            String message = matcher.group(2);
-            if(!message.isEmpty()){
-                if (receiver == null || receiver.isBlank()) receiver = Config.USER_ALL;
-                try {
-                    connectionHandler.message(receiver, message);
-                    messageField.clear();
-                } catch (ChatProtocolException e) {
-                    connectionHandler.addError(e.getMessage());
-                }
-            } else{
-                connectionHandler.addError(Config.EMPTY_MESSAGE);
-            }
-        } else if(matcher.find()) {
-            connectionHandler.addError(Config.NOT_VALID_MESSAGE);
-        } else {
-        	connectionHandler.addError(Config.EMPTY_MESSAGE);
-        }
-    }
-
-    @FXML
-    private void applyFilter( ) {
-        this.redrawMessageList();
-    }
-
-    private void startConnectionHandler() throws IOException {
-        String userName = userNameField.getText();
-        String serverAddress = serverAddressField.getText();
-        int serverPort = Integer.parseInt(serverPortField.getText());
-        connectionHandler = new ClientConnectionHandler(
-            NetworkHandler.openConnection(serverAddress, serverPort), userName, messages);
-        initializeConnectionHandler();
-        new Thread(connectionHandler).start();
-
-        rootPane.getScene().getWindow().addEventHandler(WindowEvent.WINDOW_CLOSE_REQUEST, windowCloseHandler);
-    }
-
-    private void terminateConnectionHandler() {
-        rootPane.getScene().getWindow().removeEventHandler(WindowEvent.WINDOW_CLOSE_REQUEST, windowCloseHandler);
-        if (connectionHandler != null) {
-            connectionHandler.terminate();
-            connectionHandler = null;
-        }
-    }
-
-
-    /**
-     * This method allows the setting of the connection button text by passing a state argument
-     * @param newState
-     */
-    private void stateChanged(Config.State newState) {
-        Platform.runLater(new Runnable() {
-            @Override
-            public void run() {
-                connectButton.setText((newState == Config.State.CONNECTED ||
-                    newState == Config.State.CONFIRM_DISCONNECT)
-                    ? "Disconnect" : "Connect");
-                if (newState == Config.State.DISCONNECTED) {
-                	connectionHandler.handleError(new Message("", "", Config.MessageType.ERROR,
-                        Config.CONNECTION_CLOSED));
-                }
-            }
-        });
-        if (newState == Config.State.DISCONNECTED) {
-            terminateConnectionHandler();
-        }
-        updateState(newState);
-
-    }
-
-    private void updateState(Config.State newState){
-        switch (newState) {
-            case NEW, DISCONNECTED -> {
-                serverAddressField.setEditable(true);
-                serverPortField.setEditable(true);
-                userNameField.setEditable(true);
-                messageField.setEditable(false);
-                filterValue.setEditable(false);
-            }
-            case CONNECTED -> {
-                serverAddressField.setEditable(false);
-                serverPortField.setEditable(false);
-                userNameField.setEditable(false);
-                messageField.setEditable(true);
-                filterValue.setEditable(true);
-            }
-        }
-    }
-
-    /**
-     * This method allows the setting of a username to the username field by passing a String argument
-     * @param userName
-     */
-    private void setUserName(String userName) {
-        Platform.runLater(new Runnable() {
-            @Override
-            public void run() {
-                userNameField.setText(userName);
-            }
-        });
-    }
-
-    /**
-     * This method allows the setting of a server address to the server address field by passing a String argument
-     * @param serverAddress
-     */
-    private void setServerAddress(String serverAddress) {
-        Platform.runLater(new Runnable() {
-            @Override
-            public void run() {
-                serverAddressField.setText(serverAddress);
-            }
-        });
-    }
-
-    /**
-     * This method allows the setting of a server port to the server port field by passing an int argument
-     * @param serverPort
-     */
-    private void setServerPort(int serverPort) {
-        Platform.runLater(new Runnable() {
-            @Override
-            public void run() {
-                serverPortField.setText(Integer.toString(serverPort));
-            }
-        });
-    }
-
-
-    private void redrawMessageList() {
-        Platform.runLater(() -> messages.setFilter(filterValue.getText().strip()));
-    }
-
-    class WindowCloseHandler implements EventHandler<WindowEvent> {
-        public void handle(WindowEvent event) {
-            applicationClose();
-        }
-
-    }
-}
+package ch.zhaw.pm2.multichat.client;
+
+import ch.zhaw.pm2.multichat.protocol.ChatProtocolException;
+import ch.zhaw.pm2.multichat.protocol.Compression;
+import ch.zhaw.pm2.multichat.protocol.Config;
+import ch.zhaw.pm2.multichat.protocol.FlowControl;
+import ch.zhaw.pm2.multichat.protocol.Message;
+import ch.zhaw.pm2.multichat.protocol.NetworkHandler;
+import ch.zhaw.pm2.multichat.protocol.SocketOptions;
+import ch.zhaw.pm2.multichat.protocol.WireFormat;
+import javafx.beans.value.ChangeListener;
+import javafx.beans.value.ObservableValue;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.event.EventHandler;
+import javafx.fxml.FXML;
+import javafx.geometry.Orientation;
+import javafx.scene.Node;
+import javafx.scene.control.Button;
+import javafx.scene.control.ListView;
+import javafx.scene.control.ScrollBar;
+import javafx.scene.control.TextField;
+import javafx.scene.layout.Pane;
+import javafx.stage.WindowEvent;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+
+/**
+ * This controller class handles events which occur in the chat window
+ */
+
+public class ChatWindowController {
+    /** Number of older messages shown again when scrolling to the top of the chat history */
+    private static final int OLDER_MESSAGES_PAGE_SIZE = 200;
+
+    private final Pattern messagePattern = Pattern.compile( "^(?:@(\\w+(?:-\\d+)?|#[\\w-]+))?\\s*(.*)$" );
+    private final Pattern roomCommandPattern = Pattern.compile( "^/(join|leave|list)(?:\\s+(#[\\w-]+))?\\s*$" );
+    private ClientConnectionHandler connectionHandler;
+    private ClientMessageList messages;
+    private final ObservableList<String> messageRows = FXCollections.observableArrayList();
+    /** Rows received since the last frame, only accessed on the JavaFX application thread */
+    private final List<String> appendedRows = new ArrayList<>();
+    private final FrameUpdateQueue uiUpdates = new FrameUpdateQueue(this::flushAppendedRows);
+    private ScrollBar messageScrollBar;
+    /** Position in the message log of the server received on the last connect, -1 if none */
+    private long replayPosition = -1;
+
+    private final WindowCloseHandler windowCloseHandler = new WindowCloseHandler();
+
+    @FXML private Pane rootPane;
+    @FXML private TextField serverAddressField;
+    @FXML private TextField serverPortField;
+    @FXML private TextField userNameField;
+    @FXML private TextField messageField;
+    @FXML private ListView<String> messageList;
+    @FXML private Button connectButton;
+    @FXML private Button sendButton;
+    @FXML private TextField filterValue;
+
+
+    /**
+     * initialize method is called automatically and should only be called when creating a new instance of the controller class
+     */
+    @FXML
+    public void initialize() {
+        serverAddressField.setText(NetworkHandler.DEFAULT_ADDRESS.getCanonicalHostName());
+        serverPortField.setText(String.valueOf(NetworkHandler.DEFAULT_PORT));
+        stateChanged(Config.State.NEW);
+        messages = new ClientMessageList();
+        initializeMessageList();
+        filterValue.textProperty().addListener((observable, oldValue, newValue) -> redrawMessageList());
+        sendButton.disableProperty().bind(messageField.textProperty().isEmpty());
+    }
+
+    private void initializeMessageList(){
+        messageList.setItems(messageRows);
+        messages.setHistoryListener(new ClientMessageList.HistoryListener() {
+            @Override
+            public void historyAppended(String row) {
+                uiUpdates.post(() -> appendedRows.add(row));
+            }
+
+            @Override
+            public void historyReplaced(List<String> rows) {
+                postRowUpdate(() -> {
+                    messageRows.setAll(rows);
+                    messageList.scrollTo(messageRows.size() - 1);
+                });
+            }
+
+            @Override
+            public void historyTrimmed(int count) {
+                postRowUpdate(() -> messageRows.remove(0, Math.min(count, messageRows.size())));
+            }
+
+            @Override
+            public void historyPrepended(List<String> rows) {
+                postRowUpdate(() -> {
+                    messageRows.addAll(0, rows);
+                    messageList.scrollTo(rows.size());
+                });
+            }
+        });
+    }
+
+    /**
+     * Posts a change of the rows, which has to see the rows appended before it.
+     */
+    private void postRowUpdate(Runnable update) {
+        uiUpdates.post(() -> {
+            flushAppendedRows();
+            update.run();
+        });
+    }
+
+    /**
+     * Adds the rows appended since the last frame to the message list at once, following them if the end of the list
+     * was visible. Runs on the JavaFX application thread.
+     */
+    private void flushAppendedRows() {
+        if (appendedRows.isEmpty()) return;
+        boolean follow = isScrolledToEnd();
+        messageRows.addAll(appendedRows);
+        appendedRows.clear();
+        if (follow) messageList.scrollTo(messageRows.size() - 1);
+    }
+
+    /**
+     * Looks up the vertical scroll bar of the message list, which only exists once the list has been shown.
+     * Scrolling to the top shows older messages again.
+     * @return the scroll bar, null if the list has not been shown yet
+     */
+    private ScrollBar getMessageScrollBar() {
+        if (messageScrollBar == null) {
+            for (Node node : messageList.lookupAll(".scroll-bar")) {
+                if (node instanceof ScrollBar scrollBar && scrollBar.getOrientation() == Orientation.VERTICAL) {
+                    scrollBar.valueProperty().addListener((observable, oldValue, newValue) -> {
+                        if (newValue.doubleValue() <= scrollBar.getMin() && oldValue.doubleValue() > scrollBar.getMin()) {
+                            messages.loadOlderMessages(OLDER_MESSAGES_PAGE_SIZE);
+                        }
+                    });
+                    messageScrollBar = scrollBar;
+                }
+            }
+        }
+        return messageScrollBar;
+    }
+
+    /**
+     * @return true if the last message is visible, so the list should follow new messages
+     */
+    private boolean isScrolledToEnd() {
+        ScrollBar scrollBar = getMessageScrollBar();
+        return scrollBar == null || !scrollBar.isVisible() || scrollBar.getValue() >= scrollBar.getMax();
+    }
+
+    private void initializeConnectionHandler(){
+        connectionHandler.getPropertyState().addListener(new ChangeListener<Config.State>() {
+            @Override
+            public void changed(ObservableValue<? extends Config.State> observable, Config.State oldValue, Config.State newValue) {
+                stateChanged(newValue);
+            }
+        });
+
+        connectionHandler.getPropertyUserName().addListener(new ChangeListener<String>() {
+            @Override
+            public void changed(ObservableValue<? extends String> observable, String oldValue, String newValue) {
+                setUserName(newValue);
+            }
+        });
+
+        connectionHandler.getPropertyConnection().addListener(new ChangeListener<NetworkHandler.NetworkConnection<Message>>() {
+            @Override
+            public void changed(ObservableValue<? extends NetworkHandler.NetworkConnection<Message>> observable, NetworkHandler.NetworkConnection<Message> oldValue, NetworkHandler.NetworkConnection<Message> newValue) {
+                setServerPort(newValue.getRemotePort());
+                setServerAddress(newValue.getRemoteHost());
+            }
+        });
+    }
+
+    private void applicationClose() {
+        connectionHandler.setState(Config.State.DISCONNECTED);
+    }
+
+    @FXML
+    private void toggleConnection () {
+        if (connectionHandler == null || connectionHandler.getState() != Config.State.CONNECTED) {
+            messages.emptyChatHistory();
+            connect();
+        } else {
+            disconnect();
+        }
+    }
+
+    private void connect() {
+        try {
+            startConnectionHandler();
+            connectionHandler.connect();
+        } catch(ChatProtocolException | IOException e) {
+            connectionHandler.addError(e.getMessage());
+        }
+    }
+
+    private void disconnect() {
+        if (connectionHandler == null) {
+            messages.addMessage(Config.MessageType.ERROR, null, null,Config.NO_CONNECTION_HANDLER);
+            return;
+        }
+        try {
+            connectionHandler.disconnect();
+        } catch (ChatProtocolException e) {
+            connectionHandler.addError(e.getMessage());
+        }
+    }
+    @FXML
+    private void message() {
+        if (connectionHandler == null) {
+            messages.addMessage(Config.MessageType.ERROR, null, null, Config.NO_CONNECTION_HANDLER);
+            return;
+        }
+        String messageString = messageField.getText().strip();
+        Matcher command = roomCommandPattern.matcher(messageString);
+        if (command.matches()) {
+            roomCommand(command.group(1), command.group(2));
+            return;
+        }
+        Matcher matcher = messagePattern.matcher(messageString);
+        if (matcher.find()) {
+            String receiver = matcher.group(1);
+            String message = matcher.group(2);
+            if(!message.isEmpty()){
+                if (receiver == null || receiver.isBlank()) receiver = Config.USER_ALL;
+                try {
+                    connectionHandler.message(receiver, message);
+                    messageField.clear();
+                } catch (ChatProtocolException e) {
+                    connectionHandler.addError(e.getMessage());
+                }
+            } else{
+                connectionHandler.addError(Config.EMPTY_MESSAGE);
+            }
+        } else if(matcher.find()) {
+            connectionHandler.addError(Config.NOT_VALID_MESSAGE);
+        } else {
+        	connectionHandler.addError(Config.EMPTY_MESSAGE);
+        }
+    }
+
+    /**
+     * Sends a room command entered as message: {@code /join #room}, {@code /leave #room} or {@code /list [#room]}.
+     * @param command the command without slash
+     * @param room the room, null if not given
+     */
+    private void roomCommand(String command, String room) {
+        try {
+            switch (command) {
+                case "join", "leave" -> {
+                    if (room == null) {
+                        connectionHandler.addError("Room missing: /" + command + " " + Config.ROOM_PREFIX + "room");
+                        return;
+                    }
+                    if (command.equals("join")) {
+                        connectionHandler.join(room);
+                    } else {
+                        connectionHandler.leave(room);
+                    }
+                }
+                default -> connectionHandler.list(room);
+            }
+            messageField.clear();
+        } catch (ChatProtocolException e) {
+            connectionHandler.addError(e.getMessage());
+        }
+    }
+
+    @FXML
+    private void applyFilter( ) {
+        this.redrawMessageList();
+    }
+
+    private void startConnectionHandler() throws IOException {
+        String userName = userNameField.getText();
+        String serverAddress = serverAddressField.getText();
+        int serverPort = Integer.parseInt(serverPortField.getText());
+        connectionHandler = new ClientConnectionHandler(
+            NetworkHandler.openConnection(serverAddress, serverPort, WireFormat.configured().newCodec(),
+                SocketOptions.configured()),
+            userName, messages, Compression.configuredThreshold(), FlowControl.configuredWindow());
+        connectionHandler.setReplayPosition(replayPosition);
+        initializeConnectionHandler();
+        new Thread(connectionHandler).start();
+
+        rootPane.getScene().getWindow().addEventHandler(WindowEvent.WINDOW_CLOSE_REQUEST, windowCloseHandler);
+    }
+
+    private void terminateConnectionHandler() {
+        rootPane.getScene().getWindow().removeEventHandler(WindowEvent.WINDOW_CLOSE_REQUEST, windowCloseHandler);
+        if (connectionHandler != null) {
+            replayPosition = connectionHandler.getReplayPosition();
+            connectionHandler.terminate();
+            connectionHandler = null;
+        }
+    }
+
+
+    /**
+     * This method allows the setting of the connection button text by passing a state argument
+     * @param newState
+     */
+    private void stateChanged(Config.State newState) {
+        ClientConnectionHandler handler = connectionHandler;
+        uiUpdates.post(new Runnable() {
+            @Override
+            public void run() {
+                connectButton.setText((newState == Config.State.CONNECTED ||
+                    newState == Config.State.CONFIRM_DISCONNECT)
+                    ? "Disconnect" : "Connect");
+                if (newState == Config.State.DISCONNECTED && handler != null) {
+                	handler.handleError(new Message("", "", Config.MessageType.ERROR,
+                        Config.CONNECTION_CLOSED));
+                }
+                updateState(newState);
+            }
+        });
+        if (newState == Config.State.DISCONNECTED) {
+            terminateConnectionHandler();
+        }
+    }
+
+    private void updateState(Config.State newState){
+        switch (newState) {
+            case NEW, DISCONNECTED -> {
+                serverAddressField.setEditable(true);
+                serverPortField.setEditable(true);
+                userNameField.setEditable(true);
+                messageField.setEditable(false);
+                filterValue.setEditable(false);
+            }
+            case CONNECTED -> {
+                serverAddressField.setEditable(false);
+                serverPortField.setEditable(false);
+                userNameField.setEditable(false);
+                messageField.setEditable(true);
+                filterValue.setEditable(true);
+            }
+        }
+    }
+
+    /**
+     * This method allows the setting of a username to the username field by passing a String argument
+     * @param userName
+     */
+    private void setUserName(String userName) {
+        uiUpdates.post(new Runnable() {
+            @Override
+            public void run() {
+                userNameField.setText(userName);
+            }
+        });
+    }
+
+    /**
+     * This method allows the setting of a server address to the server address field by passing a String argument
+     * @param serverAddress
+     */
+    private void setServerAddress(String serverAddress) {
+        uiUpdates.post(new Runnable() {
+            @Override
+            public void run() {
+                serverAddressField.setText(serverAddress);
+            }
+        });
+    }
+
+    /**
+     * This method allows the setting of a server port to the server port field by passing an int argument
+     * @param serverPort
+     */
+    private void setServerPort(int serverPort) {
+        uiUpdates.post(new Runnable() {
+            @Override
+            public void run() {
+                serverPortField.setText(Integer.toString(serverPort));
+            }
+        });
+    }
+
+
+    /**
+     * Applies the text of the filter field, e.g. on every keystroke. Filtering runs in the background, so this never
+     * blocks the user interface.
+     */
+    private void redrawMessageList() {
+        messages.setFilter(filterValue.getText().strip());
+    }
+
+    class WindowCloseHandler implements EventHandler<WindowEvent> {
+        public void handle(WindowEvent event) {
+            applicationClose();
+        }
+
+    }
+}
@@ -1,300 +1,502 @@
-package ch.zhaw.pm2.multichat.client;
-
-import ch.zhaw.pm2.multichat.protocol.*;
-import javafx.beans.property.SimpleObjectProperty;
-import javafx.beans.property.SimpleStringProperty;
-import javafx.beans.property.StringProperty;
-
-import java.io.EOFException;
-import java.io.IOException;
-import java.net.SocketException;
-
-/**
- * This class is responsible for creating and handling connections between
- * client and server It extends the ConnectionHandler class and implements the
- * Runnable interface.
- */
-public class ClientConnectionHandler extends ConnectionHandler implements Runnable {
-
-    private final ClientMessageList messageList;
-	private final SimpleObjectProperty<Config.State> propertyState = new SimpleObjectProperty<>(Config.State.NEW);
-	private final StringProperty userName = new SimpleStringProperty(Config.USER_NONE);
-	private final SimpleObjectProperty<NetworkHandler.NetworkConnection<String>> connection = new SimpleObjectProperty<>();
-
-	/**
-	 * Constructs a new ClientConnectionHandler object.
-	 *
-	 * @param connection the network connection
-	 * @param userName   the username associated with this connection
-	 * @param messageList the message list
-	 */
-	public ClientConnectionHandler(NetworkHandler.NetworkConnection<String> connection, String userName, ClientMessageList messageList) {
-		this.connection.setValue(connection);
-		setUserName((userName == null || userName.isBlank()) ? Config.USER_NONE : userName);
-        this.messageList = messageList;
-	}
-
-	public Config.State getState() {
-		return propertyState.getValue();
-	}
-
-	public void setState(Config.State newState) {
-		propertyState.setValue(newState);
-	}
-
-	public SimpleObjectProperty<Config.State> getPropertyState() {
-		return propertyState;
-	}
-
-	public String getUserName() {
-		return userName.getValue();
-	}
-
-	private void setUserName(String userName) {
-		this.userName.setValue(userName);
-	}
-
-	public StringProperty getPropertyUserName() {
-		return userName;
-	}
-
-	private NetworkHandler.NetworkConnection<String> getConnection() {
-		return connection.getValue();
-	}
-
-	public SimpleObjectProperty<NetworkHandler.NetworkConnection<String>> getPropertyConnection() {
-		return connection;
-	}
-
-	/**
-	 * Start the connection handler. It will start listening for incoming messages
-	 * from the server and process them.
-	 */
-	@Override
-	public void run() {
-		System.out.println("Starting Connection Handler");
-		startReceiving();
-		System.out.println("Ended Connection Handler");
-	}
-
-	/**
-	 * Terminate the Connection Handler by closing the connection to not receive any
-	 * more messages.
-	 */
-	public void terminate() {
-		System.out.println("Closing Connection Handler to Server");
-		stopReceiving();
-		System.out.println("Closed Connection Handler to Server");
-	}
-
-	/**
-	 * Starts receiving data from the server.
-	 */
-	@Override
-	public void startReceiving() {
-		try {
-			System.out.println("Start receiving data...");
-			while (getConnection().isAvailable()) {
-				String data = getConnection().receive();
-				processData(data);
-			}
-		} catch (SocketException e) {
-			System.out.println("Connection terminated locally");
-			this.setState(Config.State.DISCONNECTED);
-			System.out.println("Unregistered because connection terminated" + e.getMessage());
-		} catch (EOFException e) {
-			System.out.println("Connection terminated by remote peer");
-			this.setState(Config.State.DISCONNECTED);
-			System.out.println("Unregistered because connection terminated" + e.getMessage());
-		} catch (IOException e) {
-			System.err.println("Communication error: " + e.getMessage());
-		} catch (ClassNotFoundException e) {
-			System.err.println("Received object of unknown type: " + e.getMessage());
-		}
-	}
-
-	/**
-	 * Stops receiving packages from the network connection.
-	 */
-	@Override
-	protected void stopReceiving() {
-		try {
-			System.out.println("Stop receiving data...");
-			getConnection().close();
-			System.out.println("Stopped receiving data.");
-		} catch (IOException e) {
-			System.err.println("Failed to close connection." + e.getMessage());
-		}
-	}
-
-	/**
-	 * Processes the received data depending on the package type.
-	 *
-	 * @param data The received data.
-	 */
-	@Override
-	protected void processData(String data) {
-		try {
-			Message message = parseData(data);
-			switch (message.getType()) {
-			case CONNECT -> System.err.println("Illegal connect request from server");
-			case DISCONNECT -> handleDisconnectionRequest(message);
-			case CONFIRM -> handleConfirmRequest(message);
-			case MESSAGE -> handleMessage(message);
-			case ERROR -> handleError(message);
-			default -> System.out.println("Unknown data type received: " + message.getType());
-			}
-		} catch (ChatProtocolException error) {
-			System.err.println("Error while processing data: " + error.getMessage());
-			sendData(new Message(Config.USER_NONE, getUserName(), Config.MessageType.ERROR, error.getMessage()));
-		}
-	}
-
-	/**
-	 * This method sends a message object over the stored connection
-	 *
-	 * @param message
-	 */
-	@Override
-	protected void sendData(Message message) {
-		if (getConnection().isAvailable()) {
-			try {
-				getConnection().send(message.toString());
-			} catch (SocketException e) {
-				System.err.println("Connection closed: " + e.getMessage());
-			} catch (EOFException e) {
-				System.err.println("Connection terminated by remote peer");
-			} catch (IOException e) {
-				System.err.println("Communication error: " + e.getMessage());
-			}
-		}
-	}
-
-	/**
-	 * Handles a disconnection request from a client.
-	 *
-	 * @param message the disconnection message
-	 */
-	@Override
-	protected void handleDisconnectionRequest(Message message) {
-		if (getState() == Config.State.DISCONNECTED) {
-			System.out.println("DISCONNECT: Already in disconnected: " + message.getPayload());
-			return;
-		}
-		addInfo(message.getPayload());
-		System.out.println("DISCONNECT: " + message.getPayload());
-		this.setState(Config.State.DISCONNECTED);
-	}
-
-	private void handleConfirmRequest(Message message) {
-		switch (getState()) {
-		case CONFIRM_CONNECT -> handleConfirmConnect(message);
-		case CONFIRM_DISCONNECT -> handleConfirmDISCONNECT(message);
-		default -> System.err.println("Got unexpected confirm message: " + message.getPayload());
-		}
-	}
-
-	private void handleConfirmConnect(Message message) {
-		setUserName(message.getReceiver());
-		addInfo(message.getPayload());
-		System.out.println("CONFIRM: " + message.getPayload());
-		this.setState(Config.State.CONNECTED);
-	}
-
-	private void handleConfirmDISCONNECT(Message message) {
-		addInfo(message.getPayload());
-		System.out.println("CONFIRM: " + message.getPayload());
-		this.setState(Config.State.DISCONNECTED);
-	}
-
-	/**
-	 * Handles an error message.
-	 *
-	 * @param message the error message
-	 */
-	@Override
-	protected void handleError(Message message) {
-        addError(message.getPayload());
-		System.out.println("ERROR: " + message.getPayload());
-	}
-
-	/**
-	 * Sends a message to the appropriate client(s).
-	 *
-	 * @param message the message to send
-	 */
-	@Override
-	protected void handleMessage(Message message) {
-		if (getState() != Config.State.CONNECTED) {
-			System.out.println("MESSAGE: Illegal state " + getState() + " for message: " + message.getPayload());
-			return;
-		}
-		addMessage(message.getSender(), message.getReceiver(), message.getPayload());
-		System.out.println(
-				"MESSAGE: From " + message.getSender() + " to " + message.getReceiver() + ": " + message.getPayload());
-	}
-
-	/**
-	 * This method tries to connect a new client to the stored server
-	 *
-	 * @throws ChatProtocolException
-	 */
-	public void connect() throws ChatProtocolException {
-		if (getState() != Config.State.NEW) {
-			throw new ChatProtocolException("Illegal state for connect: " + getState());
-		}
-		sendData(new Message(getUserName(), Config.USER_NONE, Config.MessageType.CONNECT, null));
-		setState(Config.State.CONFIRM_CONNECT);
-	}
-
-	/**
-	 * This method tries to disconnect a client to the stored server
-	 *
-	 * @throws ChatProtocolException
-	 */
-	public void disconnect() throws ChatProtocolException {
-		if (getState() != Config.State.NEW && getState() != Config.State.CONNECTED) {
-			throw new ChatProtocolException("Illegal state for disconnect: " + getState());
-		}
-		sendData(new Message(getUserName(), Config.USER_NONE, Config.MessageType.DISCONNECT, null));
-		setState(Config.State.CONFIRM_DISCONNECT);
-	}
-
-	/**
-	 * This method sends the provided message to the specified user
-	 *
-	 * @param receiver
-	 * @param message
-	 * @throws ChatProtocolException
-	 */
-	public void message(String receiver, String message) throws ChatProtocolException {
-		if (getState() != Config.State.CONNECTED) {
-			throw new ChatProtocolException("Illegal state for message: " + getState());
-		}
-		if (!userName.get().equals(receiver)) {
-			sendData(new Message(getUserName(), receiver, Config.MessageType.MESSAGE, message));
-		} else {
-			addError(Config.MESSAGE_TO_YOURSELF);
-		}
-	}
-
-    /**
-     * This method adds the provided message to the client message list
-     * @param sender, receiver, message
-     */
-    public void addMessage(String sender, String receiver, String message) {
-        messageList.addMessage(Config.MessageType.MESSAGE, sender, receiver, message);
-    }
-
-    private void addInfo(String message) {
-        messageList.addMessage(Config.MessageType.INFO, null, null, message);
-    }
-
-    /**
-     * This method adds the provided message to the client message list
-     * @param message
-     */
-    public void addError(String message) {
-        messageList.addMessage(Config.MessageType.ERROR, null, null, message);
-    }
-}
+package ch.zhaw.pm2.multichat.client;
+
+import ch.zhaw.pm2.multichat.protocol.*;
+import javafx.beans.property.SimpleObjectProperty;
+import javafx.beans.property.SimpleStringProperty;
+import javafx.beans.property.StringProperty;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.SocketException;
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+/**
+ * This class is responsible for creating and handling connections between
+ * client and server It extends the ConnectionHandler class and implements the
+ * Runnable interface.
+ */
+public class ClientConnectionHandler extends ConnectionHandler implements Runnable {
+
+	/** Log of the connection, messages are logged at debug level */
+	private static final Log LOG = Log.get("client.connection");
+
+	/** Maximum number of messages waiting for credits, further messages are discarded */
+	private static final int MAX_PENDING_MESSAGES = 1024;
+
+    private final ClientMessageList messageList;
+	private final SimpleObjectProperty<Config.State> propertyState = new SimpleObjectProperty<>(Config.State.NEW);
+	private final StringProperty userName = new SimpleStringProperty(Config.USER_NONE);
+	private final SimpleObjectProperty<NetworkHandler.NetworkConnection<Message>> connection = new SimpleObjectProperty<>();
+	private final int compressionThreshold;
+	/** Position in the message log of the server, supplied on connect and updated by the confirmation */
+	private volatile long replayPosition = -1;
+	/** Number of frames accepted from the server before granting new credits, 0 to not offer flow control */
+	private final int creditWindow;
+	/** Flow control agreed with the server, null if not accepted */
+	private volatile FlowControl flowControl;
+	/** Messages waiting for credits of the server, guarded by itself */
+	private final Queue<Message> pendingMessages = new ArrayDeque<>();
+
+	/**
+	 * Constructs a new ClientConnectionHandler object, which does not offer compression to the server.
+	 *
+	 * @param connection the network connection
+	 * @param userName   the username associated with this connection
+	 * @param messageList the message list
+	 */
+	public ClientConnectionHandler(NetworkHandler.NetworkConnection<Message> connection, String userName, ClientMessageList messageList) {
+		this(connection, userName, messageList, 0);
+	}
+
+	/**
+	 * Constructs a new ClientConnectionHandler object, which does not offer flow control to the server.
+	 *
+	 * @param connection the network connection
+	 * @param userName   the username associated with this connection
+	 * @param messageList the message list
+	 * @param compressionThreshold minimum size of messages compressed if the server accepts compression,
+	 *                             0 to not offer compression
+	 */
+	public ClientConnectionHandler(NetworkHandler.NetworkConnection<Message> connection, String userName,
+								   ClientMessageList messageList, int compressionThreshold) {
+		this(connection, userName, messageList, compressionThreshold, 0);
+	}
+
+	/**
+	 * Constructs a new ClientConnectionHandler object.
+	 *
+	 * @param connection the network connection
+	 * @param userName   the username associated with this connection
+	 * @param messageList the message list
+	 * @param compressionThreshold minimum size of messages compressed if the server accepts compression,
+	 *                             0 to not offer compression
+	 * @param creditWindow number of frames accepted from the server before granting new credits,
+	 *                     0 to not offer flow control
+	 */
+	public ClientConnectionHandler(NetworkHandler.NetworkConnection<Message> connection, String userName,
+								   ClientMessageList messageList, int compressionThreshold, int creditWindow) {
+		this.connection.setValue(connection);
+		setUserName((userName == null || userName.isBlank()) ? Config.USER_NONE : userName);
+        this.messageList = messageList;
+		this.compressionThreshold = compressionThreshold;
+		this.creditWindow = creditWindow;
+	}
+
+	/**
+	 * Returns the position in the message log of the server after the messages replayed on connect.
+	 * Passing it to {@link #setReplayPosition(long)} of the next connection replays all messages since this connect.
+	 * @return the log position, -1 if the server did not accept the replay capability
+	 */
+	public long getReplayPosition() {
+		return replayPosition;
+	}
+
+	/**
+	 * Sets the position in the message log of the server to replay the messages from on connect.
+	 * @param replayPosition position received by an earlier connection, -1 to replay the most recent messages
+	 */
+	public void setReplayPosition(long replayPosition) {
+		this.replayPosition = replayPosition;
+	}
+
+	public Config.State getState() {
+		return propertyState.getValue();
+	}
+
+	public void setState(Config.State newState) {
+		propertyState.setValue(newState);
+	}
+
+	public SimpleObjectProperty<Config.State> getPropertyState() {
+		return propertyState;
+	}
+
+	public String getUserName() {
+		return userName.getValue();
+	}
+
+	private void setUserName(String userName) {
+		this.userName.setValue(userName);
+	}
+
+	public StringProperty getPropertyUserName() {
+		return userName;
+	}
+
+	private NetworkHandler.NetworkConnection<Message> getConnection() {
+		return connection.getValue();
+	}
+
+	public SimpleObjectProperty<NetworkHandler.NetworkConnection<Message>> getPropertyConnection() {
+		return connection;
+	}
+
+	/**
+	 * Start the connection handler. It will start listening for incoming messages
+	 * from the server and process them.
+	 */
+	@Override
+	public void run() {
+		LOG.info("Starting Connection Handler");
+		startReceiving();
+		LOG.info("Ended Connection Handler");
+	}
+
+	/**
+	 * Terminate the Connection Handler by closing the connection to not receive any
+	 * more messages.
+	 */
+	public void terminate() {
+		LOG.info("Closing Connection Handler to Server");
+		stopReceiving();
+		LOG.info("Closed Connection Handler to Server");
+	}
+
+	/**
+	 * Starts receiving data from the server.
+	 */
+	@Override
+	public void startReceiving() {
+		try {
+			LOG.debug("Start receiving data...");
+			while (getConnection().isAvailable()) {
+				Message message = getConnection().receive();
+				processData(message);
+			}
+		} catch (SocketException e) {
+			LOG.info("Connection terminated locally");
+			this.setState(Config.State.DISCONNECTED);
+			LOG.info("Unregistered because connection terminated %s", e.getMessage());
+		} catch (EOFException e) {
+			LOG.info("Connection terminated by remote peer");
+			this.setState(Config.State.DISCONNECTED);
+			LOG.info("Unregistered because connection terminated %s", e.getMessage());
+		} catch (IOException e) {
+			LOG.error("Communication error: %s", e.getMessage());
+		} catch (ClassNotFoundException e) {
+			LOG.error("Received object of unknown type: %s", e.getMessage());
+		}
+	}
+
+	/**
+	 * Stops receiving packages from the network connection.
+	 */
+	@Override
+	protected void stopReceiving() {
+		try {
+			LOG.debug("Stop receiving data...");
+			getConnection().close();
+			LOG.debug("Stopped receiving data.");
+		} catch (IOException e) {
+			LOG.error("Failed to close connection. %s", e.getMessage());
+		}
+	}
+
+	/**
+	 * Processes the received message depending on the package type.
+	 * If flow control has been agreed, processed messages are credited back to the server in batches of half the
+	 * window, starting with the CONFIRM message.
+	 *
+	 * @param message The received message.
+	 */
+	@Override
+	protected void processData(Message message) {
+		switch (message.getType()) {
+		case CONNECT -> LOG.warn("Illegal connect request from server");
+		case DISCONNECT -> handleDisconnectionRequest(message);
+		case CONFIRM -> handleConfirmRequest(message);
+		case MESSAGE -> handleMessage(message);
+		case ERROR -> handleError(message);
+		case JOIN, LEAVE, LIST -> handleRoomResponse(message);
+		case CREDIT -> handleCredit(message);
+		case HEARTBEAT -> sendData(new Message(getUserName(), Config.USER_NONE, Config.MessageType.HEARTBEAT, null));
+		default -> LOG.warn("Unknown data type received: %s", message.getType());
+		}
+		FlowControl flow = flowControl;
+		if (flow != null && FlowControl.isCounted(message.getType())) {
+			if (!flow.received()) {
+				LOG.warn("Flow control window exceeded by server");
+			}
+			int credits = flow.processed();
+			if (credits > 0) {
+				sendData(new Message(getUserName(), Config.USER_NONE, Config.MessageType.CREDIT, String.valueOf(credits)));
+			}
+		}
+	}
+
+	/**
+	 * Sends a message, or queues it if flow control has been agreed and the server has not granted a credit for it.
+	 * Queued messages are sent in order as soon credits arrive, no more than {@value #MAX_PENDING_MESSAGES}
+	 * messages are queued.
+	 *
+	 * @param message the message to send
+	 */
+	@Override
+	protected void sendData(Message message) {
+		FlowControl flow = flowControl;
+		if (flow == null || !FlowControl.isCounted(message.getType())) {
+			write(message);
+			return;
+		}
+		synchronized (pendingMessages) {
+			if (pendingMessages.isEmpty() && flow.tryAcquire()) {
+				write(message);
+			} else if (pendingMessages.size() < MAX_PENDING_MESSAGES) {
+				pendingMessages.add(message);
+			} else {
+				addError(Config.SEND_QUEUE_FULL);
+			}
+		}
+	}
+
+	/**
+	 * Handles the credits granted by the server and sends the messages waiting for them.
+	 *
+	 * @param message the credit message, its payload holding the number of frames granted
+	 */
+	private void handleCredit(Message message) {
+		FlowControl flow = flowControl;
+		if (flow == null) {
+			LOG.warn("Unexpected credit from server");
+			return;
+		}
+		try {
+			flow.grant(Integer.parseInt(message.getPayload()));
+		} catch (NumberFormatException e) {
+			LOG.warn("Invalid credit from server: %s", message.getPayload());
+			return;
+		}
+		synchronized (pendingMessages) {
+			while (!pendingMessages.isEmpty() && flow.tryAcquire()) {
+				write(pendingMessages.poll());
+			}
+		}
+	}
+
+	/**
+	 * This method writes a message object to the stored connection
+	 *
+	 * @param message
+	 */
+	private void write(Message message) {
+		if (getConnection().isAvailable()) {
+			try {
+				getConnection().send(message);
+			} catch (SocketException e) {
+				LOG.error("Connection closed: %s", e.getMessage());
+			} catch (EOFException e) {
+				LOG.error("Connection terminated by remote peer");
+			} catch (IOException e) {
+				LOG.error("Communication error: %s", e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Handles a disconnection request from a client.
+	 *
+	 * @param message the disconnection message
+	 */
+	@Override
+	protected void handleDisconnectionRequest(Message message) {
+		if (getState() == Config.State.DISCONNECTED) {
+			LOG.info("DISCONNECT: Already in disconnected: %s", message.getPayload());
+			return;
+		}
+		addInfo(message.getPayload());
+		LOG.info("DISCONNECT: %s", message.getPayload());
+		this.setState(Config.State.DISCONNECTED);
+	}
+
+	private void handleConfirmRequest(Message message) {
+		switch (getState()) {
+		case CONFIRM_CONNECT -> handleConfirmConnect(message);
+		case CONFIRM_DISCONNECT -> handleConfirmDISCONNECT(message);
+		default -> LOG.warn("Got unexpected confirm message: %s", message.getPayload());
+		}
+	}
+
+	private void handleConfirmConnect(Message message) {
+		String confirmation = message.getPayload();
+		int capabilitiesStart = confirmation == null ? -1 : confirmation.indexOf(Config.CAPABILITIES_SEPARATOR);
+		if (capabilitiesStart >= 0) {
+			String capabilities = confirmation.substring(capabilitiesStart + Config.CAPABILITIES_SEPARATOR.length());
+			confirmation = confirmation.substring(0, capabilitiesStart);
+			for (String capability : capabilities.split(Config.CAPABILITY_DELIMITER)) {
+				if (compressionThreshold > 0 && Compression.DEFLATE.equals(capability)) {
+					getConnection().enableCompression(compressionThreshold);
+					LOG.info("Compression enabled");
+				} else if (creditWindow > 0 && FlowControl.parseCapability(capability) > 0) {
+					flowControl = new FlowControl(creditWindow, FlowControl.parseCapability(capability));
+					LOG.info("Flow control enabled");
+				} else if (capability.startsWith(Config.CAPABILITY_REPLAY + Config.CAPABILITY_VALUE_SEPARATOR)) {
+					replayPosition = Long.parseLong(capability.substring(
+						Config.CAPABILITY_REPLAY.length() + Config.CAPABILITY_VALUE_SEPARATOR.length()));
+				}
+			}
+		}
+		setUserName(message.getReceiver());
+		addInfo(confirmation);
+		LOG.info("CONFIRM: %s", confirmation);
+		this.setState(Config.State.CONNECTED);
+	}
+
+	private void handleConfirmDISCONNECT(Message message) {
+		addInfo(message.getPayload());
+		LOG.info("CONFIRM: %s", message.getPayload());
+		this.setState(Config.State.DISCONNECTED);
+	}
+
+	/**
+	 * Handles an error message.
+	 *
+	 * @param message the error message
+	 */
+	@Override
+	protected void handleError(Message message) {
+        addError(message.getPayload());
+		LOG.info("ERROR: %s", message.getPayload());
+	}
+
+	/**
+	 * Sends a message to the appropriate client(s).
+	 *
+	 * @param message the message to send
+	 */
+	@Override
+	protected void handleMessage(Message message) {
+		if (getState() != Config.State.CONNECTED) {
+			LOG.warn("MESSAGE: Illegal state %s for message: %s", getState(), message.getPayload());
+			return;
+		}
+		addMessage(message.getSender(), message.getReceiver(), message.getPayload());
+		LOG.debug("MESSAGE: From %s to %s: %s", message.getSender(), message.getReceiver(), message.getPayload());
+	}
+
+	/**
+	 * This method tries to connect a new client to the stored server.
+	 * If enabled, compression is offered to the server, which accepts it in the payload of its confirmation.
+	 * The replay capability is always offered, together with the {@link #getReplayPosition() replay position} if
+	 * available, so the server replays the messages since this position. If enabled, flow control is offered
+	 * with the window of this client, the server accepts it with its own window. Heartbeats of the server are always
+	 * answered, so the server can tell an idle client from a dead one.
+	 *
+	 * @throws ChatProtocolException
+	 */
+	public void connect() throws ChatProtocolException {
+		if (getState() != Config.State.NEW) {
+			throw new ChatProtocolException("Illegal state for connect: " + getState());
+		}
+		String offer = replayPosition >= 0
+			? Config.CAPABILITY_REPLAY + Config.CAPABILITY_VALUE_SEPARATOR + replayPosition
+			: Config.CAPABILITY_REPLAY;
+		if (compressionThreshold > 0) {
+			offer = Compression.DEFLATE + Config.CAPABILITY_DELIMITER + offer;
+		}
+		if (creditWindow > 0) {
+			offer += Config.CAPABILITY_DELIMITER + FlowControl.capability(creditWindow);
+		}
+		offer += Config.CAPABILITY_DELIMITER + Config.CAPABILITY_HEARTBEAT;
+		sendData(new Message(getUserName(), Config.USER_NONE, Config.MessageType.CONNECT, offer));
+		setState(Config.State.CONFIRM_CONNECT);
+	}
+
+	/**
+	 * This method tries to disconnect a client to the stored server
+	 *
+	 * @throws ChatProtocolException
+	 */
+	public void disconnect() throws ChatProtocolException {
+		if (getState() != Config.State.NEW && getState() != Config.State.CONNECTED) {
+			throw new ChatProtocolException("Illegal state for disconnect: " + getState());
+		}
+		sendData(new Message(getUserName(), Config.USER_NONE, Config.MessageType.DISCONNECT, null));
+		setState(Config.State.CONFIRM_DISCONNECT);
+	}
+
+	/**
+	 * Handles the response of the server to a join, leave or list request.
+	 *
+	 * @param message the response, its payload describes the result
+	 */
+	private void handleRoomResponse(Message message) {
+		addInfo(message.getPayload());
+		LOG.info("%s: %s", message.getType(), message.getPayload());
+	}
+
+	/**
+	 * Joins a room, so messages sent to the room are received and can be sent to it.
+	 *
+	 * @param room name of the room, starting with {@value Config#ROOM_PREFIX}
+	 * @throws ChatProtocolException if not connected
+	 */
+	public void join(String room) throws ChatProtocolException {
+		sendRoomRequest(Config.MessageType.JOIN, room);
+	}
+
+	/**
+	 * Leaves a room joined before.
+	 *
+	 * @param room name of the room, starting with {@value Config#ROOM_PREFIX}
+	 * @throws ChatProtocolException if not connected
+	 */
+	public void leave(String room) throws ChatProtocolException {
+		sendRoomRequest(Config.MessageType.LEAVE, room);
+	}
+
+	/**
+	 * Requests the members of a room or, if no room is given, the list of all rooms.
+	 *
+	 * @param room name of the room, null to list all rooms
+	 * @throws ChatProtocolException if not connected
+	 */
+	public void list(String room) throws ChatProtocolException {
+		sendRoomRequest(Config.MessageType.LIST, room == null ? Config.USER_NONE : room);
+	}
+
+	private void sendRoomRequest(Config.MessageType type, String room) throws ChatProtocolException {
+		if (getState() != Config.State.CONNECTED) {
+			throw new ChatProtocolException("Illegal state for " + type + ": " + getState());
+		}
+		sendData(new Message(getUserName(), room, type, null));
+	}
+
+	/**
+	 * This method sends the provided message to the specified user
+	 *
+	 * @param receiver
+	 * @param message
+	 * @throws ChatProtocolException
+	 */
+	public void message(String receiver, String message) throws ChatProtocolException {
+		if (getState() != Config.State.CONNECTED) {
+			throw new ChatProtocolException("Illegal state for message: " + getState());
+		}
+		if (!userName.get().equals(receiver)) {
+			sendData(new Message(getUserName(), receiver, Config.MessageType.MESSAGE, message));
+		} else {
+			addError(Config.MESSAGE_TO_YOURSELF);
+		}
+	}
+
+    /**
+     * This method adds the provided message to the client message list
+     * @param sender, receiver, message
+     */
+    public void addMessage(String sender, String receiver, String message) {
+        messageList.addMessage(Config.MessageType.MESSAGE, sender, receiver, message);
+    }
+
+    private void addInfo(String message) {
+        messageList.addMessage(Config.MessageType.INFO, null, null, message);
+    }
+
+    /**
+     * This method adds the provided message to the client message list
+     * @param message
+     */
+    public void addError(String message) {
+        messageList.addMessage(Config.MessageType.ERROR, null, null, message);
+    }
+}
@@ -1,98 +1,401 @@
-package ch.zhaw.pm2.multichat.client;
-
-import ch.zhaw.pm2.multichat.protocol.Config;
-import ch.zhaw.pm2.multichat.protocol.Message;
-import javafx.beans.property.SimpleStringProperty;
-import javafx.beans.property.StringProperty;
-
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Objects;
-
-/**
- * This class is responsible for storing the relevant messages for this client instance
- */
-public class ClientMessageList {
-	private final List<Message> messages = new ArrayList<>();
-	private final StringProperty chatHistory = new SimpleStringProperty();
-	private String filter = "";
-
-    /**
-     * Constructor that initializes the chat history.
-     */
-	public ClientMessageList() {
-		chatHistory.setValue("");
-	}
-
-    /**
-     * Adds a new message to the instance message list and applies the current filter to update the chat history.
-     *
-     * @param type     the type of the message (ERROR, INFO, or MESSAGE).
-     * @param sender   the name of the sender.
-     * @param receiver the name of the receiver.
-     * @param message  the message content.
-     */
-	public void addMessage(Config.MessageType type, String sender, String receiver, String message) {
-		Message newMessage = new Message(sender, receiver, type, message);
-		messages.add(newMessage);
-		writeFilteredMessages(filter);
-	}
-
-    /**
-     * Clears all messages from the message list.
-     */
-    public void emptyChatHistory(){
-        messages.clear();
-    }
-
-	public StringProperty getChatHistory(){
-		return chatHistory;
-	}
-
-
-	/**
-	 * This method applies a filter to the message list
-	 * @param filter
-	 */
-	public void setFilter(String filter){
-		this.filter = filter;
-		writeFilteredMessages(filter);
-	}
-
-
-	private void writeFilteredMessages(String filter) {
-		boolean showAll = filter == null || filter.isBlank();
-		chatHistory.set("");
-		for (Message message : messages) {
-			if (showAll ||
-					(Objects.nonNull(message.getSender()) && message.getSender().contains(filter)) ||
-					(Objects.nonNull(message.getReceiver()) && message.getReceiver().contains(filter)) ||
-					(Objects.nonNull(message.getPayload()) && message.getPayload().contains(filter))) {
-				updateChatHistory(message);
-			}
-		}
-	}
-
-	private void updateChatHistory(Message message){
-		String oldChatHistory = chatHistory.get();
-		switch (message.getType()) {
-			case MESSAGE -> chatHistory.set(oldChatHistory + appendMessage(message.getSender(),
-					message.getReceiver(), message.getPayload()));
-			case ERROR -> chatHistory.set(oldChatHistory + appendError(message.getPayload()));
-			case INFO -> chatHistory.set(oldChatHistory + appendInfo(message.getPayload()));
-			default -> chatHistory.set(oldChatHistory + appendError(Config.UNEXPECTED_MESSAGE + message.getType()));
-		}
-	}
-
-	private String appendMessage(String sender, String receiver, String message){
-		return String.format(Config.Message_FORMAT, sender, receiver, message);
-	}
-
-	private String appendInfo(String message) {
-		return String.format(Config.INFO_FORMAT, message);
-	}
-
-	private String appendError(String message) {
-		return String.format(Config.ERROR_FORMAT, message);
-	}
-}
+package ch.zhaw.pm2.multichat.client;
+
+import ch.zhaw.pm2.multichat.protocol.Config;
+import ch.zhaw.pm2.multichat.protocol.Log;
+import ch.zhaw.pm2.multichat.protocol.Message;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class is responsible for storing the relevant messages for this client instance
+ * <p>The chat history is maintained incrementally: every message is formatted once when it is added, and a new
+ * message matching the current filter is passed on to the {@link HistoryListener} as a single appended row, so the
+ * view only has to add one item. All displayed rows are only passed on when the filter changes or the history is
+ * cleared.</p>
+ * <p>Only the most recent messages are kept in memory (see {@value #PROPERTY_HISTORY_SIZE}). Older messages are
+ * spilled in batches to a local {@link HistoryFile} and removed from the displayed history, so memory usage does not
+ * grow with the time the client is running. They can still be shown again using {@link #loadOlderMessages(int)},
+ * which also applies the filter to them.</p>
+ * <p>Filtering runs on a background thread, so typing a filter never blocks the JavaFX thread. Messages are indexed
+ * by a {@link MessageIndex} as they arrive, so only a few candidates have to be checked for a filter of three or more
+ * characters. If the new filter contains the current one (e.g. while typing), only the messages matching the current
+ * filter are checked. A filter request replaced by a newer one before it has been applied is cancelled.</p>
+ * <p>Messages are added by the thread receiving from the server as well as by the JavaFX thread, therefore all access
+ * to the messages is synchronized. The listener is called while holding the lock, so it sees the changes in the order
+ * they happened.</p>
+ */
+public class ClientMessageList {
+	/** Name of the system property defining the number of messages kept in memory */
+	public static final String PROPERTY_HISTORY_SIZE = "multichat.historySize";
+
+	/** Default number of messages kept in memory */
+	public static final int DEFAULT_HISTORY_SIZE = 10_000;
+
+	private static final Log LOG = Log.get("client.history");
+
+	/** Number of messages checked between two checks for cancellation */
+	private static final int CANCEL_CHECK_INTERVAL = 1024;
+
+	/** Number of spilled messages read from the history file at once */
+	private static final int READ_BATCH_SIZE = 1024;
+
+	/** Maximum number of spilled messages checked for a single request to load older messages */
+	private static final int MAX_OLDER_SCANNED = 100 * READ_BATCH_SIZE;
+
+	private final int historySize;
+	private final int spillBatchSize;
+	/** Messages kept in memory, the message with id {@code firstId + i} at index i */
+	private final List<Entry> messages = new ArrayList<>();
+	private final MessageIndex index = new MessageIndex();
+	private final AtomicLong filterGeneration = new AtomicLong();
+	private final ExecutorService filterExecutor = Executors.newSingleThreadExecutor(task -> {
+		Thread thread = new Thread(task, "message-filter");
+		thread.setDaemon(true);
+		return thread;
+	});
+	/** Messages evicted from memory, null if spilling failed */
+	private HistoryFile historyFile = new HistoryFile();
+	private HistoryListener listener;
+	/** Id of the oldest message kept in memory, equal to the number of spilled messages */
+	private int firstId;
+	private String filter = "";
+	private volatile String requestedFilter = "";
+	/** Ids of the messages in memory matching the filter in ascending order, null if the filter is blank */
+	private int[] filteredIds;
+	private int filteredCount;
+	/** Id of the oldest spilled message displayed or checked by {@link #loadOlderMessages(int)} */
+	private int oldestShownId;
+	/** Number of spilled messages displayed again */
+	private int olderShownCount;
+
+	/**
+	 * Listener informed about the changes of the displayed chat history, one formatted message per row.
+	 */
+	public interface HistoryListener {
+		/**
+		 * Called when a new message matching the filter has been added.
+		 * @param row the formatted message to append to the displayed history
+		 */
+		void historyAppended(String row);
+
+		/**
+		 * Called when the displayed history has to be replaced, i.e. the filter changed or the history was cleared.
+		 * May be called on the filter thread.
+		 * @param rows the formatted messages matching the filter
+		 */
+		void historyReplaced(List<String> rows);
+
+		/**
+		 * Called when the oldest messages have been spilled from memory and have to be removed from the display.
+		 * @param count number of rows to remove from the start of the displayed history
+		 */
+		void historyTrimmed(int count);
+
+		/**
+		 * Called on the filter thread when older messages have been loaded from the history file.
+		 * @param rows the formatted messages to insert at the start of the displayed history
+		 */
+		void historyPrepended(List<String> rows);
+	}
+
+	/**
+	 * A stored message together with its formatted text.
+	 */
+	private record Entry(Message message, String text) {
+	}
+
+	/**
+	 * Creates a message list keeping the number of messages configured using the system property
+	 * {@value #PROPERTY_HISTORY_SIZE} in memory.
+	 */
+	public ClientMessageList() {
+		this(Integer.getInteger(PROPERTY_HISTORY_SIZE, DEFAULT_HISTORY_SIZE));
+	}
+
+	/**
+	 * Creates a message list keeping the given number of messages in memory.
+	 * @param historySize number of messages kept in memory, older messages are spilled to a file
+	 */
+	public ClientMessageList(int historySize) {
+		if (historySize < 1) {
+			throw new IllegalArgumentException("History size must be positive: " + historySize);
+		}
+		this.historySize = historySize;
+		this.spillBatchSize = Math.max(1, historySize / 8);
+	}
+
+    /**
+     * Registers the listener displaying the chat history and passes it the current history.
+     *
+     * @param listener listener displaying the history
+     */
+	public synchronized void setHistoryListener(HistoryListener listener) {
+		this.listener = Objects.requireNonNull(listener, "Listener must not be null");
+		oldestShownId = firstId;
+		olderShownCount = 0;
+		listener.historyReplaced(renderFilteredMessages());
+	}
+
+    /**
+     * Adds a new message to the instance message list. If it matches the current filter, it is appended to the chat
+     * history.
+     *
+     * @param type     the type of the message (ERROR, INFO, or MESSAGE).
+     * @param sender   the name of the sender.
+     * @param receiver the name of the receiver.
+     * @param message  the message content.
+     */
+	public synchronized void addMessage(Config.MessageType type, String sender, String receiver, String message) {
+		Message newMessage = new Message(sender, receiver, type, message);
+		Entry entry = new Entry(newMessage, format(newMessage));
+		int id = firstId + messages.size();
+		messages.add(entry);
+		index.add(id, newMessage);
+		if (matches(newMessage, filter)) {
+			if (filteredIds != null) {
+				if (filteredCount == filteredIds.length) {
+					filteredIds = Arrays.copyOf(filteredIds, Math.max(16, filteredCount * 2));
+				}
+				filteredIds[filteredCount++] = id;
+			}
+			if (listener != null) {
+				listener.historyAppended(entry.text());
+			}
+		}
+		if (messages.size() >= historySize + spillBatchSize) {
+			spill();
+		}
+	}
+
+	/**
+	 * Moves the oldest batch of messages from memory to the history file and removes them from the display.
+	 * If the file can not be written, the messages are dropped, so memory usage stays bounded anyway.
+	 */
+	private void spill() {
+		List<Entry> evicted = messages.subList(0, spillBatchSize);
+		if (historyFile != null) {
+			List<Message> spilled = new ArrayList<>(evicted.size());
+			for (Entry entry : evicted) {
+				spilled.add(entry.message());
+			}
+			try {
+				historyFile.append(spilled);
+			} catch (IOException e) {
+				LOG.warn("Could not write history file, older messages are discarded: %s", e.getMessage());
+				closeHistoryFile();
+			}
+		}
+		int trimmedCount = olderShownCount;
+		for (Entry entry : evicted) {
+			if (matches(entry.message(), filter)) {
+				trimmedCount++;
+			}
+		}
+		firstId += evicted.size();
+		for (Entry entry : evicted) {
+			index.removeBefore(firstId, entry.message());
+		}
+		evicted.clear();
+		if (filteredIds != null) {
+			int start = 0;
+			while (start < filteredCount && filteredIds[start] < firstId) start++;
+			System.arraycopy(filteredIds, start, filteredIds, 0, filteredCount - start);
+			filteredCount -= start;
+		}
+		oldestShownId = firstId;
+		olderShownCount = 0;
+		if (listener != null && trimmedCount > 0) {
+			listener.historyTrimmed(trimmedCount);
+		}
+	}
+
+	private void closeHistoryFile() {
+		try {
+			historyFile.close();
+		} catch (IOException e) {
+			LOG.warn("Could not delete history file: %s", e.getMessage());
+		}
+		historyFile = null;
+	}
+
+    /**
+     * Clears all messages from the message list, including the messages spilled to the history file.
+     */
+    public synchronized void emptyChatHistory(){
+        messages.clear();
+        index.clear();
+        firstId = 0;
+        oldestShownId = 0;
+        olderShownCount = 0;
+        if (historyFile != null) {
+            try {
+                historyFile.clear();
+            } catch (IOException e) {
+                LOG.warn("Could not clear history file: %s", e.getMessage());
+                closeHistoryFile();
+            }
+        }
+        if (filteredIds != null) {
+            filteredCount = 0;
+        }
+        if (listener != null) {
+            listener.historyReplaced(List.of());
+        }
+    }
+
+	/**
+	 * Shows older messages again, which have been spilled to the history file.
+	 * Returns immediately, the messages are read and filtered on the background thread and passed to the listener as
+	 * prepended rows. Each call continues before the oldest message shown so far, until the next batch of messages is
+	 * spilled or the filter changes.
+	 * @param count maximum number of messages matching the filter to show
+	 */
+	public void loadOlderMessages(int count) {
+		long generation = filterGeneration.get();
+		filterExecutor.execute(() -> loadOlder(count, generation));
+	}
+
+	/**
+	 * Task loading older messages: reads the spilled messages backwards in batches until enough messages match the
+	 * filter, at most {@value #MAX_OLDER_SCANNED} messages per call.
+	 */
+	private synchronized void loadOlder(int count, long generation) {
+		if (isStale(generation) || historyFile == null) return;
+		List<String> found = new ArrayList<>();
+		int to = Math.min(oldestShownId, historyFile.size());
+		int limit = Math.max(0, to - MAX_OLDER_SCANNED);
+		try {
+			while (to > limit && found.size() < count && !isStale(generation)) {
+				int from = Math.max(limit, to - READ_BATCH_SIZE);
+				List<Message> batch = historyFile.read(from, to);
+				for (int i = batch.size() - 1; i >= 0 && found.size() < count; i--) {
+					Message message = batch.get(i);
+					if (matches(message, filter)) {
+						found.add(format(message));
+					}
+					to = from + i;
+				}
+			}
+		} catch (IOException e) {
+			LOG.warn("Could not read history file: %s", e.getMessage());
+			return;
+		}
+		if (isStale(generation)) return;
+		oldestShownId = to;
+		if (found.isEmpty()) return;
+		Collections.reverse(found);
+		olderShownCount += found.size();
+		if (listener != null) {
+			listener.historyPrepended(found);
+		}
+	}
+
+	/**
+	 * This method applies a filter to the message list.
+	 * Returns immediately, the messages are filtered on a background thread and passed to the listener as soon the
+	 * filter has been applied, unless a newer filter has been requested in the meantime.
+	 * @param filter text the sender, receiver or payload of the shown messages have to contain
+	 */
+	public void setFilter(String filter){
+		String newFilter = filter == null ? "" : filter;
+		if (newFilter.equals(requestedFilter)) return;
+		requestedFilter = newFilter;
+		long generation = filterGeneration.incrementAndGet();
+		filterExecutor.execute(() -> applyFilter(newFilter, generation));
+	}
+
+	/**
+	 * Filter task: finds the messages matching the filter and replaces the displayed history.
+	 * Gives up as soon a newer filter has been requested.
+	 */
+	private synchronized void applyFilter(String newFilter, long generation) {
+		if (isStale(generation) || newFilter.equals(filter)) return;
+		int[] ids = null;
+		int count = 0;
+		if (!newFilter.isBlank()) {
+			int[] candidates;
+			int candidateCount;
+			if (filteredIds != null && newFilter.contains(filter)) {
+				candidates = filteredIds;
+				candidateCount = filteredCount;
+			} else if (MessageIndex.supports(newFilter)) {
+				candidates = index.candidates(newFilter, () -> isStale(generation));
+				if (candidates == null) return;
+				candidateCount = candidates.length;
+			} else {
+				candidates = null;
+				candidateCount = messages.size();
+			}
+			ids = new int[Math.max(16, candidateCount)];
+			for (int i = 0; i < candidateCount; i++) {
+				if (i % CANCEL_CHECK_INTERVAL == 0 && isStale(generation)) return;
+				int id = candidates == null ? firstId + i : candidates[i];
+				if (matches(messages.get(id - firstId).message(), newFilter)) {
+					ids[count++] = id;
+				}
+			}
+		}
+		filter = newFilter;
+		filteredIds = ids;
+		filteredCount = count;
+		oldestShownId = firstId;
+		olderShownCount = 0;
+		if (listener != null) {
+			listener.historyReplaced(renderFilteredMessages());
+		}
+	}
+
+	private boolean isStale(long generation) {
+		return generation != filterGeneration.get();
+	}
+
+	private List<String> renderFilteredMessages() {
+		List<String> history = new ArrayList<>(filteredIds == null ? messages.size() : filteredCount);
+		if (filteredIds == null) {
+			for (Entry entry : messages) {
+				history.add(entry.text());
+			}
+		} else {
+			for (int i = 0; i < filteredCount; i++) {
+				history.add(messages.get(filteredIds[i] - firstId).text());
+			}
+		}
+		return history;
+	}
+
+	private static boolean matches(Message message, String filter) {
+		return filter.isBlank() ||
+				(Objects.nonNull(message.getSender()) && message.getSender().contains(filter)) ||
+				(Objects.nonNull(message.getReceiver()) && message.getReceiver().contains(filter)) ||
+				(Objects.nonNull(message.getPayload()) && message.getPayload().contains(filter));
+	}
+
+	private static String format(Message message){
+		return switch (message.getType()) {
+			case MESSAGE -> appendMessage(message.getSender(), message.getReceiver(), message.getPayload());
+			case ERROR -> appendError(message.getPayload());
+			case INFO -> appendInfo(message.getPayload());
+			default -> appendError(Config.UNEXPECTED_MESSAGE + message.getType());
+		};
+	}
+
+	private static String appendMessage(String sender, String receiver, String message){
+		return String.format(Config.Message_FORMAT, sender, receiver, message);
+	}
+
+	private static String appendInfo(String message) {
+		return String.format(Config.INFO_FORMAT, message);
+	}
+
+	private static String appendError(String message) {
+		return String.format(Config.ERROR_FORMAT, message);
+	}
+}
@@ -1,42 +1,44 @@
-package ch.zhaw.pm2.multichat.client;
-
-import javafx.application.Application;
-import javafx.fxml.FXMLLoader;
-import javafx.scene.Scene;
-import javafx.scene.layout.Pane;
-import javafx.stage.Stage;
-
-/**
- * This class handles the launching of a new ui window for the client instance
- */
-public class ClientUI extends Application {
-
-    /**
-     * Starts a new instance
-     * @param primaryStage the primary stage for this application, onto which
-     * the application scene can be set.
-     * Applications may create other stages, if needed, but they will not be
-     * primary stages.
-     */
-    @Override
-    public void start(Stage primaryStage) {
-        chatWindow(primaryStage);
-    }
-
-    private void chatWindow(Stage primaryStage) {
-        try {
-            FXMLLoader loader = new FXMLLoader(getClass().getResource("ChatWindow.fxml"));
-            Pane rootPane = loader.load();
-
-            Scene scene = new Scene(rootPane);
-
-            primaryStage.setScene(scene);
-            primaryStage.setMinWidth(420);
-            primaryStage.setMinHeight(250);
-            primaryStage.setTitle("Multichat Client");
-            primaryStage.show();
-        } catch(Exception e) {
-            System.err.println("Error starting up UI. " + e.getMessage());
-        }
-    }
-}
+package ch.zhaw.pm2.multichat.client;
+
+import ch.zhaw.pm2.multichat.protocol.Log;
+import javafx.application.Application;
+import javafx.fxml.FXMLLoader;
+import javafx.scene.Scene;
+import javafx.scene.layout.Pane;
+import javafx.stage.Stage;
+
+/**
+ * This class handles the launching of a new ui window for the client instance
+ */
+public class ClientUI extends Application {
+    private static final Log LOG = Log.get("client");
+
+    /**
+     * Starts a new instance
+     * @param primaryStage the primary stage for this application, onto which
+     * the application scene can be set.
+     * Applications may create other stages, if needed, but they will not be
+     * primary stages.
+     */
+    @Override
+    public void start(Stage primaryStage) {
+        chatWindow(primaryStage);
+    }
+
+    private void chatWindow(Stage primaryStage) {
+        try {
+            FXMLLoader loader = new FXMLLoader(getClass().getResource("ChatWindow.fxml"));
+            Pane rootPane = loader.load();
+
+            Scene scene = new Scene(rootPane);
+
+            primaryStage.setScene(scene);
+            primaryStage.setMinWidth(420);
+            primaryStage.setMinHeight(250);
+            primaryStage.setTitle("Multichat Client");
+            primaryStage.show();
+        } catch(Exception e) {
+            LOG.error("Error starting up UI. %s", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package ch.zhaw.pm2.multichat.client;
+
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Updates of the user interface posted by any thread and applied on the JavaFX application thread in batches, at most
+ * once per frame.
+ * <p>Posting an update only adds it to a lock-free queue. While updates are pending, an {@link AnimationTimer} drains
+ * the queue on every pulse, so a burst of messages results in a single batch per frame instead of one
+ * {@link Platform#runLater(Runnable)} call per message flooding the event queue. The timer stops as soon the queue is
+ * empty, so an idle client does not cause any pulses.</p>
+ */
+class FrameUpdateQueue {
+    private final Queue<Runnable> updates = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final Runnable afterBatch;
+    private final AnimationTimer timer = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            drain();
+        }
+    };
+
+    /**
+     * @param afterBatch called on the JavaFX application thread after each batch of updates, e.g. to apply changes
+     *                   collected by the updates at once
+     */
+    FrameUpdateQueue(Runnable afterBatch) {
+        this.afterBatch = afterBatch;
+    }
+
+    /**
+     * Adds an update to be applied with the next frame. May be called by any thread.
+     * Updates are applied in the order they have been posted.
+     * @param update the update, run on the JavaFX application thread
+     */
+    void post(Runnable update) {
+        updates.add(update);
+        if (scheduled.compareAndSet(false, true)) {
+            Platform.runLater(timer::start);
+        }
+    }
+
+    /**
+     * Applies all pending updates, stopping the timer if none are left. Runs on the JavaFX application thread.
+     */
+    private void drain() {
+        Runnable update;
+        while ((update = updates.poll()) != null) {
+            update.run();
+        }
+        afterBatch.run();
+        timer.stop();
+        scheduled.set(false);
+        if (!updates.isEmpty() && scheduled.compareAndSet(false, true)) {
+            timer.start();
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package ch.zhaw.pm2.multichat.client;
+
+import ch.zhaw.pm2.multichat.protocol.Config;
+import ch.zhaw.pm2.multichat.protocol.Message;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Local append-only file holding the messages evicted from the in-memory history of a {@link ClientMessageList}.
+ * <p>Messages are stored in the order of their ids, the message with id {@code n} being the n-th message of the file.
+ * The data file contains the messages in a compact binary form (type, then sender, receiver and payload as length
+ * prefixed UTF-8), the offsets file the position of each message in the data file as a fixed size entry. So any range
+ * of messages can be read using two positioned reads without keeping anything but the sizes in memory.</p>
+ * <p>The files are created lazily in a temporary directory below {@value #PROPERTY_DIRECTORY} (default
+ * {@code java.io.tmpdir}) on the first append and deleted when the JVM exits.</p>
+ * <p>Not thread-safe, the owning message list synchronizes all access.</p>
+ */
+class HistoryFile implements Closeable {
+    /** Name of the system property defining the directory the history files are created in */
+    static final String PROPERTY_DIRECTORY = "multichat.historyDirectory";
+
+    private static final int OFFSET_BYTES = Long.BYTES;
+    private static final int NULL_LENGTH = -1;
+    private static final Config.MessageType[] TYPES = Config.MessageType.values();
+
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private final DataOutputStream out = new DataOutputStream(buffer);
+    private Path directory;
+    private FileChannel data;
+    private FileChannel offsets;
+    private long dataSize;
+    private int size;
+
+    /**
+     * @return number of messages stored
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Appends messages to the file, the first one getting the id {@link #size()}.
+     * @param messages messages to append in the order of their ids
+     * @throws IOException if the messages could not be written
+     */
+    void append(List<Message> messages) throws IOException {
+        if (messages.isEmpty()) return;
+        open();
+        ByteBuffer positions = ByteBuffer.allocate(messages.size() * OFFSET_BYTES);
+        buffer.reset();
+        for (Message message : messages) {
+            positions.putLong(dataSize + buffer.size());
+            out.writeByte(message.getType().ordinal());
+            writeString(message.getSender());
+            writeString(message.getReceiver());
+            writeString(message.getPayload());
+        }
+        writeFully(data, ByteBuffer.wrap(buffer.toByteArray()), dataSize);
+        writeFully(offsets, positions.flip(), (long) size * OFFSET_BYTES);
+        dataSize += buffer.size();
+        size += messages.size();
+    }
+
+    private void writeString(String text) throws IOException {
+        if (text == null) {
+            out.writeInt(NULL_LENGTH);
+        } else {
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Reads a range of messages.
+     * @param from id of the first message to read
+     * @param to   id after the last message to read, at most {@link #size()}
+     * @return the messages in the order of their ids
+     * @throws IOException if the messages could not be read
+     */
+    List<Message> read(int from, int to) throws IOException {
+        if (from < 0 || to > size || from > to) {
+            throw new IndexOutOfBoundsException("Range " + from + ".." + to + " outside of 0.." + size);
+        }
+        List<Message> messages = new ArrayList<>(to - from);
+        if (from == to) return messages;
+        ByteBuffer positions = ByteBuffer.allocate((to - from + 1) * OFFSET_BYTES);
+        if (to == size) {
+            positions.limit((to - from) * OFFSET_BYTES);
+        }
+        readFully(offsets, positions, (long) from * OFFSET_BYTES);
+        long start = positions.getLong(0);
+        long end = to == size ? dataSize : positions.getLong((to - from) * OFFSET_BYTES);
+        ByteBuffer bytes = ByteBuffer.allocate(Math.toIntExact(end - start));
+        readFully(data, bytes, start);
+        bytes.flip();
+        for (int i = from; i < to; i++) {
+            Config.MessageType type = TYPES[bytes.get()];
+            String sender = readString(bytes);
+            String receiver = readString(bytes);
+            String payload = readString(bytes);
+            messages.add(new Message(sender, receiver, type, payload));
+        }
+        return messages;
+    }
+
+    private static String readString(ByteBuffer bytes) {
+        int length = bytes.getInt();
+        if (length == NULL_LENGTH) return null;
+        String text = new String(bytes.array(), bytes.position(), length, StandardCharsets.UTF_8);
+        bytes.position(bytes.position() + length);
+        return text;
+    }
+
+    /**
+     * Removes all messages, the next message appended gets the id 0 again.
+     * @throws IOException if the files could not be truncated
+     */
+    void clear() throws IOException {
+        size = 0;
+        dataSize = 0;
+        if (data != null) {
+            data.truncate(0);
+            offsets.truncate(0);
+        }
+    }
+
+    /**
+     * Closes and deletes the files.
+     * @throws IOException if the files could not be deleted
+     */
+    @Override
+    public void close() throws IOException {
+        size = 0;
+        dataSize = 0;
+        if (data == null) return;
+        FileChannel dataChannel = data;
+        FileChannel offsetsChannel = offsets;
+        data = null;
+        offsets = null;
+        try {
+            try {
+                dataChannel.close();
+            } finally {
+                offsetsChannel.close();
+            }
+        } finally {
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    private void open() throws IOException {
+        if (data != null) return;
+        Path parent = Paths.get(System.getProperty(PROPERTY_DIRECTORY, System.getProperty("java.io.tmpdir")));
+        Files.createDirectories(parent);
+        directory = Files.createTempDirectory(parent, "multichat-history");
+        directory.toFile().deleteOnExit();
+        data = openFile(directory.resolve("messages.dat"));
+        offsets = openFile(directory.resolve("messages.idx"));
+    }
+
+    private static FileChannel openFile(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+            StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+        path.toFile().deleteOnExit();
+        return channel;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer bytes, long position) throws IOException {
+        while (bytes.hasRemaining()) {
+            position += channel.write(bytes, position);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer bytes, long position) throws IOException {
+        while (bytes.hasRemaining()) {
+            int read = channel.read(bytes, position);
+            if (read < 0) throw new IOException("Unexpected end of history file");
+            position += read;
+        }
+    }
+}
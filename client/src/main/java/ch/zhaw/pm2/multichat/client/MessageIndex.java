@@ -0,0 +1,155 @@
+package ch.zhaw.pm2.multichat.client;
+
+import ch.zhaw.pm2.multichat.protocol.Message;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Inverted trigram index of the messages of a {@link ClientMessageList}.
+ * <p>For every sequence of three characters occurring in the sender, receiver or payload of a message, the index
+ * keeps the ascending list of the ids of the messages containing it. A message containing a filter text contains all
+ * trigrams of the filter, so intersecting their lists yields a small set of candidates, which only have to be checked
+ * using {@link String#contains(CharSequence)}. Filters shorter than three characters can not be looked up and have to
+ * be checked against all messages. Like the filter itself, the index is case-sensitive.</p>
+ * <p>The index only covers the messages kept in memory, messages spilled to the {@link HistoryFile} are removed
+ * using {@link #removeBefore(int, Message)}.</p>
+ * <p>Not thread-safe, the owning message list synchronizes all access.</p>
+ */
+class MessageIndex {
+    /** Length of the indexed character sequences */
+    static final int GRAM_LENGTH = 3;
+
+    private static final int INITIAL_POSTINGS_CAPACITY = 4;
+
+    /** Ids of the messages containing a trigram, the first element holds the number of ids */
+    private final Map<String, int[]> postings = new HashMap<>();
+
+    /**
+     * Adds a message to the index. Messages have to be added in the order of their ids.
+     * @param id      id of the message, larger than the ids of all messages added before
+     * @param message the message
+     */
+    void add(int id, Message message) {
+        addText(id, message.getSender());
+        addText(id, message.getReceiver());
+        addText(id, message.getPayload());
+    }
+
+    private void addText(int id, String text) {
+        if (text == null) return;
+        for (int i = 0; i + GRAM_LENGTH <= text.length(); i++) {
+            String gram = text.substring(i, i + GRAM_LENGTH);
+            int[] ids = postings.get(gram);
+            if (ids == null) {
+                ids = new int[INITIAL_POSTINGS_CAPACITY + 1];
+                postings.put(gram, ids);
+            } else if (ids[ids[0]] == id) {
+                continue;
+            } else if (ids[0] + 1 == ids.length) {
+                ids = Arrays.copyOf(ids, ids.length * 2);
+                postings.put(gram, ids);
+            }
+            ids[++ids[0]] = id;
+        }
+    }
+
+    /**
+     * Removes an evicted message together with all other messages with smaller ids from the postings of its trigrams.
+     * As the ids of a posting list are ascending, this removes a prefix of each list. Evicting a batch of messages
+     * shifts every list at most once, as the prefix is already gone for the other messages of the batch.
+     * @param firstId id of the oldest message remaining in the index
+     * @param message an evicted message, with an id smaller than {@code firstId}
+     */
+    void removeBefore(int firstId, Message message) {
+        removeText(firstId, message.getSender());
+        removeText(firstId, message.getReceiver());
+        removeText(firstId, message.getPayload());
+    }
+
+    private void removeText(int firstId, String text) {
+        if (text == null) return;
+        for (int i = 0; i + GRAM_LENGTH <= text.length(); i++) {
+            String gram = text.substring(i, i + GRAM_LENGTH);
+            int[] ids = postings.get(gram);
+            if (ids == null || ids[1] >= firstId) continue;
+            int size = ids[0];
+            int start = Arrays.binarySearch(ids, 1, size + 1, firstId);
+            if (start < 0) start = -start - 1;
+            int remaining = size + 1 - start;
+            if (remaining == 0) {
+                postings.remove(gram);
+                continue;
+            }
+            if (ids.length > 4 * (remaining + 1) && ids.length > 4 * INITIAL_POSTINGS_CAPACITY) {
+                int[] shrunk = new int[2 * (remaining + 1)];
+                System.arraycopy(ids, start, shrunk, 1, remaining);
+                ids = shrunk;
+                postings.put(gram, ids);
+            } else {
+                System.arraycopy(ids, start, ids, 1, remaining);
+            }
+            ids[0] = remaining;
+        }
+    }
+
+    /**
+     * Removes all messages from the index.
+     */
+    void clear() {
+        postings.clear();
+    }
+
+    /**
+     * Indicates if the index can narrow down the messages containing the given filter text.
+     * @param filter the filter text
+     * @return true if {@link #candidates(String, BooleanSupplier)} can be used, false if all messages have to be checked
+     */
+    static boolean supports(String filter) {
+        return filter.length() >= GRAM_LENGTH;
+    }
+
+    /**
+     * Returns the ids of the messages containing all trigrams of the filter text, a superset of the messages
+     * containing the filter text itself.
+     * @param filter    filter text of at least {@value #GRAM_LENGTH} characters
+     * @param cancelled checked regularly, the search is abandoned as soon it returns true
+     * @return ascending ids of the candidates, null if the search has been cancelled
+     */
+    int[] candidates(String filter, BooleanSupplier cancelled) {
+        int[][] lists = new int[filter.length() - GRAM_LENGTH + 1][];
+        for (int i = 0; i < lists.length; i++) {
+            int[] ids = postings.get(filter.substring(i, i + GRAM_LENGTH));
+            if (ids == null) return new int[0];
+            lists[i] = ids;
+        }
+        Arrays.sort(lists, (a, b) -> Integer.compare(a[0], b[0]));
+        int[] result = Arrays.copyOfRange(lists[0], 1, lists[0][0] + 1);
+        int size = result.length;
+        for (int i = 1; i < lists.length && size > 0; i++) {
+            if (cancelled.getAsBoolean()) return null;
+            size = intersect(result, size, lists[i]);
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    /**
+     * Keeps the ids of the result which are also contained in the postings, in place.
+     * @return new size of the result
+     */
+    private static int intersect(int[] result, int size, int[] postings) {
+        int count = 0;
+        int position = 1;
+        int end = postings[0];
+        for (int i = 0; i < size && position <= end; i++) {
+            int id = result[i];
+            while (position <= end && postings[position] < id) position++;
+            if (position <= end && postings[position] == id) {
+                result[count++] = id;
+            }
+        }
+        return count;
+    }
+}
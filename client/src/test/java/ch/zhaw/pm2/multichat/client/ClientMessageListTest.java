@@ -0,0 +1,259 @@
+package ch.zhaw.pm2.multichat.client;
+
+import ch.zhaw.pm2.multichat.protocol.Config;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the incremental updates of the displayed history passed on by the {@link ClientMessageList} and filtering
+ * the history on the background thread, also while older messages are spilled to the {@link HistoryFile}.
+ */
+class ClientMessageListTest {
+
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    private final ClientMessageList messages = new ClientMessageList(100);
+    private final DisplayedHistory displayed = new DisplayedHistory();
+
+    @TempDir
+    Path directory;
+
+    @BeforeEach
+    void useTemporaryHistoryDirectory() {
+        System.setProperty(HistoryFile.PROPERTY_DIRECTORY, directory.toString());
+    }
+
+    @AfterEach
+    void clearHistoryDirectory() {
+        System.clearProperty(HistoryFile.PROPERTY_DIRECTORY);
+    }
+
+    @Test
+    void passesTheCurrentHistoryToANewListener() {
+        messages.addMessage(Config.MessageType.MESSAGE, "alice", "bob", "hello");
+        messages.setHistoryListener(displayed);
+        assertEquals(List.of("[alice -> bob] hello"), displayed.rows());
+        assertEquals(1, displayed.replacedCount);
+    }
+
+    @Test
+    void appendsEachNewMessageAsASingleRow() {
+        messages.setHistoryListener(displayed);
+        messages.addMessage(Config.MessageType.MESSAGE, "alice", "bob", "hello");
+        messages.addMessage(Config.MessageType.INFO, null, null, "connected");
+        messages.addMessage(Config.MessageType.ERROR, null, null, "failed");
+        assertEquals(List.of("[alice -> bob] hello", "[INFO] connected", "[ERROR] failed"), displayed.rows());
+        assertEquals(1, displayed.replacedCount);
+    }
+
+    @Test
+    void replacesTheHistoryWhenCleared() {
+        messages.setHistoryListener(displayed);
+        messages.addMessage(Config.MessageType.MESSAGE, "alice", "bob", "hello");
+        messages.emptyChatHistory();
+        assertEquals(List.of(), displayed.rows());
+        messages.addMessage(Config.MessageType.MESSAGE, "alice", "bob", "again");
+        assertEquals(List.of("[alice -> bob] again"), displayed.rows());
+    }
+
+    @Test
+    void showsOnlyTheMessagesMatchingTheFilter() throws InterruptedException {
+        messages.setHistoryListener(displayed);
+        messages.addMessage(Config.MessageType.MESSAGE, "alice", "bob", "hello world");
+        messages.addMessage(Config.MessageType.MESSAGE, "carol", "bob", "goodbye");
+        messages.addMessage(Config.MessageType.MESSAGE, "bob", "carol", "hello again");
+        messages.setFilter("hello");
+        displayed.awaitRows(List.of("[alice -> bob] hello world", "[bob -> carol] hello again"));
+        messages.setFilter("carol");
+        displayed.awaitRows(List.of("[carol -> bob] goodbye", "[bob -> carol] hello again"));
+        messages.setFilter("");
+        displayed.awaitRows(List.of("[alice -> bob] hello world", "[carol -> bob] goodbye",
+            "[bob -> carol] hello again"));
+    }
+
+    @Test
+    void narrowsAndWidensTheFilterWhileTyping() throws InterruptedException {
+        messages.setHistoryListener(displayed);
+        messages.addMessage(Config.MessageType.MESSAGE, "alice", "bob", "hello");
+        messages.addMessage(Config.MessageType.MESSAGE, "alice", "bob", "help");
+        messages.addMessage(Config.MessageType.MESSAGE, "alice", "bob", "bye");
+        messages.addMessage(Config.MessageType.MESSAGE, "alice", "bob", "the end");
+        messages.setFilter("he");
+        displayed.awaitReplaced(2);
+        assertEquals(List.of("[alice -> bob] hello", "[alice -> bob] help", "[alice -> bob] the end"),
+            displayed.rows());
+        messages.setFilter("hel");
+        displayed.awaitRows(List.of("[alice -> bob] hello", "[alice -> bob] help"));
+        messages.setFilter("hell");
+        displayed.awaitRows(List.of("[alice -> bob] hello"));
+        messages.setFilter("elp");
+        displayed.awaitRows(List.of("[alice -> bob] help"));
+    }
+
+    @Test
+    void appendsOnlyNewMessagesMatchingTheFilter() throws InterruptedException {
+        messages.setHistoryListener(displayed);
+        messages.setFilter("alice");
+        displayed.awaitReplaced(2);
+        messages.addMessage(Config.MessageType.MESSAGE, "alice", "bob", "first");
+        messages.addMessage(Config.MessageType.MESSAGE, "carol", "bob", "second");
+        messages.addMessage(Config.MessageType.MESSAGE, "bob", "alice", "third");
+        assertEquals(List.of("[alice -> bob] first", "[bob -> alice] third"), displayed.rows());
+    }
+
+    @Test
+    void appliesTheLatestFilter() throws InterruptedException {
+        messages.setHistoryListener(displayed);
+        for (int i = 0; i < 50; i++) {
+            messages.addMessage(Config.MessageType.MESSAGE, "alice", "bob", "message " + i);
+        }
+        messages.setFilter("message");
+        messages.setFilter("message 4");
+        messages.setFilter("message 42");
+        displayed.awaitRows(List.of("[alice -> bob] message 42"));
+    }
+
+    @Test
+    void spillsTheOldestMessagesAndTrimsTheDisplay() {
+        ClientMessageList bounded = new ClientMessageList(16);
+        bounded.setHistoryListener(displayed);
+        addMessages(bounded, 0, 18);
+        assertEquals(rows(2, 18), displayed.rows());
+    }
+
+    @Test
+    void trimsOnlyTheSpilledRowsMatchingTheActiveFilter() throws InterruptedException {
+        ClientMessageList bounded = new ClientMessageList(16);
+        bounded.setHistoryListener(displayed);
+        bounded.setFilter("even");
+        displayed.awaitReplaced(2);
+        for (int i = 0; i < 18; i++) {
+            bounded.addMessage(Config.MessageType.MESSAGE, "alice", "bob", (i % 2 == 0 ? "even " : "odd ") + i);
+        }
+        assertEquals(IntStream.range(2, 18).filter(i -> i % 2 == 0).mapToObj(i -> "[alice -> bob] even " + i)
+            .toList(), displayed.rows());
+        bounded.setFilter("odd");
+        displayed.awaitRows(IntStream.range(2, 18).filter(i -> i % 2 == 1).mapToObj(i -> "[alice -> bob] odd " + i)
+            .toList());
+    }
+
+    @Test
+    void loadsOlderMessagesMatchingTheFilter() throws InterruptedException {
+        ClientMessageList bounded = new ClientMessageList(16);
+        bounded.setHistoryListener(displayed);
+        addMessages(bounded, 0, 40);
+        bounded.setFilter("message 1");
+        displayed.awaitRows(List.of());
+        bounded.loadOlderMessages(3);
+        displayed.awaitRows(rows(17, 20));
+        bounded.loadOlderMessages(10);
+        displayed.awaitRows(List.of("[alice -> bob] message 1", "[alice -> bob] message 10",
+            "[alice -> bob] message 11", "[alice -> bob] message 12", "[alice -> bob] message 13",
+            "[alice -> bob] message 14", "[alice -> bob] message 15", "[alice -> bob] message 16",
+            "[alice -> bob] message 17", "[alice -> bob] message 18", "[alice -> bob] message 19"));
+    }
+
+    @Test
+    void trimsTheOlderMessagesShownAgainWithTheNextSpill() throws InterruptedException {
+        ClientMessageList bounded = new ClientMessageList(16);
+        bounded.setHistoryListener(displayed);
+        addMessages(bounded, 0, 40);
+        assertEquals(rows(24, 40), displayed.rows());
+        bounded.loadOlderMessages(3);
+        displayed.awaitRows(rows(21, 40));
+        addMessages(bounded, 40, 42);
+        assertEquals(rows(26, 42), displayed.rows());
+    }
+
+    @Test
+    void loadsNothingAfterClearingTheSpilledMessages() throws InterruptedException {
+        ClientMessageList bounded = new ClientMessageList(16);
+        bounded.setHistoryListener(displayed);
+        addMessages(bounded, 0, 20);
+        bounded.emptyChatHistory();
+        addMessages(bounded, 100, 101);
+        bounded.loadOlderMessages(10);
+        bounded.setFilter("message");
+        displayed.awaitReplaced(3);
+        assertEquals(rows(100, 101), displayed.rows());
+    }
+
+    private static void addMessages(ClientMessageList list, int from, int to) {
+        for (int i = from; i < to; i++) {
+            list.addMessage(Config.MessageType.MESSAGE, "alice", "bob", "message " + i);
+        }
+    }
+
+    private static List<String> rows(int from, int to) {
+        return IntStream.range(from, to).mapToObj(i -> "[alice -> bob] message " + i).toList();
+    }
+
+    /**
+     * Listener applying the changes to a list of rows, like the view displaying the history.
+     */
+    static class DisplayedHistory implements ClientMessageList.HistoryListener {
+        private final List<String> rows = new ArrayList<>();
+        int replacedCount;
+
+        synchronized List<String> rows() {
+            return List.copyOf(rows);
+        }
+
+        /**
+         * Waits until the rows changed by the filter thread are equal to the expected rows.
+         */
+        synchronized void awaitRows(List<String> expected) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+            long remaining;
+            while (!rows.equals(expected) && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                wait(remaining);
+            }
+            assertEquals(expected, rows);
+        }
+
+        /**
+         * Waits until the history has been replaced the given number of times, e.g. by applying a filter.
+         */
+        synchronized void awaitReplaced(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+            long remaining;
+            while (replacedCount < count && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                wait(remaining);
+            }
+            assertEquals(count, replacedCount);
+        }
+
+        @Override
+        public synchronized void historyAppended(String row) {
+            rows.add(row);
+        }
+
+        @Override
+        public synchronized void historyReplaced(List<String> rows) {
+            this.rows.clear();
+            this.rows.addAll(rows);
+            replacedCount++;
+            notifyAll();
+        }
+
+        @Override
+        public synchronized void historyTrimmed(int count) {
+            rows.subList(0, count).clear();
+        }
+
+        @Override
+        public synchronized void historyPrepended(List<String> rows) {
+            this.rows.addAll(0, rows);
+            notifyAll();
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package ch.zhaw.pm2.multichat.client;
+
+import ch.zhaw.pm2.multichat.protocol.Config;
+import ch.zhaw.pm2.multichat.protocol.Message;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests writing and reading ranges of messages using the {@link HistoryFile}.
+ */
+class HistoryFileTest {
+
+    @TempDir
+    Path directory;
+
+    private HistoryFile history;
+
+    @BeforeEach
+    void createHistory() {
+        System.setProperty(HistoryFile.PROPERTY_DIRECTORY, directory.toString());
+        history = new HistoryFile();
+    }
+
+    @AfterEach
+    void closeHistory() throws IOException {
+        history.close();
+        System.clearProperty(HistoryFile.PROPERTY_DIRECTORY);
+    }
+
+    @Test
+    void readsTheRangeUpToTheLastMessage() throws IOException {
+        List<Message> messages = messages(0, 5);
+        history.append(messages);
+        assertEquals(5, history.size());
+        assertMessagesEqual(messages, history.read(0, 5));
+        assertMessagesEqual(messages.subList(3, 5), history.read(3, 5));
+        assertMessagesEqual(messages.subList(4, 5), history.read(4, 5));
+    }
+
+    @Test
+    void readsRangesAcrossAppends() throws IOException {
+        List<Message> messages = messages(0, 6);
+        history.append(messages.subList(0, 2));
+        history.append(messages.subList(2, 6));
+        assertMessagesEqual(messages.subList(1, 3), history.read(1, 3));
+        assertMessagesEqual(messages.subList(1, 6), history.read(1, 6));
+    }
+
+    @Test
+    void readsAnEmptyRange() throws IOException {
+        assertTrue(history.read(0, 0).isEmpty());
+        history.append(messages(0, 2));
+        assertTrue(history.read(2, 2).isEmpty());
+    }
+
+    @Test
+    void rejectsRangesOutsideOfTheFile() throws IOException {
+        history.append(messages(0, 2));
+        assertThrows(IndexOutOfBoundsException.class, () -> history.read(0, 3));
+        assertThrows(IndexOutOfBoundsException.class, () -> history.read(-1, 1));
+        assertThrows(IndexOutOfBoundsException.class, () -> history.read(2, 1));
+    }
+
+    @Test
+    void keepsMissingFieldsAndNonAsciiText() throws IOException {
+        List<Message> messages = List.of(
+            new Message(null, null, Config.MessageType.INFO, "Grüezi 😀"),
+            new Message("Zoë", "", Config.MessageType.ERROR, null));
+        history.append(messages);
+        assertMessagesEqual(messages, history.read(0, 2));
+    }
+
+    @Test
+    void startsAtIdZeroAgainAfterClearing() throws IOException {
+        history.append(messages(0, 3));
+        history.clear();
+        assertEquals(0, history.size());
+        List<Message> messages = messages(10, 12);
+        history.append(messages);
+        assertMessagesEqual(messages, history.read(0, 2));
+    }
+
+    @Test
+    void deletesTheFilesWhenClosed() throws IOException {
+        history.append(messages(0, 1));
+        history.close();
+        assertEquals(0, history.size());
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    private static List<Message> messages(int from, int to) {
+        List<Message> messages = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            messages.add(new Message("alice", "bob", Config.MessageType.MESSAGE, "message " + i));
+        }
+        return messages;
+    }
+
+    private static void assertMessagesEqual(List<Message> expected, List<Message> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getType(), actual.get(i).getType());
+            assertEquals(expected.get(i).getSender(), actual.get(i).getSender());
+            assertEquals(expected.get(i).getReceiver(), actual.get(i).getReceiver());
+            assertEquals(expected.get(i).getPayload(), actual.get(i).getPayload());
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package ch.zhaw.pm2.multichat.client;
+
+import ch.zhaw.pm2.multichat.protocol.Config;
+import ch.zhaw.pm2.multichat.protocol.Message;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests looking up filter candidates in the {@link MessageIndex} and removing evicted messages from it.
+ */
+class MessageIndexTest {
+
+    private final MessageIndex index = new MessageIndex();
+
+    @Test
+    void findsTheMessagesContainingAllTrigrams() {
+        index.add(0, message("alice", "bob", "hello world"));
+        index.add(1, message("bob", "alice", "goodbye"));
+        index.add(2, message("carol", "*", "world peace"));
+        assertArrayEquals(new int[] {0, 2}, index.candidates("world", () -> false));
+        assertArrayEquals(new int[] {0, 1}, index.candidates("alice", () -> false));
+        assertArrayEquals(new int[] {1}, index.candidates("goodbye", () -> false));
+    }
+
+    @Test
+    void returnsNoCandidatesForAnUnknownTrigram() {
+        index.add(0, message("alice", "bob", "hello"));
+        assertArrayEquals(new int[0], index.candidates("hellx", () -> false));
+    }
+
+    @Test
+    void returnsASupersetOfTheMatchingMessages() {
+        index.add(0, message("alice", "bob", "abcd bcde"));
+        assertArrayEquals(new int[] {0}, index.candidates("abcde", () -> false));
+    }
+
+    @Test
+    void isCaseSensitive() {
+        index.add(0, message("alice", "bob", "Hello"));
+        assertArrayEquals(new int[0], index.candidates("hello", () -> false));
+    }
+
+    @Test
+    void listsAMessageOnceForRepeatedTrigrams() {
+        index.add(0, message("alice", "alice", "alice alice"));
+        assertArrayEquals(new int[] {0}, index.candidates("alice", () -> false));
+    }
+
+    @Test
+    void returnsNullWhenCancelled() {
+        index.add(0, message("alice", "bob", "hello"));
+        assertNull(index.candidates("hello", () -> true));
+    }
+
+    @Test
+    void supportsOnlyFiltersOfAtLeastOneTrigram() {
+        assertFalse(MessageIndex.supports("ab"));
+        assertTrue(MessageIndex.supports("abc"));
+    }
+
+    @Test
+    void removesEvictedMessages() {
+        for (int id = 0; id < 10; id++) {
+            index.add(id, message("alice", "bob", "message " + id));
+        }
+        for (int id = 0; id < 4; id++) {
+            index.removeBefore(4, message("alice", "bob", "message " + id));
+        }
+        assertArrayEquals(IntStream.range(4, 10).toArray(), index.candidates("message", () -> false));
+        assertArrayEquals(new int[0], index.candidates("message 2", () -> false));
+        assertArrayEquals(new int[] {7}, index.candidates("message 7", () -> false));
+    }
+
+    @Test
+    void dropsTrigramsOfEvictedMessagesOnly() {
+        index.add(0, message("alice", "bob", "only once"));
+        index.add(1, message("alice", "bob", "later"));
+        index.removeBefore(1, message("alice", "bob", "only once"));
+        assertArrayEquals(new int[0], index.candidates("only", () -> false));
+        assertArrayEquals(new int[] {1}, index.candidates("alice", () -> false));
+    }
+
+    @Test
+    void keepsFindingMessagesAfterShrinkingLargePostings() {
+        List<Message> messages = new ArrayList<>();
+        for (int id = 0; id < 1000; id++) {
+            Message message = message("alice", "bob", "message " + id);
+            messages.add(message);
+            index.add(id, message);
+        }
+        for (int id = 0; id < 990; id++) {
+            index.removeBefore(990, messages.get(id));
+        }
+        assertArrayEquals(IntStream.range(990, 1000).toArray(), index.candidates("alice", () -> false));
+        index.add(1000, message("alice", "bob", "message 1000"));
+        assertArrayEquals(IntStream.range(990, 1001).toArray(), index.candidates("alice", () -> false));
+    }
+
+    @Test
+    void removesNothingOnceCleared() {
+        index.add(0, message("alice", "bob", "hello"));
+        index.clear();
+        assertArrayEquals(new int[0], index.candidates("hello", () -> false));
+        index.add(0, message("carol", "dave", "hello"));
+        assertArrayEquals(new int[] {0}, index.candidates("hello", () -> false));
+    }
+
+    private static Message message(String sender, String receiver, String payload) {
+        return new Message(sender, receiver, Config.MessageType.MESSAGE, payload);
+    }
+}
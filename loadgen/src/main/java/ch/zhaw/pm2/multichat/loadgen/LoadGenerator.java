@@ -0,0 +1,224 @@
+package ch.zhaw.pm2.multichat.loadgen;
+
+import ch.zhaw.pm2.multichat.protocol.ChatProtocolException;
+import ch.zhaw.pm2.multichat.protocol.Compression;
+import ch.zhaw.pm2.multichat.protocol.Config;
+import ch.zhaw.pm2.multichat.protocol.Message;
+import ch.zhaw.pm2.multichat.protocol.NetworkHandler;
+import ch.zhaw.pm2.multichat.protocol.SocketOptions;
+import ch.zhaw.pm2.multichat.protocol.WireFormat;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Headless load generator for a multichat server.
+ * Opens a number of connections, registers a simulated user on each of them and sends a mix of broadcast and direct
+ * messages at a fixed rate. Reports throughput, delivery latency percentiles and errors.
+ * <p>Messages are sent open loop: each message has a scheduled send time, and the latency is measured from that time.
+ * If the server slows down the generator, the delay is part of the measured latency instead of being hidden.</p>
+ */
+public class LoadGenerator {
+    /** Time to wait for outstanding deliveries after the last message has been sent */
+    private static final long DRAIN_TIMEOUT_MILLIS = 5000;
+
+    private final String host;
+    private final int port;
+    private final LoadSettings settings;
+    private final LoadStatistics statistics = new LoadStatistics();
+    private final List<SimulatedUser> users = Collections.synchronizedList(new ArrayList<>());
+    private final ExecutorService executorService = Executors.newVirtualThreadPerTaskExecutor();
+
+    /**
+     * Creates a new load generator.
+     * @param host     host name or address of the server
+     * @param port     port of the server
+     * @param settings parameters of the load test
+     */
+    public LoadGenerator(String host, int port, LoadSettings settings) {
+        this.host = host;
+        this.port = port;
+        this.settings = settings;
+    }
+
+    /**
+     * Runs the load test and prints the results.
+     * @return statistics of the run
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public LoadStatistics run() throws InterruptedException {
+        System.out.println("Load test: " + settings);
+        connectUsers();
+        if (users.size() < 2) {
+            System.err.println("Not enough users registered, aborting. Errors: " + statistics.formatErrors());
+            close();
+            return statistics;
+        }
+        for (SimulatedUser user : users) {
+            executorService.execute(user);
+        }
+        long start = System.nanoTime();
+        sendMessages(start);
+        long sendDuration = System.nanoTime() - start;
+        awaitDeliveries();
+        printReport(sendDuration);
+        close();
+        return statistics;
+    }
+
+    /**
+     * Opens the connections and registers the users in parallel, one virtual thread per user.
+     */
+    private void connectUsers() throws InterruptedException {
+        WireFormat wireFormat = WireFormat.configured();
+        SocketOptions socketOptions = SocketOptions.configured();
+        int compressionThreshold = Compression.configuredThreshold();
+        List<Future<?>> registrations = new ArrayList<>();
+        for (int i = 0; i < settings.getConnections(); i++) {
+            String userName = "load-" + i;
+            registrations.add(executorService.submit(() -> {
+                try {
+                    NetworkHandler.NetworkConnection<Message> connection =
+                        NetworkHandler.openConnection(host, port, wireFormat.newCodec(), socketOptions);
+                    SimulatedUser user = new SimulatedUser(userName, connection, statistics);
+                    user.register(compressionThreshold);
+                    users.add(user);
+                } catch (IOException | ChatProtocolException e) {
+                    statistics.registrationFailed();
+                    System.err.println("Failed to register " + userName + ": " + e.getMessage());
+                }
+            }));
+        }
+        for (Future<?> registration : registrations) {
+            try {
+                registration.get();
+            } catch (ExecutionException e) {
+                statistics.registrationFailed();
+            }
+        }
+        System.out.printf("Registered %d of %d users%n", users.size(), settings.getConnections());
+    }
+
+    /**
+     * Sends messages at the configured rate until the configured duration has passed.
+     * If sending falls behind the schedule, the missed messages are sent immediately to catch up.
+     * @param start start time of the test ({@link System#nanoTime()})
+     */
+    private void sendMessages(long start) {
+        Random random = new Random();
+        String padding = "x".repeat(settings.getPayloadSize());
+        long interval = TimeUnit.SECONDS.toNanos(1) / settings.getRate();
+        long end = start + TimeUnit.SECONDS.toNanos(settings.getDurationSeconds());
+        long reportInterval = TimeUnit.SECONDS.toNanos(settings.getReportIntervalSeconds());
+        long nextReport = start + reportInterval;
+        long lastSent = 0;
+        long lastDelivered = 0;
+        long next = start;
+        int userCount = users.size();
+        while (next < end) {
+            long now = System.nanoTime();
+            while (next <= now && next < end) {
+                SimulatedUser sender = users.get(random.nextInt(userCount));
+                String payload = next + " " + padding;
+                if (random.nextDouble() < settings.getBroadcastRatio()) {
+                    statistics.messageSent(userCount - 1);
+                    sender.send(Config.USER_ALL, payload);
+                } else {
+                    SimulatedUser receiver = users.get(random.nextInt(userCount));
+                    while (receiver == sender) {
+                        receiver = users.get(random.nextInt(userCount));
+                    }
+                    statistics.messageSent(1);
+                    sender.send(receiver.getUserName(), payload);
+                }
+                next += interval;
+            }
+            if (reportInterval > 0 && now >= nextReport) {
+                long sent = statistics.getSent();
+                long delivered = statistics.getDelivered();
+                double seconds = (double) reportInterval / TimeUnit.SECONDS.toNanos(1);
+                System.out.printf("[%3d s] sent %.0f msg/s, delivered %.0f msg/s, %s, errors %d%n",
+                    TimeUnit.NANOSECONDS.toSeconds(now - start), (sent - lastSent) / seconds,
+                    (delivered - lastDelivered) / seconds, statistics.formatLatencies(), statistics.getErrors());
+                lastSent = sent;
+                lastDelivered = delivered;
+                nextReport += reportInterval;
+            }
+            LockSupport.parkNanos(next - System.nanoTime());
+        }
+    }
+
+    /**
+     * Waits until all expected messages have been delivered or the drain timeout has passed.
+     */
+    private void awaitDeliveries() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + DRAIN_TIMEOUT_MILLIS;
+        while (statistics.getDelivered() < statistics.getExpectedDeliveries()
+            && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+    }
+
+    private void printReport(long sendDurationNanos) {
+        double seconds = sendDurationNanos / 1e9;
+        long missing = statistics.getExpectedDeliveries() - statistics.getDelivered();
+        System.out.println("Load test finished: " + settings);
+        System.out.printf("Sent:       %d messages (%.1f msg/s)%n", statistics.getSent(), statistics.getSent() / seconds);
+        System.out.printf("Delivered:  %d messages (%.1f msg/s), missing %d%n",
+            statistics.getDelivered(), statistics.getDelivered() / seconds, missing);
+        System.out.println("Latency:    " + statistics.formatLatencies());
+        System.out.println("Errors:     " + statistics.formatErrors());
+    }
+
+    private void close() throws InterruptedException {
+        synchronized (users) {
+            for (SimulatedUser user : users) {
+                user.close();
+            }
+        }
+        executorService.shutdown();
+        if (!executorService.awaitTermination(DRAIN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+            executorService.shutdownNow();
+        }
+    }
+
+    /**
+     * Main method for starting the load generator.
+     * Connects to the given server, or to the default server (see {@link NetworkHandler#DEFAULT_ADDRESS} and
+     * {@link NetworkHandler#DEFAULT_PORT}) if no arguments are given. The load is configured using system properties
+     * (see {@link LoadSettings#fromSystemProperties()}).
+     * @param args Command line arguments: [&lt;ServerHost&gt; [&lt;ServerPort&gt;]]
+     */
+    public static void main(String[] args) {
+        String host = NetworkHandler.DEFAULT_ADDRESS.getHostAddress();
+        int port = NetworkHandler.DEFAULT_PORT;
+        switch (args.length) {
+            case 0 -> { }
+            case 1 -> host = args[0];
+            case 2 -> {
+                host = args[0];
+                port = Integer.parseInt(args[1]);
+            }
+            default -> {
+                System.out.println("Illegal number of arguments:  [<ServerHost> [<ServerPort>]]");
+                return;
+            }
+        }
+        try {
+            LoadStatistics statistics = new LoadGenerator(host, port, LoadSettings.fromSystemProperties()).run();
+            System.exit(statistics.getErrors() == 0 ? 0 : 1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println("Load test interrupted");
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package ch.zhaw.pm2.multichat.loadgen;
+
+/**
+ * Parameters of a load test run.
+ * The defaults can be overridden using system properties (e.g. {@code -Dmultichat.load.connections=1000}),
+ * see {@link #fromSystemProperties()}.
+ */
+public class LoadSettings {
+    /** Prefix of all system properties read by {@link #fromSystemProperties()} */
+    public static final String PROPERTY_PREFIX = "multichat.load.";
+
+    private int connections = 100;
+    private int rate = 1000;
+    private int durationSeconds = 30;
+    private double broadcastRatio = 0.1;
+    private int payloadSize = 64;
+    private int reportIntervalSeconds = 5;
+
+    /**
+     * Creates the settings using the defaults, overridden by the matching system properties.
+     * @return settings of the load test
+     * @throws IllegalArgumentException if a property has an invalid value
+     */
+    public static LoadSettings fromSystemProperties() {
+        LoadSettings settings = new LoadSettings();
+        settings.setConnections(intProperty("connections", settings.getConnections()));
+        settings.setRate(intProperty("rate", settings.getRate()));
+        settings.setDurationSeconds(intProperty("duration", settings.getDurationSeconds()));
+        settings.setBroadcastRatio(Double.parseDouble(
+            stringProperty("broadcastRatio", String.valueOf(settings.getBroadcastRatio()))));
+        settings.setPayloadSize(intProperty("payloadSize", settings.getPayloadSize()));
+        settings.setReportIntervalSeconds(intProperty("reportInterval", settings.getReportIntervalSeconds()));
+        return settings;
+    }
+
+    private static String stringProperty(String name, String defaultValue) {
+        return System.getProperty(PROPERTY_PREFIX + name, defaultValue);
+    }
+
+    private static int intProperty(String name, int defaultValue) {
+        return Integer.parseInt(stringProperty(name, String.valueOf(defaultValue)));
+    }
+
+    public int getConnections() {
+        return connections;
+    }
+
+    /**
+     * Sets the number of simulated users, each using its own connection.
+     * @param connections number of connections (at least 2, so direct messages have a receiver)
+     */
+    public void setConnections(int connections) {
+        if (connections < 2) throw new IllegalArgumentException("At least two connections required");
+        this.connections = connections;
+    }
+
+    public int getRate() {
+        return rate;
+    }
+
+    /**
+     * Sets the number of messages sent per second, summed over all simulated users.
+     * @param rate target send rate (at least 1)
+     */
+    public void setRate(int rate) {
+        if (rate < 1) throw new IllegalArgumentException("Rate must be positive");
+        this.rate = rate;
+    }
+
+    public int getDurationSeconds() {
+        return durationSeconds;
+    }
+
+    /**
+     * Sets how long messages are sent.
+     * @param durationSeconds duration in seconds (at least 1)
+     */
+    public void setDurationSeconds(int durationSeconds) {
+        if (durationSeconds < 1) throw new IllegalArgumentException("Duration must be positive");
+        this.durationSeconds = durationSeconds;
+    }
+
+    public double getBroadcastRatio() {
+        return broadcastRatio;
+    }
+
+    /**
+     * Sets the share of broadcast messages, all other messages are sent to a single random user.
+     * @param broadcastRatio share between 0 (direct messages only) and 1 (broadcasts only)
+     */
+    public void setBroadcastRatio(double broadcastRatio) {
+        if (broadcastRatio < 0 || broadcastRatio > 1) throw new IllegalArgumentException("Ratio must be within 0..1");
+        this.broadcastRatio = broadcastRatio;
+    }
+
+    public int getPayloadSize() {
+        return payloadSize;
+    }
+
+    /**
+     * Sets the size of the message payloads. The payload holds the send timestamp, so it is never smaller than that.
+     * @param payloadSize payload size in characters
+     */
+    public void setPayloadSize(int payloadSize) {
+        if (payloadSize < 0) throw new IllegalArgumentException("Payload size must not be negative");
+        this.payloadSize = payloadSize;
+    }
+
+    public int getReportIntervalSeconds() {
+        return reportIntervalSeconds;
+    }
+
+    /**
+     * Sets the interval of the progress reports printed while the test runs.
+     * @param reportIntervalSeconds interval in seconds, 0 to only print the final report
+     */
+    public void setReportIntervalSeconds(int reportIntervalSeconds) {
+        if (reportIntervalSeconds < 0) throw new IllegalArgumentException("Report interval must not be negative");
+        this.reportIntervalSeconds = reportIntervalSeconds;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d connections, %d msg/s for %d s, %.0f%% broadcasts, %d byte payloads",
+            connections, rate, durationSeconds, broadcastRatio * 100, payloadSize);
+    }
+}
@@ -0,0 +1,99 @@
+package ch.zhaw.pm2.multichat.loadgen;
+
+import ch.zhaw.pm2.multichat.protocol.LatencyHistogram;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency distribution of a load test run, updated concurrently by the sending and receiving threads.
+ */
+public class LoadStatistics {
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder expectedDeliveries = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder registrationErrors = new LongAdder();
+    private final LongAdder sendErrors = new LongAdder();
+    private final LongAdder serverErrors = new LongAdder();
+    private final LongAdder disconnects = new LongAdder();
+
+    /**
+     * Counts a sent message.
+     * @param recipients number of other users the message is delivered to
+     */
+    public void messageSent(int recipients) {
+        sent.increment();
+        expectedDeliveries.add(recipients);
+    }
+
+    /**
+     * Counts a message delivered to a user other than its sender.
+     * @param latencyMicros time from the scheduled send time to the delivery in microseconds
+     */
+    public void messageDelivered(long latencyMicros) {
+        delivered.increment();
+        latencies.record(latencyMicros);
+    }
+
+    public void registrationFailed() {
+        registrationErrors.increment();
+    }
+
+    public void sendFailed() {
+        sendErrors.increment();
+    }
+
+    public void errorReceived() {
+        serverErrors.increment();
+    }
+
+    public void connectionLost() {
+        disconnects.increment();
+    }
+
+    public long getSent() {
+        return sent.sum();
+    }
+
+    public long getDelivered() {
+        return delivered.sum();
+    }
+
+    public long getExpectedDeliveries() {
+        return expectedDeliveries.sum();
+    }
+
+    public LatencyHistogram getLatencies() {
+        return latencies;
+    }
+
+    /**
+     * @return total number of errors of all kinds
+     */
+    public long getErrors() {
+        return registrationErrors.sum() + sendErrors.sum() + serverErrors.sum() + disconnects.sum();
+    }
+
+    /**
+     * Formats the latency percentiles, e.g. for a progress report.
+     * @return p50, p99, p99.9 and maximum latency in milliseconds
+     */
+    public String formatLatencies() {
+        return String.format("p50 %.2f ms, p99 %.2f ms, p99.9 %.2f ms, max %.2f ms",
+            millis(latencies.getPercentile(50)), millis(latencies.getPercentile(99)),
+            millis(latencies.getPercentile(99.9)), millis(latencies.getMax()));
+    }
+
+    /**
+     * Formats the error counters.
+     * @return the number of errors by kind
+     */
+    public String formatErrors() {
+        return String.format("registration %d, send %d, server %d, disconnects %d",
+            registrationErrors.sum(), sendErrors.sum(), serverErrors.sum(), disconnects.sum());
+    }
+
+    private static double millis(long micros) {
+        return micros / 1000.0;
+    }
+}
@@ -0,0 +1,132 @@
+package ch.zhaw.pm2.multichat.loadgen;
+
+import ch.zhaw.pm2.multichat.protocol.ChatProtocolException;
+import ch.zhaw.pm2.multichat.protocol.Compression;
+import ch.zhaw.pm2.multichat.protocol.Config;
+import ch.zhaw.pm2.multichat.protocol.Message;
+import ch.zhaw.pm2.multichat.protocol.NetworkHandler;
+
+import java.io.IOException;
+
+/**
+ * A chat user without user interface: registers with the server, sends the messages handed over by the
+ * {@link LoadGenerator} and records the latency of every message delivered to it.
+ * The payload of each message starts with the time it was scheduled to be sent ({@link System#nanoTime()}),
+ * so the latency can be measured by the receiving user, as all users run in the same process.
+ * Messages sent before the user registered, e.g. replayed by the server from its message log, are ignored.
+ */
+public class SimulatedUser implements Runnable {
+    private final String userName;
+    private final NetworkHandler.NetworkConnection<Message> connection;
+    private final LoadStatistics statistics;
+    private volatile boolean closing = false;
+    private volatile long registrationTime = Long.MAX_VALUE;
+
+    /**
+     * Creates a new simulated user.
+     * @param userName   name to register with the server
+     * @param connection open connection to the server
+     * @param statistics statistics to record deliveries and errors in
+     */
+    public SimulatedUser(String userName, NetworkHandler.NetworkConnection<Message> connection,
+                         LoadStatistics statistics) {
+        this.userName = userName;
+        this.connection = connection;
+        this.statistics = statistics;
+    }
+
+    public String getUserName() {
+        return userName;
+    }
+
+    /**
+     * Registers the user with the server and waits for the confirmation.
+     * @param compressionThreshold minimum size of compressed messages, 0 to not offer compression
+     * @throws IOException if the connection fails
+     * @throws ChatProtocolException if the server rejects the registration
+     */
+    public void register(int compressionThreshold) throws IOException, ChatProtocolException {
+        String offer = compressionThreshold > 0 ? Compression.DEFLATE : null;
+        registrationTime = System.nanoTime();
+        connection.send(new Message(userName, Config.USER_NONE, Config.MessageType.CONNECT, offer));
+        Message response;
+        try {
+            response = connection.receive();
+        } catch (ClassNotFoundException e) {
+            throw new ChatProtocolException("Received object of unknown type: " + e.getMessage());
+        }
+        if (response.getType() != Config.MessageType.CONFIRM) {
+            throw new ChatProtocolException("Registration of " + userName + " failed: " + response.getPayload());
+        }
+        if (compressionThreshold > 0
+            && response.getPayload().endsWith(Config.CAPABILITIES_SEPARATOR + Compression.DEFLATE)) {
+            connection.enableCompression(compressionThreshold);
+        }
+    }
+
+    /**
+     * Sends a message from this user. Failures are counted, not thrown.
+     * @param receiver name of the receiving user or {@link Config#USER_ALL}
+     * @param payload  payload starting with the scheduled send time
+     */
+    public void send(String receiver, String payload) {
+        try {
+            connection.send(new Message(userName, receiver, Config.MessageType.MESSAGE, payload));
+        } catch (IOException e) {
+            statistics.sendFailed();
+        }
+    }
+
+    /**
+     * Receives messages until the connection is closed.
+     */
+    @Override
+    public void run() {
+        try {
+            while (connection.isAvailable()) {
+                Message message = connection.receive();
+                switch (message.getType()) {
+                    case MESSAGE -> {
+                        long sendTime = sendTimeOf(message);
+                        if (!userName.equals(message.getSender()) && sendTime >= registrationTime) {
+                            statistics.messageDelivered((System.nanoTime() - sendTime) / 1000);
+                        }
+                    }
+                    case ERROR -> statistics.errorReceived();
+                    default -> { }
+                }
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            if (!closing) {
+                statistics.connectionLost();
+            }
+        }
+    }
+
+    /**
+     * Unregisters the user and closes its connection.
+     */
+    public void close() {
+        closing = true;
+        try {
+            connection.send(new Message(userName, Config.USER_NONE, Config.MessageType.DISCONNECT, null));
+            connection.close();
+        } catch (IOException e) {
+            // the connection is gone anyway
+        }
+    }
+
+    /**
+     * @return the send time at the start of the payload, {@link Long#MIN_VALUE} if the message has not been sent by
+     * the load generator
+     */
+    private static long sendTimeOf(Message message) {
+        String payload = message.getPayload();
+        int end = payload.indexOf(' ');
+        try {
+            return Long.parseLong(payload, 0, end < 0 ? payload.length() : end, 10);
+        } catch (NumberFormatException e) {
+            return Long.MIN_VALUE;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package ch.zhaw.pm2.multichat.loadgen;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests reading the {@link LoadSettings} from system properties and rejecting invalid values.
+ */
+class LoadSettingsTest {
+
+    @AfterEach
+    void clearProperties() {
+        System.getProperties().stringPropertyNames().stream()
+            .filter(name -> name.startsWith(LoadSettings.PROPERTY_PREFIX))
+            .forEach(System::clearProperty);
+    }
+
+    @Test
+    void usesTheDefaultsWithoutProperties() {
+        LoadSettings settings = LoadSettings.fromSystemProperties();
+        assertEquals(100, settings.getConnections());
+        assertEquals(1000, settings.getRate());
+        assertEquals(30, settings.getDurationSeconds());
+        assertEquals(0.1, settings.getBroadcastRatio());
+    }
+
+    @Test
+    void overridesTheDefaultsUsingProperties() {
+        System.setProperty(LoadSettings.PROPERTY_PREFIX + "connections", "1000");
+        System.setProperty(LoadSettings.PROPERTY_PREFIX + "rate", "50000");
+        System.setProperty(LoadSettings.PROPERTY_PREFIX + "duration", "60");
+        System.setProperty(LoadSettings.PROPERTY_PREFIX + "broadcastRatio", "0.5");
+        System.setProperty(LoadSettings.PROPERTY_PREFIX + "payloadSize", "0");
+        System.setProperty(LoadSettings.PROPERTY_PREFIX + "reportInterval", "0");
+        LoadSettings settings = LoadSettings.fromSystemProperties();
+        assertEquals(1000, settings.getConnections());
+        assertEquals(50000, settings.getRate());
+        assertEquals(60, settings.getDurationSeconds());
+        assertEquals(0.5, settings.getBroadcastRatio());
+        assertEquals(0, settings.getPayloadSize());
+        assertEquals(0, settings.getReportIntervalSeconds());
+    }
+
+    @Test
+    void rejectsInvalidProperties() {
+        System.setProperty(LoadSettings.PROPERTY_PREFIX + "connections", "1");
+        assertThrows(IllegalArgumentException.class, LoadSettings::fromSystemProperties);
+        System.setProperty(LoadSettings.PROPERTY_PREFIX + "connections", "many");
+        assertThrows(NumberFormatException.class, LoadSettings::fromSystemProperties);
+        System.clearProperty(LoadSettings.PROPERTY_PREFIX + "connections");
+        System.setProperty(LoadSettings.PROPERTY_PREFIX + "broadcastRatio", "1.5");
+        assertThrows(IllegalArgumentException.class, LoadSettings::fromSystemProperties);
+    }
+
+    @Test
+    void rejectsInvalidValues() {
+        LoadSettings settings = new LoadSettings();
+        assertThrows(IllegalArgumentException.class, () -> settings.setRate(0));
+        assertThrows(IllegalArgumentException.class, () -> settings.setDurationSeconds(0));
+        assertThrows(IllegalArgumentException.class, () -> settings.setBroadcastRatio(-0.1));
+        assertThrows(IllegalArgumentException.class, () -> settings.setPayloadSize(-1));
+        assertThrows(IllegalArgumentException.class, () -> settings.setReportIntervalSeconds(-1));
+    }
+}
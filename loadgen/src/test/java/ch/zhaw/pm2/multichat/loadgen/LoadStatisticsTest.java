@@ -0,0 +1,68 @@
+package ch.zhaw.pm2.multichat.loadgen;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the counters and the reports of the {@link LoadStatistics}.
+ */
+class LoadStatisticsTest {
+
+    private final LoadStatistics statistics = new LoadStatistics();
+
+    @Test
+    void expectsADeliveryPerRecipient() {
+        statistics.messageSent(9);
+        statistics.messageSent(1);
+        statistics.messageDelivered(100);
+        assertEquals(2, statistics.getSent());
+        assertEquals(10, statistics.getExpectedDeliveries());
+        assertEquals(1, statistics.getDelivered());
+        assertEquals(1, statistics.getLatencies().getCount());
+    }
+
+    @Test
+    void sumsTheErrorsOfAllKinds() {
+        statistics.registrationFailed();
+        statistics.sendFailed();
+        statistics.sendFailed();
+        statistics.errorReceived();
+        statistics.connectionLost();
+        assertEquals(5, statistics.getErrors());
+        assertEquals("registration 1, send 2, server 1, disconnects 1", statistics.formatErrors());
+    }
+
+    @Test
+    void formatsTheLatenciesInMilliseconds() {
+        Locale locale = Locale.getDefault();
+        try {
+            Locale.setDefault(Locale.ROOT);
+            statistics.messageDelivered(20);
+            assertEquals("p50 0.02 ms, p99 0.02 ms, p99.9 0.02 ms, max 0.02 ms", statistics.formatLatencies());
+        } finally {
+            Locale.setDefault(locale);
+        }
+    }
+
+    @Test
+    void countsDeliveriesRecordedConcurrently() throws InterruptedException {
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            threads.add(Thread.ofVirtual().start(() -> {
+                for (int latency = 0; latency < 10_000; latency++) {
+                    statistics.messageDelivered(latency);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(40_000, statistics.getDelivered());
+        assertEquals(40_000, statistics.getLatencies().getCount());
+    }
+}
@@ -0,0 +1,180 @@
+package ch.zhaw.pm2.multichat.protocol;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflate compression of frames, agreed per connection during the CONNECT/CONFIRM handshake.
+ * <p>A compressed frame is marked by a flag in the upper bits of its length prefix, which are never used by the
+ * length itself (see {@link NetworkHandler#MAX_FRAME_LENGTH}). Receiving compressed frames is always supported,
+ * sending them has to be enabled using {@link NetworkHandler.NetworkConnection#enableCompression(int)} after the peer
+ * has accepted the {@value #DEFLATE} capability. Two kinds of compressed frames exist:</p>
+ * <ul>
+ *     <li>Stream compressed frames are compressed using a deflate context which lives as long as the connection,
+ *     so repetitive content is also found across frames. Each frame is flushed completely, the receiver inflates it
+ *     using its own long-living context.</li>
+ *     <li>Frames sent to many connections (see {@link Frame#shared()}) are compressed once using a context of their
+ *     own, and the compressed bytes are reused for every recipient.</li>
+ * </ul>
+ * <p>Each connection has its own instance. Compressing is done by the single thread holding the send lock of the
+ * connection, decompressing by the single thread receiving from it.</p>
+ */
+public final class Compression {
+    /** Name of the capability offered in the CONNECT request and accepted in the CONFIRM response */
+    public static final String DEFLATE = "deflate";
+
+    /** Name of the system property defining the compression threshold */
+    public static final String PROPERTY_THRESHOLD = "multichat.compressionThreshold";
+
+    /** Default minimum frame body size in bytes to be compressed */
+    public static final int DEFAULT_THRESHOLD = 512;
+
+    /** Length prefix flag of a frame compressed using its own deflate context */
+    static final int FLAG_DEFLATE = 0x80000000;
+
+    /** Length prefix flag of a frame compressed using the deflate context of the connection */
+    static final int FLAG_DEFLATE_STREAM = 0x40000000;
+
+    /** All flags of the length prefix */
+    static final int FLAG_MASK = FLAG_DEFLATE | FLAG_DEFLATE_STREAM;
+
+    /** Deflate may slightly expand data which does not compress, compressed frames may exceed the maximum by this */
+    static final int MAX_EXPANSION = 4 * 1024;
+
+    private static final int HEADER_LENGTH = Integer.BYTES;
+    private static final int CHUNK_SIZE = 8 * 1024;
+
+    private volatile int threshold = 0;
+    private Deflater streamDeflater;
+    private Inflater streamInflater;
+    private Inflater frameInflater;
+    private final byte[] chunk = new byte[CHUNK_SIZE];
+    private byte[] inflated = new byte[CHUNK_SIZE];
+
+    /**
+     * <b>Package private constructor: each {@link NetworkHandler.NetworkConnection} creates its own instance</b>
+     */
+    Compression() {
+    }
+
+    /**
+     * Returns the compression threshold configured using the system property {@value #PROPERTY_THRESHOLD}.
+     * @return minimum frame body size to be compressed, 0 if compression is disabled
+     * @throws IllegalArgumentException if the property is not a valid threshold
+     */
+    public static int configuredThreshold() {
+        int threshold = Integer.parseInt(System.getProperty(PROPERTY_THRESHOLD, String.valueOf(DEFAULT_THRESHOLD)));
+        if (threshold < 0) throw new IllegalArgumentException("Compression threshold must not be negative");
+        return threshold;
+    }
+
+    /**
+     * Enables compression of frames sent from now on, if their body has at least the given size.
+     * @param threshold minimum frame body size to be compressed, 0 to disable compression
+     */
+    void enable(int threshold) {
+        if (threshold < 0) throw new IllegalArgumentException("Compression threshold must not be negative");
+        this.threshold = threshold;
+    }
+
+    /**
+     * Returns the bytes to be written for the given frame: the frame itself if compression is disabled or the
+     * frame is too small, the compressed frame otherwise. Must be called in the order the frames are written.
+     * @param frame frame to send
+     * @return the bytes to write to the socket
+     */
+    byte[] prepare(Frame frame) {
+        int threshold = this.threshold;
+        if (threshold == 0 || frame.size() - HEADER_LENGTH < threshold) {
+            return frame.bytes();
+        }
+        if (frame.isShared()) {
+            return frame.deflated();
+        }
+        if (streamDeflater == null) {
+            streamDeflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        }
+        return deflate(streamDeflater, frame.bytes(), Deflater.SYNC_FLUSH, FLAG_DEFLATE_STREAM, chunk);
+    }
+
+    /**
+     * Compresses a frame using a deflate context of its own.
+     * @param frame complete frame including the length prefix
+     * @return the compressed frame, or the given frame if compressing does not make it smaller
+     */
+    static byte[] deflateFrame(byte[] frame) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            byte[] compressed = deflate(deflater, frame, Deflater.FULL_FLUSH, FLAG_DEFLATE, new byte[CHUNK_SIZE]);
+            return compressed.length < frame.length ? compressed : frame;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] deflate(Deflater deflater, byte[] frame, int flush, int flag, byte[] chunk) {
+        deflater.setInput(frame, HEADER_LENGTH, frame.length - HEADER_LENGTH);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(frame.length / 2 + HEADER_LENGTH);
+        out.write(frame, 0, HEADER_LENGTH);
+        int count;
+        do {
+            count = deflater.deflate(chunk, 0, chunk.length, flush);
+            out.write(chunk, 0, count);
+        } while (count == chunk.length || !deflater.needsInput());
+        byte[] compressed = out.toByteArray();
+        ByteBuffer.wrap(compressed).putInt(0, (compressed.length - HEADER_LENGTH) | flag);
+        return compressed;
+    }
+
+    /**
+     * Decompresses the body of a received frame.
+     * The returned buffer is only valid until the next frame is decompressed.
+     * @param flags  compression flags of the length prefix
+     * @param body   array holding the compressed frame body
+     * @param offset start of the frame body within the array
+     * @param length length of the frame body
+     * @return buffer holding the decompressed frame body
+     * @throws IOException if the frame is corrupt or exceeds {@link NetworkHandler#MAX_FRAME_LENGTH} when inflated
+     */
+    ByteBuffer inflate(int flags, byte[] body, int offset, int length) throws IOException {
+        Inflater inflater;
+        if (flags == FLAG_DEFLATE_STREAM) {
+            if (streamInflater == null) streamInflater = new Inflater(true);
+            inflater = streamInflater;
+        } else if (flags == FLAG_DEFLATE) {
+            if (frameInflater == null) frameInflater = new Inflater(true);
+            inflater = frameInflater;
+            inflater.reset();
+        } else {
+            throw new StreamCorruptedException("Invalid frame flags: " + Integer.toHexString(flags));
+        }
+        inflater.setInput(body, offset, length);
+        int size = 0;
+        try {
+            while (true) {
+                if (size == inflated.length) {
+                    if (size >= NetworkHandler.MAX_FRAME_LENGTH) {
+                        if (inflater.inflate(new byte[1]) > 0) {
+                            throw new StreamCorruptedException("Inflated frame exceeds maximum frame length");
+                        }
+                        break;
+                    }
+                    inflated = Arrays.copyOf(inflated, Math.min(size * 2, NetworkHandler.MAX_FRAME_LENGTH));
+                }
+                int count = inflater.inflate(inflated, size, inflated.length - size);
+                size += count;
+                if (inflater.needsDictionary()) throw new StreamCorruptedException("Compressed frame needs dictionary");
+                if (count == 0 && (inflater.needsInput() || inflater.finished())) break;
+            }
+        } catch (DataFormatException e) {
+            throw new StreamCorruptedException("Corrupt compressed frame: " + e.getMessage());
+        }
+        return ByteBuffer.wrap(inflated, 0, size);
+    }
+}
@@ -1,81 +1,124 @@
-package ch.zhaw.pm2.multichat.protocol;
-
-/**
- * Contains configuration parameters and enums used in the chat protocol
- */
-public class Config {
-
-    /**
-     * Enum defining the type of messages that can be sent
-     */
-	public enum MessageType {
-		INFO, CONNECT, CONFIRM, DISCONNECT, MESSAGE, ERROR;
-	}
-
-    /**
-     * Enum defining the different states of the connection handler
-     */
-	public enum State {
-		NEW, CONFIRM_CONNECT, CONNECTED, CONFIRM_DISCONNECT, DISCONNECTED;
-	}
-
-    /**
-     * Exception message for invalid message format
-     */
-    public static final String NOT_VALID_MESSAGE = "Not a valid message format.";
-
-    /**
-     * Exception message for missing connection handler
-     */
-    public static final String NO_CONNECTION_HANDLER = "No connection handler";
-
-    /**
-     * Exception message for closed connection
-     */
-    public static final String CONNECTION_CLOSED = "Connection to the server has been closed";
-
-    /**
-     * Exception message for attempting to send message to oneself
-     */
-    public static final String MESSAGE_TO_YOURSELF = "Can't send messages to yourself";
-
-    /**
-     * Exception message for unexpected message type
-     */
-    public static final String UNEXPECTED_MESSAGE = "Unexpected message type: ";
-
-    /**
-     * Format string for informational messages
-     */
-    public static final String INFO_FORMAT = "[INFO] %s\n";
-
-    /**
-     * Format string for message sent by a user to another user
-     */
-    public static final String Message_FORMAT = "[%s -> %s] %s\n";
-
-    /**
-     * Format string for error messages
-     */
-    public static final String ERROR_FORMAT = "[ERROR] %s\n";
-
-    /**
-     * Success message for user registration
-     */
-    public static final String REGISTRATION_SUCCESSFUL = "Registration successful for ";
-
-    /**
-     * Constant for no user
-     */
-	public static final String USER_NONE = "";
-
-    /**
-     * Constant for all users
-     */
-	public static final String USER_ALL = "*";
-
-    /**
-     * Exception message for empty messages
-     */
-    public static final String EMPTY_MESSAGE = "Message is empty.";
-}
+package ch.zhaw.pm2.multichat.protocol;
+
+/**
+ * Contains configuration parameters and enums used in the chat protocol
+ */
+public class Config {
+
+    /**
+     * Enum defining the type of messages that can be sent.
+     * JOIN, LEAVE and LIST address a room as receiver and are answered by the server with a message of the same type.
+     * CREDIT grants the peer the number of frames given in the payload (see {@link FlowControl}).
+     * HEARTBEAT is sent by the server to an idle client, which answers with a HEARTBEAT as well.
+     */
+	public enum MessageType {
+		INFO, CONNECT, CONFIRM, DISCONNECT, MESSAGE, ERROR, JOIN, LEAVE, LIST, CREDIT, HEARTBEAT;
+	}
+
+    /**
+     * Enum defining the different states of the connection handler
+     */
+	public enum State {
+		NEW, CONFIRM_CONNECT, CONNECTED, CONFIRM_DISCONNECT, DISCONNECTED;
+	}
+
+    /**
+     * Exception message for invalid message format
+     */
+    public static final String NOT_VALID_MESSAGE = "Not a valid message format.";
+
+    /**
+     * Exception message for missing connection handler
+     */
+    public static final String NO_CONNECTION_HANDLER = "No connection handler";
+
+    /**
+     * Exception message for closed connection
+     */
+    public static final String CONNECTION_CLOSED = "Connection to the server has been closed";
+
+    /**
+     * Exception message for attempting to send message to oneself
+     */
+    public static final String MESSAGE_TO_YOURSELF = "Can't send messages to yourself";
+
+    /**
+     * Error message for a message discarded because too many messages are waiting for credits
+     */
+    public static final String SEND_QUEUE_FULL = "Too many messages waiting to be sent, message discarded";
+
+    /**
+     * Exception message for unexpected message type
+     */
+    public static final String UNEXPECTED_MESSAGE = "Unexpected message type: ";
+
+    /**
+     * Format string for informational messages
+     */
+    public static final String INFO_FORMAT = "[INFO] %s";
+
+    /**
+     * Format string for message sent by a user to another user
+     */
+    public static final String Message_FORMAT = "[%s -> %s] %s";
+
+    /**
+     * Format string for error messages
+     */
+    public static final String ERROR_FORMAT = "[ERROR] %s";
+
+    /**
+     * Success message for user registration
+     */
+    public static final String REGISTRATION_SUCCESSFUL = "Registration successful for ";
+
+    /**
+     * Separates the text of a CONFIRM payload from the capabilities accepted by the server,
+     * only present if the client offered capabilities in the payload of its CONNECT request
+     */
+    public static final String CAPABILITIES_SEPARATOR = "\ncapabilities: ";
+
+    /**
+     * Separates the capabilities offered by the client or accepted by the server
+     */
+    public static final String CAPABILITY_DELIMITER = ",";
+
+    /**
+     * Capability to replay the chat history on connect. Offered by the client either alone or followed by
+     * {@link #CAPABILITY_VALUE_SEPARATOR} and the log position received on the last connect, accepted by the server
+     * together with the log position after the replayed messages.
+     */
+    public static final String CAPABILITY_REPLAY = "replay";
+
+    /**
+     * Capability to answer HEARTBEAT messages. Offered by the client, accepted by the server together with the
+     * heartbeat interval in milliseconds. Idle clients which accepted it are sent heartbeats and are disconnected if
+     * they stop answering.
+     */
+    public static final String CAPABILITY_HEARTBEAT = "heartbeat";
+
+    /**
+     * Separates the name of a capability from its value
+     */
+    public static final String CAPABILITY_VALUE_SEPARATOR = "=";
+
+    /**
+     * Constant for no user
+     */
+	public static final String USER_NONE = "";
+
+    /**
+     * Constant for all users
+     */
+	public static final String USER_ALL = "*";
+
+    /**
+     * Prefix of room names, a receiver starting with it addresses all members of the room
+     */
+	public static final String ROOM_PREFIX = "#";
+
+    /**
+     * Exception message for empty messages
+     */
+    public static final String EMPTY_MESSAGE = "Message is empty.";
+}
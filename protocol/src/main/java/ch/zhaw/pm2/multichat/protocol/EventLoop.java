@@ -0,0 +1,138 @@
+package ch.zhaw.pm2.multichat.protocol;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Single threaded selector loop driving a set of {@link NetworkHandler.SelectorConnection} objects.
+ * All channel registrations, interest changes and receive callbacks of a connection happen on the thread of the
+ * event loop the connection has been assigned to. Other threads hand over work using {@link #execute(Runnable)}.
+ */
+class EventLoop implements Runnable, Closeable {
+    private static final Log LOG = Log.get("network.eventloop");
+    private final Selector selector;
+    private final Thread thread;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private volatile boolean running = true;
+
+    /**
+     * Opens a new selector and starts the loop in a new daemon thread with the given name.
+     * @param name name of the event loop thread
+     * @throws IOException if the selector could not be opened
+     */
+    EventLoop(String name) throws IOException {
+        this.selector = Selector.open();
+        this.thread = new Thread(this, name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    Selector getSelector() {
+        return selector;
+    }
+
+    /**
+     * Indicates if the calling thread is the thread of this event loop.
+     * @return true if called from within the event loop, false otherwise
+     */
+    boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Schedules the given task to be run on the event loop thread.
+     * @param task task to run
+     */
+    void execute(Runnable task) {
+        tasks.add(task);
+        if (!inEventLoop()) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Waits for ready channels and dispatches read and write events to the attached connections until the loop
+     * is closed. Closing the loop closes all connections still registered with it.
+     */
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                // tasks queued by the loop itself (e.g. close notifications) did not wake up the selector
+                if (tasks.isEmpty()) {
+                    selector.select();
+                } else {
+                    selector.selectNow();
+                }
+                runTasks();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    processKey(key);
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            LOG.error("Event loop %s failed: %s", thread.getName(), e.getMessage());
+        } finally {
+            closeAll();
+        }
+    }
+
+    private void processKey(SelectionKey key) {
+        NetworkHandler.SelectorConnection<?> connection = (NetworkHandler.SelectorConnection<?>) key.attachment();
+        try {
+            if (key.isValid() && key.isReadable()) {
+                connection.handleReadable();
+            }
+            if (key.isValid() && key.isWritable()) {
+                connection.handleWritable();
+            }
+        } catch (IOException e) {
+            connection.closeWithCause(e);
+        } catch (RuntimeException e) {
+            LOG.error("Closing connection after unexpected error: %s", e);
+            connection.closeWithCause(new IOException(e));
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                LOG.error("Event loop task failed: %s", e.getMessage());
+            }
+        }
+    }
+
+    private void closeAll() {
+        runTasks();
+        try {
+            for (SelectionKey key : selector.keys()) {
+                ((NetworkHandler.SelectorConnection<?>) key.attachment()).close();
+            }
+            runTasks();
+            selector.close();
+        } catch (IOException | ClosedSelectorException e) {
+            LOG.error("Failed to close event loop %s: %s", thread.getName(), e.getMessage());
+        }
+    }
+
+    /**
+     * Stops the event loop. All connections registered with this loop are closed.
+     * If the loop is already closed then invoking this method has no effect.
+     */
+    @Override
+    public void close() {
+        running = false;
+        selector.wakeup();
+    }
+}
@@ -0,0 +1,140 @@
+package ch.zhaw.pm2.multichat.protocol;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Credit based flow control of a connection, agreed during the CONNECT/CONFIRM handshake.
+ * <p>Each peer advertises the window of frames it accepts using the {@value #CREDIT} capability: the client in its
+ * CONNECT request, the server in its CONFIRM response. A peer may only send as many frames as it has credits; all
+ * frames count except CONNECT and {@link Config.MessageType#CREDIT CREDIT}. The receiver grants new credits with a
+ * CREDIT message once it has processed half of its window, its payload holding the number of frames granted. A sender
+ * without credits keeps its frames in a bounded local queue until credits arrive, so neither peer ever buffers more
+ * than a window of frames sent by the other. HEARTBEAT messages do not count either.</p>
+ * <p>Each connection has its own instance. Credits to send may be taken and granted by any thread, the received
+ * frames are counted by the single thread receiving from the connection.</p>
+ */
+public final class FlowControl {
+    /** Name of the capability offered in the CONNECT request and accepted in the CONFIRM response */
+    public static final String CREDIT = "credit";
+
+    /** Name of the system property defining the window */
+    public static final String PROPERTY_WINDOW = "multichat.creditWindow";
+
+    /** Default number of frames a peer may send before it needs new credits */
+    public static final int DEFAULT_WINDOW = 256;
+
+    private final int receiveWindow;
+    private final AtomicInteger sendCredits;
+    private int receiveCredits;
+    private int processed;
+
+    /**
+     * Creates the flow control of a connection after the handshake.
+     * @param receiveWindow number of frames this side accepts, as advertised to the peer
+     * @param sendWindow    number of frames the peer accepts, as advertised by the peer
+     */
+    public FlowControl(int receiveWindow, int sendWindow) {
+        if (receiveWindow < 1 || sendWindow < 1) throw new IllegalArgumentException("Window must be positive");
+        this.receiveWindow = receiveWindow;
+        this.receiveCredits = receiveWindow;
+        this.sendCredits = new AtomicInteger(sendWindow);
+    }
+
+    /**
+     * Returns the window configured using the system property {@value #PROPERTY_WINDOW}.
+     * @return number of frames accepted from the peer, 0 if flow control is disabled
+     * @throws IllegalArgumentException if the property is not a valid window
+     */
+    public static int configuredWindow() {
+        int window = Integer.parseInt(System.getProperty(PROPERTY_WINDOW, String.valueOf(DEFAULT_WINDOW)));
+        if (window < 0) throw new IllegalArgumentException("Credit window must not be negative");
+        return window;
+    }
+
+    /**
+     * Formats the capability advertising a window.
+     * @param window number of frames accepted
+     * @return the capability, e.g. {@code credit=256}
+     */
+    public static String capability(int window) {
+        return CREDIT + Config.CAPABILITY_VALUE_SEPARATOR + window;
+    }
+
+    /**
+     * Parses the window advertised by a capability.
+     * @param capability a capability of the CONNECT or CONFIRM payload
+     * @return the window, or 0 if the capability is not a valid {@value #CREDIT} capability
+     */
+    public static int parseCapability(String capability) {
+        String prefix = CREDIT + Config.CAPABILITY_VALUE_SEPARATOR;
+        if (!capability.startsWith(prefix)) return 0;
+        try {
+            return Math.max(0, Integer.parseInt(capability.substring(prefix.length())));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Indicates if frames of the given type are subject to flow control.
+     * @param type type of the frame
+     * @return false for CONNECT, CREDIT and HEARTBEAT, true for all other types
+     */
+    public static boolean isCounted(Config.MessageType type) {
+        return type != Config.MessageType.CONNECT && type != Config.MessageType.CREDIT
+            && type != Config.MessageType.HEARTBEAT;
+    }
+
+    /**
+     * Takes a credit to send a frame.
+     * @return true if a credit has been taken, false if the sender has to wait for new credits
+     */
+    public boolean tryAcquire() {
+        while (true) {
+            int credits = sendCredits.get();
+            if (credits <= 0) return false;
+            if (sendCredits.compareAndSet(credits, credits - 1)) return true;
+        }
+    }
+
+    /**
+     * Adds the credits granted by the peer.
+     * @param credits number of frames granted
+     */
+    public void grant(int credits) {
+        if (credits > 0) {
+            sendCredits.addAndGet(credits);
+        }
+    }
+
+    /**
+     * Returns the number of frames which may be sent without waiting for new credits.
+     * @return available credits
+     */
+    public int getSendCredits() {
+        return sendCredits.get();
+    }
+
+    /**
+     * Counts a frame received from the peer.
+     * @return true if the peer had a credit for the frame, false if it exceeded the window
+     */
+    public boolean received() {
+        if (receiveCredits <= 0) return false;
+        receiveCredits--;
+        return true;
+    }
+
+    /**
+     * Counts a received frame as processed and returns the credits to grant to the peer, once half of the window
+     * has been processed.
+     * @return number of credits to send in a CREDIT message, 0 if none are due yet
+     */
+    public int processed() {
+        if (++processed < Math.max(1, receiveWindow / 2)) return 0;
+        int credits = processed;
+        processed = 0;
+        receiveCredits += credits;
+        return credits;
+    }
+}
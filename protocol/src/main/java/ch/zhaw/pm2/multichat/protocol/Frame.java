@@ -0,0 +1,113 @@
+package ch.zhaw.pm2.multichat.protocol;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Immutable, completely encoded frame (length prefix and body) as it is written to the network.
+ * A frame is created once using {@link NetworkHandler.NetworkConnection#encode} and can then be sent to any number
+ * of connections using the same wire format, without encoding the object again for every recipient.
+ * <p>A frame can also be backed by a buffer outside the heap, e.g. a memory-mapped file holding frames encoded
+ * earlier (see {@link #wrap(ByteBuffer)}). Such a frame is written to the network straight from its buffer and is
+ * never compressed.</p>
+ */
+public final class Frame {
+    private final byte[] bytes;
+    private final ByteBuffer buffer;
+    private final boolean shared;
+    private volatile byte[] deflated;
+
+    /**
+     * <b>Package private constructor: frames are created by {@link NetworkHandler.NetworkConnection#encode}</b>
+     * @param bytes complete frame, must not be modified afterwards
+     */
+    Frame(byte[] bytes) {
+        this(bytes, null, false);
+    }
+
+    private Frame(byte[] bytes, ByteBuffer buffer, boolean shared) {
+        this.bytes = bytes;
+        this.buffer = buffer;
+        this.shared = shared;
+    }
+
+    /**
+     * Creates a frame over an encoded frame held in the given buffer, without copying it. The bytes must have been
+     * encoded by a connection using the same wire format as the connections the frame is sent to, and must not be
+     * modified as long as the frame is in use.
+     * @param frame buffer holding exactly one uncompressed frame between its position and its limit
+     * @return the frame, sharing the content of the buffer
+     * @throws IllegalArgumentException if the length prefix does not match the remaining bytes of the buffer
+     */
+    public static Frame wrap(ByteBuffer frame) {
+        ByteBuffer content = frame.slice().asReadOnlyBuffer();
+        if (content.remaining() < Integer.BYTES || content.getInt(0) != content.remaining() - Integer.BYTES) {
+            throw new IllegalArgumentException("Buffer does not hold a single uncompressed frame");
+        }
+        return new Frame(null, content, false);
+    }
+
+    /**
+     * Returns this frame marked to be sent to many connections, e.g. for a broadcast.
+     * Connections using compression (see {@link Compression}) compress a shared frame only once and send the same
+     * compressed bytes to every recipient, instead of compressing it again using the context of each connection.
+     * @return the shared frame, using the same bytes as this frame
+     */
+    public Frame shared() {
+        return shared ? this : new Frame(bytes, buffer, true);
+    }
+
+    /**
+     * Indicates if the frame is sent to many connections (see {@link #shared()}).
+     * @return true if the frame is shared, false otherwise
+     */
+    public boolean isShared() {
+        return shared;
+    }
+
+    /**
+     * Returns the size of the frame on the wire.
+     * @return number of bytes including the length prefix
+     */
+    public int size() {
+        return bytes != null ? bytes.length : buffer.remaining();
+    }
+
+    /**
+     * Returns a new read-only buffer over the frame. Every caller gets its own position, the bytes are shared.
+     * @return read-only buffer positioned at the start of the frame
+     */
+    public ByteBuffer buffer() {
+        return bytes != null ? ByteBuffer.wrap(bytes).asReadOnlyBuffer() : buffer.duplicate();
+    }
+
+    /**
+     * Indicates if the frame is backed by a buffer (see {@link #wrap(ByteBuffer)}) instead of an array on the heap.
+     * @return true if the frame has to be written using {@link #buffer()}, false if {@link #bytes()} is available
+     */
+    boolean isBuffered() {
+        return bytes == null;
+    }
+
+    /**
+     * Direct access to the shared frame bytes for writing them to a stream. The array must not be modified.
+     * Only available if the frame is not {@link #isBuffered() buffered}.
+     * @return the frame bytes
+     */
+    byte[] bytes() {
+        return bytes;
+    }
+
+    /**
+     * Returns the frame compressed using its own deflate context. The frame is compressed by the first caller,
+     * all later callers get the same bytes.
+     * @return the compressed frame, or the frame itself if compressing does not make it smaller
+     */
+    byte[] deflated() {
+        byte[] result = deflated;
+        if (result == null) {
+            result = Compression.deflateFrame(bytes);
+            deflated = result;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,35 @@
+package ch.zhaw.pm2.multichat.protocol;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+
+/**
+ * Converts the objects transmitted through a {@link NetworkHandler.NetworkConnection} into the body of a frame and
+ * back. The length prefix of each frame is handled by the connection itself.
+ * <p>Each connection uses its own codec instance. {@link #decode} is only called by the single thread receiving from
+ * the connection, so a codec may keep scratch state for decoding. {@link #encode} may be called concurrently by
+ * several sending threads and must be thread-safe.</p>
+ * @param <T> type of Objects transmitted through the connection
+ */
+public interface FrameCodec<T extends Serializable> {
+
+    /**
+     * Writes the frame body representing the given object.
+     * @param data object to encode
+     * @param out  stream to write the frame body to
+     * @throws IOException if the object can not be encoded
+     */
+    void encode(T data, OutputStream out) throws IOException;
+
+    /**
+     * Reads an object from the given frame body.
+     * @param body   array holding the frame body
+     * @param offset start of the frame body within the array
+     * @param length length of the frame body
+     * @return the decoded object
+     * @throws IOException if the frame body is corrupt
+     * @throws ClassNotFoundException if the frame refers to a class not available in the local classpath
+     */
+    T decode(byte[] body, int offset, int length) throws IOException, ClassNotFoundException;
+}
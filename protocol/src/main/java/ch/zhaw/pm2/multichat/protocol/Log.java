@@ -0,0 +1,176 @@
+package ch.zhaw.pm2.multichat.protocol;
+
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Asynchronous logger of a category (e.g. {@code server.connection}), used instead of printing to
+ * {@link System#out} directly.
+ * <p>Logging never blocks the calling thread: enabled entries are stored in a lock-free ring buffer and formatted and
+ * written to the console by a single background thread (see {@link LogBuffer}), so the threads handling messages do
+ * not contend on the lock of the console stream. Entries of level {@link Level#WARN} and above are written to
+ * {@link System#err}, all others to {@link System#out}. If the buffer is full, entries are dropped and the number of
+ * dropped entries is reported later.</p>
+ * <p>The message is a format string as used by {@link String#format(String, Object...)}. It is only formatted by the
+ * background thread, so disabled entries cost a single level check. The overloads taking up to three arguments avoid
+ * allocating an argument array; arguments of primitive types are still boxed, so calls on the message path should be
+ * guarded using {@link #isDebugEnabled()} if they pass numbers.</p>
+ * <p>The level of each category is configured using system properties: {@code multichat.log.level} sets the default
+ * (INFO), {@code multichat.log.level.<category>} the level of a category and all its sub-categories, e.g.
+ * {@code -Dmultichat.log.level.server.connection=DEBUG}. The level can also be changed at runtime using
+ * {@link #setLevel(Level)}.</p>
+ */
+public final class Log {
+
+    /**
+     * Severity of a log entry. A category writes all entries of its level and above.
+     */
+    public enum Level {
+        DEBUG, INFO, WARN, ERROR,
+        /** Disables a category, only usable as level of a category */
+        OFF
+    }
+
+    /** Prefix of the system properties configuring the levels */
+    public static final String PROPERTY_LEVEL = "multichat.log.level";
+
+    /** Level of all categories, which have no level of their own */
+    public static final Level DEFAULT_LEVEL = Level.INFO;
+
+    private static final ConcurrentMap<String, Log> categories = new ConcurrentHashMap<>();
+
+    private final String category;
+    private volatile int threshold;
+
+    private Log(String category, Level level) {
+        this.category = category;
+        this.threshold = level.ordinal();
+    }
+
+    /**
+     * Returns the logger of the given category, creating it with the configured level if necessary.
+     * Loggers are meant to be stored in a static field of the class using it.
+     * @param category name of the category, parts separated by dots (e.g. {@code server.connection})
+     * @return the logger of the category
+     */
+    public static Log get(String category) {
+        return categories.computeIfAbsent(category, name -> new Log(name, configuredLevel(name)));
+    }
+
+    /**
+     * Looks up the level configured for the category or the nearest parent category, the default level otherwise.
+     * @param category name of the category
+     * @return the configured level
+     * @throws IllegalArgumentException if a property has an invalid value
+     */
+    private static Level configuredLevel(String category) {
+        String name = category;
+        while (!name.isEmpty()) {
+            String level = System.getProperty(PROPERTY_LEVEL + "." + name);
+            if (level != null) return Level.valueOf(level.toUpperCase(Locale.ROOT));
+            int separator = name.lastIndexOf('.');
+            name = separator < 0 ? "" : name.substring(0, separator);
+        }
+        return Level.valueOf(System.getProperty(PROPERTY_LEVEL, DEFAULT_LEVEL.name()).toUpperCase(Locale.ROOT));
+    }
+
+    /**
+     * @return name of the category of this logger
+     */
+    public String getCategory() {
+        return category;
+    }
+
+    /**
+     * @return the minimum level of the entries written by this logger
+     */
+    public Level getLevel() {
+        return Level.values()[threshold];
+    }
+
+    /**
+     * Changes the minimum level of the entries written by this logger.
+     * @param level new level, {@link Level#OFF} to disable the category
+     */
+    public void setLevel(Level level) {
+        this.threshold = level.ordinal();
+    }
+
+    /**
+     * Indicates if entries of the given level are written.
+     * @param level the level to check
+     * @return true if entries of the level are written, false if they are discarded
+     */
+    public boolean isEnabled(Level level) {
+        return level.ordinal() >= threshold;
+    }
+
+    /**
+     * @return true if debug entries (e.g. one per message) are written
+     */
+    public boolean isDebugEnabled() {
+        return threshold <= Level.DEBUG.ordinal();
+    }
+
+    public void debug(String message) {
+        log(Level.DEBUG, message, null, null, null, 0);
+    }
+
+    public void debug(String format, Object arg) {
+        log(Level.DEBUG, format, arg, null, null, 1);
+    }
+
+    public void debug(String format, Object arg1, Object arg2) {
+        log(Level.DEBUG, format, arg1, arg2, null, 2);
+    }
+
+    public void debug(String format, Object arg1, Object arg2, Object arg3) {
+        log(Level.DEBUG, format, arg1, arg2, arg3, 3);
+    }
+
+    public void info(String message) {
+        log(Level.INFO, message, null, null, null, 0);
+    }
+
+    public void info(String format, Object arg) {
+        log(Level.INFO, format, arg, null, null, 1);
+    }
+
+    public void info(String format, Object arg1, Object arg2) {
+        log(Level.INFO, format, arg1, arg2, null, 2);
+    }
+
+    public void info(String format, Object arg1, Object arg2, Object arg3) {
+        log(Level.INFO, format, arg1, arg2, arg3, 3);
+    }
+
+    public void warn(String message) {
+        log(Level.WARN, message, null, null, null, 0);
+    }
+
+    public void warn(String format, Object arg) {
+        log(Level.WARN, format, arg, null, null, 1);
+    }
+
+    public void warn(String format, Object arg1, Object arg2) {
+        log(Level.WARN, format, arg1, arg2, null, 2);
+    }
+
+    public void error(String message) {
+        log(Level.ERROR, message, null, null, null, 0);
+    }
+
+    public void error(String format, Object arg) {
+        log(Level.ERROR, format, arg, null, null, 1);
+    }
+
+    public void error(String format, Object arg1, Object arg2) {
+        log(Level.ERROR, format, arg1, arg2, null, 2);
+    }
+
+    private void log(Level level, String format, Object arg1, Object arg2, Object arg3, int argCount) {
+        if (level.ordinal() < threshold) return;
+        LogBuffer.instance().offer(this, level, format, arg1, arg2, arg3, argCount);
+    }
+}
@@ -0,0 +1,231 @@
+package ch.zhaw.pm2.multichat.protocol;
+
+import java.io.PrintStream;
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.IllegalFormatException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded, lock-free ring buffer of log entries, drained by a single background thread writing them to the console.
+ * <p>Any number of threads may add entries. Each slot of the ring has a sequence number telling whether it is free
+ * for the producer of a given position or holds an entry for the consumer (see D. Vyukov's bounded MPMC queue):
+ * a producer claims a position by a compare-and-set on the tail and publishes the entry by advancing the sequence of
+ * the slot, the writer thread releases the slot again after writing the entry. The entries are preallocated and
+ * reused, so logging does not allocate apart from boxing arguments. If the ring is full, the entry is dropped instead
+ * of blocking the caller.</p>
+ * <p>Remaining entries are written by a shutdown hook when the JVM exits.</p>
+ */
+final class LogBuffer implements Runnable {
+
+    /** Name of the system property defining the number of entries buffered */
+    static final String PROPERTY_CAPACITY = "multichat.log.bufferSize";
+
+    /** Default number of entries buffered, rounded up to a power of two */
+    static final int DEFAULT_CAPACITY = 8 * 1024;
+
+    /** Maximum time the writer sleeps before checking for entries without having been woken up */
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss.SSS");
+    private static final ZoneId ZONE = ZoneId.systemDefault();
+
+    private static final class Holder {
+        static final LogBuffer INSTANCE = new LogBuffer(Integer.getInteger(PROPERTY_CAPACITY, DEFAULT_CAPACITY));
+    }
+
+    /**
+     * Mutable log entry stored in a slot of the ring.
+     */
+    private static final class Entry {
+        Log log;
+        Log.Level level;
+        long timeMillis;
+        String threadName;
+        String format;
+        Object arg1;
+        Object arg2;
+        Object arg3;
+        int argCount;
+
+        void clear() {
+            log = null;
+            format = null;
+            threadName = null;
+            arg1 = arg2 = arg3 = null;
+        }
+    }
+
+    private final Entry[] entries;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread writer;
+    private final StringBuilder line = new StringBuilder(256);
+    private volatile long head;
+    private volatile boolean writerParked;
+    private volatile boolean running = true;
+    private long droppedReported;
+
+    private LogBuffer(int requestedCapacity) {
+        int capacity = Integer.highestOneBit(Math.max(2, requestedCapacity) * 2 - 1);
+        this.entries = new Entry[capacity];
+        this.sequences = new AtomicLongArray(capacity);
+        this.mask = capacity - 1;
+        for (int i = 0; i < capacity; i++) {
+            entries[i] = new Entry();
+            sequences.set(i, i);
+        }
+        this.writer = new Thread(this, "log-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown, "log-shutdown"));
+    }
+
+    /**
+     * @return the buffer of the JVM, created and started on first use
+     */
+    static LogBuffer instance() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * Adds an entry without blocking. The entry is dropped if the buffer is full.
+     * @return true if the entry has been added, false if it has been dropped
+     */
+    boolean offer(Log log, Log.Level level, String format, Object arg1, Object arg2, Object arg3, int argCount) {
+        long position = tail.get();
+        int index;
+        while (true) {
+            index = (int) (position & mask);
+            long difference = sequences.getAcquire(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) break;
+                position = tail.get();
+            } else if (difference < 0) {
+                dropped.incrementAndGet();
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+        Entry entry = entries[index];
+        entry.log = log;
+        entry.level = level;
+        entry.timeMillis = System.currentTimeMillis();
+        entry.threadName = Thread.currentThread().getName();
+        entry.format = format;
+        entry.arg1 = arg1;
+        entry.arg2 = arg2;
+        entry.arg3 = arg3;
+        entry.argCount = argCount;
+        // volatile publish: must not be reordered with the following read, see run()
+        sequences.set(index, position + 1);
+        if (writerParked) {
+            LockSupport.unpark(writer);
+        }
+        return true;
+    }
+
+    /**
+     * Writer thread: writes all published entries, then sleeps until woken up by a producer.
+     */
+    @Override
+    public void run() {
+        while (running) {
+            if (!drain()) {
+                writerParked = true;
+                if (!hasEntries()) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+                writerParked = false;
+            }
+        }
+        drain();
+    }
+
+    /**
+     * Checks for a published entry after announcing that the writer is about to park. Together with the volatile
+     * publish in {@link #offer}, either the writer sees the new entry or the producer sees the writer parking.
+     */
+    private boolean hasEntries() {
+        long position = head;
+        return sequences.get((int) (position & mask)) == position + 1;
+    }
+
+    /**
+     * Writes all published entries, flushing the console streams once at the end.
+     * Must only be called by a single thread at a time.
+     * @return true if at least one entry has been written
+     */
+    private synchronized boolean drain() {
+        long position = head;
+        boolean written = false;
+        boolean toErr = false;
+        boolean toOut = false;
+        while (true) {
+            int index = (int) (position & mask);
+            if (sequences.getAcquire(index) != position + 1) break;
+            Entry entry = entries[index];
+            boolean error = entry.level.compareTo(Log.Level.WARN) >= 0;
+            write(error ? System.err : System.out, entry);
+            toErr |= error;
+            toOut |= !error;
+            entry.clear();
+            sequences.setRelease(index, position + entries.length);
+            head = ++position;
+            written = true;
+        }
+        long droppedCount = dropped.get();
+        if (droppedCount != droppedReported) {
+            System.err.println("[log] " + (droppedCount - droppedReported) + " entries dropped, log buffer full");
+            droppedReported = droppedCount;
+        }
+        if (toOut) System.out.flush();
+        if (toErr) System.err.flush();
+        return written;
+    }
+
+    private void write(PrintStream stream, Entry entry) {
+        line.setLength(0);
+        TIME_FORMAT.formatTo(LocalTime.ofInstant(Instant.ofEpochMilli(entry.timeMillis), ZONE), line);
+        line.append(' ').append(entry.level.name());
+        if (entry.level.name().length() < 5) line.append(' ');
+        line.append(" [").append(entry.threadName).append("] ").append(entry.log.getCategory()).append(" - ");
+        line.append(format(entry));
+        stream.println(line);
+    }
+
+    private static String format(Entry entry) {
+        try {
+            return switch (entry.argCount) {
+                case 0 -> entry.format;
+                case 1 -> String.format(entry.format, entry.arg1);
+                case 2 -> String.format(entry.format, entry.arg1, entry.arg2);
+                default -> String.format(entry.format, entry.arg1, entry.arg2, entry.arg3);
+            };
+        } catch (IllegalFormatException e) {
+            return entry.format + " (invalid format: " + e.getMessage() + ")";
+        }
+    }
+
+    /**
+     * Stops the writer thread after writing the remaining entries. Called by the shutdown hook.
+     */
+    private void shutdown() {
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        drain();
+    }
+}
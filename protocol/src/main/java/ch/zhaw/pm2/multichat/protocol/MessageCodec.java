@@ -0,0 +1,101 @@
+package ch.zhaw.pm2.multichat.protocol;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+/**
+ * Compact binary {@link FrameCodec} for {@link Message} objects ({@link WireFormat#BINARY}).
+ * <p>Layout of a frame body (all numbers big endian):</p>
+ * <ul>
+ *     <li>1 byte: format version ({@link #FORMAT_VERSION})</li>
+ *     <li>1 byte: ordinal of the {@link Config.MessageType}</li>
+ *     <li>1 byte: flags, indicating which of the optional fields sender, receiver and payload are present</li>
+ *     <li>sender and receiver (if present): 2 byte length followed by the UTF-8 encoded name</li>
+ *     <li>payload (if present): 4 byte length followed by the UTF-8 encoded text</li>
+ * </ul>
+ * <p>The codec is stateless and therefore thread-safe.</p>
+ */
+public class MessageCodec implements FrameCodec<Message> {
+    /**
+     * Version of the binary format, written as first byte of each frame.
+     * Chosen to never collide with the first byte of a Java serialization stream (0xAC).
+     */
+    public static final byte FORMAT_VERSION = 1;
+
+    private static final Config.MessageType[] MESSAGE_TYPES = Config.MessageType.values();
+    private static final int HAS_SENDER = 1;
+    private static final int HAS_RECEIVER = 1 << 1;
+    private static final int HAS_PAYLOAD = 1 << 2;
+    private static final int MAX_NAME_LENGTH = 0xFFFF;
+
+    @Override
+    public void encode(Message message, OutputStream out) throws IOException {
+        Objects.requireNonNull(message.getType(), "Message type must not be null");
+        byte[] sender = toBytes(message.getSender());
+        byte[] receiver = toBytes(message.getReceiver());
+        byte[] payload = toBytes(message.getPayload());
+        int flags = (sender != null ? HAS_SENDER : 0)
+            | (receiver != null ? HAS_RECEIVER : 0)
+            | (payload != null ? HAS_PAYLOAD : 0);
+
+        DataOutputStream dataStream = new DataOutputStream(out);
+        dataStream.writeByte(FORMAT_VERSION);
+        dataStream.writeByte(message.getType().ordinal());
+        dataStream.writeByte(flags);
+        writeName(dataStream, sender);
+        writeName(dataStream, receiver);
+        if (payload != null) {
+            dataStream.writeInt(payload.length);
+            dataStream.write(payload);
+        }
+        dataStream.flush();
+    }
+
+    @Override
+    public Message decode(byte[] body, int offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(body, offset, length);
+        try {
+            byte version = buffer.get();
+            if (version != FORMAT_VERSION) {
+                throw new StreamCorruptedException("Unsupported message format version: " + version);
+            }
+            int typeOrdinal = buffer.get();
+            if (typeOrdinal < 0 || typeOrdinal >= MESSAGE_TYPES.length) {
+                throw new StreamCorruptedException("Invalid type: " + typeOrdinal);
+            }
+            int flags = buffer.get();
+            Message message = new Message();
+            message.setType(MESSAGE_TYPES[typeOrdinal]);
+            if ((flags & HAS_SENDER) != 0) message.setSender(readString(buffer, Short.toUnsignedInt(buffer.getShort())));
+            if ((flags & HAS_RECEIVER) != 0) message.setReceiver(readString(buffer, Short.toUnsignedInt(buffer.getShort())));
+            if ((flags & HAS_PAYLOAD) != 0) message.setPayload(readString(buffer, buffer.getInt()));
+            return message;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new StreamCorruptedException("Truncated message frame");
+        }
+    }
+
+    private static byte[] toBytes(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void writeName(DataOutputStream dataStream, byte[] name) throws IOException {
+        if (name == null) return;
+        if (name.length > MAX_NAME_LENGTH) throw new IOException("Name too long: " + name.length + " bytes");
+        dataStream.writeShort(name.length);
+        dataStream.write(name);
+    }
+
+    private static String readString(ByteBuffer buffer, int length) {
+        if (length < 0 || length > buffer.remaining()) throw new BufferUnderflowException();
+        String value = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+}
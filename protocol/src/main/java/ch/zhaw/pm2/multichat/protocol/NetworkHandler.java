@@ -1,390 +1,1237 @@
-package ch.zhaw.pm2.multichat.protocol;
-
-import java.io.*;
-import java.net.InetAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.util.Objects;
-
-/**
- * Helper class to support simple network communication.
- * It provides access to the two subclasses:
- * <ul>
- *     <li>{@link NetworkServer} is used on the server side to open a port and wait for connection request from clients</li>
- *     <li>{@link NetworkConnection} represents a bidirectional connection between client and server, to send and
- *     receive Objects</li>
- * </ul>
- * <p>The typical process works as follows</p>
- * <ul>
- *     <li>The server creates a {@link NetworkServer} instance using the factory method
- *     {@link NetworkHandler#createServer(int port)}. This creates and opens a port (range: 0 - 65535)
- *     on all available interfaces (IP-networks, incl. localhost loopback) of the current host.</li>
- *     <li>As soon the server is ready to receive requests it calls the method {@link NetworkServer#waitForConnection()}
- *     which is blocking and waiting for client to open a connection.</li>
- *     <li>On the client side, a new {@link NetworkConnection} instance is created to connect to the server using the
- *     factory method {@link NetworkHandler#openConnection(String host, int port)}, which opens a connection to the
- *     given host (domainname or ip-address) on the specified server port</li>
- *     <li>On the server side, the waiting method {@link NetworkServer#waitForConnection()} returns an instance of
- *     {@link NetworkConnection} which represents the specific connection to the calling client.</li>
- *     <li>This connection can be used to send and receive data between server and client.</li>
- *     <li>On the server side, the handling of each interaction ('session') with a specific client should be handled in
- *     a separate {@link Thread}, after starting the thread, the server can go back and wait for the next connection
- *     request.</li>
- *     <li>Both sides (server & client) need to handle sending and receiving of data separately
- *         <ul>
- *             <li>reading data: call {@link NetworkConnection#receive()}, which is blocking until a data object is
- *             received. As soon the object has been received, the method returns an instance of the object.
- *             This object (request) can be processed (on the server side, usually a response is sent back;
- *             on the client side, usually the result is displayed to the user). After processing is finished the
- *             process calls {@link NetworkConnection#receive()} again to wait for the next request.
- *             </li>
- *             <li>sending data: call {@link NetworkConnection#send(Serializable data)}, which sends the given data
- *             object to the remote side. The method returns as soon the object has been transmitted.
- *             <b>Important: {@link NetworkConnection} is not thread safe</b>, therefore make sure that only one thread
- *             at a time is sending data.</li>
- *         </ul>
- *         <b>Important:Sending and receiving of data is completely asynchronous and can happen in parallel.</b>
- *     </li>
- *     <li>The connection stays open until one of the peers decides to close it using {@link NetworkConnection#close()}.
- *     In this case, all waiting method calls (e.g. {@link NetworkConnection#receive()} on the opposite side are
- *     interrupted and a {@link EOFException} is thrown.<br>
- *     On the local side, waiting method calls (threads) are also interrupted and a {@link java.net.SocketException}
- *     is thrown.</li>
- *     <li>To stop receiving new connection requests on the server side, the server may call
- *     {@link NetworkServer#close()} which will close all currently open {@link NetworkConnection} objects.</li>
- * </ul>
- * <p>{@link NetworkServer} and {@link NetworkConnection} are typed using generics. This means, when creating an
- * instance it has to be specified, what types of objects can be sent between server and client. The type has to be
- * identical on both sides of the connection. These Objects have to be of type {@link Serializable}, which is a
- * marker interface specifying that an object can be serialized/deserialized. As long all properties within a
- * class are also Serializable, your class simply can be marked using it. All standard Java data-types are by default
- * Serializable.</p>
- */
-public class NetworkHandler {
-    /**
-     * Default network address used to open a connection to:  localhost (domainname), 127.0.0.1 (IPv4), ::1 (IPv6)
-     */
-    public static final InetAddress DEFAULT_ADDRESS = InetAddress.getLoopbackAddress();
-    /**
-     * Default port on the server side to listen for requests
-     */
-    public static final int DEFAULT_PORT = 22243;
-
-    /**
-     * private Constructor to avoid initialization.
-     * Use the static factory methods to create {@link NetworkServer} or {@link NetworkConnection} instances.
-     */
-    private NetworkHandler() {}
-
-    /**
-     * Creates an instance of a {@link NetworkServer} listening on the specified port for connection request for
-     * Objects of type T.
-     * @param port  port to open on the server host (range: 1 - 65535)
-     * @param <T>   type of the Objects to be transmitted in the created {@link NetworkConnection}
-     * @return  {@link NetworkServer} object to be used to wait for connections.
-     * @throws IOException  if an error occured opening the port, e.g. the port number is already used.
-     */
-    public static <T extends Serializable> NetworkServer<T> createServer(int port) throws IOException {
-        return new NetworkServer<>(port);
-    }
-
-    /**
-     * Creates an instance of a {@link NetworkServer} listening on the default port (22243) for connection request for
-     * Objects of type T.
-     * @param <T>   type of the Objects to be transmitted in the created {@link NetworkConnection}
-     * @return  {@link NetworkServer} object to be used to wait for connections.
-     * @throws IOException  if an error occured opening the port, e.g. the port number is already used.
-     */
-    public static <T extends Serializable> NetworkServer<T> createServer() throws IOException {
-        return new NetworkServer<>();
-    }
-
-    /**
-     * Creates an instance of a {@link NetworkConnection} connecting to the specified host/port to send and receive
-     * objects of type T.
-     * @param address   {@link InetAddress} object for the host
-     * @param port      port number the server is waiting for connection requests
-     * @param <T>       type of Objects to be transmitted trough this connection
-     * @return  {@link NetworkConnection} object representing the bidirectional channel between client and server.
-     * @throws IOException  if an error occurred opening the connection, e.g. server is not responding.
-     */
-    public static <T extends Serializable> NetworkConnection<T> openConnection(InetAddress address, int port)
-    throws IOException
-    {
-        Socket socket = new Socket(address, port);
-        socket.setKeepAlive(true);
-        return new NetworkConnection<>(socket);
-    }
-
-    /**
-     * Creates an instance of a {@link NetworkConnection} connecting to the specified host/port to send and receive
-     * objects of type T.
-     * @param hostname  server host name or address in String representation (e.g. "www.zhaw.ch", "160.85.104.112")
-     * @param port      port number the server is waiting for connection requests
-     * @param <T>       type of Objects to be transmitted trough this connection
-     * @return  {@link NetworkConnection} object representing the bidirectional channel between client and server.
-     * @throws IOException  if an error occurred opening the connection, e.g. server is not responding.
-     */
-    public static <T extends Serializable> NetworkConnection<T> openConnection(String hostname, int port)
-    throws IOException
-    {
-        return openConnection(InetAddress.getByName(hostname), port);
-    }
-
-    /**
-     * Creates an instance of a {@link NetworkConnection} connecting to the default host ("localhost",127.0.0.1,::1)
-     * and port (22243) to send and receive objects of type T.
-     * @param <T>   type of Objects to be transmitted trough this connection
-     * @return      {@link NetworkConnection} object representing the bidirectional channel between client and server.
-     * @throws IOException  if an error occurred opening the connection, e.g. server is not responding.
-     */
-    public static <T extends Serializable> NetworkConnection<T> openConnection()
-    throws IOException
-    {
-        return openConnection(DEFAULT_ADDRESS, DEFAULT_PORT);
-    }
-
-
-
-
-
-    /**
-     * Network communication class used on the server side to handle connection request from clients.
-     * The class opens a port on the server host and allows the server process to wait for connection requests.
-     * As soon a request comes in a {@link NetworkConnection} object is created, which is used to handle all the
-     * communication between the two peers.
-     * @param <T> type of the Objects to be transmitted in the created {@link NetworkConnection}
-     */
-    public static class NetworkServer<T extends Serializable> implements Closeable {
-        private final ServerSocket serverSocket;
-
-        /**
-         * <b>Private constructor: use {@link NetworkHandler#createServer(int port)} factory method to create an instance</b>
-         * Open a server port an the given port number. The port number must be unique (i.e. not used by another process)
-         * @param port  port number (range: 1 - 65535) to open to wait for requests.
-         * @throws IOException if an error occurred opening the port, e.g. the port number is already used.
-         */
-        private NetworkServer(int port) throws IOException {
-            this.serverSocket = new ServerSocket(port);
-        }
-
-        /**
-         * <b>Private constructor: use {@link NetworkHandler#createServer(int port)} factory method to create an instance</b>
-         * Open a server port an the default port (22243).
-         * @throws IOException if an error occurred opening the port, e.g. the port number is already used.
-         */
-        private NetworkServer() throws IOException {
-            this(DEFAULT_PORT);
-        }
-
-        /**
-         * Blocks the current thread and waits for connection requests on the declared port of the
-         * {@link NetworkServer} object. Returns a {@link NetworkConnection} object representing the connection to a
-         * client if a successfull connection has been established.
-         * @return  {@link NetworkConnection} object representing the connection to the connecting client.
-         * @throws IOException if an error occurred while waiting (e.g. throws a {@link java.net.SocketException} if
-         * the port has been closed using the {@link NetworkServer#close()} method.
-         */
-        public NetworkConnection<T> waitForConnection() throws IOException {
-            Socket socket = serverSocket.accept();
-            socket.setKeepAlive(true);
-            return new NetworkConnection<>(socket);
-        }
-
-        /**
-         * Does indicate if the server is ready and bound to the declared port.
-         * @return true if the server is ready and bound to the declared port, false otherwise
-         */
-        public boolean isAvailable() {
-            return serverSocket != null && serverSocket.isBound();
-        }
-
-        /**
-         * Does indicate if the server has been closed. A closed server can not be reopened. To reopen a port, a
-         * new Instance must be created.
-         * @return true if the server is closed, false otherwise.
-         */
-        public boolean isClosed() {
-            return serverSocket == null || serverSocket.isClosed();
-        }
-
-        /**
-         * Returns the port number on which the server is listening for requests.
-         * @return returns the port number (range: 1 - 65535) if the server is available, 0 otherwise.
-         */
-        public int getHostPort() {
-            return isAvailable()? serverSocket.getLocalPort() : 0;
-        }
-
-        /**
-         * Returns the host address in String format on which the server is listening for requests.
-         * @return host address in String format or "unbound" if not available.
-         */
-        public String getHostAddress() {
-            return isAvailable()? serverSocket.getInetAddress().getHostAddress() : "unbound";
-        }
-
-        /**
-         * Closes this Server and releases any system resources associated with it.
-         * Closing the Server, closes also all {@link NetworkConnection} objects created by the server and throws a
-         * {@link java.net.SocketException} on all blocking calls (e.g. {@link NetworkServer#waitForConnection()})
-         * on the server.
-         * If the Server is already closed then invoking this method has no effect.
-         *
-         * @throws IOException if an I/O error occurs
-         */
-        @Override
-        public void close() throws IOException {
-            if (serverSocket != null && !serverSocket.isClosed()) {
-                serverSocket.close();
-            }
-        }
-
-        @Override
-        public boolean equals(Object o) {
-            if (this == o) return true;
-            if (o == null || getClass() != o.getClass()) return false;
-            NetworkServer<?> that = (NetworkServer<?>) o;
-            return serverSocket.equals(that.serverSocket);
-        }
-
-        @Override
-        public int hashCode() {
-            return Objects.hash(serverSocket);
-        }
-    }
-
-    /**
-     * Network communication class representing a bidirectional connection between two peers (client and server),
-     * to send and receive Objects of type T.
-     * The client can open a new connection using the factory method
-     * {@link NetworkHandler#openConnection(String hostname, int port)} to connect to the specified server.
-     * On the server side, the {@link NetworkServer#waitForConnection()} method is creating a matching instance for the
-     * connecting client.
-     *
-     * <li>On an open connection, both sides (server & client) need to handle sending and receiving of data separately
-     * <ul>
-     *     <li>reading data: call {@link NetworkConnection#receive()}, which is blocking until a data object is
-     *         received. As soon the object has been received, the method returns an instance of the object.
-     *         This object (request) can be processed (on the server side, usually a response is sent back;
-     *         on the client side, usually the result is displayed to the user). After processing is finished the
-     *         process calls {@link NetworkConnection#receive()} again to wait for the next request.
-     *     </li>
-     *     <li>sending data: call {@link NetworkConnection#send(Serializable data)}, which sends the given data
-     *         object to the remote side. The method returns as soon the object has been transmitted.
-     *         <b>Important: {@link NetworkConnection} is not thread safe</b>, therefore make sure that only one thread
-     *         at a time is sending data.
-     *     </li>
-     * </ul>
-     * <p><b>Important: Sending and receiving of data is completely asynchronous and can happen in parallel.</b>
-     * The connection stays open until one of the peers decides to close it using {@link NetworkConnection#close()}.<br>
-     * In this case, all waiting method calls (e.g. {@link NetworkConnection#receive()} on the opposite side are
-     * interrupted and a {@link EOFException} is thrown.<br>
-     * On the local side, waiting method calls (threads) are also interrupted and a {@link java.net.SocketException}
-     * is thrown.</p>
-     *
-     * @param <T> type of Objects to be transmitted trough this connection
-     */
-    public static class NetworkConnection<T extends Serializable> implements Closeable {
-        private final Socket socket;
-
-        /**
-         * <b>Privat constructor: Use {@link NetworkHandler#openConnection(String hostname, int port)} and similar
-         * factory methods to create instances of {@link NetworkConnection}</b>
-         * @param socket   operating system socket to use for the communication.
-         */
-        private NetworkConnection(Socket socket) {
-            this.socket = socket;
-        }
-
-        /**
-         * Method to send data to the opposite side. The call is sending out the requests immediately and returns if
-         * submitted successfully. Data can also be sent, while another thread is waiting for requests, but it has
-         * to be made sure that only one thread is sending data at a time (not thread-safe).
-         * If an error occurs a {@link IOException} is thrown.
-         * @param data  data object of type T to be submitted through the connection.
-         * @throws IOException if an error occurs (e.g. connection interrupted while sending, ...)
-         */
-        public void send(T data) throws IOException {
-            ObjectOutputStream outputStream = new ObjectOutputStream(socket.getOutputStream());
-            outputStream.writeObject(data);
-        }
-
-        /**
-         * Method to receive data from the opposite side. The call is blocking until a requests comes in, and the
-         * transferred object is returned.
-         * If the connection is closed during waiting, a {@link java.net.SocketException} is thrown, if the close
-         * was initiated locally or {@link EOFException} is thrown if the connection is closed from the remote side.
-         * Other {@link IOException} may be thrown on any another communication error.
-         * @return data object of type T received through the connection.
-         * @throws IOException if an error occours. (e.g. terminated locally/remotely) see above.
-         * @throws ClassNotFoundException if the data object received does not match any class in the local classpath
-         */
-        public T receive() throws IOException, ClassNotFoundException {
-            ObjectInputStream inputStream = new ObjectInputStream(this.socket.getInputStream());
-            return (T) inputStream.readObject();
-        }
-
-        /**
-         * Indicates if the connection is open and connected to the peer.
-         * @return true if the connection is open and connected, false otherwise
-         */
-        public boolean isAvailable() {
-            return !isClosed() && socket.isConnected();
-        }
-
-        /**
-         * Indicate if the connection has been closed. A closed connection can not be reopened.
-         * To re-open, a new Instance must be created.
-         * @return true if the connection is closed, false otherwise.
-         */
-        public boolean isClosed() {
-            return socket == null || socket.isClosed();
-        }
-
-        /**
-         * Returns the port number of the remote host, if the connection is available.
-         * @return port number (range: 1 - 65535) of the port on the remote host, 0 if not connected.
-         */
-        public int getRemotePort() {
-            return isAvailable()? socket.getPort() : 0;
-        }
-
-        /**
-         * Returns the host name of the remote peer. If available looks up the hostname (e.g. "www.zhaw.ch"),
-         * otherwise returns a string representation of the IP address (e.g. "160.85.104.112").
-         * @return host name of the remote peer, "not connected" if connection is not available.
-         */
-        public String getRemoteHost() {
-            return isAvailable()? socket.getInetAddress().getHostName() : "not connected";
-        }
-
-        /**
-         * Closes this NetworkConnection and releases any system resources associated with it.
-         * If the connection is closed a {@link java.net.SocketException} is thrown on all local waiting threads
-         * (e.g. in {@link NetworkConnection#receive()}), and on the remote side an {@link EOFException} is thrown
-         * on all waiting threads.
-         * If the connection is already closed then invoking this method has no effect.
-         * @throws IOException if an I/O error occurs
-         */
-        @Override
-        public void close() throws IOException {
-            if (!isClosed()) {
-                socket.close();
-            }
-        }
-
-        @Override
-        public boolean equals(Object o) {
-            if (this == o) return true;
-            if (o == null || getClass() != o.getClass()) return false;
-            NetworkConnection<?> that = (NetworkConnection<?>) o;
-            return socket.equals(that.socket);
-        }
-
-        @Override
-        public int hashCode() {
-            return Objects.hash(socket);
-        }
-    }
-}
+package ch.zhaw.pm2.multichat.protocol;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Helper class to support simple network communication.
+ * It provides access to the two subclasses:
+ * <ul>
+ *     <li>{@link NetworkServer} is used on the server side to open a port and wait for connection request from clients</li>
+ *     <li>{@link NetworkConnection} represents a bidirectional connection between client and server, to send and
+ *     receive Objects</li>
+ * </ul>
+ * <p>The typical process works as follows</p>
+ * <ul>
+ *     <li>The server creates a {@link NetworkServer} instance using the factory method
+ *     {@link NetworkHandler#createServer(int port)}. This creates and opens a port (range: 0 - 65535)
+ *     on all available interfaces (IP-networks, incl. localhost loopback) of the current host.</li>
+ *     <li>As soon the server is ready to receive requests it calls the method {@link NetworkServer#waitForConnection()}
+ *     which is blocking and waiting for client to open a connection.</li>
+ *     <li>On the client side, a new {@link NetworkConnection} instance is created to connect to the server using the
+ *     factory method {@link NetworkHandler#openConnection(String host, int port)}, which opens a connection to the
+ *     given host (domainname or ip-address) on the specified server port</li>
+ *     <li>On the server side, the waiting method {@link NetworkServer#waitForConnection()} returns an instance of
+ *     {@link NetworkConnection} which represents the specific connection to the calling client.</li>
+ *     <li>This connection can be used to send and receive data between server and client.</li>
+ *     <li>On the server side, the handling of each interaction ('session') with a specific client should be handled in
+ *     a separate {@link Thread}, after starting the thread, the server can go back and wait for the next connection
+ *     request.</li>
+ *     <li>Both sides (server & client) need to handle sending and receiving of data separately
+ *         <ul>
+ *             <li>reading data: call {@link NetworkConnection#receive()}, which is blocking until a data object is
+ *             received. As soon the object has been received, the method returns an instance of the object.
+ *             This object (request) can be processed (on the server side, usually a response is sent back;
+ *             on the client side, usually the result is displayed to the user). After processing is finished the
+ *             process calls {@link NetworkConnection#receive()} again to wait for the next request.
+ *             </li>
+ *             <li>sending data: call {@link NetworkConnection#send(Serializable data)}, which sends the given data
+ *             object to the remote side. The method returns as soon the object has been transmitted.
+ *             <b>Important: {@link NetworkConnection} is not thread safe</b>, therefore make sure that only one thread
+ *             at a time is sending data.</li>
+ *         </ul>
+ *         <b>Important:Sending and receiving of data is completely asynchronous and can happen in parallel.</b>
+ *     </li>
+ *     <li>The connection stays open until one of the peers decides to close it using {@link NetworkConnection#close()}.
+ *     In this case, all waiting method calls (e.g. {@link NetworkConnection#receive()} on the opposite side are
+ *     interrupted and a {@link EOFException} is thrown.<br>
+ *     On the local side, waiting method calls (threads) are also interrupted and a {@link java.net.SocketException}
+ *     is thrown.</li>
+ *     <li>To stop receiving new connection requests on the server side, the server may call
+ *     {@link NetworkServer#close()} which will close all currently open {@link NetworkConnection} objects.</li>
+ * </ul>
+ * <p>{@link NetworkServer} and {@link NetworkConnection} are typed using generics. This means, when creating an
+ * instance it has to be specified, what types of objects can be sent between server and client. The type has to be
+ * identical on both sides of the connection. These Objects have to be of type {@link Serializable}, which is a
+ * marker interface specifying that an object can be serialized/deserialized. As long all properties within a
+ * class are also Serializable, your class simply can be marked using it. All standard Java data-types are by default
+ * Serializable.</p>
+ * <p>On the wire every object is transmitted as a frame consisting of a 4 byte length prefix followed by the
+ * object encoded by the {@link FrameCodec} of the connection. If no codec is specified, the objects are encoded using
+ * Java serialization ({@link SerializationCodec}). The length prefix allows the server to run in an event driven mode (see
+ * {@link NetworkHandler#createEventDrivenServer(int, int)}), where a small, fixed number of {@link EventLoop} threads
+ * multiplexes all connections using a {@link java.nio.channels.Selector} instead of blocking one thread per
+ * connection in {@link NetworkConnection#receive()}. Event driven connections deliver the received objects to a
+ * {@link ReceiveListener} registered with {@link NetworkConnection#setReceiveListener(ReceiveListener)}.</p>
+ */
+public class NetworkHandler {
+    /**
+     * Default network address used to open a connection to:  localhost (domainname), 127.0.0.1 (IPv4), ::1 (IPv6)
+     */
+    public static final InetAddress DEFAULT_ADDRESS = InetAddress.getLoopbackAddress();
+    /**
+     * Default port on the server side to listen for requests
+     */
+    public static final int DEFAULT_PORT = 22243;
+    /**
+     * Maximum length in bytes of a single frame, larger frames are rejected as corrupt
+     */
+    public static final int MAX_FRAME_LENGTH = 1 << 20;
+    /**
+     * Default number of event loop threads of an event driven {@link NetworkServer}
+     */
+    public static final int DEFAULT_EVENT_LOOPS = Runtime.getRuntime().availableProcessors();
+    /**
+     * Length in bytes of the length prefix of each frame
+     */
+    private static final int FRAME_HEADER_LENGTH = Integer.BYTES;
+    /**
+     * Log of the network layer
+     */
+    private static final Log LOG = Log.get("network");
+
+    /**
+     * private Constructor to avoid initialization.
+     * Use the static factory methods to create {@link NetworkServer} or {@link NetworkConnection} instances.
+     */
+    private NetworkHandler() {}
+
+    /**
+     * Creates an instance of a {@link NetworkServer} listening on the specified port for connection request for
+     * Objects of type T.
+     * @param port  port to open on the server host (range: 1 - 65535)
+     * @param <T>   type of the Objects to be transmitted in the created {@link NetworkConnection}
+     * @return  {@link NetworkServer} object to be used to wait for connections.
+     * @throws IOException  if an error occured opening the port, e.g. the port number is already used.
+     */
+    public static <T extends Serializable> NetworkServer<T> createServer(int port) throws IOException {
+        return new NetworkServer<>(port);
+    }
+
+    /**
+     * Creates an instance of a {@link NetworkServer} listening on the specified port for connection request for
+     * Objects of type T, which are encoded using codecs created by the given factory.
+     * @param port          port to open on the server host (range: 1 - 65535)
+     * @param codecFactory  factory creating a new {@link FrameCodec} for each accepted connection
+     * @param <T>           type of the Objects to be transmitted in the created {@link NetworkConnection}
+     * @return  {@link NetworkServer} object to be used to wait for connections.
+     * @throws IOException  if an error occured opening the port, e.g. the port number is already used.
+     */
+    public static <T extends Serializable> NetworkServer<T> createServer(int port,
+                                                                        Supplier<? extends FrameCodec<T>> codecFactory)
+    throws IOException
+    {
+        return createServer(port, codecFactory, new SocketOptions());
+    }
+
+    /**
+     * Creates an instance of a {@link NetworkServer} listening on the specified port for connection request for
+     * Objects of type T, which are encoded using codecs created by the given factory.
+     * @param port          port to open on the server host (range: 1 - 65535)
+     * @param codecFactory  factory creating a new {@link FrameCodec} for each accepted connection
+     * @param options       TCP tuning applied to the server socket and all accepted connections
+     * @param <T>           type of the Objects to be transmitted in the created {@link NetworkConnection}
+     * @return  {@link NetworkServer} object to be used to wait for connections.
+     * @throws IOException  if an error occured opening the port, e.g. the port number is already used.
+     */
+    public static <T extends Serializable> NetworkServer<T> createServer(int port,
+                                                                        Supplier<? extends FrameCodec<T>> codecFactory,
+                                                                        SocketOptions options)
+    throws IOException
+    {
+        return new NetworkServer<>(port, 0, codecFactory, options);
+    }
+
+    /**
+     * Creates an instance of an event driven {@link NetworkServer} listening on the specified port.
+     * The connections returned by {@link NetworkServer#waitForConnection()} are non-blocking and served by the given
+     * number of {@link EventLoop} threads, regardless of the number of open connections.
+     * @param port           port to open on the server host (range: 1 - 65535)
+     * @param eventLoopCount number of event loop threads (at least 1)
+     * @param <T>            type of the Objects to be transmitted in the created {@link NetworkConnection}
+     * @return  {@link NetworkServer} object to be used to wait for connections.
+     * @throws IOException  if an error occured opening the port, e.g. the port number is already used.
+     */
+    public static <T extends Serializable> NetworkServer<T> createEventDrivenServer(int port, int eventLoopCount)
+    throws IOException
+    {
+        return createEventDrivenServer(port, eventLoopCount, SerializationCodec::new);
+    }
+
+    /**
+     * Creates an instance of an event driven {@link NetworkServer} listening on the specified port, encoding the
+     * Objects using codecs created by the given factory (see {@link #createEventDrivenServer(int, int)}).
+     * @param port           port to open on the server host (range: 1 - 65535)
+     * @param eventLoopCount number of event loop threads (at least 1)
+     * @param codecFactory   factory creating a new {@link FrameCodec} for each accepted connection
+     * @param <T>            type of the Objects to be transmitted in the created {@link NetworkConnection}
+     * @return  {@link NetworkServer} object to be used to wait for connections.
+     * @throws IOException  if an error occured opening the port, e.g. the port number is already used.
+     */
+    public static <T extends Serializable> NetworkServer<T> createEventDrivenServer(int port, int eventLoopCount,
+        Supplier<? extends FrameCodec<T>> codecFactory)
+    throws IOException
+    {
+        return createEventDrivenServer(port, eventLoopCount, codecFactory, new SocketOptions());
+    }
+
+    /**
+     * Creates an instance of an event driven {@link NetworkServer} listening on the specified port, encoding the
+     * Objects using codecs created by the given factory (see {@link #createEventDrivenServer(int, int)}).
+     * @param port           port to open on the server host (range: 1 - 65535)
+     * @param eventLoopCount number of event loop threads (at least 1)
+     * @param codecFactory   factory creating a new {@link FrameCodec} for each accepted connection
+     * @param options        TCP tuning applied to the server socket and all accepted connections
+     * @param <T>            type of the Objects to be transmitted in the created {@link NetworkConnection}
+     * @return  {@link NetworkServer} object to be used to wait for connections.
+     * @throws IOException  if an error occured opening the port, e.g. the port number is already used.
+     */
+    public static <T extends Serializable> NetworkServer<T> createEventDrivenServer(int port, int eventLoopCount,
+        Supplier<? extends FrameCodec<T>> codecFactory, SocketOptions options)
+    throws IOException
+    {
+        if (eventLoopCount < 1) throw new IllegalArgumentException("At least one event loop required");
+        return new NetworkServer<>(port, eventLoopCount, codecFactory, options);
+    }
+
+    /**
+     * Creates an instance of a {@link NetworkServer} listening on the default port (22243) for connection request for
+     * Objects of type T.
+     * @param <T>   type of the Objects to be transmitted in the created {@link NetworkConnection}
+     * @return  {@link NetworkServer} object to be used to wait for connections.
+     * @throws IOException  if an error occured opening the port, e.g. the port number is already used.
+     */
+    public static <T extends Serializable> NetworkServer<T> createServer() throws IOException {
+        return new NetworkServer<>();
+    }
+
+    /**
+     * Creates an instance of a {@link NetworkConnection} connecting to the specified host/port to send and receive
+     * objects of type T.
+     * @param address   {@link InetAddress} object for the host
+     * @param port      port number the server is waiting for connection requests
+     * @param <T>       type of Objects to be transmitted trough this connection
+     * @return  {@link NetworkConnection} object representing the bidirectional channel between client and server.
+     * @throws IOException  if an error occurred opening the connection, e.g. server is not responding.
+     */
+    public static <T extends Serializable> NetworkConnection<T> openConnection(InetAddress address, int port)
+    throws IOException
+    {
+        return openConnection(address, port, new SerializationCodec<>());
+    }
+
+    /**
+     * Creates an instance of a {@link NetworkConnection} connecting to the specified host/port to send and receive
+     * objects of type T, which are encoded using the given codec.
+     * @param address   {@link InetAddress} object for the host
+     * @param port      port number the server is waiting for connection requests
+     * @param codec     codec used to encode and decode the transmitted objects (not shared with other connections)
+     * @param <T>       type of Objects to be transmitted trough this connection
+     * @return  {@link NetworkConnection} object representing the bidirectional channel between client and server.
+     * @throws IOException  if an error occurred opening the connection, e.g. server is not responding.
+     */
+    public static <T extends Serializable> NetworkConnection<T> openConnection(InetAddress address, int port,
+                                                                               FrameCodec<T> codec)
+    throws IOException
+    {
+        return openConnection(address, port, codec, new SocketOptions());
+    }
+
+    /**
+     * Creates an instance of a {@link NetworkConnection} connecting to the specified host/port to send and receive
+     * objects of type T, which are encoded using the given codec.
+     * @param address   {@link InetAddress} object for the host
+     * @param port      port number the server is waiting for connection requests
+     * @param codec     codec used to encode and decode the transmitted objects (not shared with other connections)
+     * @param options   TCP tuning applied to the connection
+     * @param <T>       type of Objects to be transmitted trough this connection
+     * @return  {@link NetworkConnection} object representing the bidirectional channel between client and server.
+     * @throws IOException  if an error occurred opening the connection, e.g. server is not responding.
+     */
+    public static <T extends Serializable> NetworkConnection<T> openConnection(InetAddress address, int port,
+                                                                               FrameCodec<T> codec,
+                                                                               SocketOptions options)
+    throws IOException
+    {
+        Socket socket = new Socket();
+        try {
+            options.applyTo(socket);
+            socket.connect(new InetSocketAddress(address, port));
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        return new NetworkConnection<>(socket, codec, options);
+    }
+
+    /**
+     * Creates an instance of a {@link NetworkConnection} connecting to the specified host/port to send and receive
+     * objects of type T, which are encoded using the given codec.
+     * @param hostname  server host name or address in String representation (e.g. "www.zhaw.ch", "160.85.104.112")
+     * @param port      port number the server is waiting for connection requests
+     * @param codec     codec used to encode and decode the transmitted objects (not shared with other connections)
+     * @param options   TCP tuning applied to the connection
+     * @param <T>       type of Objects to be transmitted trough this connection
+     * @return  {@link NetworkConnection} object representing the bidirectional channel between client and server.
+     * @throws IOException  if an error occurred opening the connection, e.g. server is not responding.
+     */
+    public static <T extends Serializable> NetworkConnection<T> openConnection(String hostname, int port,
+                                                                               FrameCodec<T> codec,
+                                                                               SocketOptions options)
+    throws IOException
+    {
+        return openConnection(InetAddress.getByName(hostname), port, codec, options);
+    }
+
+    /**
+     * Creates an instance of a {@link NetworkConnection} connecting to the specified host/port to send and receive
+     * objects of type T, which are encoded using the given codec.
+     * @param hostname  server host name or address in String representation (e.g. "www.zhaw.ch", "160.85.104.112")
+     * @param port      port number the server is waiting for connection requests
+     * @param codec     codec used to encode and decode the transmitted objects (not shared with other connections)
+     * @param <T>       type of Objects to be transmitted trough this connection
+     * @return  {@link NetworkConnection} object representing the bidirectional channel between client and server.
+     * @throws IOException  if an error occurred opening the connection, e.g. server is not responding.
+     */
+    public static <T extends Serializable> NetworkConnection<T> openConnection(String hostname, int port,
+                                                                               FrameCodec<T> codec)
+    throws IOException
+    {
+        return openConnection(InetAddress.getByName(hostname), port, codec);
+    }
+
+    /**
+     * Creates an instance of a {@link NetworkConnection} connecting to the specified host/port to send and receive
+     * objects of type T.
+     * @param hostname  server host name or address in String representation (e.g. "www.zhaw.ch", "160.85.104.112")
+     * @param port      port number the server is waiting for connection requests
+     * @param <T>       type of Objects to be transmitted trough this connection
+     * @return  {@link NetworkConnection} object representing the bidirectional channel between client and server.
+     * @throws IOException  if an error occurred opening the connection, e.g. server is not responding.
+     */
+    public static <T extends Serializable> NetworkConnection<T> openConnection(String hostname, int port)
+    throws IOException
+    {
+        return openConnection(InetAddress.getByName(hostname), port);
+    }
+
+    /**
+     * Creates an instance of a {@link NetworkConnection} connecting to the default host ("localhost",127.0.0.1,::1)
+     * and port (22243) to send and receive objects of type T.
+     * @param <T>   type of Objects to be transmitted trough this connection
+     * @return      {@link NetworkConnection} object representing the bidirectional channel between client and server.
+     * @throws IOException  if an error occurred opening the connection, e.g. server is not responding.
+     */
+    public static <T extends Serializable> NetworkConnection<T> openConnection()
+    throws IOException
+    {
+        return openConnection(DEFAULT_ADDRESS, DEFAULT_PORT);
+    }
+
+
+
+
+    /**
+     * Encodes the given object into a frame consisting of the length prefix followed by the frame body.
+     * @param data  object to encode
+     * @param codec codec creating the frame body
+     * @return the complete frame, ready to be written to the network
+     * @throws IOException if the object could not be encoded or exceeds {@link #MAX_FRAME_LENGTH}
+     */
+    private static <T extends Serializable> Frame encodeFrame(T data, FrameCodec<T> codec) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        buffer.write(new byte[FRAME_HEADER_LENGTH]);
+        codec.encode(data, buffer);
+        byte[] frame = buffer.toByteArray();
+        int length = checkFrameLength(frame.length - FRAME_HEADER_LENGTH);
+        ByteBuffer.wrap(frame).putInt(0, length);
+        return new Frame(frame);
+    }
+
+    private static int checkFrameLength(int length) throws IOException {
+        if (length < 0 || length > MAX_FRAME_LENGTH) {
+            throw new StreamCorruptedException("Invalid frame length: " + length);
+        }
+        return length;
+    }
+
+    /**
+     * Extracts the length of the frame body from the length prefix, which may carry compression flags.
+     * @param header the length prefix of the frame
+     * @return length of the frame body
+     * @throws IOException if the length exceeds {@link #MAX_FRAME_LENGTH}
+     */
+    private static int frameBodyLength(int header) throws IOException {
+        if ((header & Compression.FLAG_MASK) == 0) {
+            return checkFrameLength(header);
+        }
+        int length = header & ~Compression.FLAG_MASK;
+        if (length > MAX_FRAME_LENGTH + Compression.MAX_EXPANSION) {
+            throw new StreamCorruptedException("Invalid compressed frame length: " + length);
+        }
+        return length;
+    }
+
+    /**
+     * Callback interface for event driven connections (see {@link NetworkConnection#setReceiveListener}).
+     * All methods are called on the event loop thread serving the connection and must not block.
+     * @param <T> type of Objects transmitted through the connection
+     */
+    public interface ReceiveListener<T extends Serializable> {
+        /**
+         * Called for every data object received through the connection, in the order of arrival.
+         * @param data data object received
+         */
+        void onReceive(T data);
+
+        /**
+         * Called once, when the connection has been closed. Same as for the blocking
+         * {@link NetworkConnection#receive()} the cause is a {@link java.net.SocketException} if the close was
+         * initiated locally, an {@link EOFException} if closed by the remote peer, or any other {@link IOException}
+         * on communication errors.
+         * @param cause reason the connection was closed
+         */
+        void onClosed(IOException cause);
+    }
+
+    /**
+     * Callback interface counting the bytes transferred through a connection
+     * (see {@link NetworkConnection#setTrafficListener}).
+     * The methods are called by the threads sending and receiving, so they must be thread-safe and must not block.
+     */
+    public interface TrafficListener {
+        /**
+         * Called whenever bytes have been read from the socket, including the frame length prefixes.
+         * @param count number of bytes read
+         */
+        void onBytesReceived(int count);
+
+        /**
+         * Called for every frame handed to the socket, with its size as sent (i.e. after compression).
+         * @param count number of bytes of the frame including the length prefix
+         */
+        void onBytesSent(int count);
+    }
+
+    /**
+     * Network communication class used on the server side to handle connection request from clients.
+     * The class opens a port on the server host and allows the server process to wait for connection requests.
+     * As soon a request comes in a {@link NetworkConnection} object is created, which is used to handle all the
+     * communication between the two peers.
+     * @param <T> type of the Objects to be transmitted in the created {@link NetworkConnection}
+     */
+    public static class NetworkServer<T extends Serializable> implements Closeable {
+        private final ServerSocket serverSocket;
+        private final ServerSocketChannel serverChannel;
+        private final EventLoop[] eventLoops;
+        private final AtomicInteger nextEventLoop = new AtomicInteger();
+        private final Supplier<? extends FrameCodec<T>> codecFactory;
+        private final SocketOptions options;
+
+        /**
+         * <b>Private constructor: use {@link NetworkHandler#createServer(int port)} factory method to create an instance</b>
+         * Open a server port an the given port number. The port number must be unique (i.e. not used by another process)
+         * @param port  port number (range: 1 - 65535) to open to wait for requests.
+         * @throws IOException if an error occurred opening the port, e.g. the port number is already used.
+         */
+        private NetworkServer(int port) throws IOException {
+            this(port, 0, SerializationCodec::new, new SocketOptions());
+        }
+
+        /**
+         * <b>Private constructor: use {@link NetworkHandler#createEventDrivenServer(int, int)} and similar factory
+         * methods to create an instance</b>
+         * Open a server port on the given port number. If at least one event loop is requested, the port is opened
+         * as server channel and the given number of event loops is started to serve the accepted connections.
+         * @param port           port number (range: 1 - 65535) to open to wait for requests.
+         * @param eventLoopCount number of event loops serving the accepted connections, 0 for blocking connections
+         * @param codecFactory   factory creating a new codec for each accepted connection
+         * @param options        TCP tuning applied to the server socket and all accepted connections
+         * @throws IOException if an error occurred opening the port, e.g. the port number is already used.
+         */
+        private NetworkServer(int port, int eventLoopCount, Supplier<? extends FrameCodec<T>> codecFactory,
+                              SocketOptions options)
+            throws IOException
+        {
+            this.codecFactory = Objects.requireNonNull(codecFactory, "Codec factory must not be null");
+            this.options = Objects.requireNonNull(options, "Socket options must not be null");
+            if (eventLoopCount > 0) {
+                this.serverChannel = ServerSocketChannel.open();
+                this.serverSocket = serverChannel.socket();
+            } else {
+                this.serverChannel = null;
+                this.serverSocket = new ServerSocket();
+            }
+            options.applyTo(serverSocket);
+            serverSocket.bind(new InetSocketAddress(port), options.getAcceptBacklog());
+            this.eventLoops = new EventLoop[eventLoopCount];
+            for (int i = 0; i < eventLoopCount; i++) {
+                eventLoops[i] = new EventLoop("event-loop-" + i);
+            }
+        }
+
+        /**
+         * <b>Private constructor: use {@link NetworkHandler#createServer(int port)} factory method to create an instance</b>
+         * Open a server port an the default port (22243).
+         * @throws IOException if an error occurred opening the port, e.g. the port number is already used.
+         */
+        private NetworkServer() throws IOException {
+            this(DEFAULT_PORT);
+        }
+
+        /**
+         * Blocks the current thread and waits for connection requests on the declared port of the
+         * {@link NetworkServer} object. Returns a {@link NetworkConnection} object representing the connection to a
+         * client if a successfull connection has been established.
+         * @return  {@link NetworkConnection} object representing the connection to the connecting client.
+         * @throws IOException if an error occurred while waiting (e.g. throws a {@link java.net.SocketException} if
+         * the port has been closed using the {@link NetworkServer#close()} method.
+         */
+        public NetworkConnection<T> waitForConnection() throws IOException {
+            if (isEventDriven()) {
+                SocketChannel channel = serverChannel.accept();
+                options.applyTo(channel.socket());
+                channel.configureBlocking(false);
+                EventLoop eventLoop = eventLoops[Math.floorMod(nextEventLoop.getAndIncrement(), eventLoops.length)];
+                return new SelectorConnection<>(channel, eventLoop, codecFactory.get(), options);
+            }
+            Socket socket = serverSocket.accept();
+            options.applyTo(socket);
+            return new NetworkConnection<>(socket, codecFactory.get(), options);
+        }
+
+        /**
+         * Indicates if the connections created by this server are event driven (see {@link ReceiveListener}).
+         * @return true if the server has been created using
+         * {@link NetworkHandler#createEventDrivenServer(int, int)}, false otherwise
+         */
+        public boolean isEventDriven() {
+            return serverChannel != null;
+        }
+
+        /**
+         * Does indicate if the server is ready and bound to the declared port.
+         * @return true if the server is ready and bound to the declared port, false otherwise (also once closed)
+         */
+        public boolean isAvailable() {
+            return serverSocket != null && serverSocket.isBound() && !serverSocket.isClosed();
+        }
+
+        /**
+         * Does indicate if the server has been closed. A closed server can not be reopened. To reopen a port, a
+         * new Instance must be created.
+         * @return true if the server is closed, false otherwise.
+         */
+        public boolean isClosed() {
+            return serverSocket == null || serverSocket.isClosed();
+        }
+
+        /**
+         * Returns the port number on which the server is listening for requests.
+         * @return returns the port number (range: 1 - 65535) if the server is available, 0 otherwise.
+         */
+        public int getHostPort() {
+            return isAvailable()? serverSocket.getLocalPort() : 0;
+        }
+
+        /**
+         * Returns the host address in String format on which the server is listening for requests.
+         * @return host address in String format or "unbound" if not available.
+         */
+        public String getHostAddress() {
+            return isAvailable()? serverSocket.getInetAddress().getHostAddress() : "unbound";
+        }
+
+        /**
+         * Closes this Server and releases any system resources associated with it.
+         * Closing the Server, closes also all {@link NetworkConnection} objects created by the server and throws a
+         * {@link java.net.SocketException} on all blocking calls (e.g. {@link NetworkServer#waitForConnection()})
+         * on the server.
+         * If the Server is already closed then invoking this method has no effect.
+         *
+         * @throws IOException if an I/O error occurs
+         */
+        @Override
+        public void close() throws IOException {
+            if (serverSocket != null && !serverSocket.isClosed()) {
+                serverSocket.close();
+            }
+            for (EventLoop eventLoop : eventLoops) {
+                eventLoop.close();
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            NetworkServer<?> that = (NetworkServer<?>) o;
+            return serverSocket.equals(that.serverSocket);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(serverSocket);
+        }
+    }
+
+    /**
+     * Network communication class representing a bidirectional connection between two peers (client and server),
+     * to send and receive Objects of type T.
+     * The client can open a new connection using the factory method
+     * {@link NetworkHandler#openConnection(String hostname, int port)} to connect to the specified server.
+     * On the server side, the {@link NetworkServer#waitForConnection()} method is creating a matching instance for the
+     * connecting client.
+     *
+     * <li>On an open connection, both sides (server & client) need to handle sending and receiving of data separately
+     * <ul>
+     *     <li>reading data: call {@link NetworkConnection#receive()}, which is blocking until a data object is
+     *         received. As soon the object has been received, the method returns an instance of the object.
+     *         This object (request) can be processed (on the server side, usually a response is sent back;
+     *         on the client side, usually the result is displayed to the user). After processing is finished the
+     *         process calls {@link NetworkConnection#receive()} again to wait for the next request.
+     *     </li>
+     *     <li>sending data: call {@link NetworkConnection#send(Serializable data)}, which sends the given data
+     *         object to the remote side. The method returns as soon the object has been transmitted.
+     *         <b>Important: {@link NetworkConnection} is not thread safe</b>, therefore make sure that only one thread
+     *         at a time is sending data.
+     *     </li>
+     * </ul>
+     * <p><b>Important: Sending and receiving of data is completely asynchronous and can happen in parallel.</b>
+     * The connection stays open until one of the peers decides to close it using {@link NetworkConnection#close()}.<br>
+     * In this case, all waiting method calls (e.g. {@link NetworkConnection#receive()} on the opposite side are
+     * interrupted and a {@link EOFException} is thrown.<br>
+     * On the local side, waiting method calls (threads) are also interrupted and a {@link java.net.SocketException}
+     * is thrown.</p>
+     *
+     * @param <T> type of Objects to be transmitted trough this connection
+     */
+    public static class NetworkConnection<T extends Serializable> implements Closeable {
+        /** Size of the chunks buffered frames (see {@link Frame#wrap(ByteBuffer)}) are copied to the stream in */
+        private static final int WRITE_CHUNK_SIZE = 8 * 1024;
+
+        private final Socket socket;
+        private final FrameCodec<T> codec;
+        private final Lock sendLock = new ReentrantLock();
+        private final int writeBufferSize;
+        private final Compression compression = new Compression();
+        private volatile TrafficListener trafficListener;
+        private DataInputStream inputStream;
+        private OutputStream outputStream;
+        private byte[] writeChunk;
+
+        /**
+         * <b>Privat constructor: Use {@link NetworkHandler#openConnection(String hostname, int port)} and similar
+         * factory methods to create instances of {@link NetworkConnection}</b>
+         * @param socket   operating system socket to use for the communication.
+         * @param codec    codec used to encode and decode the transmitted objects
+         * @param options  socket options, defining the size of the write buffer
+         */
+        private NetworkConnection(Socket socket, FrameCodec<T> codec, SocketOptions options) {
+            this.socket = socket;
+            this.codec = Objects.requireNonNull(codec, "Codec must not be null");
+            this.writeBufferSize = options.getWriteBufferSize();
+        }
+
+        /**
+         * Method to send data to the opposite side. The call is sending out the requests immediately and returns if
+         * submitted successfully. Data can also be sent, while another thread is waiting for requests. Concurrent
+         * calls are serialized, so frames of different threads never interleave.
+         * If an error occurs a {@link IOException} is thrown.
+         * @param data  data object of type T to be submitted through the connection.
+         * @throws IOException if an error occurs (e.g. connection interrupted while sending, ...)
+         */
+        public void send(T data) throws IOException {
+            send(encode(data));
+        }
+
+        /**
+         * Encodes the given data object into a frame, which can be sent using {@link #send(Frame)} on this or on
+         * any other connection using the same wire format.
+         * @param data  data object of type T to encode
+         * @return the encoded frame
+         * @throws IOException if the object can not be encoded
+         */
+        public Frame encode(T data) throws IOException {
+            return encodeFrame(data, codec);
+        }
+
+        /**
+         * Sends an already encoded frame to the opposite side. Same as {@link #send(Serializable)}, but without
+         * encoding the object again, e.g. to deliver the same message to many connections.
+         * @param frame frame created by {@link #encode(Serializable)}
+         * @throws IOException if an error occurs (e.g. connection interrupted while sending, ...)
+         */
+        public void send(Frame frame) throws IOException {
+            // explicit lock instead of synchronized: a virtual thread blocking in write must not pin its carrier
+            sendLock.lock();
+            try {
+                write(frame);
+                flush();
+            } finally {
+                sendLock.unlock();
+            }
+        }
+
+        /**
+         * Adds an already encoded frame to the write buffer of the connection, without sending it immediately.
+         * The buffered frames are written to the socket with a single call as soon {@link #flush()} is called or
+         * the buffer exceeds the configured write buffer size (see {@link SocketOptions#setWriteBufferSize(int)}).
+         * Allows a sender with several frames waiting to transmit them in as few TCP segments as possible.
+         * @param frame frame created by {@link #encode(Serializable)}
+         * @throws IOException if an error occurs (e.g. connection interrupted while sending, ...)
+         */
+        public void write(Frame frame) throws IOException {
+            sendLock.lock();
+            try {
+                if (outputStream == null) {
+                    outputStream = new BufferedOutputStream(socket.getOutputStream(), writeBufferSize);
+                }
+                if (frame.isBuffered()) {
+                    writeBuffered(frame.buffer());
+                    return;
+                }
+                byte[] bytes = compression.prepare(frame);
+                outputStream.write(bytes);
+                bytesSent(bytes.length);
+            } finally {
+                sendLock.unlock();
+            }
+        }
+
+        /**
+         * Copies a frame held outside the heap to the output stream in chunks, so it is never copied as a whole.
+         * Must be called holding the send lock.
+         * @param buffer buffer holding the frame
+         * @throws IOException if an error occurs (e.g. connection interrupted while sending, ...)
+         */
+        private void writeBuffered(ByteBuffer buffer) throws IOException {
+            int length = buffer.remaining();
+            if (writeChunk == null) {
+                writeChunk = new byte[WRITE_CHUNK_SIZE];
+            }
+            while (buffer.hasRemaining()) {
+                int count = Math.min(writeChunk.length, buffer.remaining());
+                buffer.get(writeChunk, 0, count);
+                outputStream.write(writeChunk, 0, count);
+            }
+            bytesSent(length);
+        }
+
+        /**
+         * Writes all frames buffered by {@link #write(Frame)} to the socket.
+         * @throws IOException if an error occurs (e.g. connection interrupted while sending, ...)
+         */
+        public void flush() throws IOException {
+            sendLock.lock();
+            try {
+                if (outputStream != null) {
+                    outputStream.flush();
+                }
+            } finally {
+                sendLock.unlock();
+            }
+        }
+
+        /**
+         * Method to receive data from the opposite side. The call is blocking until a requests comes in, and the
+         * transferred object is returned.
+         * If the connection is closed during waiting, a {@link java.net.SocketException} is thrown, if the close
+         * was initiated locally or {@link EOFException} is thrown if the connection is closed from the remote side.
+         * Other {@link IOException} may be thrown on any another communication error.
+         * @return data object of type T received through the connection.
+         * @throws IOException if an error occours. (e.g. terminated locally/remotely) see above.
+         * @throws ClassNotFoundException if the data object received does not match any class in the local classpath
+         */
+        public T receive() throws IOException, ClassNotFoundException {
+            if (inputStream == null) {
+                inputStream = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            }
+            int header = inputStream.readInt();
+            byte[] body = new byte[frameBodyLength(header)];
+            inputStream.readFully(body);
+            bytesReceived(FRAME_HEADER_LENGTH + body.length);
+            return decode(header, body, 0, body.length);
+        }
+
+        /**
+         * Decodes the body of a received frame, decompressing it first if the length prefix indicates compression.
+         * Must only be called by the thread receiving from the connection.
+         * @param header the length prefix of the frame
+         * @param body   array holding the frame body
+         * @param offset start of the frame body within the array
+         * @param length length of the frame body
+         * @return the decoded object
+         * @throws IOException if the frame body is corrupt
+         * @throws ClassNotFoundException if the frame refers to a class not available in the local classpath
+         */
+        T decode(int header, byte[] body, int offset, int length) throws IOException, ClassNotFoundException {
+            int flags = header & Compression.FLAG_MASK;
+            if (flags == 0) {
+                return codec.decode(body, offset, length);
+            }
+            ByteBuffer inflated = compression.inflate(flags, body, offset, length);
+            return codec.decode(inflated.array(), inflated.position(), inflated.remaining());
+        }
+
+        /**
+         * Starts compressing the frames sent through this connection (see {@link Compression}).
+         * Must only be called after the peer has accepted the {@value Compression#DEFLATE} capability.
+         * Frames written before are sent uncompressed. Compressed frames sent by the peer are always accepted.
+         * @param threshold minimum size of a frame body to be compressed, 0 to stop compressing
+         */
+        public void enableCompression(int threshold) {
+            compression.enable(threshold);
+        }
+
+        Compression getCompression() {
+            return compression;
+        }
+
+        /**
+         * Registers a listener which is informed about the number of bytes sent and received, e.g. to collect
+         * traffic statistics. Replaces the listener registered before, null removes it.
+         * @param listener listener counting the transferred bytes
+         */
+        public void setTrafficListener(TrafficListener listener) {
+            this.trafficListener = listener;
+        }
+
+        void bytesReceived(int count) {
+            TrafficListener listener = trafficListener;
+            if (listener != null) listener.onBytesReceived(count);
+        }
+
+        void bytesSent(int count) {
+            TrafficListener listener = trafficListener;
+            if (listener != null) listener.onBytesSent(count);
+        }
+
+        /**
+         * Indicates if this connection is event driven. Event driven connections do not support the blocking
+         * {@link #receive()}, instead received objects are delivered to the listener registered using
+         * {@link #setReceiveListener(ReceiveListener)}.
+         * @return true if the connection is event driven, false otherwise
+         */
+        public boolean isEventDriven() {
+            return false;
+        }
+
+        /**
+         * Registers the listener receiving all objects arriving on an event driven connection and starts reading
+         * from the connection. Must be called at most once.
+         * @param listener listener to receive the objects and the close notification
+         * @throws UnsupportedOperationException if the connection is not event driven
+         */
+        public void setReceiveListener(ReceiveListener<T> listener) {
+            throw new UnsupportedOperationException("Blocking connection, use receive() instead");
+        }
+
+        /**
+         * Indicates if frames handed to {@link #send(Frame)} are still waiting to be written to the socket.
+         * Blocking connections write the frame before returning from send, therefore never have pending writes.
+         * @return true if there are frames waiting to be written, false otherwise
+         */
+        public boolean hasPendingWrites() {
+            return false;
+        }
+
+        /**
+         * Registers a callback, which is called whenever all pending writes (see {@link #hasPendingWrites()}) have
+         * been written to the socket. Allows senders to stop handing over frames while the peer is not reading,
+         * instead of buffering them in the connection. Blocking connections never call the listener.
+         * @param listener callback to run when the connection is ready for more data, must not block
+         */
+        public void setWriteReadyListener(Runnable listener) {
+        }
+
+        /**
+         * Indicates if the connection is open and connected to the peer.
+         * @return true if the connection is open and connected, false otherwise
+         */
+        public boolean isAvailable() {
+            return !isClosed() && socket.isConnected();
+        }
+
+        /**
+         * Indicate if the connection has been closed. A closed connection can not be reopened.
+         * To re-open, a new Instance must be created.
+         * @return true if the connection is closed, false otherwise.
+         */
+        public boolean isClosed() {
+            return socket == null || socket.isClosed();
+        }
+
+        /**
+         * Returns the port number of the remote host, if the connection is available.
+         * @return port number (range: 1 - 65535) of the port on the remote host, 0 if not connected.
+         */
+        public int getRemotePort() {
+            return isAvailable()? socket.getPort() : 0;
+        }
+
+        /**
+         * Returns the host name of the remote peer. If available looks up the hostname (e.g. "www.zhaw.ch"),
+         * otherwise returns a string representation of the IP address (e.g. "160.85.104.112").
+         * @return host name of the remote peer, "not connected" if connection is not available.
+         */
+        public String getRemoteHost() {
+            return isAvailable()? socket.getInetAddress().getHostName() : "not connected";
+        }
+
+        /**
+         * Closes this NetworkConnection and releases any system resources associated with it.
+         * If the connection is closed a {@link java.net.SocketException} is thrown on all local waiting threads
+         * (e.g. in {@link NetworkConnection#receive()}), and on the remote side an {@link EOFException} is thrown
+         * on all waiting threads.
+         * If the connection is already closed then invoking this method has no effect.
+         * @throws IOException if an I/O error occurs
+         */
+        @Override
+        public void close() throws IOException {
+            if (!isClosed()) {
+                socket.close();
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            NetworkConnection<?> that = (NetworkConnection<?>) o;
+            return socket.equals(that.socket);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(socket);
+        }
+    }
+
+    /**
+     * Event driven, non-blocking variant of {@link NetworkConnection} created by an event driven
+     * {@link NetworkServer}. Reading and decoding of frames is done by the {@link EventLoop} the connection is
+     * assigned to, which passes the received objects to the registered {@link ReceiveListener}.
+     * Sending is thread-safe and never blocks: data which can not be written immediately is queued and written as
+     * soon the socket is writable again.
+     *
+     * @param <T> type of Objects to be transmitted trough this connection
+     */
+    static class SelectorConnection<T extends Serializable> extends NetworkConnection<T> {
+        private static final int INITIAL_READ_BUFFER_SIZE = 8 * 1024;
+        /** Maximum number of frames passed to a single gathering write */
+        private static final int MAX_GATHERED_FRAMES = 64;
+
+        private final SocketChannel channel;
+        private final EventLoop eventLoop;
+        private final int writeBufferSize;
+        private final Deque<ByteBuffer> pendingWrites = new ArrayDeque<>();
+        private final ByteBuffer[] gatheredFrames = new ByteBuffer[MAX_GATHERED_FRAMES];
+        private long pendingBytes;
+        private boolean writeBlocked;
+        private ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_READ_BUFFER_SIZE);
+        private SelectionKey selectionKey;
+        private volatile ReceiveListener<T> listener;
+        private volatile Runnable writeReadyListener;
+        private IOException closeCause;
+        private boolean closeNotified;
+
+        /**
+         * <b>Package private constructor: instances are created by {@link NetworkServer#waitForConnection()}</b>
+         * @param channel   non-blocking channel of the accepted connection
+         * @param eventLoop event loop serving this connection
+         * @param codec     codec used to encode and decode the transmitted objects
+         * @param options   socket options, defining the size of the write buffer
+         */
+        SelectorConnection(SocketChannel channel, EventLoop eventLoop, FrameCodec<T> codec, SocketOptions options) {
+            super(channel.socket(), codec, options);
+            this.channel = channel;
+            this.eventLoop = eventLoop;
+            this.writeBufferSize = options.getWriteBufferSize();
+        }
+
+        /**
+         * Sends the frame to the remote side without blocking. If the socket can not take the whole frame, the
+         * remainder is queued and written by the event loop.
+         * @param encodedFrame frame to be submitted through the connection.
+         * @throws IOException if an error occurs (e.g. connection already closed, ...)
+         */
+        @Override
+        public void send(Frame encodedFrame) throws IOException {
+            synchronized (pendingWrites) {
+                write(encodedFrame);
+                flush();
+            }
+        }
+
+        /**
+         * Queues the frame without writing it. The queued frames are written using a single gathering write as soon
+         * {@link #flush()} is called or the queued bytes exceed the write buffer size.
+         * @param encodedFrame frame to be submitted through the connection.
+         * @throws IOException if an error occurs (e.g. connection already closed, ...)
+         */
+        @Override
+        public void write(Frame encodedFrame) throws IOException {
+            synchronized (pendingWrites) {
+                if (!channel.isOpen()) throw new SocketException("Socket closed");
+                ByteBuffer bytes = encodedFrame.isBuffered()
+                    ? encodedFrame.buffer() : ByteBuffer.wrap(getCompression().prepare(encodedFrame));
+                int length = bytes.remaining();
+                pendingWrites.add(bytes);
+                pendingBytes += length;
+                bytesSent(length);
+                if (pendingBytes >= writeBufferSize && !writeBlocked) {
+                    flushPending();
+                }
+            }
+        }
+
+        /**
+         * Writes the queued frames without blocking. If the socket can not take all of them, the remainder is
+         * written by the event loop as soon the socket is writable again.
+         * @throws IOException if an error occurs (e.g. connection already closed, ...)
+         */
+        @Override
+        public void flush() throws IOException {
+            synchronized (pendingWrites) {
+                if (!channel.isOpen()) throw new SocketException("Socket closed");
+                if (!writeBlocked) {
+                    flushPending();
+                }
+            }
+        }
+
+        /**
+         * Not supported for event driven connections.
+         * @throws UnsupportedOperationException always, use {@link #setReceiveListener(ReceiveListener)} instead
+         */
+        @Override
+        public T receive() {
+            throw new UnsupportedOperationException("Event driven connection, use setReceiveListener() instead");
+        }
+
+        @Override
+        public boolean isEventDriven() {
+            return true;
+        }
+
+        /**
+         * Indicates if flushed frames are waiting for the socket to become writable again.
+         * Frames added by {@link #write(Frame)} which have not been flushed yet are not considered.
+         * @return true if the socket did not take all flushed frames, false otherwise
+         */
+        @Override
+        public boolean hasPendingWrites() {
+            synchronized (pendingWrites) {
+                return writeBlocked;
+            }
+        }
+
+        @Override
+        public void setWriteReadyListener(Runnable listener) {
+            this.writeReadyListener = listener;
+        }
+
+        @Override
+        public void setReceiveListener(ReceiveListener<T> listener) {
+            Objects.requireNonNull(listener, "Listener must not be null");
+            if (this.listener != null) throw new IllegalStateException("Receive listener already registered");
+            this.listener = listener;
+            eventLoop.execute(() -> {
+                if (channel.isOpen()) {
+                    updateInterest();
+                } else {
+                    notifyClosed(new SocketException("Socket closed"));
+                }
+            });
+        }
+
+        /**
+         * Closes the channel and notifies the listener with a {@link SocketException} as for a blocking connection
+         * closed locally. If the connection is already closed then invoking this method has no effect.
+         */
+        @Override
+        public void close() {
+            closeWithCause(new SocketException("Socket closed"));
+        }
+
+        /**
+         * Closes the channel (if still open) and notifies the listener about the given cause on the event loop.
+         * @param cause reason for closing the connection
+         */
+        void closeWithCause(IOException cause) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOG.error("Failed to close channel: %s", e.getMessage());
+            }
+            eventLoop.execute(() -> notifyClosed(cause));
+        }
+
+        /**
+         * Called by the event loop, when the channel is readable. Reads all available bytes and passes every
+         * complete frame to the listener. A read buffer grown for a large frame shrinks back to its initial size
+         * once the frame has been passed on.
+         * @throws IOException if reading fails, the remote side closed the connection or a frame is corrupt
+         */
+        void handleReadable() throws IOException {
+            int count = channel.read(readBuffer);
+            if (count < 0) {
+                throw new EOFException("Connection closed by remote peer");
+            }
+            bytesReceived(count);
+            readBuffer.flip();
+            while (readBuffer.remaining() >= FRAME_HEADER_LENGTH && channel.isOpen()) {
+                int header = readBuffer.getInt(readBuffer.position());
+                int length = frameBodyLength(header);
+                if (readBuffer.remaining() < FRAME_HEADER_LENGTH + length) {
+                    ensureReadCapacity(FRAME_HEADER_LENGTH + length);
+                    return;
+                }
+                int bodyOffset = readBuffer.arrayOffset() + readBuffer.position() + FRAME_HEADER_LENGTH;
+                readBuffer.position(readBuffer.position() + FRAME_HEADER_LENGTH + length);
+                try {
+                    listener.onReceive(decode(header, readBuffer.array(), bodyOffset, length));
+                } catch (ClassNotFoundException e) {
+                    throw new InvalidClassException("Received object of unknown type: " + e.getMessage());
+                }
+            }
+            if (readBuffer.capacity() > INITIAL_READ_BUFFER_SIZE && readBuffer.remaining() < INITIAL_READ_BUFFER_SIZE) {
+                // the large frames the buffer has grown for are consumed, don't keep the memory for the connection
+                ByteBuffer initial = ByteBuffer.allocate(INITIAL_READ_BUFFER_SIZE);
+                initial.put(readBuffer);
+                readBuffer = initial;
+            } else {
+                readBuffer.compact();
+            }
+        }
+
+        /**
+         * Called by the event loop, when the channel is writable. Writes as many queued frames as possible.
+         * @throws IOException if writing fails
+         */
+        void handleWritable() throws IOException {
+            synchronized (pendingWrites) {
+                if (!writePending()) return;
+                writeBlocked = false;
+            }
+            updateInterest();
+            Runnable readyListener = writeReadyListener;
+            if (readyListener != null) {
+                readyListener.run();
+            }
+        }
+
+        /**
+         * Writes the queued frames and requests a write notification from the event loop if the socket could not
+         * take all of them. Must be called holding the lock on the pending writes.
+         * @throws IOException if writing fails
+         */
+        private void flushPending() throws IOException {
+            if (!writePending()) {
+                writeBlocked = true;
+                eventLoop.execute(this::updateInterest);
+            }
+        }
+
+        /**
+         * Writes as many queued frames as the socket takes, passing up to {@value #MAX_GATHERED_FRAMES} frames to
+         * each gathering write. Must be called holding the lock on the pending writes.
+         * @return true if all queued frames have been written, false if the socket is full
+         * @throws IOException if writing fails
+         */
+        private boolean writePending() throws IOException {
+            while (!pendingWrites.isEmpty()) {
+                int count = 0;
+                for (ByteBuffer frame : pendingWrites) {
+                    gatheredFrames[count++] = frame;
+                    if (count == MAX_GATHERED_FRAMES) break;
+                }
+                boolean socketFull;
+                try {
+                    pendingBytes -= channel.write(gatheredFrames, 0, count);
+                    socketFull = gatheredFrames[count - 1].hasRemaining();
+                } finally {
+                    Arrays.fill(gatheredFrames, 0, count, null);
+                }
+                while (!pendingWrites.isEmpty() && !pendingWrites.peek().hasRemaining()) {
+                    pendingWrites.poll();
+                }
+                if (socketFull) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Compacts the read buffer and grows it, if it is too small to hold a frame of the given size.
+         * @param frameSize size of the next frame including its length prefix
+         */
+        private void ensureReadCapacity(int frameSize) {
+            readBuffer.compact();
+            if (readBuffer.capacity() < frameSize) {
+                ByteBuffer larger = ByteBuffer.allocate(frameSize);
+                readBuffer.flip();
+                larger.put(readBuffer);
+                readBuffer = larger;
+            }
+        }
+
+        /**
+         * Registers the channel with the selector (if not yet done) and updates the interest set to the current
+         * needs: reading as soon a listener is registered, writing as long frames are pending.
+         * Must be called on the event loop thread.
+         */
+        private void updateInterest() {
+            if (!channel.isOpen()) return;
+            int interest = listener != null ? SelectionKey.OP_READ : 0;
+            synchronized (pendingWrites) {
+                if (writeBlocked) interest |= SelectionKey.OP_WRITE;
+            }
+            try {
+                if (selectionKey == null) {
+                    selectionKey = channel.register(eventLoop.getSelector(), interest, this);
+                } else {
+                    selectionKey.interestOps(interest);
+                }
+            } catch (IOException e) {
+                closeWithCause(e);
+            }
+        }
+
+        /**
+         * Notifies the listener about the close of the connection, if not done yet. If no listener is registered,
+         * the first cause is kept and passed to the listener as soon it is registered.
+         * Must be called on the event loop thread.
+         * @param cause reason the connection has been closed
+         */
+        private void notifyClosed(IOException cause) {
+            if (closeCause == null) closeCause = cause;
+            synchronized (pendingWrites) {
+                pendingWrites.clear();
+                pendingBytes = 0;
+                writeBlocked = false;
+            }
+            if (closeNotified || listener == null) return;
+            closeNotified = true;
+            listener.onClosed(closeCause);
+        }
+    }
+}
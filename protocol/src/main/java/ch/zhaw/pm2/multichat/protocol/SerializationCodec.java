@@ -0,0 +1,31 @@
+package ch.zhaw.pm2.multichat.protocol;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+
+/**
+ * Generic {@link FrameCodec} using Java serialization. Every frame body is a complete serialization stream holding
+ * exactly one object. This is the codec used by the {@link NetworkHandler} factory methods without codec argument.
+ * @param <T> type of Objects transmitted through the connection
+ */
+public class SerializationCodec<T extends Serializable> implements FrameCodec<T> {
+
+    @Override
+    public void encode(T data, OutputStream out) throws IOException {
+        ObjectOutputStream outputStream = new ObjectOutputStream(out);
+        outputStream.writeObject(data);
+        outputStream.flush();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T decode(byte[] body, int offset, int length) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream inputStream = new ObjectInputStream(new ByteArrayInputStream(body, offset, length))) {
+            return (T) inputStream.readObject();
+        }
+    }
+}
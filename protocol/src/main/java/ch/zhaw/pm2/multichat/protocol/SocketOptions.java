@@ -0,0 +1,142 @@
+package ch.zhaw.pm2.multichat.protocol;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * TCP tuning applied to the sockets of a {@link NetworkHandler.NetworkServer} or {@link NetworkHandler.NetworkConnection}.
+ * The defaults can be overridden using system properties (e.g. {@code -Dmultichat.sendBufferSize=262144}),
+ * see {@link #configured()}. Buffer sizes of 0 keep the defaults of the operating system.
+ */
+public class SocketOptions {
+    /** Prefix of all system properties read by {@link #configured()} */
+    public static final String PROPERTY_PREFIX = "multichat.";
+
+    /** Default number of pending connection requests queued by the operating system */
+    public static final int DEFAULT_ACCEPT_BACKLOG = 1024;
+
+    /** Default number of bytes collected before frames are written to the socket without waiting for a flush */
+    public static final int DEFAULT_WRITE_BUFFER_SIZE = 8 * 1024;
+
+    private boolean tcpNoDelay = true;
+    private int sendBufferSize = 0;
+    private int receiveBufferSize = 0;
+    private int acceptBacklog = DEFAULT_ACCEPT_BACKLOG;
+    private int writeBufferSize = DEFAULT_WRITE_BUFFER_SIZE;
+
+    /**
+     * Creates the options using the defaults, overridden by the matching system properties
+     * ({@code multichat.tcpNoDelay}, {@code multichat.sendBufferSize}, {@code multichat.receiveBufferSize},
+     * {@code multichat.acceptBacklog} and {@code multichat.writeBufferSize}).
+     * @return configured socket options
+     * @throws IllegalArgumentException if a property has an invalid value
+     */
+    public static SocketOptions configured() {
+        SocketOptions options = new SocketOptions();
+        options.setTcpNoDelay(Boolean.parseBoolean(property("tcpNoDelay", String.valueOf(options.isTcpNoDelay()))));
+        options.setSendBufferSize(intProperty("sendBufferSize", options.getSendBufferSize()));
+        options.setReceiveBufferSize(intProperty("receiveBufferSize", options.getReceiveBufferSize()));
+        options.setAcceptBacklog(intProperty("acceptBacklog", options.getAcceptBacklog()));
+        options.setWriteBufferSize(intProperty("writeBufferSize", options.getWriteBufferSize()));
+        return options;
+    }
+
+    private static String property(String name, String defaultValue) {
+        return System.getProperty(PROPERTY_PREFIX + name, defaultValue);
+    }
+
+    private static int intProperty(String name, int defaultValue) {
+        return Integer.parseInt(property(name, String.valueOf(defaultValue)));
+    }
+
+    /**
+     * Applies the options to a server socket. Must be called before the socket is bound, so the receive buffer
+     * size is inherited by the accepted sockets and considered for the TCP window scaling.
+     * @param serverSocket unbound server socket
+     * @throws IOException if an option can not be set
+     */
+    void applyTo(ServerSocket serverSocket) throws IOException {
+        if (receiveBufferSize > 0) serverSocket.setReceiveBufferSize(receiveBufferSize);
+    }
+
+    /**
+     * Applies the options to a client socket or to a socket accepted by a server.
+     * For client sockets, must be called before the socket is connected.
+     * @param socket socket to configure
+     * @throws IOException if an option can not be set
+     */
+    void applyTo(Socket socket) throws IOException {
+        socket.setKeepAlive(true);
+        socket.setTcpNoDelay(tcpNoDelay);
+        if (sendBufferSize > 0) socket.setSendBufferSize(sendBufferSize);
+        if (receiveBufferSize > 0) socket.setReceiveBufferSize(receiveBufferSize);
+    }
+
+    public boolean isTcpNoDelay() {
+        return tcpNoDelay;
+    }
+
+    /**
+     * Enables or disables TCP_NODELAY. Enabled by default: frames are already collected by the connection and
+     * flushed at once, so Nagle's algorithm would only delay the last segment of a batch.
+     * @param tcpNoDelay true to disable Nagle's algorithm
+     */
+    public void setTcpNoDelay(boolean tcpNoDelay) {
+        this.tcpNoDelay = tcpNoDelay;
+    }
+
+    public int getSendBufferSize() {
+        return sendBufferSize;
+    }
+
+    /**
+     * Sets the size of the socket send buffer (SO_SNDBUF).
+     * @param sendBufferSize size in bytes, 0 for the default of the operating system
+     */
+    public void setSendBufferSize(int sendBufferSize) {
+        if (sendBufferSize < 0) throw new IllegalArgumentException("Send buffer size must not be negative");
+        this.sendBufferSize = sendBufferSize;
+    }
+
+    public int getReceiveBufferSize() {
+        return receiveBufferSize;
+    }
+
+    /**
+     * Sets the size of the socket receive buffer (SO_RCVBUF).
+     * @param receiveBufferSize size in bytes, 0 for the default of the operating system
+     */
+    public void setReceiveBufferSize(int receiveBufferSize) {
+        if (receiveBufferSize < 0) throw new IllegalArgumentException("Receive buffer size must not be negative");
+        this.receiveBufferSize = receiveBufferSize;
+    }
+
+    public int getAcceptBacklog() {
+        return acceptBacklog;
+    }
+
+    /**
+     * Sets the maximum number of connection requests queued while the server is not accepting, e.g. when many
+     * clients reconnect at the same time. The operating system may limit the value further.
+     * @param acceptBacklog length of the accept queue, 0 for the default of the JDK
+     */
+    public void setAcceptBacklog(int acceptBacklog) {
+        if (acceptBacklog < 0) throw new IllegalArgumentException("Accept backlog must not be negative");
+        this.acceptBacklog = acceptBacklog;
+    }
+
+    public int getWriteBufferSize() {
+        return writeBufferSize;
+    }
+
+    /**
+     * Sets the number of bytes a connection collects from {@link NetworkHandler.NetworkConnection#write(Frame)}
+     * before writing them to the socket without waiting for {@link NetworkHandler.NetworkConnection#flush()}.
+     * @param writeBufferSize size in bytes (at least 1)
+     */
+    public void setWriteBufferSize(int writeBufferSize) {
+        if (writeBufferSize < 1) throw new IllegalArgumentException("Write buffer size must be positive");
+        this.writeBufferSize = writeBufferSize;
+    }
+}
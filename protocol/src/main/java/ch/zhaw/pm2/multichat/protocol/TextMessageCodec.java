@@ -0,0 +1,251 @@
+package ch.zhaw.pm2.multichat.protocol;
+
+import java.io.IOException;
+import java.io.ObjectStreamConstants;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Legacy {@link FrameCodec} for {@link Message} objects ({@link WireFormat#LEGACY}).
+ * The message is flattened to its newline separated text representation (see {@link Message#toString()}), which is
+ * transmitted as Java serialized String and parsed back into a {@link Message} on the receiving side.
+ * <p>Encoding writes the serialization stream header and the modified UTF-8 text by hand into a single array, which
+ * results in the same bytes as {@link java.io.ObjectOutputStream#writeObject} of the String.</p>
+ * <p>Decoding reads the serialized String directly from the frame bytes into a character buffer, which is reused for
+ * all frames of the connection, and splits it in a single pass. Only the fields of the resulting message are
+ * allocated.</p>
+ */
+public class TextMessageCodec implements FrameCodec<Message> {
+    private static final Config.MessageType[] MESSAGE_TYPES = Config.MessageType.values();
+    private static final char[][] TYPE_NAMES = Arrays.stream(MESSAGE_TYPES)
+        .map(type -> type.name().toCharArray())
+        .toArray(char[][]::new);
+    private static final int MAX_TYPE_LENGTH = Arrays.stream(TYPE_NAMES).mapToInt(name -> name.length).max().orElse(0);
+    /** Ordinals of the types by {@link #typeKey} of their name, so a type name is compared with one candidate only */
+    private static final int[][] TYPES_BY_KEY = indexTypes();
+    /** Length of the stream header, the string tag and the length of a String with up to 0xFFFF bytes of text */
+    private static final int STRING_HEADER_LENGTH = 2 * Short.BYTES + 1 + Short.BYTES;
+    /** Length of the stream header, the string tag and the length of a String with more than 0xFFFF bytes of text */
+    private static final int LONG_STRING_HEADER_LENGTH = 2 * Short.BYTES + 1 + Long.BYTES;
+
+    /** Scratch buffer for the decoded text, reused for every frame of the connection */
+    private char[] chars = new char[256];
+
+    @Override
+    public void encode(Message message, OutputStream out) throws IOException {
+        String text = message.toString();
+        long utfLength = modifiedUtf8Length(text);
+        int headerLength = utfLength > 0xFFFF ? LONG_STRING_HEADER_LENGTH : STRING_HEADER_LENGTH;
+        if (utfLength > Integer.MAX_VALUE - headerLength) throw new IOException("Message too long");
+        byte[] bytes = new byte[headerLength + (int) utfLength];
+        ByteBuffer header = ByteBuffer.wrap(bytes)
+            .putShort(ObjectStreamConstants.STREAM_MAGIC)
+            .putShort(ObjectStreamConstants.STREAM_VERSION);
+        if (utfLength > 0xFFFF) {
+            header.put(ObjectStreamConstants.TC_LONGSTRING).putLong(utfLength);
+        } else {
+            header.put(ObjectStreamConstants.TC_STRING).putShort((short) utfLength);
+        }
+        encodeModifiedUtf8(text, bytes, headerLength);
+        out.write(bytes);
+    }
+
+    /**
+     * Returns the number of bytes required to encode the given text as modified UTF-8 (see {@link java.io.DataInput}).
+     * @param text text to encode
+     * @return length of the encoded text in bytes
+     */
+    private static long modifiedUtf8Length(String text) {
+        long length = text.length();
+        for (int index = 0; index < text.length(); index++) {
+            char c = text.charAt(index);
+            if (c >= 0x800) {
+                length += 2;
+            } else if (c >= 0x80 || c == 0) {
+                length += 1;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Encodes the given text as modified UTF-8 into the given array, which must have room for
+     * {@link #modifiedUtf8Length} bytes starting at the given index.
+     * @param text  text to encode
+     * @param bytes target array
+     * @param index index of the first byte to write
+     */
+    private static void encodeModifiedUtf8(String text, byte[] bytes, int index) {
+        for (int position = 0; position < text.length(); position++) {
+            char c = text.charAt(position);
+            if (c >= 0x800) {
+                bytes[index++] = (byte) (0xE0 | (c >> 12));
+                bytes[index++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                bytes[index++] = (byte) (0x80 | (c & 0x3F));
+            } else if (c >= 0x80 || c == 0) {
+                bytes[index++] = (byte) (0xC0 | (c >> 6));
+                bytes[index++] = (byte) (0x80 | (c & 0x3F));
+            } else {
+                bytes[index++] = (byte) c;
+            }
+        }
+    }
+
+    @Override
+    public Message decode(byte[] body, int offset, int length) throws IOException {
+        int textLength = readSerializedString(body, offset, length);
+        try {
+            return parseData(chars, textLength);
+        } catch (ChatProtocolException e) {
+            throw new StreamCorruptedException(e.getMessage());
+        }
+    }
+
+    /**
+     * Reads a Java serialization stream holding a single String, as written by {@link #encode}, and decodes the
+     * modified UTF-8 text into the scratch buffer {@link #chars} without creating any intermediate objects.
+     * @param body   array holding the frame body
+     * @param offset start of the frame body within the array
+     * @param length length of the frame body
+     * @return number of characters decoded into {@link #chars}
+     * @throws StreamCorruptedException if the frame body is not a serialized String
+     */
+    private int readSerializedString(byte[] body, int offset, int length) throws StreamCorruptedException {
+        ByteBuffer buffer = ByteBuffer.wrap(body, offset, length);
+        try {
+            if (buffer.getShort() != ObjectStreamConstants.STREAM_MAGIC
+                || buffer.getShort() != ObjectStreamConstants.STREAM_VERSION) {
+                throw new StreamCorruptedException("Invalid stream header");
+            }
+            long utfLength = switch (buffer.get()) {
+                case ObjectStreamConstants.TC_STRING -> Short.toUnsignedInt(buffer.getShort());
+                case ObjectStreamConstants.TC_LONGSTRING -> buffer.getLong();
+                default -> throw new StreamCorruptedException("Expected text message");
+            };
+            if (utfLength != buffer.remaining()) throw new StreamCorruptedException("Invalid text length");
+            return decodeModifiedUtf8(body, buffer.position(), buffer.limit());
+        } catch (BufferUnderflowException e) {
+            throw new StreamCorruptedException("Truncated text message");
+        }
+    }
+
+    /**
+     * Decodes modified UTF-8 (see {@link java.io.DataInput}) into the scratch buffer, growing it if required.
+     * @param bytes source array
+     * @param from  index of the first byte to decode
+     * @param to    index after the last byte to decode
+     * @return number of characters decoded
+     * @throws StreamCorruptedException if the bytes are not valid modified UTF-8
+     */
+    private int decodeModifiedUtf8(byte[] bytes, int from, int to) throws StreamCorruptedException {
+        if (chars.length < to - from) {
+            chars = new char[Math.max(to - from, chars.length * 2)];
+        }
+        int count = 0;
+        int index = from;
+        while (index < to) {
+            int first = bytes[index++] & 0xFF;
+            if (first < 0x80) {
+                chars[count++] = (char) first;
+            } else if ((first & 0xE0) == 0xC0 && index < to) {
+                chars[count++] = (char) (((first & 0x1F) << 6) | continuation(bytes[index++]));
+            } else if ((first & 0xF0) == 0xE0 && index + 1 < to) {
+                int second = continuation(bytes[index++]);
+                chars[count++] = (char) (((first & 0x0F) << 12) | (second << 6) | continuation(bytes[index++]));
+            } else {
+                throw new StreamCorruptedException("Malformed text at byte " + (index - 1 - from));
+            }
+        }
+        return count;
+    }
+
+    private static int continuation(byte value) throws StreamCorruptedException {
+        if ((value & 0xC0) != 0x80) throw new StreamCorruptedException("Malformed text");
+        return value & 0x3F;
+    }
+
+    /**
+     * Parses the text representation of a message in a single pass over the given characters.
+     * Sender, receiver and type are taken from the first three lines, the payload is the complete rest of the text,
+     * so payloads may contain line breaks.
+     *
+     * @param text   characters to parse
+     * @param length number of valid characters in text
+     * @return the parsed Message object
+     * @throws ChatProtocolException if the data is invalid or incomplete
+     */
+    private Message parseData(char[] text, int length) throws ChatProtocolException {
+        Message message = new Message();
+        int position = 0;
+        if (position >= length) throw new ChatProtocolException("No Sender found");
+        int end = lineEnd(text, position, length);
+        message.setSender(new String(text, position, end - position));
+        position = end + 1;
+        if (position >= length) throw new ChatProtocolException("No Reciever found");
+        end = lineEnd(text, position, length);
+        message.setReceiver(new String(text, position, end - position));
+        position = end + 1;
+        if (position >= length) throw new ChatProtocolException("No Type found");
+        end = lineEnd(text, position, length);
+        message.setType(mapType(text, position, end));
+        position = end + 1;
+        if (position < length) {
+            message.setPayload(new String(text, position, length - position));
+        }
+        return message;
+    }
+
+    private static int lineEnd(char[] text, int from, int length) {
+        for (int index = from; index < length; index++) {
+            if (text[index] == '\n') return index;
+        }
+        return length;
+    }
+
+    /**
+     * Maps the type name found in the given character range to a MessageType enum value. The candidates are looked
+     * up by length and first character of the name, and only these are compared in place against the characters.
+     *
+     * @param text the characters holding the type name
+     * @param from index of the first character of the type name
+     * @param to   index after the last character of the type name
+     * @return the mapped MessageType enum value
+     * @throws ChatProtocolException if the type name is invalid
+     */
+    private static Config.MessageType mapType(char[] text, int from, int to) throws ChatProtocolException {
+        int length = to - from;
+        if (length > 0 && length <= MAX_TYPE_LENGTH) {
+            int[] candidates = TYPES_BY_KEY[typeKey(length, text[from])];
+            if (candidates != null) {
+                for (int ordinal : candidates) {
+                    if (Arrays.equals(TYPE_NAMES[ordinal], 1, length, text, from + 1, to)) {
+                        return MESSAGE_TYPES[ordinal];
+                    }
+                }
+            }
+        }
+        throw new ChatProtocolException("Invalid type: " + new String(text, from, to - from));
+    }
+
+    /**
+     * Returns the index of the type names with the given length and first character in {@link #TYPES_BY_KEY}.
+     * Different first characters may share the same key, which is resolved by comparing the candidates.
+     */
+    private static int typeKey(int length, char first) {
+        return length << 5 | (first & 0x1F);
+    }
+
+    private static int[][] indexTypes() {
+        int[][] typesByKey = new int[typeKey(MAX_TYPE_LENGTH, (char) 0x1F) + 1][];
+        for (int ordinal = 0; ordinal < TYPE_NAMES.length; ordinal++) {
+            int key = typeKey(TYPE_NAMES[ordinal].length, TYPE_NAMES[ordinal][0]);
+            int[] candidates = typesByKey[key] == null ? new int[0] : typesByKey[key];
+            typesByKey[key] = Arrays.copyOf(candidates, candidates.length + 1);
+            typesByKey[key][candidates.length] = ordinal;
+        }
+        return typesByKey;
+    }
+}
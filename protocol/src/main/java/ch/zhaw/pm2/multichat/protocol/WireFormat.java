@@ -0,0 +1,38 @@
+package ch.zhaw.pm2.multichat.protocol;
+
+/**
+ * Defines how {@link Message} objects are represented on the wire. Client and server have to use the same format.
+ * The format is selected using the system property {@value #PROPERTY} (e.g. {@code -Dmultichat.wireFormat=LEGACY}),
+ * {@link #BINARY} is used if the property is not set.
+ */
+public enum WireFormat {
+    /** Newline separated text, transmitted as Java serialized String (see {@link TextMessageCodec}) */
+    LEGACY,
+    /** Compact binary frame with typed fields (see {@link MessageCodec}) */
+    BINARY;
+
+    /**
+     * Name of the system property selecting the wire format
+     */
+    public static final String PROPERTY = "multichat.wireFormat";
+
+    /**
+     * Creates a new codec for this format. Each connection needs its own codec instance.
+     * @return new codec instance
+     */
+    public FrameCodec<Message> newCodec() {
+        return switch (this) {
+            case LEGACY -> new TextMessageCodec();
+            case BINARY -> new MessageCodec();
+        };
+    }
+
+    /**
+     * Returns the wire format selected by the system property {@value #PROPERTY}.
+     * @return configured wire format, {@link #BINARY} if not configured
+     * @throws IllegalArgumentException if the property does not name a wire format
+     */
+    public static WireFormat configured() {
+        return valueOf(System.getProperty(PROPERTY, BINARY.name()).toUpperCase());
+    }
+}
@@ -0,0 +1,135 @@
+package ch.zhaw.pm2.multichat.protocol;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests compressing frames using the deflate context of a connection or of a shared frame, and inflating them again
+ * using {@link Compression}.
+ */
+class CompressionTest {
+
+    private final Compression sender = new Compression();
+    private final Compression receiver = new Compression();
+
+    @Test
+    void sendsFramesUncompressedUnlessEnabled() throws IOException {
+        Frame frame = frame("x".repeat(2000));
+        assertSame(frame.bytes(), sender.prepare(frame));
+        sender.enable(0);
+        assertSame(frame.bytes(), sender.prepare(frame));
+    }
+
+    @Test
+    void sendsFramesBelowTheThresholdUncompressed() throws IOException {
+        sender.enable(Compression.DEFAULT_THRESHOLD);
+        Frame frame = frame("small");
+        assertSame(frame.bytes(), sender.prepare(frame));
+    }
+
+    @Test
+    void inflatesStreamCompressedFramesInOrder() throws IOException {
+        sender.enable(16);
+        int firstLength = 0;
+        for (int i = 0; i < 10; i++) {
+            Frame frame = frame("the same repetitive payload, sent again and again " + i);
+            byte[] compressed = sender.prepare(frame);
+            assertEquals(Compression.FLAG_DEFLATE_STREAM, flags(compressed));
+            assertArrayEquals(body(frame.bytes()), inflate(compressed));
+            if (i == 0) {
+                firstLength = compressed.length;
+            } else {
+                assertTrue(compressed.length < firstLength, "frame " + i + " not compressed using the context");
+            }
+        }
+    }
+
+    @Test
+    void compressesSharedFramesOnceForAllConnections() throws IOException {
+        sender.enable(16);
+        Compression otherSender = new Compression();
+        otherSender.enable(16);
+        Frame frame = frame("a broadcast to many connections, ".repeat(20)).shared();
+        byte[] compressed = sender.prepare(frame);
+        assertSame(compressed, otherSender.prepare(frame));
+        assertEquals(Compression.FLAG_DEFLATE, flags(compressed));
+        assertArrayEquals(body(frame.bytes()), inflate(compressed));
+    }
+
+    @Test
+    void inflatesSharedFramesBetweenStreamCompressedFrames() throws IOException {
+        sender.enable(16);
+        Frame first = frame("stream compressed payload, ".repeat(10));
+        Frame shared = frame("shared payload, ".repeat(10)).shared();
+        Frame second = frame("stream compressed payload again, ".repeat(10));
+        assertArrayEquals(body(first.bytes()), inflate(sender.prepare(first)));
+        assertArrayEquals(body(shared.bytes()), inflate(sender.prepare(shared)));
+        assertArrayEquals(body(second.bytes()), inflate(sender.prepare(second)));
+    }
+
+    @Test
+    void keepsSharedFramesUncompressedIfDeflateDoesNotHelp() {
+        byte[] frame = new byte[Integer.BYTES + 1000];
+        new Random(42).nextBytes(frame);
+        ByteBuffer.wrap(frame).putInt(frame.length - Integer.BYTES);
+        assertSame(frame, Compression.deflateFrame(frame));
+    }
+
+    @Test
+    void rejectsInvalidFlagsAndCorruptFrames() {
+        byte[] garbage = {1, 2, 3, 4, 5, 6, 7, 8};
+        assertThrows(StreamCorruptedException.class, () -> receiver.inflate(0, garbage, 0, garbage.length));
+        assertThrows(StreamCorruptedException.class,
+            () -> receiver.inflate(Compression.FLAG_DEFLATE, new byte[] {-1, -1, -1, -1}, 0, 4));
+    }
+
+    @Test
+    void rejectsFramesExceedingTheMaximumLengthWhenInflated() {
+        byte[] huge = new byte[Integer.BYTES + 2 * NetworkHandler.MAX_FRAME_LENGTH];
+        ByteBuffer.wrap(huge).putInt(huge.length - Integer.BYTES);
+        byte[] compressed = Compression.deflateFrame(huge);
+        assertThrows(StreamCorruptedException.class, () -> inflate(compressed));
+    }
+
+    @Test
+    void readsTheThresholdFromTheSystemProperty() {
+        try {
+            assertEquals(Compression.DEFAULT_THRESHOLD, Compression.configuredThreshold());
+            System.setProperty(Compression.PROPERTY_THRESHOLD, "0");
+            assertEquals(0, Compression.configuredThreshold());
+            System.setProperty(Compression.PROPERTY_THRESHOLD, "-1");
+            assertThrows(IllegalArgumentException.class, Compression::configuredThreshold);
+        } finally {
+            System.clearProperty(Compression.PROPERTY_THRESHOLD);
+        }
+    }
+
+    private byte[] inflate(byte[] compressed) throws IOException {
+        ByteBuffer inflated = receiver.inflate(flags(compressed), compressed, Integer.BYTES,
+            compressed.length - Integer.BYTES);
+        return Arrays.copyOfRange(inflated.array(), inflated.position(), inflated.limit());
+    }
+
+    private static int flags(byte[] frame) {
+        return ByteBuffer.wrap(frame).getInt() & Compression.FLAG_MASK;
+    }
+
+    private static byte[] body(byte[] frame) {
+        return Arrays.copyOfRange(frame, Integer.BYTES, frame.length);
+    }
+
+    private static Frame frame(String payload) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        new MessageCodec().encode(new Message("alice", "bob", Config.MessageType.MESSAGE, payload), body);
+        return new Frame(ByteBuffer.allocate(Integer.BYTES + body.size()).putInt(body.size()).put(body.toByteArray())
+            .array());
+    }
+}
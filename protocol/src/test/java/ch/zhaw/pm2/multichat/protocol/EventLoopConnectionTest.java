@@ -0,0 +1,105 @@
+package ch.zhaw.pm2.multichat.protocol;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.SocketException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the connections of an event driven {@link NetworkHandler.NetworkServer}, which are served by
+ * {@link EventLoop}s, talking to a blocking client connection through the loopback interface.
+ */
+class EventLoopConnectionTest {
+
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private NetworkHandler.NetworkServer<Message> server;
+    private NetworkHandler.NetworkConnection<Message> client;
+    private NetworkHandler.NetworkConnection<Message> accepted;
+    private final BlockingQueue<Message> received = new LinkedBlockingQueue<>();
+    private final CompletableFuture<IOException> closed = new CompletableFuture<>();
+
+    @BeforeEach
+    void connect() throws IOException {
+        server = NetworkHandler.createEventDrivenServer(0, 2, MessageCodec::new);
+        client = NetworkHandler.openConnection(NetworkHandler.DEFAULT_ADDRESS, server.getHostPort(),
+            new MessageCodec());
+        accepted = server.waitForConnection();
+        accepted.setReceiveListener(new NetworkHandler.ReceiveListener<>() {
+            @Override
+            public void onReceive(Message data) {
+                received.add(data);
+            }
+
+            @Override
+            public void onClosed(IOException cause) {
+                closed.complete(cause);
+            }
+        });
+    }
+
+    @AfterEach
+    void disconnect() throws IOException {
+        client.close();
+        accepted.close();
+        server.close();
+    }
+
+    @Test
+    void isEventDriven() {
+        assertTrue(server.isEventDriven());
+        assertTrue(accepted.isEventDriven());
+        assertThrows(UnsupportedOperationException.class, accepted::receive);
+    }
+
+    @Test
+    void passesTheReceivedMessagesToTheListenerInOrder() throws IOException, InterruptedException {
+        for (int i = 0; i < 1000; i++) {
+            client.send(message("message " + i));
+        }
+        for (int i = 0; i < 1000; i++) {
+            Message message = received.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            assertNotNull(message, "message " + i + " not received");
+            assertEquals("message " + i, message.getPayload());
+        }
+    }
+
+    @Test
+    void queuesWhatTheSocketCanNotTakeWithoutBlocking() throws IOException, ClassNotFoundException {
+        String payload = "x".repeat(100_000);
+        for (int i = 0; i < 200; i++) {
+            accepted.send(message(i + payload));
+        }
+        assertTrue(accepted.hasPendingWrites());
+        for (int i = 0; i < 200; i++) {
+            assertEquals(i + payload, client.receive().getPayload());
+        }
+    }
+
+    @Test
+    void reportsAConnectionClosedByTheRemotePeer() throws Exception {
+        client.close();
+        assertInstanceOf(EOFException.class, closed.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertFalse(accepted.isAvailable());
+    }
+
+    @Test
+    void reportsAConnectionClosedLocally() throws Exception {
+        accepted.close();
+        assertInstanceOf(SocketException.class, closed.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertThrows(SocketException.class, () -> accepted.send(message("too late")));
+    }
+
+    private static Message message(String payload) {
+        return new Message("alice", "bob", Config.MessageType.MESSAGE, payload);
+    }
+}
@@ -0,0 +1,103 @@
+package ch.zhaw.pm2.multichat.protocol;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the credit accounting of {@link FlowControl}.
+ */
+class FlowControlTest {
+
+    @Test
+    void sendsOnlyAsManyFramesAsTheWindowOfThePeer() {
+        FlowControl flow = new FlowControl(8, 3);
+        assertTrue(flow.tryAcquire());
+        assertTrue(flow.tryAcquire());
+        assertTrue(flow.tryAcquire());
+        assertFalse(flow.tryAcquire());
+        assertEquals(0, flow.getSendCredits());
+    }
+
+    @Test
+    void grantedCreditsAllowSendingAgain() {
+        FlowControl flow = new FlowControl(8, 1);
+        assertTrue(flow.tryAcquire());
+        assertFalse(flow.tryAcquire());
+        flow.grant(2);
+        assertEquals(2, flow.getSendCredits());
+        assertTrue(flow.tryAcquire());
+        assertTrue(flow.tryAcquire());
+        assertFalse(flow.tryAcquire());
+    }
+
+    @Test
+    void ignoresNonPositiveGrants() {
+        FlowControl flow = new FlowControl(8, 1);
+        flow.grant(0);
+        flow.grant(-5);
+        assertEquals(1, flow.getSendCredits());
+    }
+
+    @Test
+    void rejectsFramesBeyondTheReceiveWindow() {
+        FlowControl flow = new FlowControl(4, 4);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(flow.received());
+        }
+        assertFalse(flow.received());
+    }
+
+    @Test
+    void grantsCreditsOnceHalfOfTheWindowIsProcessed() {
+        FlowControl flow = new FlowControl(4, 4);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(flow.received());
+        }
+        assertEquals(0, flow.processed());
+        assertEquals(2, flow.processed());
+        assertTrue(flow.received());
+        assertTrue(flow.received());
+        assertFalse(flow.received());
+        assertEquals(0, flow.processed());
+        assertEquals(2, flow.processed());
+    }
+
+    @Test
+    void grantsEveryFrameForAWindowOfOne() {
+        FlowControl flow = new FlowControl(1, 1);
+        assertTrue(flow.received());
+        assertFalse(flow.received());
+        assertEquals(1, flow.processed());
+        assertTrue(flow.received());
+    }
+
+    @Test
+    void rejectsEmptyWindows() {
+        assertThrows(IllegalArgumentException.class, () -> new FlowControl(0, 1));
+        assertThrows(IllegalArgumentException.class, () -> new FlowControl(1, 0));
+    }
+
+    @Test
+    void parsesTheCapabilityItFormats() {
+        assertEquals("credit=256", FlowControl.capability(256));
+        assertEquals(256, FlowControl.parseCapability(FlowControl.capability(256)));
+    }
+
+    @Test
+    void ignoresOtherAndInvalidCapabilities() {
+        assertEquals(0, FlowControl.parseCapability("deflate"));
+        assertEquals(0, FlowControl.parseCapability("credit=abc"));
+        assertEquals(0, FlowControl.parseCapability("credit=-3"));
+        assertEquals(0, FlowControl.parseCapability("credit"));
+    }
+
+    @Test
+    void doesNotCountHandshakeAndControlMessages() {
+        assertFalse(FlowControl.isCounted(Config.MessageType.CONNECT));
+        assertFalse(FlowControl.isCounted(Config.MessageType.CREDIT));
+        assertFalse(FlowControl.isCounted(Config.MessageType.HEARTBEAT));
+        assertTrue(FlowControl.isCounted(Config.MessageType.MESSAGE));
+        assertTrue(FlowControl.isCounted(Config.MessageType.CONFIRM));
+    }
+}
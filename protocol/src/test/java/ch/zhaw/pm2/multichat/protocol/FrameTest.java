@@ -0,0 +1,108 @@
+package ch.zhaw.pm2.multichat.protocol;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests encoding a message once into a {@link Frame} and sending that frame to several connections, as well as
+ * frames wrapping buffers holding frames encoded earlier.
+ */
+class FrameTest {
+
+    private final List<NetworkHandler.NetworkConnection<Message>> connections = new ArrayList<>();
+    private NetworkHandler.NetworkServer<Message> server;
+
+    @AfterEach
+    void disconnect() throws IOException {
+        for (NetworkHandler.NetworkConnection<Message> connection : connections) {
+            connection.close();
+        }
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    @Test
+    void sendsAFrameEncodedOnceToEveryConnection() throws IOException, ClassNotFoundException {
+        server = NetworkHandler.createServer(0, MessageCodec::new);
+        List<NetworkHandler.NetworkConnection<Message>> clients = new ArrayList<>();
+        List<NetworkHandler.NetworkConnection<Message>> accepted = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            clients.add(open(NetworkHandler.openConnection(NetworkHandler.DEFAULT_ADDRESS, server.getHostPort(),
+                new MessageCodec())));
+            accepted.add(open(server.waitForConnection()));
+        }
+        Frame frame = accepted.get(0).encode(message("hello all")).shared();
+        for (NetworkHandler.NetworkConnection<Message> connection : accepted) {
+            connection.send(frame);
+        }
+        for (NetworkHandler.NetworkConnection<Message> client : clients) {
+            assertEquals("hello all", client.receive().getPayload());
+        }
+    }
+
+    @Test
+    void givesEveryCallerItsOwnBuffer() throws IOException {
+        Frame frame = encode(message("payload"));
+        ByteBuffer first = frame.buffer();
+        first.getInt();
+        ByteBuffer second = frame.buffer();
+        assertEquals(0, second.position());
+        assertEquals(frame.size(), second.remaining());
+        assertTrue(second.isReadOnly());
+    }
+
+    @Test
+    void marksFramesAsSharedWithoutCopying() throws IOException {
+        Frame frame = encode(message("payload"));
+        assertFalse(frame.isShared());
+        Frame shared = frame.shared();
+        assertTrue(shared.isShared());
+        assertSame(shared, shared.shared());
+        assertEquals(frame.buffer(), shared.buffer());
+    }
+
+    @Test
+    void wrapsABufferHoldingASingleFrame() throws IOException {
+        Frame encoded = encode(message("payload"));
+        ByteBuffer buffer = ByteBuffer.allocate(encoded.size() + 2);
+        buffer.put((byte) 1).put(encoded.buffer()).put((byte) 2).flip().position(1).limit(encoded.size() + 1);
+        Frame wrapped = Frame.wrap(buffer);
+        assertEquals(encoded.size(), wrapped.size());
+        assertEquals(encoded.buffer(), wrapped.buffer());
+        assertFalse(encoded.isBuffered());
+        assertTrue(wrapped.isBuffered());
+    }
+
+    @Test
+    void rejectsABufferNotHoldingExactlyOneFrame() throws IOException {
+        ByteBuffer frame = encode(message("payload")).buffer();
+        ByteBuffer longer = ByteBuffer.allocate(frame.remaining() + 1).put(frame).put((byte) 0).flip();
+        assertThrows(IllegalArgumentException.class, () -> Frame.wrap(longer));
+        assertThrows(IllegalArgumentException.class, () -> Frame.wrap(ByteBuffer.allocate(2)));
+    }
+
+    private NetworkHandler.NetworkConnection<Message> open(NetworkHandler.NetworkConnection<Message> connection) {
+        connections.add(connection);
+        return connection;
+    }
+
+    private static Frame encode(Message message) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        new MessageCodec().encode(message, body);
+        return new Frame(ByteBuffer.allocate(Integer.BYTES + body.size()).putInt(body.size()).put(body.toByteArray())
+            .array());
+    }
+
+    private static Message message(String payload) {
+        return new Message("alice", Config.USER_ALL, Config.MessageType.MESSAGE, payload);
+    }
+}
@@ -0,0 +1,83 @@
+package ch.zhaw.pm2.multichat.protocol;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the percentiles reported by the {@link LatencyHistogram} and recording latencies concurrently.
+ */
+class LatencyHistogramTest {
+
+    private final LatencyHistogram histogram = new LatencyHistogram();
+
+    @Test
+    void reportsZeroWithoutLatencies() {
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getPercentile(99));
+    }
+
+    @Test
+    void countsSmallLatenciesExactly() {
+        for (int latency = 0; latency < 32; latency++) {
+            histogram.record(latency);
+        }
+        assertEquals(32, histogram.getCount());
+        assertEquals(15, histogram.getPercentile(50));
+        assertEquals(31, histogram.getPercentile(100));
+        assertEquals(0, histogram.getPercentile(0));
+    }
+
+    @Test
+    void reportsLargeLatenciesWithinThreePercent() {
+        for (int latency = 1; latency <= 100_000; latency++) {
+            histogram.record(latency);
+        }
+        assertWithin(50_000, histogram.getPercentile(50));
+        assertWithin(99_000, histogram.getPercentile(99));
+        assertWithin(99_900, histogram.getPercentile(99.9));
+        assertEquals(100_000, histogram.getPercentile(100));
+        assertEquals(100_000, histogram.getMax());
+    }
+
+    @Test
+    void neverReportsMoreThanTheMaximum() {
+        histogram.record(1_000_001);
+        assertEquals(1_000_001, histogram.getPercentile(50));
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, histogram.getPercentile(100));
+    }
+
+    @Test
+    void recordsNegativeLatenciesAsZero() {
+        histogram.record(-5);
+        assertEquals(1, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getPercentile(100));
+    }
+
+    @Test
+    void countsEveryLatencyRecordedConcurrently() throws InterruptedException {
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            threads.add(Thread.ofPlatform().start(() -> {
+                for (int latency = 0; latency < 100_000; latency++) {
+                    histogram.record(latency);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(800_000, histogram.getCount());
+        assertEquals(99_999, histogram.getMax());
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue(Math.abs(actual - expected) <= expected * 0.032, "expected about " + expected + ": " + actual);
+    }
+}
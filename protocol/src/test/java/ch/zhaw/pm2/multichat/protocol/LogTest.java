@@ -0,0 +1,136 @@
+package ch.zhaw.pm2.multichat.protocol;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the levels of the {@link Log} categories and writing entries to the console through the {@link LogBuffer}.
+ * The console streams are replaced while a test is running.
+ */
+class LogTest {
+
+    private static final long TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream err = new ByteArrayOutputStream();
+    private PrintStream originalOut;
+    private PrintStream originalErr;
+
+    @BeforeEach
+    void captureConsole() {
+        originalOut = System.out;
+        originalErr = System.err;
+        System.setOut(new PrintStream(out, true, StandardCharsets.UTF_8));
+        System.setErr(new PrintStream(err, true, StandardCharsets.UTF_8));
+    }
+
+    @AfterEach
+    void restoreConsole() {
+        System.setOut(originalOut);
+        System.setErr(originalErr);
+    }
+
+    @Test
+    void usesTheLevelOfTheNearestConfiguredCategory() {
+        try {
+            System.setProperty(Log.PROPERTY_LEVEL + ".test.levels", "debug");
+            assertEquals(Log.Level.DEBUG, Log.get("test.levels").getLevel());
+            assertEquals(Log.Level.DEBUG, Log.get("test.levels.child").getLevel());
+            assertEquals(Log.DEFAULT_LEVEL, Log.get("test.levelsibling").getLevel());
+            System.setProperty(Log.PROPERTY_LEVEL + ".test.invalid", "LOUD");
+            assertThrows(IllegalArgumentException.class, () -> Log.get("test.invalid"));
+        } finally {
+            System.clearProperty(Log.PROPERTY_LEVEL + ".test.levels");
+            System.clearProperty(Log.PROPERTY_LEVEL + ".test.invalid");
+        }
+    }
+
+    @Test
+    void returnsOneLoggerPerCategory() {
+        assertSame(Log.get("test.same"), Log.get("test.same"));
+        assertEquals("test.same", Log.get("test.same").getCategory());
+    }
+
+    @Test
+    void discardsEntriesBelowTheLevel() {
+        Log log = Log.get("test.threshold");
+        log.setLevel(Log.Level.WARN);
+        assertFalse(log.isDebugEnabled());
+        assertFalse(log.isEnabled(Log.Level.INFO));
+        assertTrue(log.isEnabled(Log.Level.ERROR));
+        log.setLevel(Log.Level.OFF);
+        assertFalse(log.isEnabled(Log.Level.ERROR));
+        log.setLevel(Log.Level.DEBUG);
+        assertTrue(log.isDebugEnabled());
+    }
+
+    @Test
+    void writesFormattedEntriesToTheConsole() throws InterruptedException {
+        Log log = Log.get("test.output");
+        log.setLevel(Log.Level.INFO);
+        log.debug("debug %s", "hidden");
+        log.info("%s joined room %s", "alice", "java");
+        log.warn("queue of %s full", "bob");
+        awaitLine(out, " INFO  [" + Thread.currentThread().getName() + "] test.output - alice joined room java");
+        awaitLine(err, " WARN  [" + Thread.currentThread().getName() + "] test.output - queue of bob full");
+        assertFalse(out.toString(StandardCharsets.UTF_8).contains("hidden"));
+    }
+
+    @Test
+    void writesEntriesWithAnInvalidFormatUnformatted() throws InterruptedException {
+        Log log = Log.get("test.invalidformat");
+        log.error("count %d", "not a number");
+        awaitLine(err, "test.invalidformat - count %d (invalid format: ");
+    }
+
+    @Test
+    void writesTheEntriesOfEveryThreadInOrder() throws InterruptedException {
+        Log log = Log.get("test.concurrent");
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            String name = "producer-" + i;
+            threads.add(Thread.ofPlatform().name(name).start(() -> {
+                for (int entry = 0; entry < 500; entry++) {
+                    log.info("entry %s", entry);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        awaitLines(out, "test.concurrent", 2000);
+        int[] next = new int[threads.size()];
+        for (String line : out.toString(StandardCharsets.UTF_8).split("\n")) {
+            if (!line.contains("test.concurrent")) continue;
+            int producer = line.charAt(line.indexOf("[producer-") + "[producer-".length()) - '0';
+            assertTrue(line.endsWith("entry " + next[producer]), line);
+            next[producer]++;
+        }
+    }
+
+    private static void awaitLine(ByteArrayOutputStream stream, String text) throws InterruptedException {
+        long deadline = System.nanoTime() + TIMEOUT_NANOS;
+        while (!stream.toString(StandardCharsets.UTF_8).contains(text)) {
+            assertTrue(System.nanoTime() < deadline, "not written: " + text);
+            Thread.sleep(10);
+        }
+    }
+
+    private static void awaitLines(ByteArrayOutputStream stream, String text, int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TIMEOUT_NANOS;
+        while (stream.toString(StandardCharsets.UTF_8).lines().filter(line -> line.contains(text)).count() < count) {
+            assertTrue(System.nanoTime() < deadline, "less than " + count + " entries written");
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package ch.zhaw.pm2.multichat.protocol;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests encoding and decoding messages using the binary {@link MessageCodec}.
+ */
+class MessageCodecTest {
+
+    private final MessageCodec codec = new MessageCodec();
+
+    @ParameterizedTest
+    @EnumSource(Config.MessageType.class)
+    void decodesEveryTypeItEncodes(Config.MessageType type) throws IOException {
+        Message decoded = roundTrip(new Message("alice", "bob", type, "payload"));
+        assertEquals(type, decoded.getType());
+        assertEquals("alice", decoded.getSender());
+        assertEquals("bob", decoded.getReceiver());
+        assertEquals("payload", decoded.getPayload());
+    }
+
+    @Test
+    void keepsMissingFieldsMissing() throws IOException {
+        Message decoded = roundTrip(new Message(null, null, Config.MessageType.CONNECT, null));
+        assertNull(decoded.getSender());
+        assertNull(decoded.getReceiver());
+        assertNull(decoded.getPayload());
+    }
+
+    @Test
+    void keepsEmptyFieldsAndLineBreaks() throws IOException {
+        Message decoded = roundTrip(new Message("", "*", Config.MessageType.MESSAGE, "first\nsecond\n"));
+        assertEquals("", decoded.getSender());
+        assertEquals("first\nsecond\n", decoded.getPayload());
+    }
+
+    @Test
+    void keepsNonAsciiText() throws IOException {
+        Message decoded = roundTrip(new Message("Zoë", "Jürg", Config.MessageType.MESSAGE, "Grüezi 😀"));
+        assertEquals("Zoë", decoded.getSender());
+        assertEquals("Jürg", decoded.getReceiver());
+        assertEquals("Grüezi 😀", decoded.getPayload());
+    }
+
+    @Test
+    void decodesAtAnOffset() throws IOException {
+        byte[] body = encode(new Message("alice", "bob", Config.MessageType.MESSAGE, "hi"));
+        byte[] padded = new byte[body.length + 10];
+        System.arraycopy(body, 0, padded, 7, body.length);
+        assertEquals("hi", codec.decode(padded, 7, body.length).getPayload());
+    }
+
+    @Test
+    void rejectsEveryTruncatedFrame() throws IOException {
+        byte[] body = encode(new Message("alice", "bob", Config.MessageType.MESSAGE, "payload"));
+        for (int length = 0; length < body.length; length++) {
+            byte[] truncated = Arrays.copyOf(body, length);
+            int truncatedLength = length;
+            assertThrows(StreamCorruptedException.class, () -> codec.decode(truncated, 0, truncatedLength),
+                "length " + length);
+        }
+    }
+
+    @Test
+    void rejectsUnknownVersionAndType() throws IOException {
+        byte[] body = encode(new Message("alice", "bob", Config.MessageType.MESSAGE, "payload"));
+        byte[] version = body.clone();
+        version[0] = MessageCodec.FORMAT_VERSION + 1;
+        assertThrows(StreamCorruptedException.class, () -> codec.decode(version, 0, version.length));
+        byte[] type = body.clone();
+        type[1] = (byte) Config.MessageType.values().length;
+        assertThrows(StreamCorruptedException.class, () -> codec.decode(type, 0, type.length));
+    }
+
+    @Test
+    void rejectsNamesTooLong() {
+        String name = "x".repeat(0x10000);
+        assertThrows(IOException.class, () -> encode(new Message(name, "bob", Config.MessageType.MESSAGE, null)));
+    }
+
+    private byte[] encode(Message message) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        codec.encode(message, out);
+        return out.toByteArray();
+    }
+
+    private Message roundTrip(Message message) throws IOException {
+        byte[] body = encode(message);
+        return codec.decode(body, 0, body.length);
+    }
+}
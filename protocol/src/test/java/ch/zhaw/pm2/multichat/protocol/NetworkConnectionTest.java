@@ -0,0 +1,85 @@
+package ch.zhaw.pm2.multichat.protocol;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests collecting the frames written to a blocking {@link NetworkHandler.NetworkConnection} in its write buffer
+ * until they are flushed or the buffer is full.
+ */
+class NetworkConnectionTest {
+
+    private static final long TIMEOUT_SECONDS = 10;
+    /** Time the client waits to make sure a frame has not been sent */
+    private static final long QUIET_MILLIS = 200;
+
+    private NetworkHandler.NetworkServer<Message> server;
+    private NetworkHandler.NetworkConnection<Message> client;
+    private NetworkHandler.NetworkConnection<Message> accepted;
+
+    @AfterEach
+    void disconnect() throws IOException {
+        client.close();
+        accepted.close();
+        server.close();
+    }
+
+    @Test
+    void holdsWrittenFramesUntilFlushed() throws Exception {
+        connect(64 * 1024);
+        accepted.write(accepted.encode(message("first")));
+        accepted.write(accepted.encode(message("second")));
+        CompletableFuture<Message> received = receive();
+        assertThrows(TimeoutException.class, () -> received.get(QUIET_MILLIS, TimeUnit.MILLISECONDS));
+        accepted.flush();
+        assertEquals("first", received.get(TIMEOUT_SECONDS, TimeUnit.SECONDS).getPayload());
+        assertEquals("second", client.receive().getPayload());
+    }
+
+    @Test
+    void writesFramesOnceTheBufferIsFull() throws Exception {
+        connect(256);
+        accepted.write(accepted.encode(message("x".repeat(1000))));
+        assertEquals(1000, receive().get(TIMEOUT_SECONDS, TimeUnit.SECONDS).getPayload().length());
+    }
+
+    @Test
+    void sendsFramesImmediately() throws Exception {
+        connect(64 * 1024);
+        accepted.send(message("now"));
+        assertEquals("now", receive().get(TIMEOUT_SECONDS, TimeUnit.SECONDS).getPayload());
+    }
+
+    private void connect(int writeBufferSize) throws IOException {
+        SocketOptions options = new SocketOptions();
+        options.setWriteBufferSize(writeBufferSize);
+        server = NetworkHandler.createServer(0, MessageCodec::new, options);
+        client = NetworkHandler.openConnection(NetworkHandler.DEFAULT_ADDRESS, server.getHostPort(),
+            new MessageCodec());
+        accepted = server.waitForConnection();
+    }
+
+    /**
+     * Receives the next message on another thread.
+     */
+    private CompletableFuture<Message> receive() {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return client.receive();
+            } catch (IOException | ClassNotFoundException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    private static Message message(String payload) {
+        return new Message("alice", "bob", Config.MessageType.MESSAGE, payload);
+    }
+}
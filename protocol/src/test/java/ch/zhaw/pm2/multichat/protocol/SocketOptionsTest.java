@@ -0,0 +1,66 @@
+package ch.zhaw.pm2.multichat.protocol;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.Socket;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests configuring the TCP tuning of the connections using {@link SocketOptions}.
+ */
+class SocketOptionsTest {
+
+    @AfterEach
+    void clearProperties() {
+        System.clearProperty(SocketOptions.PROPERTY_PREFIX + "tcpNoDelay");
+        System.clearProperty(SocketOptions.PROPERTY_PREFIX + "writeBufferSize");
+        System.clearProperty(SocketOptions.PROPERTY_PREFIX + "sendBufferSize");
+    }
+
+    @Test
+    void usesTheDefaultsWithoutProperties() {
+        SocketOptions options = SocketOptions.configured();
+        assertTrue(options.isTcpNoDelay());
+        assertEquals(0, options.getSendBufferSize());
+        assertEquals(0, options.getReceiveBufferSize());
+        assertEquals(SocketOptions.DEFAULT_ACCEPT_BACKLOG, options.getAcceptBacklog());
+        assertEquals(SocketOptions.DEFAULT_WRITE_BUFFER_SIZE, options.getWriteBufferSize());
+    }
+
+    @Test
+    void readsTheSystemProperties() {
+        System.setProperty(SocketOptions.PROPERTY_PREFIX + "tcpNoDelay", "false");
+        System.setProperty(SocketOptions.PROPERTY_PREFIX + "writeBufferSize", "1024");
+        System.setProperty(SocketOptions.PROPERTY_PREFIX + "sendBufferSize", "65536");
+        SocketOptions options = SocketOptions.configured();
+        assertFalse(options.isTcpNoDelay());
+        assertEquals(1024, options.getWriteBufferSize());
+        assertEquals(65536, options.getSendBufferSize());
+    }
+
+    @Test
+    void rejectsInvalidValues() {
+        SocketOptions options = new SocketOptions();
+        assertThrows(IllegalArgumentException.class, () -> options.setWriteBufferSize(0));
+        assertThrows(IllegalArgumentException.class, () -> options.setSendBufferSize(-1));
+        assertThrows(IllegalArgumentException.class, () -> options.setReceiveBufferSize(-1));
+        assertThrows(IllegalArgumentException.class, () -> options.setAcceptBacklog(-1));
+        System.setProperty(SocketOptions.PROPERTY_PREFIX + "writeBufferSize", "large");
+        assertThrows(IllegalArgumentException.class, SocketOptions::configured);
+    }
+
+    @Test
+    void appliesTheOptionsToASocket() throws IOException {
+        SocketOptions options = new SocketOptions();
+        options.setSendBufferSize(64 * 1024);
+        try (Socket socket = new Socket()) {
+            options.applyTo(socket);
+            assertTrue(socket.getTcpNoDelay());
+            assertTrue(socket.getKeepAlive());
+            assertTrue(socket.getSendBufferSize() >= 64 * 1024);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package ch.zhaw.pm2.multichat.protocol;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.StreamCorruptedException;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests encoding and decoding messages using the legacy {@link TextMessageCodec}.
+ */
+class TextMessageCodecTest {
+
+    private final TextMessageCodec codec = new TextMessageCodec();
+
+    @ParameterizedTest
+    @EnumSource(Config.MessageType.class)
+    void decodesEveryTypeItEncodes(Config.MessageType type) throws IOException {
+        Message decoded = roundTrip(new Message("alice", "bob", type, "payload"));
+        assertEquals(type, decoded.getType());
+        assertEquals("alice", decoded.getSender());
+        assertEquals("bob", decoded.getReceiver());
+        assertEquals("payload", decoded.getPayload());
+    }
+
+    @Test
+    void keepsLineBreaksInThePayload() throws IOException {
+        Message decoded = roundTrip(new Message("alice", "*", Config.MessageType.MESSAGE, "first\nsecond"));
+        assertEquals("first\nsecond", decoded.getPayload());
+    }
+
+    @Test
+    void keepsNonAsciiText() throws IOException {
+        Message decoded = roundTrip(new Message("Zoë", "Jürg", Config.MessageType.MESSAGE, "Grüezi 😀"));
+        assertEquals("Zoë", decoded.getSender());
+        assertEquals("Grüezi 😀", decoded.getPayload());
+    }
+
+    @Test
+    void decodesPayloadsLargerThanTheScratchBuffer() throws IOException {
+        String payload = "x".repeat(70_000);
+        assertEquals(payload, roundTrip(new Message("alice", "bob", Config.MessageType.MESSAGE, payload)).getPayload());
+        assertEquals("short", roundTrip(new Message("alice", "bob", Config.MessageType.MESSAGE, "short")).getPayload());
+    }
+
+    @Test
+    void encodesTheSameBytesAsObjectOutputStream() throws IOException {
+        for (String payload : new String[] {"", "payload", "Grüezi 😀 \0 €", "ü".repeat(40_000)}) {
+            Message message = new Message("alice", "bob", Config.MessageType.MESSAGE, payload);
+            assertArrayEquals(serialize(message.toString()), encode(message), payload);
+        }
+    }
+
+    @Test
+    void rejectsTypesSharingLengthAndFirstCharacterWithAKnownType() throws IOException {
+        for (String type : new String[] {"CONFECT", "COMFIRM", "LOST", "I", "INF", "INFOS", "info", "HEARTBEATS"}) {
+            byte[] body = serialize("alice\nbob\n" + type + "\npayload");
+            assertThrows(StreamCorruptedException.class, () -> codec.decode(body, 0, body.length), type);
+        }
+    }
+
+    @Test
+    void rejectsEveryTruncatedFrame() throws IOException {
+        byte[] body = encode(new Message("alice", "bob", Config.MessageType.MESSAGE, "payload"));
+        for (int length = 0; length < body.length; length++) {
+            byte[] truncated = Arrays.copyOf(body, length);
+            int truncatedLength = length;
+            assertThrows(StreamCorruptedException.class, () -> codec.decode(truncated, 0, truncatedLength),
+                "length " + length);
+        }
+    }
+
+    @Test
+    void rejectsTextWithoutType() throws IOException {
+        byte[] body = serialize("alice\nbob\n");
+        assertThrows(StreamCorruptedException.class, () -> codec.decode(body, 0, body.length));
+    }
+
+    @Test
+    void rejectsUnknownType() throws IOException {
+        byte[] body = serialize("alice\nbob\nSHOUT\npayload");
+        assertThrows(StreamCorruptedException.class, () -> codec.decode(body, 0, body.length));
+    }
+
+    private static byte[] serialize(String text) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ObjectOutputStream objects = new ObjectOutputStream(out)) {
+            objects.writeObject(text);
+        }
+        return out.toByteArray();
+    }
+
+    private byte[] encode(Message message) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        codec.encode(message, out);
+        return out.toByteArray();
+    }
+
+    private Message roundTrip(Message message) throws IOException {
+        byte[] body = encode(message);
+        return codec.decode(body, 0, body.length);
+    }
+}
@@ -0,0 +1,804 @@
+package ch.zhaw.pm2.multichat.server;
+
+import ch.zhaw.pm2.multichat.protocol.Config;
+import ch.zhaw.pm2.multichat.protocol.Frame;
+import ch.zhaw.pm2.multichat.protocol.Log;
+import ch.zhaw.pm2.multichat.protocol.WireFormat;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Member of a cluster of servers, relaying messages between the users connected to different nodes.
+ * <p>Every node listens on a cluster port besides its chat port and is identified by the address of the cluster port
+ * ({@code host:port}). Nodes exchange their state using gossip: on every round, a node sends a digest of the state
+ * it knows about all nodes (generation, heartbeat and version of the user list) to one random peer, which answers
+ * with the newer states it has and its own digest, so changes spread through the cluster in a logarithmic number of
+ * rounds and a new node only needs the address of one seed node to learn about all others. Changes of the local
+ * users are pushed to all peers right away. From the user lists of all nodes, each node maintains a directory of which
+ * user is connected to which node. A node whose heartbeat did not advance for {@value #FAILURE_ROUNDS} rounds is
+ * considered failed and its users are removed from the directory until it shows up again. Failed nodes are still
+ * probed with a digest on every round.</p>
+ * <p>Messages are relayed on a single hop: broadcasts and room messages to all live peers, direct messages to the
+ * node of the receiver. Each peer has a link with a bounded queue and a writer thread, which combines all relayed
+ * messages waiting in the queue into a single batch, so the number of writes does not grow with the message rate.
+ * Messages are relayed at most once: they are dropped if the queue is full or the link fails while writing them.
+ * Relayed messages are forwarded as the frames encoded by the sending node, so all nodes have to use the same
+ * {@link WireFormat}.</p>
+ * <p>Rooms are not shared between the nodes: a room message is delivered to the members of the room with the same
+ * name on every node. A direct message to a user unknown to the directory is handled by the local node only, e.g.
+ * stored in its offline queue.</p>
+ */
+public class ClusterNode implements Closeable {
+
+    /**
+     * Kind of a relayed message, defining its recipients on the receiving node
+     */
+    public enum RelayKind {
+        /** Message to all users */
+        BROADCAST,
+        /** Message to a single user */
+        DIRECT,
+        /** Message to the members of a room */
+        ROOM
+    }
+
+    private static final Log LOG = Log.get("server.cluster");
+
+    private static final byte PACKET_HELLO = 1;
+    private static final byte PACKET_DIGEST = 2;
+    private static final byte PACKET_STATES = 3;
+    private static final byte PACKET_RELAY = 4;
+    /** Number of gossip rounds without a heartbeat after which a node is considered failed */
+    private static final int FAILURE_ROUNDS = 10;
+    private static final int LINK_QUEUE_CAPACITY = 16 * 1024;
+    private static final int MAX_BATCH_BYTES = 256 * 1024;
+    private static final int MAX_PACKET_LENGTH = 64 * 1024 * 1024;
+    private static final RelayKind[] RELAY_KINDS = RelayKind.values();
+
+    private final String address;
+    private final long generation = System.currentTimeMillis();
+    private final WireFormat wireFormat;
+    private final long gossipInterval;
+    private final List<String> seeds;
+    private final ConnectionRegistry registry;
+    private final MessageLog messageLog;
+    private final OfflineQueues offlineQueues;
+    private final ServerSocket serverSocket;
+    private final ScheduledExecutorService gossip;
+    /** State of all known nodes including this one by address, guarded by this */
+    private final Map<String, NodeState> nodes = new ConcurrentHashMap<>();
+    /** Node address by user name of all users connected to other live nodes */
+    private final ConcurrentMap<String, String> directory = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, PeerLink> links = new ConcurrentHashMap<>();
+    private final Set<Socket> inboundSockets = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean localUsersChanged = new AtomicBoolean(true);
+    private final AtomicLong relayDropped = new AtomicLong();
+    private volatile boolean closed;
+
+    /**
+     * State of a node as known to this node.
+     * @param address      address of the cluster port, identifying the node
+     * @param generation   start time of the node, a restarted node replaces the states of its former generation
+     * @param heartbeat    incremented by the node on every gossip round
+     * @param usersVersion incremented by the node whenever its users change, -1 if the users are not known yet
+     * @param users        names of the users connected to the node
+     * @param lastChange   local time the heartbeat of the node last advanced ({@link System#nanoTime()})
+     * @param alive        false if the node is considered failed
+     */
+    private record NodeState(String address, long generation, long heartbeat, long usersVersion, List<String> users,
+                             long lastChange, boolean alive) {
+
+        boolean hasNewerHeartbeat(long otherGeneration, long otherHeartbeat) {
+            return generation > otherGeneration || generation == otherGeneration && heartbeat > otherHeartbeat;
+        }
+
+        boolean hasNewerUsers(long otherGeneration, long otherUsersVersion) {
+            return generation > otherGeneration || generation == otherGeneration && usersVersion > otherUsersVersion;
+        }
+    }
+
+    /**
+     * A message waiting to be relayed to a peer.
+     */
+    private record Relay(RelayKind kind, String sender, String receiver, Frame frame) {
+    }
+
+    /**
+     * Opens the cluster port and starts gossiping with the seed nodes.
+     * @param settings      settings of the server, defining the cluster port, host, seeds and gossip interval
+     * @param registry      connections of the local node
+     * @param messageLog    log the relayed messages are appended to, null if disabled
+     * @param offlineQueues queues direct messages relayed to users which are no longer connected, null if disabled
+     * @throws IOException if the cluster port can not be opened
+     */
+    public ClusterNode(ServerSettings settings, ConnectionRegistry registry, MessageLog messageLog,
+                       OfflineQueues offlineQueues) throws IOException {
+        this.registry = registry;
+        this.messageLog = messageLog;
+        this.offlineQueues = offlineQueues;
+        this.wireFormat = settings.getWireFormat();
+        this.gossipInterval = settings.getClusterGossipInterval();
+        this.serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(settings.getClusterPort()));
+        this.address = settings.getClusterHost() + ":" + serverSocket.getLocalPort();
+        this.seeds = new ArrayList<>();
+        for (String seed : settings.getClusterSeeds().split(",")) {
+            if (!seed.isBlank() && !seed.strip().equals(address)) seeds.add(seed.strip());
+        }
+        nodes.put(address, new NodeState(address, generation, 0, -1, List.of(), System.nanoTime(), true));
+        Thread acceptor = new Thread(this::acceptPeers, "cluster-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        gossip = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cluster-gossip");
+            thread.setDaemon(true);
+            return thread;
+        });
+        gossip.scheduleWithFixedDelay(this::gossipRound, 0, gossipInterval, TimeUnit.MILLISECONDS);
+        LOG.info("Cluster node %s started, seeds %s", address, seeds);
+    }
+
+    /**
+     * @return address of this node, to be used as seed by other nodes
+     */
+    public String getAddress() {
+        return address;
+    }
+
+    /**
+     * Marks the users of the local node as changed, they are published to the peers on the next gossip round.
+     */
+    public void localUsersChanged() {
+        localUsersChanged.set(true);
+    }
+
+    /**
+     * Looks up the node a user is connected to.
+     * @param userName name of the user
+     * @return address of the live node the user is connected to, null if the user is not connected to another node
+     */
+    public String nodeOf(String userName) {
+        return directory.get(userName);
+    }
+
+    /**
+     * @return addresses of the live peers, excluding this node
+     */
+    public synchronized Set<String> livePeers() {
+        Set<String> peers = new HashSet<>();
+        for (NodeState node : nodes.values()) {
+            if (node.alive() && !node.address().equals(address)) peers.add(node.address());
+        }
+        return peers;
+    }
+
+    /**
+     * Relays a broadcast or room message to all live peers.
+     * @param kind     {@link RelayKind#BROADCAST} or {@link RelayKind#ROOM}
+     * @param sender   name of the sender
+     * @param receiver receiver of the message, {@link Config#USER_ALL} or the room
+     * @param frame    the encoded message
+     */
+    public void relayToAll(RelayKind kind, String sender, String receiver, Frame frame) {
+        Relay relay = new Relay(kind, sender, receiver, frame);
+        for (NodeState node : nodes.values()) {
+            if (node.alive() && !node.address().equals(address)) {
+                send(node.address(), relay);
+            }
+        }
+    }
+
+    /**
+     * Relays a direct message to the node the receiver is connected to.
+     * @param sender   name of the sender
+     * @param receiver name of the receiver
+     * @param frame    the encoded message
+     * @return true if the message has been queued for the node of the receiver, false if the receiver is not known
+     */
+    public boolean relayDirect(String sender, String receiver, Frame frame) {
+        String node = directory.get(receiver);
+        if (node == null) return false;
+        send(node, new Relay(RelayKind.DIRECT, sender, receiver, frame));
+        return true;
+    }
+
+    /**
+     * @return number of relayed messages dropped because the link to a peer was congested
+     */
+    public long getRelayDropped() {
+        return relayDropped.get();
+    }
+
+    private void send(String peer, Object packet) {
+        if (closed) return;
+        PeerLink link = links.computeIfAbsent(peer, PeerLink::new);
+        if (!link.offer(packet) && packet instanceof Relay) {
+            relayDropped.incrementAndGet();
+        }
+    }
+
+    // ---- gossip ----
+
+    /**
+     * Gossip round: advances the own heartbeat, publishes changed local users to all peers, exchanges digests with
+     * one random peer and detects failed nodes.
+     */
+    private void gossipRound() {
+        try {
+            List<String> targets = new ArrayList<>();
+            List<String> failed = new ArrayList<>();
+            NodeState own;
+            synchronized (this) {
+                own = nodes.get(address);
+                boolean usersChanged = localUsersChanged.getAndSet(false);
+                List<String> users = own.users();
+                long usersVersion = own.usersVersion();
+                if (usersChanged) {
+                    users = new ArrayList<>();
+                    for (ServerConnectionHandler handler : registry.namedConnections()) {
+                        users.add(handler.getUserName());
+                    }
+                    users = List.copyOf(users);
+                    usersVersion++;
+                }
+                own = new NodeState(address, generation, own.heartbeat() + 1, usersVersion, users, System.nanoTime(),
+                    true);
+                nodes.put(address, own);
+                detectFailures();
+                for (NodeState node : nodes.values()) {
+                    if (node.address().equals(address)) continue;
+                    (node.alive() ? targets : failed).add(node.address());
+                }
+                if (usersChanged) {
+                    byte[] states = encodeStates(List.of(own));
+                    for (String peer : targets) {
+                        send(peer, states);
+                    }
+                }
+            }
+            for (String seed : seeds) {
+                if (!nodes.containsKey(seed)) targets.add(seed);
+            }
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            if (!targets.isEmpty()) {
+                send(targets.get(random.nextInt(targets.size())), encodeDigest(false));
+            }
+            // probe a failed node, so nodes which only know each other find back together after a restart
+            if (!failed.isEmpty()) {
+                send(failed.get(random.nextInt(failed.size())), encodeDigest(false));
+            }
+        } catch (RuntimeException e) {
+            LOG.error("Gossip round failed: %s", e.getMessage());
+        }
+    }
+
+    /**
+     * Marks nodes whose heartbeat did not advance for too long as failed. Must be called holding the lock.
+     */
+    private void detectFailures() {
+        long timeout = TimeUnit.MILLISECONDS.toNanos(FAILURE_ROUNDS * gossipInterval);
+        long now = System.nanoTime();
+        for (NodeState node : List.copyOf(nodes.values())) {
+            if (node.alive() && !node.address().equals(address) && now - node.lastChange() > timeout) {
+                LOG.warn("Cluster node %s failed", node.address());
+                removeFromDirectory(node);
+                nodes.put(node.address(), new NodeState(node.address(), node.generation(), node.heartbeat(),
+                    node.usersVersion(), node.users(), node.lastChange(), false));
+            }
+        }
+    }
+
+    private synchronized byte[] encodeDigest(boolean reply) {
+        return encode(PACKET_DIGEST, out -> {
+            out.writeBoolean(reply);
+            out.writeInt(nodes.size());
+            for (NodeState node : nodes.values()) {
+                out.writeUTF(node.address());
+                out.writeLong(node.generation());
+                out.writeLong(node.heartbeat());
+                out.writeLong(node.usersVersion());
+            }
+        });
+    }
+
+    private static byte[] encodeStates(Collection<NodeState> states) {
+        return encode(PACKET_STATES, out -> {
+            out.writeInt(states.size());
+            for (NodeState node : states) {
+                out.writeUTF(node.address());
+                out.writeLong(node.generation());
+                out.writeLong(node.heartbeat());
+                out.writeLong(node.usersVersion());
+                out.writeInt(node.users().size());
+                for (String user : node.users()) {
+                    writeName(out, user);
+                }
+            }
+        });
+    }
+
+    /**
+     * Merges a digest received from a peer: takes over newer heartbeats, sends the peer the states it is missing and,
+     * unless the digest is a reply itself, the own digest, so the peer can send the states this node is missing.
+     */
+    private void receiveDigest(String peer, DataInputStream in) throws IOException {
+        boolean reply = in.readBoolean();
+        int count = in.readInt();
+        Map<String, long[]> digest = new ConcurrentHashMap<>();
+        List<NodeState> newer = new ArrayList<>();
+        synchronized (this) {
+            for (int i = 0; i < count; i++) {
+                String node = in.readUTF();
+                long nodeGeneration = in.readLong();
+                long heartbeat = in.readLong();
+                long usersVersion = in.readLong();
+                digest.put(node, new long[]{nodeGeneration, usersVersion});
+                if (!node.equals(address)) {
+                    mergeHeartbeat(node, nodeGeneration, heartbeat);
+                }
+            }
+            for (NodeState node : nodes.values()) {
+                long[] known = digest.get(node.address());
+                if (node.usersVersion() >= 0 && node.alive()
+                    && (known == null || node.hasNewerUsers(known[0], known[1]))) {
+                    newer.add(node);
+                }
+            }
+        }
+        if (!newer.isEmpty()) {
+            send(peer, encodeStates(newer));
+        }
+        if (!reply) {
+            send(peer, encodeDigest(true));
+        }
+    }
+
+    /**
+     * Takes over the heartbeat of a node if it is newer. Must be called holding the lock.
+     */
+    private void mergeHeartbeat(String node, long nodeGeneration, long heartbeat) {
+        NodeState known = nodes.get(node);
+        if (known != null && !new NodeState(node, nodeGeneration, heartbeat, -1, List.of(), 0, true)
+            .hasNewerHeartbeat(known.generation(), known.heartbeat())) {
+            return;
+        }
+        if (known == null || !known.alive()) {
+            LOG.info("Cluster node %s joined", node);
+        }
+        if (known != null && known.generation() != nodeGeneration) {
+            // restarted node: its users are unknown until its state arrives
+            removeFromDirectory(known);
+            nodes.put(node, new NodeState(node, nodeGeneration, heartbeat, -1, List.of(), System.nanoTime(), true));
+        } else if (known != null) {
+            if (!known.alive()) addToDirectory(known);
+            nodes.put(node, new NodeState(node, nodeGeneration, heartbeat, known.usersVersion(), known.users(),
+                System.nanoTime(), true));
+        } else {
+            nodes.put(node, new NodeState(node, nodeGeneration, heartbeat, -1, List.of(), System.nanoTime(), true));
+        }
+    }
+
+    /**
+     * Merges node states received from a peer, replacing the user lists which are newer than the known ones.
+     */
+    private void receiveStates(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            String node = in.readUTF();
+            long nodeGeneration = in.readLong();
+            long heartbeat = in.readLong();
+            long usersVersion = in.readLong();
+            int userCount = in.readInt();
+            List<String> users = new ArrayList<>(userCount);
+            for (int j = 0; j < userCount; j++) {
+                users.add(readName(in));
+            }
+            if (node.equals(address)) continue;
+            synchronized (this) {
+                mergeHeartbeat(node, nodeGeneration, heartbeat);
+                NodeState known = nodes.get(node);
+                if (known.generation() == nodeGeneration && usersVersion > known.usersVersion()) {
+                    NodeState updated = new NodeState(node, nodeGeneration, known.heartbeat(), usersVersion,
+                        List.copyOf(users), known.lastChange(), known.alive());
+                    removeFromDirectory(known);
+                    nodes.put(node, updated);
+                    if (updated.alive()) addToDirectory(updated);
+                    LOG.debug("Cluster node %s has %d users", node, users.size());
+                }
+            }
+        }
+    }
+
+    private void addToDirectory(NodeState node) {
+        for (String user : node.users()) {
+            directory.put(user, node.address());
+        }
+    }
+
+    private void removeFromDirectory(NodeState node) {
+        for (String user : node.users()) {
+            directory.remove(user, node.address());
+        }
+    }
+
+    // ---- relayed messages ----
+
+    /**
+     * Delivers a message relayed by a peer to the local recipients. Relayed messages are never relayed again.
+     */
+    private void deliverRelayed(RelayKind kind, String sender, String receiver, Frame frame) {
+        if (receiver == null || receiver.isEmpty()) {
+            LOG.warn("Dropping relayed %s message of %s without receiver", kind, sender);
+            return;
+        }
+        switch (kind) {
+            case BROADCAST -> deliver(MessageLog.Kind.BROADCAST, sender, receiver, frame, () -> {
+                for (ServerConnectionHandler handler : registry.namedConnections()) {
+                    handler.sendFrame(frame, Config.MessageType.MESSAGE);
+                }
+            });
+            case ROOM -> {
+                for (ServerConnectionHandler handler : registry.getRooms().members(receiver)) {
+                    handler.sendFrame(frame, Config.MessageType.MESSAGE);
+                }
+            }
+            case DIRECT -> {
+                OfflineQueues.StoreResult result = offlineQueues == null ? OfflineQueues.StoreResult.ONLINE
+                    : offlineQueues.store(receiver, frame, () -> registry.getByName(receiver) == null, forced -> {
+                        if (forced != OfflineQueues.StoreResult.STORED) {
+                            LOG.warn("Failed to force relayed message to %s to disk", receiver);
+                        }
+                    });
+                if (result == OfflineQueues.StoreResult.ONLINE) {
+                    deliver(MessageLog.Kind.DIRECT, sender, receiver, frame, () -> {
+                        ServerConnectionHandler handler = registry.getByName(receiver);
+                        if (handler != null) {
+                            handler.sendFrame(frame, Config.MessageType.MESSAGE);
+                        } else {
+                            LOG.warn("Dropping relayed message to unknown user %s", receiver);
+                        }
+                    });
+                } else if (result != OfflineQueues.StoreResult.STORED) {
+                    LOG.warn("Dropping relayed message to %s: %s", receiver, result);
+                }
+            }
+        }
+    }
+
+    private void deliver(MessageLog.Kind kind, String sender, String receiver, Frame frame, Runnable delivery) {
+        if (messageLog == null) {
+            delivery.run();
+        } else {
+            messageLog.deliver(kind, sender, receiver, frame, delivery);
+        }
+    }
+
+    private void receiveRelay(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            int kind = in.readByte();
+            String sender = readName(in);
+            String receiver = readName(in);
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            if (kind < 0 || kind >= RELAY_KINDS.length) throw new IOException("Invalid relay kind " + kind);
+            try {
+                deliverRelayed(RELAY_KINDS[kind], sender, receiver, Frame.wrap(ByteBuffer.wrap(bytes)));
+            } catch (IllegalArgumentException e) {
+                LOG.warn("Dropping invalid relayed frame: %s", e.getMessage());
+            }
+        }
+    }
+
+    // ---- links ----
+
+    /**
+     * Accepts the connections of peers, each read by its own thread.
+     */
+    private void acceptPeers() {
+        while (!closed) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                inboundSockets.add(socket);
+                Thread reader = new Thread(() -> readPeer(socket), "cluster-reader-" + socket.getPort());
+                reader.setDaemon(true);
+                reader.start();
+            } catch (IOException e) {
+                if (!closed) LOG.error("Failed to accept cluster connection: %s", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Reads the packets sent by a peer until its connection is closed.
+     */
+    private void readPeer(Socket socket) {
+        String peer = null;
+        try (socket; DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
+            while (!closed) {
+                int length = in.readInt();
+                if (length < 1 || length > MAX_PACKET_LENGTH) throw new IOException("Invalid packet length " + length);
+                byte[] packet = new byte[length];
+                in.readFully(packet);
+                DataInputStream body = new DataInputStream(new ByteArrayInputStream(packet, 1, length - 1));
+                if (packet[0] == PACKET_HELLO) {
+                    peer = body.readUTF();
+                    int format = body.readByte();
+                    if (format != wireFormat.ordinal()) {
+                        throw new IOException("Peer " + peer + " uses another wire format");
+                    }
+                    LOG.debug("Cluster link from %s", peer);
+                } else if (peer == null) {
+                    throw new IOException("Missing hello from peer");
+                } else {
+                    switch (packet[0]) {
+                        case PACKET_DIGEST -> receiveDigest(peer, body);
+                        case PACKET_STATES -> receiveStates(body);
+                        case PACKET_RELAY -> receiveRelay(body);
+                        default -> throw new IOException("Invalid packet type " + packet[0]);
+                    }
+                }
+            }
+        } catch (EOFException e) {
+            LOG.debug("Cluster link from %s closed", peer);
+        } catch (IOException e) {
+            if (!closed) LOG.warn("Cluster link from %s failed: %s", peer, e.getMessage());
+        } finally {
+            inboundSockets.remove(socket);
+        }
+    }
+
+    /**
+     * Writes a user name as the length of its UTF-8 encoding followed by the encoding. Unlike
+     * {@link DataOutputStream#writeUTF(String)}, names are not limited to 65535 bytes, as clients using the legacy
+     * wire format are not limited either.
+     */
+    private static void writeName(DataOutputStream out, String name) throws IOException {
+        byte[] bytes = name == null ? new byte[0] : name.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a user name written by {@link #writeName(DataOutputStream, String)}.
+     */
+    private static String readName(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_PACKET_LENGTH) throw new IOException("Invalid name length " + length);
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @FunctionalInterface
+    private interface PacketWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * Encodes a packet: length, type and body.
+     */
+    private static byte[] encode(byte type, PacketWriter writer) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(0);
+            out.writeByte(type);
+            writer.write(out);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to encode cluster packet", e);
+        }
+        byte[] packet = bytes.toByteArray();
+        ByteBuffer.wrap(packet).putInt(0, packet.length - Integer.BYTES);
+        return packet;
+    }
+
+    /**
+     * Outgoing connection to a peer. Packets are queued and written by a writer thread, which connects lazily and
+     * reconnects after failures. Relayed messages waiting in the queue are combined into a single batch.
+     */
+    private final class PeerLink implements Runnable {
+        private final String peer;
+        /** Encoded control packets ({@code byte[]}) and messages to relay ({@link Relay}) */
+        private final BlockingQueue<Object> queue = new ArrayBlockingQueue<>(LINK_QUEUE_CAPACITY);
+        private final Thread writer;
+        private Socket socket;
+        private DataOutputStream out;
+        private WritableByteChannel channel;
+        private boolean failed;
+
+        PeerLink(String peer) {
+            this.peer = peer;
+            this.writer = new Thread(this, "cluster-link-" + peer);
+            writer.setDaemon(true);
+            writer.start();
+        }
+
+        boolean offer(Object packet) {
+            return queue.offer(packet);
+        }
+
+        @Override
+        public void run() {
+            List<Object> batch = new ArrayList<>();
+            while (!closed) {
+                try {
+                    batch.add(queue.take());
+                    queue.drainTo(batch);
+                    connect();
+                    write(batch);
+                    out.flush();
+                    if (failed) {
+                        LOG.info("Cluster link to %s established", peer);
+                        failed = false;
+                    }
+                } catch (InterruptedException e) {
+                    break;
+                } catch (IOException e) {
+                    if (!failed) LOG.warn("Cluster link to %s failed: %s", peer, e.getMessage());
+                    failed = true;
+                    disconnect();
+                    try {
+                        Thread.sleep(gossipInterval);
+                    } catch (InterruptedException interrupted) {
+                        break;
+                    }
+                } finally {
+                    batch.clear();
+                }
+            }
+            disconnect();
+        }
+
+        private void connect() throws IOException {
+            if (socket != null) return;
+            int separator = peer.lastIndexOf(':');
+            if (separator < 0) throw new IOException("Invalid peer address " + peer);
+            Socket connection = new Socket();
+            try {
+                connection.connect(new InetSocketAddress(peer.substring(0, separator),
+                    Integer.parseInt(peer.substring(separator + 1))), (int) Math.max(1000, gossipInterval));
+                connection.setTcpNoDelay(true);
+            } catch (IOException | NumberFormatException e) {
+                connection.close();
+                throw e instanceof IOException ioException ? ioException : new IOException(e.getMessage());
+            }
+            socket = connection;
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), MAX_BATCH_BYTES));
+            channel = Channels.newChannel(out);
+            out.write(encode(PACKET_HELLO, hello -> {
+                hello.writeUTF(address);
+                hello.writeByte(wireFormat.ordinal());
+            }));
+        }
+
+        /**
+         * Writes control packets as they are and consecutive relayed messages as batches.
+         */
+        private void write(List<Object> packets) throws IOException {
+            int index = 0;
+            while (index < packets.size()) {
+                if (packets.get(index) instanceof byte[] packet) {
+                    out.write(packet);
+                    index++;
+                    continue;
+                }
+                int end = index;
+                int bytes = 0;
+                while (end < packets.size() && packets.get(end) instanceof Relay relay
+                    && (end == index || bytes + relay.frame().size() <= MAX_BATCH_BYTES)) {
+                    bytes += relay.frame().size();
+                    end++;
+                }
+                writeRelays(packets.subList(index, end));
+                index = end;
+            }
+        }
+
+        private void writeRelays(List<Object> relays) throws IOException {
+            int length = 1 + Integer.BYTES;
+            List<byte[]> names = new ArrayList<>(2 * relays.size());
+            for (Object object : relays) {
+                Relay relay = (Relay) object;
+                byte[] sender = name(relay.sender());
+                byte[] receiver = name(relay.receiver());
+                names.add(sender);
+                names.add(receiver);
+                length += 1 + sender.length + receiver.length + Integer.BYTES + relay.frame().size();
+            }
+            out.writeInt(length);
+            out.writeByte(PACKET_RELAY);
+            out.writeInt(relays.size());
+            for (int i = 0; i < relays.size(); i++) {
+                Relay relay = (Relay) relays.get(i);
+                out.writeByte(relay.kind().ordinal());
+                out.write(names.get(2 * i));
+                out.write(names.get(2 * i + 1));
+                out.writeInt(relay.frame().size());
+                channel.write(relay.frame().buffer());
+            }
+        }
+
+        /**
+         * Encodes a name like {@link #writeName(DataOutputStream, String)}.
+         */
+        private static byte[] name(String name) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(name == null ? Integer.BYTES : name.length() + 8);
+            writeName(new DataOutputStream(bytes), name);
+            return bytes.toByteArray();
+        }
+
+        private void disconnect() {
+            if (socket == null) return;
+            try {
+                socket.close();
+            } catch (IOException e) {
+                LOG.debug("Failed to close cluster link to %s: %s", peer, e.getMessage());
+            }
+            socket = null;
+            out = null;
+            channel = null;
+        }
+
+        void close() {
+            writer.interrupt();
+        }
+    }
+
+    /**
+     * Stops gossiping and closes all links. The peers detect the failure of this node after
+     * {@value #FAILURE_ROUNDS} gossip rounds.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        gossip.shutdownNow();
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            LOG.error("Failed to close cluster port: %s", e.getMessage());
+        }
+        for (PeerLink link : links.values()) {
+            link.close();
+        }
+        for (Socket socket : inboundSockets) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                LOG.debug("Failed to close cluster connection: %s", e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package ch.zhaw.pm2.multichat.server;
+
+import java.util.Collection;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Thread-safe registry of the connections of a server.
+ * Every accepted connection is indexed by its connection id. Once a client has claimed a user name, the
+ * connection is indexed by that name as well.
+ * Both indexes are {@link ConcurrentHashMap}s, which lock per hash bin. Lookups never block, and connects and
+ * disconnects of different clients rarely contend, even when thousands of clients reconnect at the same time.
+ * The chat rooms joined by the connections are indexed by the {@link RoomRegistry} of the registry.
+ */
+public class ConnectionRegistry {
+
+    /** Initial capacity of the indexes, avoids rehashing while a large number of clients connects */
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /** All connections of the server by connection id */
+    private final ConcurrentMap<Integer, ServerConnectionHandler> connectionsById =
+        new ConcurrentHashMap<>(INITIAL_CAPACITY);
+
+    /** Connections which have claimed a user name by user name */
+    private final ConcurrentMap<String, ServerConnectionHandler> connectionsByName =
+        new ConcurrentHashMap<>(INITIAL_CAPACITY);
+
+    /** Members of the chat rooms */
+    private final RoomRegistry rooms = new RoomRegistry();
+
+    /**
+     * Registers a newly accepted connection by its connection id.
+     * @param handler handler of the connection
+     */
+    public void register(ServerConnectionHandler handler) {
+        Objects.requireNonNull(handler, "Handler must not be null");
+        connectionsById.put(handler.getConnectionId(), handler);
+    }
+
+    /**
+     * Atomically assigns the given user name to the connection, if no other connection uses it yet.
+     * @param userName the user name to claim
+     * @param handler handler of the connection claiming the name
+     * @return true if the name has been assigned to the connection, false if it is already taken
+     */
+    public boolean claimName(String userName, ServerConnectionHandler handler) {
+        Objects.requireNonNull(userName, "User name must not be null");
+        Objects.requireNonNull(handler, "Handler must not be null");
+        ServerConnectionHandler owner = connectionsByName.putIfAbsent(userName, handler);
+        return owner == null || owner == handler;
+    }
+
+    /**
+     * Releases the user name of the connection, if it is still owned by the connection.
+     * The connection stays registered by its connection id.
+     * @param userName the user name to release
+     * @param handler handler of the connection owning the name
+     */
+    public void releaseName(String userName, ServerConnectionHandler handler) {
+        connectionsByName.remove(userName, handler);
+    }
+
+    /**
+     * Removes the connection from both indexes and from all rooms it has joined.
+     * Invoking this method more than once has no effect.
+     * @param handler handler of the terminated connection
+     */
+    public void unregister(ServerConnectionHandler handler) {
+        releaseName(handler.getUserName(), handler);
+        rooms.leaveAll(handler.getJoinedRooms(), handler);
+        connectionsById.remove(handler.getConnectionId(), handler);
+    }
+
+    /**
+     * Looks up the connection which has claimed the given user name.
+     * @param userName the user name
+     * @return handler of the connection or null if no connection uses the name
+     */
+    public ServerConnectionHandler getByName(String userName) {
+        return connectionsByName.get(userName);
+    }
+
+    /**
+     * Looks up a connection by its connection id.
+     * @param connectionId the connection id
+     * @return handler of the connection or null if there is no such connection
+     */
+    public ServerConnectionHandler getById(int connectionId) {
+        return connectionsById.get(connectionId);
+    }
+
+    /**
+     * Returns all connections which have claimed a user name, e.g. the recipients of a broadcast.
+     * The returned view is weakly consistent: it can be iterated while connections are added or removed, never
+     * throws {@link java.util.ConcurrentModificationException} and may or may not reflect concurrent changes.
+     * @return live view of the named connections
+     */
+    public Collection<ServerConnectionHandler> namedConnections() {
+        return connectionsByName.values();
+    }
+
+    /**
+     * Returns all connections of the server, including those which have not yet claimed a user name.
+     * The returned view is weakly consistent, like {@link #namedConnections()}.
+     * @return live view of all connections
+     */
+    public Collection<ServerConnectionHandler> allConnections() {
+        return connectionsById.values();
+    }
+
+    /**
+     * @return the index of the chat rooms and their members
+     */
+    public RoomRegistry getRooms() {
+        return rooms;
+    }
+
+    /**
+     * @return number of connections which have claimed a user name
+     */
+    public int namedCount() {
+        return connectionsByName.size();
+    }
+
+    /**
+     * @return number of all connections of the server
+     */
+    public int size() {
+        return connectionsById.size();
+    }
+}
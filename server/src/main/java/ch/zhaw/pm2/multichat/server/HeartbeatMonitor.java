@@ -0,0 +1,125 @@
+package ch.zhaw.pm2.multichat.server;
+
+import ch.zhaw.pm2.multichat.protocol.Config;
+
+import java.io.Closeable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Detects dead and half-open connections, driven by a single {@link TimingWheel} for all connections.
+ * <ul>
+ *     <li>A connection which has not registered within the handshake timeout is closed.</li>
+ *     <li>A client which agreed to heartbeats (see {@link Config#CAPABILITY_HEARTBEAT}) is sent a HEARTBEAT message
+ *     whenever nothing has been received from it for a heartbeat interval, which the client answers.</li>
+ *     <li>A registered client from which nothing has been received for the idle timeout is considered dead and its
+ *     connection is closed, which releases its user name. Clients not answering heartbeats have to send messages
+ *     on their own to stay connected.</li>
+ * </ul>
+ * <p>Each connection has at most one timeout in the wheel at any time. Receiving a message only records the time
+ * in the handler; when the timeout is due, it checks the time of the last message and schedules the next check
+ * relative to it, so busy connections never touch the wheel in between.</p>
+ */
+public class HeartbeatMonitor implements Closeable {
+
+    private static final long TICK_MILLIS = 100;
+    private static final int TICKS_PER_WHEEL = 512;
+
+    private final TimingWheel wheel = new TimingWheel("heartbeat-wheel", TICK_MILLIS, TimeUnit.MILLISECONDS,
+        TICKS_PER_WHEEL);
+    private final long handshakeTimeout;
+    private final long heartbeatInterval;
+    private final long idleTimeout;
+    /** Longest time between two checks of a registered connection, 0 if they are not checked */
+    private final long checkInterval;
+
+    /**
+     * Creates the monitor using the timeouts of the given settings.
+     * @param settings settings of the server
+     */
+    public HeartbeatMonitor(ServerSettings settings) {
+        this.handshakeTimeout = TimeUnit.MILLISECONDS.toNanos(settings.getHandshakeTimeout());
+        this.heartbeatInterval = TimeUnit.MILLISECONDS.toNanos(settings.getHeartbeatInterval());
+        this.idleTimeout = TimeUnit.MILLISECONDS.toNanos(settings.getIdleTimeout());
+        this.checkInterval = minPositive(heartbeatInterval, idleTimeout);
+    }
+
+    /**
+     * Starts watching a new connection, until it is closed.
+     * @param handler handler of the connection
+     */
+    public void watch(ServerConnectionHandler handler) {
+        long delay = minPositive(handshakeTimeout, checkInterval);
+        if (delay > 0) {
+            schedule(handler, System.nanoTime(), delay);
+        }
+    }
+
+    private void schedule(ServerConnectionHandler handler, long connectedAt, long delay) {
+        wheel.schedule(() -> check(handler, connectedAt), delay, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Checks a connection when its timeout is due and schedules the next check, if it is still watched.
+     */
+    private void check(ServerConnectionHandler handler, long connectedAt) {
+        if (!handler.isOpen()) return;
+        Config.State state = handler.getState();
+        if (state == Config.State.NEW) {
+            long remaining = handshakeTimeout - (System.nanoTime() - connectedAt);
+            if (handshakeTimeout > 0 && remaining <= 0) {
+                handler.timeout("Handshake timeout");
+            } else if (handshakeTimeout > 0 || checkInterval > 0) {
+                schedule(handler, connectedAt, minPositive(handshakeTimeout > 0 ? remaining : 0, checkInterval));
+            }
+            return;
+        }
+        if (state != Config.State.CONNECTED || checkInterval == 0) return;
+        long idle = System.nanoTime() - handler.getLastReceived();
+        if (idleTimeout > 0 && idle >= idleTimeout) {
+            handler.timeout("Idle timeout");
+            return;
+        }
+        boolean heartbeats = heartbeatInterval > 0 && handler.isHeartbeatAgreed();
+        if (heartbeats && idle >= heartbeatInterval) {
+            handler.sendHeartbeat();
+        }
+        long next = nextCheckDelay(idle, heartbeats);
+        if (next > 0) {
+            schedule(handler, connectedAt, next);
+        }
+    }
+
+    /**
+     * Computes the delay of the next check of a registered connection, only taking the limits into account which
+     * apply to it. A heartbeat due has been sent before.
+     * @param idle       time since the last message has been received from the client, below the idle timeout
+     * @param heartbeats true if the client agreed to heartbeats and they are enabled
+     * @return delay in nanoseconds, 0 if the connection does not have to be checked anymore
+     */
+    long nextCheckDelay(long idle, boolean heartbeats) {
+        long next = 0;
+        if (heartbeats) {
+            next = idle >= heartbeatInterval ? heartbeatInterval : heartbeatInterval - idle;
+        }
+        if (idleTimeout > 0) {
+            next = minPositive(next, idleTimeout - idle);
+        }
+        return next;
+    }
+
+    /**
+     * @return the smaller of both values which is positive, 0 if none is
+     */
+    private static long minPositive(long a, long b) {
+        if (a <= 0) return Math.max(b, 0);
+        return b <= 0 ? a : Math.min(a, b);
+    }
+
+    /**
+     * Stops watching all connections.
+     */
+    @Override
+    public void close() {
+        wheel.close();
+    }
+}
@@ -0,0 +1,560 @@
+package ch.zhaw.pm2.multichat.server;
+
+import ch.zhaw.pm2.multichat.protocol.Frame;
+import ch.zhaw.pm2.multichat.protocol.Log;
+import ch.zhaw.pm2.multichat.protocol.WireFormat;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32C;
+
+/**
+ * Durable, append-only log of the chat messages delivered by the server, replayed to clients when they connect.
+ * <p>The log consists of segment files of a fixed size, each named after the log position of its first record and
+ * memory-mapped as a whole. A record holds the frame as it has been sent to the clients, preceded by its length, a
+ * CRC32C checksum, its kind (broadcast or direct message) and the names of sender and receiver. Positions are byte
+ * offsets increasing across all segments; a record which does not fit into the rest of a segment starts the next
+ * one. The oldest segments are deleted as soon more than the configured number of segments exist.</p>
+ * <p>Appending only copies the record into the mapped segment. A single sync thread forces the appended records to
+ * disk using group commit: each fsync covers all records appended while the previous one was running, so the
+ * number of fsyncs does not grow with the message rate. Starting a new segment does not force the sealed one
+ * either, so appending never waits for the disk, e.g. on the thread of an event loop. After a crash, the segments are scanned on startup and
+ * the log ends at the first record with an invalid checksum, e.g. one written only partially.</p>
+ * <p>Replayed records are sent straight from the mapped segments as {@link Frame#wrap(ByteBuffer) buffered frames},
+ * they are never copied onto the heap. As frames are stored encoded, segments written using another
+ * {@link WireFormat} are skipped when replaying.</p>
+ * <p>Appending a message and delivering it to the connected clients happens atomically with respect to a client
+ * registering (see {@link #deliver} and {@link #register}), so every message is either replayed to a new client or
+ * delivered to it live, never both or neither.</p>
+ */
+public class MessageLog implements Closeable {
+
+    /**
+     * Kind of a logged message, defining to whom it is replayed
+     */
+    public enum Kind {
+        /** Message sent to all users, replayed to every client */
+        BROADCAST,
+        /** Message sent to a single user, only replayed to its sender and receiver */
+        DIRECT
+    }
+
+    private static final Log LOG = Log.get("server.messagelog");
+
+    private static final String SEGMENT_SUFFIX = ".segment";
+    private static final int SEGMENT_MAGIC = 0x4d434c47;
+    /** Segment header: magic number, wire format, padding */
+    private static final int SEGMENT_HEADER_LENGTH = 16;
+    /** Record header: length of the rest of the record, checksum of the rest of the record */
+    private static final int RECORD_HEADER_LENGTH = 2 * Integer.BYTES;
+    private static final int MAX_NAME_LENGTH = 0xFFFF;
+    private static final Kind[] KINDS = Kind.values();
+
+    private final Path directory;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final WireFormat wireFormat;
+    private final ReadWriteLock deliveryLock = new ReentrantReadWriteLock();
+    /** Guards appending and the positions, a lock instead of a monitor so virtual threads are not pinned on I/O */
+    private final Lock lock = new ReentrantLock();
+    private final Condition positionChanged = lock.newCondition();
+    private final CRC32C checksum = new CRC32C();
+    /** Positions of the most recent broadcasts, ring buffer in the order of appending */
+    private final long[] recentBroadcasts;
+    /** Number of broadcasts appended since opening, a long so the ring buffer index never overflows */
+    private long recentBroadcastCount;
+    private final Thread syncThread;
+
+    /** All segments in the order of their positions, replaced as a whole when segments are added or deleted */
+    private volatile List<Segment> segments = List.of();
+    private Segment active;
+    /** Position after the last appended record, guarded by the lock */
+    private long endPosition;
+    /** Position up to which all records have been forced to disk, guarded by the lock */
+    private long durablePosition;
+    private boolean closed;
+
+    /**
+     * A segment file mapped into memory.
+     */
+    private static final class Segment {
+        final long base;
+        final Path path;
+        final MappedByteBuffer buffer;
+        final boolean replayable;
+        /** Offset after the last record, only changed while holding the lock of the log */
+        volatile int end;
+        /** Offset up to which the segment has been forced to disk, guarded by the lock of the log */
+        int syncedEnd;
+
+        Segment(long base, Path path, MappedByteBuffer buffer, boolean replayable, int end) {
+            this.base = base;
+            this.path = path;
+            this.buffer = buffer;
+            this.replayable = replayable;
+            this.end = end;
+            this.syncedEnd = end;
+        }
+    }
+
+    /**
+     * Range of a segment to force to disk, from the offset it has been forced up to until its end.
+     */
+    private record SyncRange(Segment segment, int from, int to) {
+    }
+
+    /**
+     * Registration of a client, run while no message is being delivered (see {@link #register}).
+     */
+    @FunctionalInterface
+    public interface Registration {
+        /**
+         * Registers the client for live messages, e.g. by claiming its user name, and queues the replayed messages.
+         * @param position log position after the replayed messages, to be supplied by the client next time it connects
+         * @param replay   the messages to replay, read lazily from the mapped segments
+         * @return true if the client has been registered, false if the registration failed
+         */
+        boolean register(long position, Iterator<Frame> replay);
+    }
+
+    /**
+     * Opens the log in the given directory, creating the directory if necessary, and recovers the existing segments.
+     * @param directory   directory holding the segment files
+     * @param segmentSize size of each new segment file in bytes
+     * @param maxSegments maximum number of segments kept, older ones are deleted
+     * @param replayCount number of broadcasts replayed to a client not supplying a position
+     * @param wireFormat  wire format of the frames appended
+     * @throws IOException if the directory or the segments can not be opened
+     */
+    public MessageLog(Path directory, int segmentSize, int maxSegments, int replayCount, WireFormat wireFormat)
+        throws IOException {
+        if (segmentSize <= SEGMENT_HEADER_LENGTH) throw new IllegalArgumentException("Segment size too small");
+        if (maxSegments < 1) throw new IllegalArgumentException("At least one segment has to be kept");
+        if (replayCount < 0) throw new IllegalArgumentException("Replay count must not be negative");
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+        this.wireFormat = wireFormat;
+        this.recentBroadcasts = new long[replayCount];
+        Files.createDirectories(directory);
+        recover();
+        this.syncThread = new Thread(this::syncLoop, "message-log-sync");
+        this.syncThread.setDaemon(true);
+        this.syncThread.start();
+    }
+
+    /**
+     * Maps all existing segments and determines the end of each by validating its records.
+     */
+    private void recover() throws IOException {
+        List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            files.forEach(paths::add);
+        }
+        paths.sort(null);
+        List<Segment> recovered = new ArrayList<>();
+        for (Path path : paths) {
+            long base = Long.parseLong(path.getFileName().toString().replace(SEGMENT_SUFFIX, ""));
+            MappedByteBuffer buffer = map(path, Math.toIntExact(Files.size(path)));
+            boolean replayable = buffer.capacity() >= SEGMENT_HEADER_LENGTH
+                && buffer.getInt(0) == SEGMENT_MAGIC && buffer.get(Integer.BYTES) == wireFormat.ordinal();
+            Segment segment = new Segment(base, path, buffer, replayable, SEGMENT_HEADER_LENGTH);
+            while (recordLength(segment, segment.end) > 0) {
+                if (segment.replayable && kind(segment, segment.end) == Kind.BROADCAST) {
+                    addRecentBroadcast(base + segment.end);
+                }
+                segment.end += recordLength(segment, segment.end);
+            }
+            segment.syncedEnd = segment.end;
+            recovered.add(segment);
+        }
+        segments = List.copyOf(recovered);
+        if (recovered.isEmpty() || !recovered.getLast().replayable) {
+            long base = recovered.isEmpty() ? 0 : recovered.getLast().base + recovered.getLast().end;
+            roll(base);
+        } else {
+            active = recovered.getLast();
+        }
+        endPosition = active.base + active.end;
+        durablePosition = endPosition;
+        LOG.info("Opened message log %s with %d segments, end position %d", directory, segments.size(), endPosition);
+    }
+
+    private static MappedByteBuffer map(Path path, int size) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    /**
+     * Returns the length of the valid record at the given offset.
+     * @return length of the record including its header, 0 if no valid record starts at the offset
+     */
+    private int recordLength(Segment segment, int offset) {
+        ByteBuffer buffer = segment.buffer;
+        if (offset < SEGMENT_HEADER_LENGTH || offset > buffer.capacity() - RECORD_HEADER_LENGTH) return 0;
+        int length = buffer.getInt(offset);
+        if (length <= 0 || length > buffer.capacity() - offset - RECORD_HEADER_LENGTH) return 0;
+        checksum.reset();
+        checksum.update(buffer.slice(offset + RECORD_HEADER_LENGTH, length));
+        if ((int) checksum.getValue() != buffer.getInt(offset + Integer.BYTES)) return 0;
+        return RECORD_HEADER_LENGTH + length;
+    }
+
+    private static Kind kind(Segment segment, int offset) {
+        int ordinal = segment.buffer.get(offset + RECORD_HEADER_LENGTH);
+        return ordinal >= 0 && ordinal < KINDS.length ? KINDS[ordinal] : null;
+    }
+
+    private void addRecentBroadcast(long position) {
+        if (recentBroadcasts.length == 0) return;
+        recentBroadcasts[(int) (recentBroadcastCount++ % recentBroadcasts.length)] = position;
+    }
+
+    /**
+     * Seals the active segment and starts a new one at the given position, deleting the oldest segments if there
+     * are too many. Must be called holding the lock of the log.
+     * <p>Neither the sealed nor the new segment is forced here, the sync thread forces both (see
+     * {@link #syncLoop()}). A new segment whose header has not reached the disk before a crash is skipped when
+     * recovering.</p>
+     */
+    private void roll(long base) throws IOException {
+        Path path = directory.resolve(String.format("%020d%s", base, SEGMENT_SUFFIX));
+        MappedByteBuffer buffer = map(path, segmentSize);
+        buffer.putInt(0, SEGMENT_MAGIC);
+        buffer.put(Integer.BYTES, (byte) wireFormat.ordinal());
+        active = new Segment(base, path, buffer, true, SEGMENT_HEADER_LENGTH);
+        active.syncedEnd = 0;
+        List<Segment> updated = new ArrayList<>(segments);
+        updated.add(active);
+        while (updated.size() > maxSegments) {
+            Segment oldest = updated.removeFirst();
+            try {
+                Files.deleteIfExists(oldest.path);
+            } catch (IOException e) {
+                LOG.warn("Failed to delete segment %s: %s", oldest.path, e.getMessage());
+            }
+        }
+        segments = List.copyOf(updated);
+    }
+
+    /**
+     * Appends a message and delivers it, e.g. by queueing its frame to the connections of the recipients.
+     * The delivery runs while no client is registering, see {@link #register}. Deliveries of different messages
+     * run concurrently. If the message can not be appended, it is delivered anyway.
+     * @param kind     kind of the message
+     * @param sender   name of the sender
+     * @param receiver name of the receiver
+     * @param frame    the encoded message, as sent to the recipients
+     * @param delivery delivers the message to the connected recipients
+     */
+    public void deliver(Kind kind, String sender, String receiver, Frame frame, Runnable delivery) {
+        deliveryLock.readLock().lock();
+        try {
+            try {
+                append(kind, sender, receiver, frame);
+            } catch (IOException e) {
+                LOG.error("Failed to append message to log: %s", e.getMessage());
+            }
+            delivery.run();
+        } finally {
+            deliveryLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Appends a record to the active segment, starting a new segment if it does not fit.
+     * @return position of the record
+     * @throws IOException if the record is too large for a segment or a new segment can not be created
+     */
+    long append(Kind kind, String sender, String receiver, Frame frame) throws IOException {
+        lock.lock();
+        try {
+            return appendLocked(kind, sender, receiver, frame);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private long appendLocked(Kind kind, String sender, String receiver, Frame frame) throws IOException {
+        if (closed) throw new IOException("Message log closed");
+        byte[] senderBytes = nameBytes(sender);
+        byte[] receiverBytes = nameBytes(receiver);
+        int length = 1 + Short.BYTES + senderBytes.length + Short.BYTES + receiverBytes.length + frame.size();
+        int recordLength = RECORD_HEADER_LENGTH + length;
+        if (recordLength > segmentSize - SEGMENT_HEADER_LENGTH) {
+            throw new IOException("Message of " + frame.size() + " bytes exceeds the segment size");
+        }
+        if (active.end + recordLength > active.buffer.capacity()) {
+            roll(active.base + active.end);
+        }
+        int offset = active.end;
+        ByteBuffer record = active.buffer.slice(offset, recordLength);
+        record.putInt(length).putInt(0).put((byte) kind.ordinal());
+        record.putShort((short) senderBytes.length).put(senderBytes);
+        record.putShort((short) receiverBytes.length).put(receiverBytes);
+        record.put(frame.buffer());
+        checksum.reset();
+        checksum.update(record.flip().position(RECORD_HEADER_LENGTH));
+        record.putInt(Integer.BYTES, (int) checksum.getValue());
+        long position = active.base + offset;
+        active.end = offset + recordLength;
+        endPosition = active.base + active.end;
+        if (kind == Kind.BROADCAST) {
+            addRecentBroadcast(position);
+        }
+        positionChanged.signalAll();
+        return position;
+    }
+
+    private static byte[] nameBytes(String name) {
+        byte[] bytes = name == null ? new byte[0] : name.getBytes(StandardCharsets.UTF_8);
+        return bytes.length <= MAX_NAME_LENGTH ? bytes : Arrays.copyOf(bytes, MAX_NAME_LENGTH);
+    }
+
+    /**
+     * Registers a client: runs the registration while no message is being delivered and returns the messages to
+     * replay to it, ending at the last message appended before the registration.
+     * <p>If the client supplies a position from an earlier connection, all broadcasts and the direct messages sent or
+     * received by the user from this position on are replayed. Otherwise, or if the position is no longer available,
+     * the most recent broadcasts are replayed.</p>
+     * @param userName     name of the registering user
+     * @param fromPosition position returned by an earlier registration, negative if not available
+     * @param registration registers the client and queues the replayed messages ahead of all live messages
+     * @return the result of the registration
+     */
+    public boolean register(String userName, long fromPosition, Registration registration) {
+        deliveryLock.writeLock().lock();
+        try {
+            long end;
+            int broadcasts;
+            long oldestBroadcast;
+            lock.lock();
+            try {
+                end = endPosition;
+                broadcasts = (int) Math.min(recentBroadcastCount, recentBroadcasts.length);
+                oldestBroadcast = broadcasts == 0 ? end
+                    : recentBroadcasts[(int) ((recentBroadcastCount - broadcasts) % recentBroadcasts.length)];
+            } finally {
+                lock.unlock();
+            }
+            List<Segment> snapshot = segments;
+            Cursor replay = fromPosition >= 0 && isRecordStart(snapshot, fromPosition, end)
+                ? new Cursor(snapshot, fromPosition, end, nameBytes(userName))
+                : new Cursor(snapshot, oldestBroadcast, end, null);
+            return registration.register(end, replay);
+        } finally {
+            deliveryLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Checks if a position supplied by a client is the end of the log or the start of a valid record.
+     */
+    private boolean isRecordStart(List<Segment> snapshot, long position, long end) {
+        if (position == end) return true;
+        lock.lock();
+        try {
+            for (Segment segment : snapshot) {
+                long offset = position - segment.base;
+                if (offset >= SEGMENT_HEADER_LENGTH && offset < segment.end) {
+                    return recordLength(segment, (int) offset) > 0;
+                }
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Iterates over the records to replay, reading them lazily from the mapped segments.
+     * Only used by the single writer task of a connection.
+     */
+    private static final class Cursor implements Iterator<Frame> {
+        private final List<Segment> segments;
+        private final long end;
+        /** Name of the user whose direct messages are replayed, null to only replay broadcasts */
+        private final ByteBuffer userName;
+        private int segmentIndex;
+        private int offset;
+        private Frame next;
+
+        Cursor(List<Segment> segments, long start, long end, byte[] userName) {
+            this.segments = segments;
+            this.end = end;
+            this.userName = userName == null ? null : ByteBuffer.wrap(userName);
+            segmentIndex = segments.size();
+            for (int i = 0; i < segments.size(); i++) {
+                Segment segment = segments.get(i);
+                if (start < segment.base + segment.end) {
+                    segmentIndex = i;
+                    offset = (int) Math.max(SEGMENT_HEADER_LENGTH, start - segment.base);
+                    break;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && segmentIndex < segments.size()) {
+                Segment segment = segments.get(segmentIndex);
+                if (segment.base + offset >= end) {
+                    segmentIndex = segments.size();
+                } else if (offset >= segment.end || !segment.replayable) {
+                    segmentIndex++;
+                    offset = SEGMENT_HEADER_LENGTH;
+                } else {
+                    next = read(segment);
+                }
+            }
+            return next != null;
+        }
+
+        /**
+         * Reads the record at the current offset and advances to the next one.
+         * @return the frame of the record, null if the record is not replayed to the user
+         */
+        private Frame read(Segment segment) {
+            ByteBuffer buffer = segment.buffer;
+            int length = buffer.getInt(offset);
+            int position = offset + RECORD_HEADER_LENGTH;
+            offset = position + length;
+            Kind kind = KINDS[buffer.get(position)];
+            int senderStart = position + 1 + Short.BYTES;
+            int senderLength = Short.toUnsignedInt(buffer.getShort(position + 1));
+            int receiverStart = senderStart + senderLength + Short.BYTES;
+            int receiverLength = Short.toUnsignedInt(buffer.getShort(senderStart + senderLength));
+            int frameStart = receiverStart + receiverLength;
+            boolean replayed = kind == Kind.BROADCAST || userName != null
+                && (isUser(buffer, senderStart, senderLength) || isUser(buffer, receiverStart, receiverLength));
+            return replayed ? Frame.wrap(buffer.slice(frameStart, offset - frameStart)) : null;
+        }
+
+        private boolean isUser(ByteBuffer buffer, int start, int length) {
+            return length == userName.remaining() && buffer.slice(start, length).equals(userName);
+        }
+
+        @Override
+        public Frame next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            Frame frame = next;
+            next = null;
+            return frame;
+        }
+    }
+
+    /**
+     * Sync thread: forces all records appended since the last sync to disk, waiting for new records in between.
+     * Besides the active segment, this covers the rest of the segments sealed in the meantime.
+     */
+    private void syncLoop() {
+        while (true) {
+            long target;
+            List<SyncRange> pending;
+            lock.lock();
+            try {
+                while (!closed && durablePosition == endPosition) {
+                    try {
+                        positionChanged.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (closed) return;
+                target = endPosition;
+                pending = unsyncedRanges();
+            } finally {
+                lock.unlock();
+            }
+            for (SyncRange range : pending) {
+                range.segment().buffer.force(range.from(), range.to() - range.from());
+            }
+            lock.lock();
+            try {
+                for (SyncRange range : pending) {
+                    range.segment().syncedEnd = Math.max(range.segment().syncedEnd, range.to());
+                }
+                durablePosition = Math.max(durablePosition, target);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Collects the ranges of the segments which have not been forced to disk yet. Must be called holding the lock of
+     * the log.
+     */
+    private List<SyncRange> unsyncedRanges() {
+        List<SyncRange> ranges = new ArrayList<>();
+        for (Segment segment : segments) {
+            if (segment.syncedEnd < segment.end) {
+                ranges.add(new SyncRange(segment, segment.syncedEnd, segment.end));
+            }
+        }
+        return ranges;
+    }
+
+    /**
+     * @return position after the last message appended
+     */
+    public long getEndPosition() {
+        lock.lock();
+        try {
+            return endPosition;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Forces the remaining records to disk and stops the sync thread. The mapped segments stay readable, so replays
+     * still running can complete.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            if (closed) return;
+            closed = true;
+            positionChanged.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            syncThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        lock.lock();
+        try {
+            for (SyncRange range : unsyncedRanges()) {
+                range.segment().buffer.force(range.from(), range.to() - range.from());
+                range.segment().syncedEnd = range.to();
+            }
+            durablePosition = endPosition;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
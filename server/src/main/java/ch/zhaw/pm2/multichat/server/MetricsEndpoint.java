@@ -0,0 +1,69 @@
+package ch.zhaw.pm2.multichat.server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Minimal HTTP endpoint serving the {@link ServerMetrics} as plain text on {@code http://localhost:<port>/metrics},
+ * so they can be collected by Prometheus or simply be fetched using {@code curl}.
+ * The endpoint only listens on the loopback interface, it is not reachable from other hosts.
+ */
+public class MetricsEndpoint implements Closeable {
+
+    /** Path the metrics are served on */
+    public static final String PATH = "/metrics";
+
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final HttpServer httpServer;
+
+    /**
+     * Starts serving the given metrics on the given port of the loopback interface.
+     * Requests are handled by a single thread, scraping is rare and cheap.
+     * @param port    port to listen on, 0 to choose a free port
+     * @param metrics metrics to serve
+     * @throws IOException if the port can not be opened
+     */
+    public MetricsEndpoint(int port, ServerMetrics metrics) throws IOException {
+        httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        httpServer.createContext(PATH, exchange -> handle(exchange, metrics));
+        httpServer.start();
+    }
+
+    private static void handle(HttpExchange exchange, ServerMetrics metrics) throws IOException {
+        try (exchange) {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = metrics.scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    /**
+     * @return port the endpoint is listening on
+     */
+    public int getPort() {
+        return httpServer.getAddress().getPort();
+    }
+
+    /**
+     * Stops serving the metrics.
+     */
+    @Override
+    public void close() {
+        httpServer.stop(0);
+    }
+}
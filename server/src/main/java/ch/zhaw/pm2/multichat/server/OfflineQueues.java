@@ -0,0 +1,591 @@
+package ch.zhaw.pm2.multichat.server;
+
+import ch.zhaw.pm2.multichat.protocol.Frame;
+import ch.zhaw.pm2.multichat.protocol.Log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+/**
+ * Durable store-and-forward queues of the direct messages sent to users which are not connected.
+ * <p>All queues share a single append-only file. A record holds the encoded frame of a message together with the
+ * name of its receiver, or marks all messages queued for a receiver as delivered. Both are preceded by their length
+ * and a CRC32C checksum, so the file can be recovered after a crash up to the last complete record. Every record is
+ * forced to disk before the sender is answered. Records are written by the caller while holding the lock of the
+ * queues, but forced by a single sync thread using group commit: a single fsync covers all records written by
+ * concurrent senders while the previous one was running. Callers never wait for the disk, so the queues can be
+ * used from the thread of an event loop; they are notified by the sync thread instead.</p>
+ * <p>The index kept in memory only holds a single {@code long} per queued message, packing the position of its frame
+ * in the file and its size. When a user registers, all its messages are read by the sync thread and handed over in a
+ * single batch (see {@link #take}), reading adjacent frames using a single read. As soon the delivered messages take
+ * up most of the file, the sync thread copies the remaining ones to a new file replacing the old one.</p>
+ * <p>Each user can have at most {@code quota} bytes queued, and at most {@code maxUsers} users can have queued
+ * messages, so senders can not fill the disk of the server.</p>
+ */
+public class OfflineQueues implements Closeable {
+
+    /**
+     * Result of {@link #store}
+     */
+    public enum StoreResult {
+        /** The message has been queued durably */
+        STORED,
+        /** The receiver is connected, the message has to be delivered live */
+        ONLINE,
+        /** The queue of the receiver is full, the message has been dropped */
+        QUOTA_EXCEEDED,
+        /** The message could not be written, it has been dropped */
+        FAILED
+    }
+
+    private static final Log LOG = Log.get("server.offline");
+
+    private static final String FILE_NAME = "offline.queue";
+    private static final String COMPACTED_FILE_NAME = "offline.queue.compacted";
+    /** Record header: length of the rest of the record, checksum of the rest of the record */
+    private static final int RECORD_HEADER_LENGTH = 2 * Integer.BYTES;
+    private static final byte TYPE_MESSAGE = 0;
+    private static final byte TYPE_DELIVERED = 1;
+    private static final int SIZE_BITS = 24;
+    private static final long SIZE_MASK = (1L << SIZE_BITS) - 1;
+    private static final int MAX_NAME_LENGTH = 0xFFFF;
+    /** The file is compacted if it is larger and the queued messages take less than half of it */
+    private static final long MIN_COMPACTION_SIZE = 1024 * 1024;
+
+    private final Path directory;
+    private final int quota;
+    private final int maxUsers;
+    private final CRC32C checksum = new CRC32C();
+    private final Map<String, Queue> queues = new HashMap<>();
+    /** Guards the index, the file and the pending work of the sync thread */
+    private final Lock lock = new ReentrantLock();
+    private final Condition workAvailable = lock.newCondition();
+    /** Stored messages waiting for their record to be forced, in the order of their records */
+    private final ArrayDeque<Completion> completions = new ArrayDeque<>();
+    /** Users waiting for their queued messages */
+    private final List<Handover> handovers = new ArrayList<>();
+    private final Thread syncThread;
+    private FileChannel file;
+    private long fileSize;
+    /** Bytes taken by the queued messages, excluding record headers */
+    private long queuedBytes;
+    /** Number of records appended since opening */
+    private long appended;
+    /** Number of records appended since opening which have been forced to disk */
+    private long synced;
+    private boolean compactionDue;
+    private boolean closed;
+
+    /**
+     * Messages queued for one user, in the order they have been stored.
+     */
+    private static final class Queue {
+        /** Length of the record content preceding each frame: type and name of the receiver as written */
+        final int prefix;
+        long[] entries = new long[4];
+        int count;
+        long bytes;
+
+        Queue(int prefix) {
+            this.prefix = prefix;
+        }
+
+        void add(long position, int size) {
+            if (count == entries.length) {
+                entries = Arrays.copyOf(entries, count * 2);
+            }
+            entries[count++] = position << SIZE_BITS | size;
+            bytes += size;
+        }
+
+        Queue copy() {
+            Queue copy = new Queue(prefix);
+            copy.entries = Arrays.copyOf(entries, count);
+            copy.count = count;
+            copy.bytes = bytes;
+            return copy;
+        }
+    }
+
+    /**
+     * A stored message waiting for its record to be forced to disk.
+     * @param record number of the record of the message
+     * @param forced called once the record has been forced
+     */
+    private record Completion(long record, Consumer<StoreResult> forced) {
+    }
+
+    /**
+     * A user waiting for its queued messages.
+     * @param receiver name of the user
+     * @param handover called with the queued messages
+     */
+    private record Handover(String receiver, Consumer<List<Frame>> handover) {
+    }
+
+    /**
+     * Opens the queues in the given directory, creating the directory if necessary, and recovers the queued messages.
+     * @param directory directory holding the queue file
+     * @param quota     maximum number of bytes queued per user, an {@code int} as all messages of a user are read into
+     *                  a single buffer
+     * @param maxUsers  maximum number of users with queued messages
+     * @throws IOException if the queue file can not be opened or read
+     */
+    public OfflineQueues(Path directory, int quota, int maxUsers) throws IOException {
+        if (quota < 1) throw new IllegalArgumentException("Quota must be positive");
+        if (maxUsers < 1) throw new IllegalArgumentException("Maximum number of users must be positive");
+        this.directory = directory;
+        this.quota = quota;
+        this.maxUsers = maxUsers;
+        Files.createDirectories(directory);
+        Files.deleteIfExists(directory.resolve(COMPACTED_FILE_NAME));
+        file = FileChannel.open(directory.resolve(FILE_NAME), StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+        recover();
+        LOG.info("Opened offline queues %s with %d messages for %d users", directory,
+            queues.values().stream().mapToInt(queue -> queue.count).sum(), queues.size());
+        syncThread = new Thread(this::syncLoop, "offline-queue-sync");
+        syncThread.setDaemon(true);
+        syncThread.start();
+    }
+
+    /**
+     * Rebuilds the index by reading all records, truncating the file after the last valid one.
+     */
+    private void recover() throws IOException {
+        long size = file.size();
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_LENGTH);
+        long position = 0;
+        while (position + RECORD_HEADER_LENGTH <= size) {
+            readFully(header.clear(), position);
+            int length = header.getInt(0);
+            if (length < 1 + Short.BYTES || length > size - position - RECORD_HEADER_LENGTH) break;
+            ByteBuffer record = ByteBuffer.allocate(length);
+            readFully(record, position + RECORD_HEADER_LENGTH);
+            checksum.reset();
+            checksum.update(record.flip());
+            if ((int) checksum.getValue() != header.getInt(Integer.BYTES)) break;
+            byte type = record.get(0);
+            int nameLength = Short.toUnsignedInt(record.getShort(1));
+            int frameStart = 1 + Short.BYTES + nameLength;
+            if (frameStart > length) break;
+            String receiver = new String(record.array(), 1 + Short.BYTES, nameLength, StandardCharsets.UTF_8);
+            if (type == TYPE_MESSAGE) {
+                queues.computeIfAbsent(receiver, name -> new Queue(frameStart))
+                    .add(position + RECORD_HEADER_LENGTH + frameStart, length - frameStart);
+                queuedBytes += length - frameStart;
+            } else {
+                Queue queue = queues.remove(receiver);
+                if (queue != null) queuedBytes -= queue.bytes;
+            }
+            position += RECORD_HEADER_LENGTH + length;
+        }
+        if (position < size) {
+            LOG.warn("Truncating offline queue file after invalid record at %d", position);
+            file.truncate(position);
+            file.force(true);
+        }
+        fileSize = position;
+    }
+
+    /**
+     * Queues a message for a receiver which is not connected. Does not wait for the message to be forced to disk.
+     * Runs atomically with respect to taking the messages of the receiver (see {@link #take}), so a message is either
+     * queued before the receiver takes its messages or the receiver is found online.
+     * @param receiver name of the receiver
+     * @param frame    the encoded message
+     * @param offline  checks if the receiver is still not connected
+     * @param forced   called by the sync thread if the message has been queued, as soon it has been forced to disk:
+     *                 with {@link StoreResult#STORED}, or {@link StoreResult#FAILED} if forcing failed
+     * @return the result, the message has only been queued if {@link StoreResult#STORED}; {@link StoreResult#FAILED}
+     *         if the name of the receiver is too long to be stored
+     */
+    public StoreResult store(String receiver, Frame frame, BooleanSupplier offline, Consumer<StoreResult> forced) {
+        byte[] name = receiver.getBytes(StandardCharsets.UTF_8);
+        if (name.length > MAX_NAME_LENGTH) {
+            LOG.warn("Not queueing message for receiver with a name of %d bytes", name.length);
+            return StoreResult.FAILED;
+        }
+        lock.lock();
+        try {
+            if (!offline.getAsBoolean()) return StoreResult.ONLINE;
+            if (file == null || closed) return StoreResult.FAILED;
+            Queue queue = queues.get(receiver);
+            long bytes = queue == null ? 0 : queue.bytes;
+            if (bytes + frame.size() > quota || queue == null && queues.size() >= maxUsers) {
+                return StoreResult.QUOTA_EXCEEDED;
+            }
+            long position = append(TYPE_MESSAGE, name, frame.buffer());
+            if (queue == null) {
+                queue = new Queue(1 + Short.BYTES + name.length);
+                queues.put(receiver, queue);
+            }
+            queue.add(position, frame.size());
+            queuedBytes += frame.size();
+            completions.add(new Completion(appended, forced));
+            workAvailable.signal();
+            return StoreResult.STORED;
+        } catch (IOException e) {
+            LOG.error("Failed to queue message for %s: %s", receiver, e.getMessage());
+            return StoreResult.FAILED;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes all messages queued for a user, e.g. after it has registered, and hands them over. Does not wait for
+     * the messages to be read. The messages are marked as delivered as soon they have been read, and only handed over
+     * once the mark has been forced to disk, so they are handed over at most once.
+     * @param receiver name of the user
+     * @param handover called by the sync thread with the queued messages in the order they have been stored, empty
+     *                 if there are none; called right away if the queues are closed
+     */
+    public void take(String receiver, Consumer<List<Frame>> handover) {
+        lock.lock();
+        try {
+            if (file != null && !closed) {
+                handovers.add(new Handover(receiver, handover));
+                workAvailable.signal();
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        handover.accept(List.of());
+    }
+
+    /**
+     * Reads and removes the messages queued for a user. Must be called by the sync thread holding the lock.
+     */
+    private List<Frame> takeLocked(String receiver) {
+        Queue queue = queues.get(receiver);
+        if (queue == null || file == null) return List.of();
+        List<Frame> frames = new ArrayList<>(queue.count);
+        try {
+            ByteBuffer batch = ByteBuffer.allocate(Math.toIntExact(queue.bytes));
+            int start = 0;
+            while (start < queue.count) {
+                // coalesce adjacent frames into a single read
+                long position = queue.entries[start] >>> SIZE_BITS;
+                int end = start;
+                long runEnd = position;
+                while (end < queue.count && queue.entries[end] >>> SIZE_BITS == runEnd) {
+                    runEnd += queue.entries[end] & SIZE_MASK;
+                    end++;
+                }
+                int offset = batch.position();
+                readFully(batch.limit(offset + (int) (runEnd - position)), position);
+                for (int i = start; i < end; i++) {
+                    int size = (int) (queue.entries[i] & SIZE_MASK);
+                    frames.add(Frame.wrap(batch.slice(offset, size)));
+                    offset += size;
+                }
+                start = end;
+            }
+            append(TYPE_DELIVERED, receiver.getBytes(StandardCharsets.UTF_8), ByteBuffer.allocate(0));
+        } catch (IOException | IllegalArgumentException e) {
+            LOG.error("Failed to read queued messages of %s: %s", receiver, e.getMessage());
+            return List.of();
+        }
+        queues.remove(receiver);
+        queuedBytes -= queue.bytes;
+        LOG.debug("Delivering %d queued messages to %s", frames.size(), receiver);
+        if (fileSize > MIN_COMPACTION_SIZE && queuedBytes * 2 < fileSize) {
+            compactionDue = true;
+        }
+        return frames;
+    }
+
+    /**
+     * Sync thread: reads the messages of the users waiting for them, compacts the file if due and forces all records
+     * appended since the last sync to disk. Then notifies the senders of the forced messages and hands over the
+     * messages read.
+     */
+    private void syncLoop() {
+        while (true) {
+            List<Handover> taken = new ArrayList<>();
+            List<List<Frame>> takenFrames = new ArrayList<>();
+            boolean compact;
+            lock.lock();
+            try {
+                while (!closed && synced == appended && handovers.isEmpty() && !compactionDue) {
+                    try {
+                        workAvailable.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (closed && synced == appended && handovers.isEmpty()) return;
+                for (Handover handover : handovers) {
+                    taken.add(handover);
+                    takenFrames.add(takeLocked(handover.receiver()));
+                }
+                handovers.clear();
+                compact = compactionDue && !closed;
+                compactionDue = false;
+            } finally {
+                lock.unlock();
+            }
+            if (compact) {
+                compact();
+            }
+            boolean forced = sync();
+            List<Completion> done = new ArrayList<>();
+            lock.lock();
+            try {
+                while (!completions.isEmpty() && completions.peek().record() <= synced) {
+                    done.add(completions.poll());
+                }
+            } finally {
+                lock.unlock();
+            }
+            for (Completion completion : done) {
+                completion.forced().accept(forced ? StoreResult.STORED : StoreResult.FAILED);
+            }
+            for (int i = 0; i < taken.size(); i++) {
+                taken.get(i).handover().accept(takenFrames.get(i));
+            }
+        }
+    }
+
+    /**
+     * Forces the records appended so far to disk. Records which can not be forced are considered synced anyway, they
+     * stay queued but may be lost on a crash. Only called by the sync thread.
+     * @return true if the records have been forced
+     */
+    private boolean sync() {
+        long target;
+        FileChannel channel;
+        lock.lock();
+        try {
+            if (synced == appended) return true;
+            target = appended;
+            channel = file;
+        } finally {
+            lock.unlock();
+        }
+        boolean forced;
+        try {
+            if (channel == null) throw new IOException("Offline queue file not available");
+            channel.force(false);
+            forced = true;
+        } catch (IOException e) {
+            LOG.error("Failed to force offline queue file to disk: %s", e.getMessage());
+            forced = false;
+        }
+        lock.lock();
+        try {
+            synced = Math.max(synced, target);
+        } finally {
+            lock.unlock();
+        }
+        return forced;
+    }
+
+    /**
+     * Writes a record, which is not yet forced to disk (see {@link #sync()}).
+     * @param name name of the receiver encoded as UTF-8, at most {@value #MAX_NAME_LENGTH} bytes
+     * @return position of the content (the frame) of the record
+     */
+    private long append(byte type, byte[] name, ByteBuffer content) throws IOException {
+        int length = 1 + Short.BYTES + name.length + content.remaining();
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_LENGTH + length);
+        record.putInt(length).putInt(0).put(type).putShort((short) name.length).put(name).put(content);
+        checksum.reset();
+        checksum.update(record.flip().position(RECORD_HEADER_LENGTH));
+        record.putInt(Integer.BYTES, (int) checksum.getValue()).rewind();
+        long position = fileSize;
+        try {
+            writeFully(file, record, position);
+        } catch (IOException e) {
+            file.truncate(position);
+            throw e;
+        }
+        fileSize += record.capacity();
+        appended++;
+        return position + RECORD_HEADER_LENGTH + 1 + Short.BYTES + name.length;
+    }
+
+    /**
+     * Copies the queued messages to a new file and replaces the current file with it. Only called by the sync thread,
+     * so no messages are taken meanwhile.
+     * <p>The records are copied without holding the lock, so senders can still append records to the current file.
+     * These are copied afterwards while holding the lock, before switching to the new file. The new file only
+     * replaces the current one once it has been forced to disk. If compacting fails before switching, the current
+     * file is kept.</p>
+     */
+    private void compact() {
+        Path compactedPath = directory.resolve(COMPACTED_FILE_NAME);
+        FileChannel source;
+        long snapshotEnd;
+        Map<String, Queue> snapshot = new HashMap<>();
+        lock.lock();
+        try {
+            source = file;
+            if (source == null || closed) return;
+            snapshotEnd = fileSize;
+            queues.forEach((receiver, queue) -> snapshot.put(receiver, queue.copy()));
+        } finally {
+            lock.unlock();
+        }
+        FileChannel compacted = null;
+        boolean switched = false;
+        try {
+            compacted = FileChannel.open(compactedPath, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+            long position = 0;
+            Map<String, Queue> compactedQueues = new HashMap<>();
+            for (Map.Entry<String, Queue> entry : snapshot.entrySet()) {
+                Queue queue = entry.getValue();
+                int prefix = queue.prefix;
+                Queue compactedQueue = new Queue(prefix);
+                for (int i = 0; i < queue.count; i++) {
+                    int size = (int) (queue.entries[i] & SIZE_MASK);
+                    // the original record is copied as a whole, including its header and checksum
+                    long recordStart = (queue.entries[i] >>> SIZE_BITS) - prefix - RECORD_HEADER_LENGTH;
+                    long recordLength = RECORD_HEADER_LENGTH + prefix + size;
+                    transferFully(source, recordStart, recordLength, compacted, position);
+                    compactedQueue.add(position + RECORD_HEADER_LENGTH + prefix, size);
+                    position += recordLength;
+                }
+                compactedQueues.put(entry.getKey(), compactedQueue);
+            }
+            long compactedSize;
+            long target;
+            lock.lock();
+            try {
+                if (file != source || closed) throw new IOException("Offline queues closed");
+                // records appended meanwhile follow the copied ones, their positions shift by the same amount
+                long shift = position - snapshotEnd;
+                transferFully(source, snapshotEnd, fileSize - snapshotEnd, compacted, position);
+                for (Map.Entry<String, Queue> entry : queues.entrySet()) {
+                    Queue queue = entry.getValue();
+                    Queue compactedQueue = compactedQueues.getOrDefault(entry.getKey(), new Queue(queue.prefix));
+                    for (int i = compactedQueue.count; i < queue.count; i++) {
+                        compactedQueue.add((queue.entries[i] >>> SIZE_BITS) + shift, (int) (queue.entries[i] & SIZE_MASK));
+                    }
+                    compactedQueues.put(entry.getKey(), compactedQueue);
+                }
+                compactedQueues.keySet().retainAll(queues.keySet());
+                compactedSize = fileSize + shift;
+                LOG.info("Compacted offline queue file from %d to %d bytes", fileSize, compactedSize);
+                queues.clear();
+                queues.putAll(compactedQueues);
+                file = compacted;
+                fileSize = compactedSize;
+                target = appended;
+                switched = true;
+            } finally {
+                lock.unlock();
+            }
+            source.close();
+            compacted.force(true);
+            Files.move(compactedPath, directory.resolve(FILE_NAME), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+            lock.lock();
+            try {
+                synced = Math.max(synced, target);
+            } finally {
+                lock.unlock();
+            }
+        } catch (IOException e) {
+            if (switched) {
+                LOG.error("Failed to replace offline queue file, messages can no longer be queued: %s",
+                    e.getMessage());
+                lock.lock();
+                try {
+                    file = null;
+                } finally {
+                    lock.unlock();
+                }
+            } else {
+                LOG.error("Failed to compact offline queue file: %s", e.getMessage());
+            }
+            try {
+                if (compacted != null) compacted.close();
+                Files.deleteIfExists(compactedPath);
+            } catch (IOException closeError) {
+                LOG.debug("Failed to delete compacted offline queue file: %s", closeError.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Forces the queued messages to disk and closes the queue file, after the sync thread has handed over the
+     * messages taken and notified the senders of the stored ones. Messages stored afterwards are dropped.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            if (closed) return;
+            closed = true;
+            workAvailable.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            syncThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        lock.lock();
+        try {
+            if (file == null) return;
+            file.force(false);
+            file.close();
+        } catch (IOException e) {
+            LOG.error("Failed to close offline queue file: %s", e.getMessage());
+        } finally {
+            file = null;
+            lock.unlock();
+        }
+    }
+
+    private void readFully(ByteBuffer bytes, long position) throws IOException {
+        while (bytes.hasRemaining()) {
+            int read = file.read(bytes, position);
+            if (read < 0) throw new IOException("Unexpected end of offline queue file");
+            position += read;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer bytes, long position) throws IOException {
+        while (bytes.hasRemaining()) {
+            position += channel.write(bytes, position);
+        }
+    }
+
+    private static void transferFully(FileChannel source, long position, long count, FileChannel target,
+                                      long targetPosition) throws IOException {
+        long transferred = 0;
+        while (transferred < count) {
+            long read = source.transferTo(position + transferred, count - transferred,
+                target.position(targetPosition + transferred));
+            if (read <= 0 && source.size() <= position + transferred) {
+                throw new IOException("Unexpected end of offline queue file");
+            }
+            transferred += read;
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package ch.zhaw.pm2.multichat.server;
+
+import ch.zhaw.pm2.multichat.protocol.FlowControl;
+import ch.zhaw.pm2.multichat.protocol.Frame;
+import ch.zhaw.pm2.multichat.protocol.Log;
+import ch.zhaw.pm2.multichat.protocol.Message;
+import ch.zhaw.pm2.multichat.protocol.NetworkHandler;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.SocketException;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Bounded queue of frames waiting to be sent over one network connection.
+ * Producers only enqueue and never block. The queue is drained by a writer task, which is started on the given
+ * executor as soon frames are waiting and ends when the queue is empty. For event driven connections the writer also
+ * pauses while the connection still has pending writes, so a client which is not reading can never make the server
+ * buffer more than the capacity of its queue.
+ * <p>Besides the queued frames, a backlog of frames produced lazily by an iterator can be sent ahead of them, e.g.
+ * the chat history replayed to a client on connect. The backlog does not count against the capacity, it is only
+ * consumed as fast as the connection takes the frames.</p>
+ * <p>If the client agreed to {@link FlowControl}, the backlog and the queued frames are only written as long as the
+ * client has granted credits; without credits they wait in the queue, where the {@link OverflowPolicy} applies.
+ * Control frames granting credits to the client are written ahead of them and never wait for credits. Once the queue
+ * is closed, the remaining frames are written regardless of credits.</p>
+ */
+public class OutboundQueue {
+
+    /**
+     * Defines what happens to a frame which does not fit into a full queue
+     */
+    public enum OverflowPolicy {
+        /** The new frame is discarded */
+        DROP_NEWEST,
+        /** The oldest queued frame is discarded to make room for the new frame */
+        DROP_OLDEST,
+        /** The connection of the lagging client is closed */
+        DISCONNECT
+    }
+
+    private static final Log LOG = Log.get("server.queue");
+
+    private final NetworkHandler.NetworkConnection<Message> connection;
+    private final Executor writerExecutor;
+    private final OverflowPolicy overflowPolicy;
+    private final BlockingQueue<Frame> frames;
+    private final Queue<Frame> controlFrames = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean writerScheduled = new AtomicBoolean(false);
+    private volatile Iterator<Frame> backlog;
+    private volatile FlowControl flowControl;
+    private volatile boolean held = false;
+    private volatile boolean closing = false;
+
+    /**
+     * Creates a new outbound queue for the given connection.
+     * @param connection     connection the queued frames are written to
+     * @param writerExecutor executor running the writer task
+     * @param capacity       maximum number of queued frames
+     * @param overflowPolicy what to do with frames which do not fit into the full queue
+     */
+    public OutboundQueue(NetworkHandler.NetworkConnection<Message> connection, Executor writerExecutor,
+                         int capacity, OverflowPolicy overflowPolicy) {
+        this.connection = connection;
+        this.writerExecutor = writerExecutor;
+        this.overflowPolicy = overflowPolicy;
+        this.frames = new ArrayBlockingQueue<>(capacity);
+        connection.setWriteReadyListener(this::scheduleWriter);
+    }
+
+    /**
+     * Enqueues a frame to be sent. Returns immediately, if the queue is full the {@link OverflowPolicy} is applied.
+     * Frames offered after {@link #close()} are discarded.
+     * @param frame frame to send
+     * @return true if the frame has been enqueued, false if it has been discarded
+     */
+    public boolean offer(Frame frame) {
+        if (closing) return false;
+        boolean accepted = frames.offer(frame);
+        if (!accepted) {
+            switch (overflowPolicy) {
+                case DROP_NEWEST -> { }
+                case DROP_OLDEST -> {
+                    frames.poll();
+                    accepted = frames.offer(frame);
+                }
+                case DISCONNECT -> {
+                    LOG.warn("Outbound queue overflow, closing lagging connection %s:%s",
+                        connection.getRemoteHost(), connection.getRemotePort());
+                    discard();
+                    closeConnection();
+                    return false;
+                }
+            }
+        }
+        scheduleWriter();
+        return accepted;
+    }
+
+    /**
+     * Enqueues a control frame, which is sent ahead of the queued frames and does not need a credit, e.g. a CREDIT
+     * message. Control frames are not bounded by the capacity, the protocol limits their number.
+     * @param frame frame to send
+     * @return true if the frame has been enqueued, false if the queue has been closed
+     */
+    public boolean offerControl(Frame frame) {
+        if (closing) return false;
+        controlFrames.add(frame);
+        scheduleWriter();
+        return true;
+    }
+
+    /**
+     * Only writes frames as long as the client has granted credits from now on.
+     * Must be called before the backlog is set using {@link #sendFirst(Iterator)}.
+     * @param flowControl flow control of the connection
+     */
+    public void enableFlowControl(FlowControl flowControl) {
+        this.flowControl = flowControl;
+    }
+
+    /**
+     * Adds credits granted by the client and resumes writing frames waiting for them.
+     * @param credits number of frames granted
+     */
+    public void grant(int credits) {
+        FlowControl flow = flowControl;
+        if (flow != null) {
+            flow.grant(credits);
+            scheduleWriter();
+        }
+    }
+
+    /**
+     * Sends the frames of the given backlog before all frames queued so far or offered later.
+     * Must be called before any frame is offered, i.e. before the connection is visible to other producers, or while
+     * the queue is held (see {@link #hold()}). Ends holding the queue. The iterator is only used by the writer task.
+     * @param frames frames to send first, in the order of the iterator
+     */
+    public void sendFirst(Iterator<Frame> frames) {
+        if (!closing) {
+            backlog = frames;
+        }
+        resume();
+    }
+
+    /**
+     * Holds back all frames except control frames until the backlog is set using {@link #sendFirst(Iterator)} or
+     * {@link #resume()} is called. Allows to make the connection visible to other producers before its backlog is
+     * known, frames offered in the meantime are queued behind the backlog.
+     */
+    public void hold() {
+        held = true;
+    }
+
+    /**
+     * Resumes writing frames after {@link #hold()}, without a backlog.
+     */
+    public void resume() {
+        held = false;
+        scheduleWriter();
+    }
+
+    /**
+     * Returns the number of frames waiting to be sent.
+     * @return current depth of the queue
+     */
+    public int depth() {
+        return frames.size();
+    }
+
+    /**
+     * Stops accepting new frames and closes the connection as soon the frames already queued have been written.
+     */
+    public void close() {
+        closing = true;
+        scheduleWriter();
+    }
+
+    /**
+     * Starts the writer task unless it is already running.
+     */
+    private void scheduleWriter() {
+        if (writerScheduled.compareAndSet(false, true)) {
+            writerExecutor.execute(this::drain);
+        }
+    }
+
+    /**
+     * Writer task: writes queued frames until the queue is empty or the connection can not take more data.
+     * Closes the connection after the last frame, if the queue has been closed.
+     */
+    private void drain() {
+        while (true) {
+            writeBatch();
+            if (closing && backlog == null && frames.isEmpty() && !connection.hasPendingWrites()) {
+                closeConnection();
+            }
+            writerScheduled.set(false);
+            // re-check: frames or write readiness may have arrived after the loop, but before the flag was reset
+            boolean workLeft = !connection.hasPendingWrites() && (!controlFrames.isEmpty() || closing
+                || !isHeld() && (backlog != null || !frames.isEmpty()) && hasCredits());
+            if (!workLeft || !connection.isAvailable() || !writerScheduled.compareAndSet(false, true)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Hands the backlog and all queued frames to the write buffer of the connection and flushes it once the queue is
+     * empty, so a burst of frames is written using a few large writes instead of one write per frame.
+     */
+    private void writeBatch() {
+        if (!connection.isAvailable()) {
+            discard();
+            return;
+        }
+        try {
+            Frame frame;
+            while (!connection.hasPendingWrites() && (frame = controlFrames.poll()) != null) {
+                connection.write(frame);
+            }
+            if (isHeld()) {
+                connection.flush();
+                return;
+            }
+            Iterator<Frame> pending = backlog;
+            if (pending != null) {
+                while (!connection.hasPendingWrites() && pending.hasNext() && acquireCredit()) {
+                    connection.write(pending.next());
+                }
+                if (pending.hasNext()) {
+                    connection.flush();
+                    return;
+                }
+                backlog = null;
+            }
+            while (!connection.hasPendingWrites() && !frames.isEmpty() && acquireCredit()) {
+                frame = frames.poll();
+                if (frame == null) {
+                    // taken by a producer dropping the oldest frame in the meantime
+                    returnCredit();
+                    break;
+                }
+                connection.write(frame);
+            }
+            connection.flush();
+        } catch (SocketException e) {
+            LOG.warn("Connection closed: %s", e.getMessage());
+            discard();
+        } catch (EOFException e) {
+            LOG.warn("Connection terminated by remote peer");
+            discard();
+        } catch (IOException e) {
+            LOG.error("Communication error: %s", e.getMessage());
+            discard();
+        }
+    }
+
+    private boolean isHeld() {
+        return held && !closing;
+    }
+
+    private boolean hasCredits() {
+        FlowControl flow = flowControl;
+        return flow == null || closing || flow.getSendCredits() > 0;
+    }
+
+    /**
+     * Takes a credit to write a frame, always succeeds without flow control or once the queue is closed.
+     */
+    private boolean acquireCredit() {
+        FlowControl flow = flowControl;
+        return flow == null || closing || flow.tryAcquire();
+    }
+
+    private void returnCredit() {
+        FlowControl flow = flowControl;
+        if (flow != null && !closing) {
+            flow.grant(1);
+        }
+    }
+
+    /**
+     * Discards the backlog and all queued frames, e.g. after the connection failed.
+     */
+    private void discard() {
+        backlog = null;
+        frames.clear();
+        controlFrames.clear();
+    }
+
+    private void closeConnection() {
+        try {
+            connection.close();
+        } catch (IOException e) {
+            LOG.error("Failed to close connection. %s", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package ch.zhaw.pm2.multichat.server;
+
+import ch.zhaw.pm2.multichat.protocol.Config;
+import ch.zhaw.pm2.multichat.protocol.Log;
+import ch.zhaw.pm2.multichat.protocol.Message;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.Closeable;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Rate limits of the messages received from clients, enforced using {@link TokenBucket token buckets}.
+ * <p>Every connection has its own buckets per message type (see {@link #newLimiter()}): one for MESSAGE and one
+ * for each room request (JOIN, LEAVE, LIST), so a single chatty client can not flood the server. All broadcasts
+ * additionally share a global bucket, capping the fan-out to all users caused by all clients together. Other
+ * message types, e.g. CONNECT, DISCONNECT or CREDIT, are not limited.</p>
+ * <p>The limits are initialized from the {@link ServerSettings} and can be changed at runtime through JMX (see
+ * {@link RateLimitsMXBean}), the buckets pick up a changed limit on their next use.</p>
+ */
+public class RateLimits implements RateLimitsMXBean, Closeable {
+
+    /** Name of the MBean registered by {@link #registerMBean()} */
+    public static final String OBJECT_NAME = "ch.zhaw.pm2.multichat:type=RateLimits";
+
+    private static final Log LOG = Log.get("server");
+    private static final int MESSAGE_TYPES = Config.MessageType.values().length;
+
+    private volatile TokenBucket.Limit messageLimit;
+    private volatile TokenBucket.Limit requestLimit;
+    private volatile TokenBucket.Limit broadcastLimit;
+    private final TokenBucket broadcasts = new TokenBucket();
+    private ObjectName registeredName;
+
+    /**
+     * Creates the rate limits using the limits of the given settings.
+     * @param settings settings of the server
+     */
+    public RateLimits(ServerSettings settings) {
+        this.messageLimit = new TokenBucket.Limit(settings.getMessageRate(), settings.getMessageBurst());
+        this.requestLimit = new TokenBucket.Limit(settings.getRequestRate(), settings.getRequestBurst());
+        this.broadcastLimit = new TokenBucket.Limit(settings.getBroadcastRate(), settings.getBroadcastBurst());
+    }
+
+    /**
+     * Creates the buckets of a new connection.
+     * @return limiter of the connection
+     */
+    public Limiter newLimiter() {
+        return new Limiter();
+    }
+
+    /**
+     * Rate limiter of a single connection, holding its buckets per message type.
+     */
+    public final class Limiter {
+        private final TokenBucket[] buckets = new TokenBucket[MESSAGE_TYPES];
+
+        private Limiter() {
+            buckets[Config.MessageType.MESSAGE.ordinal()] = new TokenBucket();
+            buckets[Config.MessageType.JOIN.ordinal()] = new TokenBucket();
+            buckets[Config.MessageType.LEAVE.ordinal()] = new TokenBucket();
+            buckets[Config.MessageType.LIST.ordinal()] = new TokenBucket();
+        }
+
+        /**
+         * Takes a token for a received message from the bucket of its type and, for a broadcast, from the global
+         * broadcast bucket. A broadcast rejected by the global bucket does not use up a token of the user.
+         * @param message the received message
+         * @return 0 if the message may be processed, otherwise the time in nanoseconds until it would be accepted
+         */
+        public long acquire(Message message) {
+            TokenBucket.Limit limit = switch (message.getType()) {
+                case MESSAGE -> messageLimit;
+                case JOIN, LEAVE, LIST -> requestLimit;
+                default -> null;
+            };
+            if (limit == null) return 0;
+            TokenBucket bucket = buckets[message.getType().ordinal()];
+            long wait = bucket.tryAcquire(limit);
+            if (wait == 0 && message.getType() == Config.MessageType.MESSAGE
+                && Config.USER_ALL.equals(message.getReceiver())) {
+                wait = broadcasts.tryAcquire(broadcastLimit);
+                if (wait > 0) {
+                    bucket.release(limit);
+                }
+            }
+            return wait;
+        }
+    }
+
+    /**
+     * Registers the limits with the platform MBean server, so they can be changed using JMX.
+     * If another instance is already registered (e.g. a second server in the same JVM), a warning is logged.
+     */
+    public synchronized void registerMBean() {
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+            registeredName = name;
+        } catch (JMException e) {
+            LOG.warn("Failed to register rate limits MBean %s", e.getMessage());
+        }
+    }
+
+    /**
+     * Unregisters the MBean, if registered.
+     */
+    @Override
+    public synchronized void close() {
+        if (registeredName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+            } catch (JMException e) {
+                LOG.error("Failed to unregister rate limits MBean: %s", e.getMessage());
+            }
+            registeredName = null;
+        }
+    }
+
+    @Override
+    public int getMessageRate() {
+        return messageLimit.rate();
+    }
+
+    @Override
+    public synchronized void setMessageRate(int rate) {
+        messageLimit = new TokenBucket.Limit(rate, messageLimit.burst());
+    }
+
+    @Override
+    public int getMessageBurst() {
+        return messageLimit.burst();
+    }
+
+    @Override
+    public synchronized void setMessageBurst(int burst) {
+        messageLimit = new TokenBucket.Limit(messageLimit.rate(), requirePositive(burst));
+    }
+
+    @Override
+    public int getRequestRate() {
+        return requestLimit.rate();
+    }
+
+    @Override
+    public synchronized void setRequestRate(int rate) {
+        requestLimit = new TokenBucket.Limit(rate, requestLimit.burst());
+    }
+
+    @Override
+    public int getRequestBurst() {
+        return requestLimit.burst();
+    }
+
+    @Override
+    public synchronized void setRequestBurst(int burst) {
+        requestLimit = new TokenBucket.Limit(requestLimit.rate(), requirePositive(burst));
+    }
+
+    @Override
+    public int getBroadcastRate() {
+        return broadcastLimit.rate();
+    }
+
+    @Override
+    public synchronized void setBroadcastRate(int rate) {
+        broadcastLimit = new TokenBucket.Limit(rate, broadcastLimit.burst());
+    }
+
+    @Override
+    public int getBroadcastBurst() {
+        return broadcastLimit.burst();
+    }
+
+    @Override
+    public synchronized void setBroadcastBurst(int burst) {
+        broadcastLimit = new TokenBucket.Limit(broadcastLimit.rate(), requirePositive(burst));
+    }
+
+    private static int requirePositive(int burst) {
+        if (burst < 1) throw new IllegalArgumentException("Burst must be positive");
+        return burst;
+    }
+}
@@ -0,0 +1,45 @@
+package ch.zhaw.pm2.multichat.server;
+
+/**
+ * Management interface of the {@link RateLimits}, registered with the platform MBean server as
+ * {@value RateLimits#OBJECT_NAME}, so the limits can be changed at runtime using JConsole or any JMX client.
+ * Rates are given per second, a rate of 0 disables the limit. Changes apply to all connections immediately.
+ */
+public interface RateLimitsMXBean {
+
+    /** @return messages a single user may send per second */
+    int getMessageRate();
+
+    /** @param rate messages a single user may send per second, 0 for no limit */
+    void setMessageRate(int rate);
+
+    /** @return messages a single user may send at once after being idle */
+    int getMessageBurst();
+
+    /** @param burst messages a single user may send at once after being idle (at least 1) */
+    void setMessageBurst(int burst);
+
+    /** @return room requests (JOIN, LEAVE, LIST) a single user may send per second */
+    int getRequestRate();
+
+    /** @param rate room requests a single user may send per second, 0 for no limit */
+    void setRequestRate(int rate);
+
+    /** @return room requests a single user may send at once after being idle */
+    int getRequestBurst();
+
+    /** @param burst room requests a single user may send at once after being idle (at least 1) */
+    void setRequestBurst(int burst);
+
+    /** @return broadcasts all users together may send per second */
+    int getBroadcastRate();
+
+    /** @param rate broadcasts all users together may send per second, 0 for no limit */
+    void setBroadcastRate(int rate);
+
+    /** @return broadcasts all users together may send at once after being idle */
+    int getBroadcastBurst();
+
+    /** @param burst broadcasts all users together may send at once after being idle (at least 1) */
+    void setBroadcastBurst(int burst);
+}
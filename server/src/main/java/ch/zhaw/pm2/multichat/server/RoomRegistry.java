@@ -0,0 +1,116 @@
+package ch.zhaw.pm2.multichat.server;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Thread-safe index of the chat rooms of a server and the connections which have joined them.
+ * <p>The members of a room are kept in an immutable array, which is replaced as a whole when a connection joins or
+ * leaves (copy-on-write). Delivering a message to a room only reads the current array, without locking or copying,
+ * so its cost depends on the size of the room, not on the number of connections of the server. Joins and leaves
+ * are atomic per room using {@link ConcurrentMap#compute}; a room exists as long as it has members.</p>
+ */
+public class RoomRegistry {
+
+    private static final ServerConnectionHandler[] NO_MEMBERS = new ServerConnectionHandler[0];
+
+    /** Members of all rooms with at least one member by room name */
+    private final ConcurrentMap<String, ServerConnectionHandler[]> rooms = new ConcurrentHashMap<>();
+
+    /**
+     * Adds a connection to the members of a room, creating the room if it does not exist yet.
+     * @param room    name of the room
+     * @param handler handler of the joining connection
+     * @return true if the connection has joined, false if it already was a member
+     */
+    public boolean join(String room, ServerConnectionHandler handler) {
+        Objects.requireNonNull(room, "Room must not be null");
+        Objects.requireNonNull(handler, "Handler must not be null");
+        boolean[] joined = {false};
+        rooms.compute(room, (name, members) -> {
+            if (members == null) {
+                joined[0] = true;
+                return new ServerConnectionHandler[]{handler};
+            }
+            if (indexOf(members, handler) >= 0) return members;
+            ServerConnectionHandler[] updated = Arrays.copyOf(members, members.length + 1);
+            updated[members.length] = handler;
+            joined[0] = true;
+            return updated;
+        });
+        return joined[0];
+    }
+
+    /**
+     * Removes a connection from the members of a room, removing the room if it has no members left.
+     * @param room    name of the room
+     * @param handler handler of the leaving connection
+     * @return true if the connection has left, false if it was not a member
+     */
+    public boolean leave(String room, ServerConnectionHandler handler) {
+        boolean[] left = {false};
+        rooms.computeIfPresent(room, (name, members) -> {
+            int index = indexOf(members, handler);
+            if (index < 0) return members;
+            left[0] = true;
+            if (members.length == 1) return null;
+            ServerConnectionHandler[] updated = new ServerConnectionHandler[members.length - 1];
+            System.arraycopy(members, 0, updated, 0, index);
+            System.arraycopy(members, index + 1, updated, index, members.length - index - 1);
+            return updated;
+        });
+        return left[0];
+    }
+
+    /**
+     * Removes a connection from all given rooms, e.g. after it has been closed.
+     * @param rooms   names of the rooms the connection has joined
+     * @param handler handler of the connection
+     */
+    public void leaveAll(Iterable<String> rooms, ServerConnectionHandler handler) {
+        for (String room : rooms) {
+            leave(room, handler);
+        }
+    }
+
+    /**
+     * Returns the current members of a room. The array must not be modified.
+     * @param room name of the room
+     * @return snapshot of the members, empty if the room does not exist
+     */
+    public ServerConnectionHandler[] members(String room) {
+        ServerConnectionHandler[] members = rooms.get(room);
+        return members == null ? NO_MEMBERS : members;
+    }
+
+    /**
+     * Checks if a connection is a member of a room.
+     * @param room    name of the room
+     * @param handler handler of the connection
+     * @return true if the connection has joined the room
+     */
+    public boolean isMember(String room, ServerConnectionHandler handler) {
+        return indexOf(members(room), handler) >= 0;
+    }
+
+    /**
+     * Returns the names of all rooms with their current number of members.
+     * @return number of members by room name, sorted by name
+     */
+    public Map<String, Integer> roomSizes() {
+        Map<String, Integer> sizes = new TreeMap<>();
+        rooms.forEach((name, members) -> sizes.put(name, members.length));
+        return sizes;
+    }
+
+    private static int indexOf(ServerConnectionHandler[] members, ServerConnectionHandler handler) {
+        for (int i = 0; i < members.length; i++) {
+            if (members[i] == handler) return i;
+        }
+        return -1;
+    }
+}
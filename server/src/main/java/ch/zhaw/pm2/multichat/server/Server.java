@@ -1,105 +1,269 @@
-package ch.zhaw.pm2.multichat.server;
-
-import ch.zhaw.pm2.multichat.protocol.NetworkHandler;
-
-import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-
-
-/**
- * This class is responsible for launching a new server instance
- */
-public class Server {
-
-    /** Network server for incoming connections. */
-    private NetworkHandler.NetworkServer<String> networkServer;
-
-    /** Registry for open connections. */
-    private Map<String,ServerConnectionHandler> connections = new HashMap<>();
-
-    /**
-     * Create a new server instance.
-     * @param serverPort Port to listen on.
-     * @throws IOException If the server could not be created.
-     */
-    private Server(int serverPort) throws IOException {
-        System.out.println("Create server connection");
-        networkServer = NetworkHandler.createServer(serverPort);
-        System.out.printf("Listening on %s:%d%n", networkServer.getHostAddress(), networkServer.getHostPort());
-    }
-
-    /**
-     * Start the server.
-     * Opens a network server and waits for incoming connections.
-     * For each connection a new {@link ServerConnectionHandler} is created and started in a new thread.
-     * If the network server is closed, all connections are closed and the server is stopped.
-     */
-    private void start() {
-        System.out.println("Server started.");
-        ExecutorService executorService = Executors.newCachedThreadPool();
-        while (networkServer.isAvailable()) {
-            try {
-                NetworkHandler.NetworkConnection<String> connection = networkServer.waitForConnection();
-                ServerConnectionHandler connectionHandler = new ServerConnectionHandler(connection, connections);
-                executorService.submit(connectionHandler::startReceiving);
-                System.out.printf("Connected new Client %s with IP:Port <%s:%d>%n",
-                    connectionHandler.getUserName(),
-                    connection.getRemoteHost(),
-                    connection.getRemotePort()
-                );
-            } catch (IOException e) {
-            	System.out.println("Warning: Connect failed " + e.getMessage());
-            }
-        }
-        executorService.shutdown();
-        System.out.println("Server Stopped.");
-    }
-
-    /**
-     * Terminate the server.
-     * Closes the network server, which will terminate the server and close all connections.
-     */
-    private void terminate() {
-        try {
-            System.out.println("Close server connection.");
-            networkServer.close();
-        } catch (IOException e) {
-        	System.err.println("Failed to close server connection: " + e.getMessage());
-        }
-    }
-
-    /**
-     * Main method for starting the server.
-     * It will open a network server on the given port and wait for incoming connections.
-     * If no port is specified, the default port is used (@see NetworkHandler#DEFAULT_PORT)
-     * @param args Command line arguments.
-     */
-    public static void main(String[] args) {
-        Server server = null;
-        try {
-            int port;
-            switch (args.length) {
-                case 0 -> port = NetworkHandler.DEFAULT_PORT;
-                case 1 -> port = Integer.parseInt(args[0]);
-                default -> {
-                    System.out.println("Illegal number of arguments:  [<ServerPort>]");
-                    return;
-                }
-            }
-            server = new Server(port);
-            server.start();
-        } catch (IOException e) {
-            System.err.println("Error while starting server. " + e.getMessage());
-        } finally {
-            if (server != null) {
-                System.out.println("Shutting initiated...");
-                server.terminate();
-            }
-            System.out.println("Shutdown complete.");
-        }
-    }
-
-}
+package ch.zhaw.pm2.multichat.server;
+
+import ch.zhaw.pm2.multichat.protocol.Log;
+import ch.zhaw.pm2.multichat.protocol.Message;
+import ch.zhaw.pm2.multichat.protocol.NetworkHandler;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+
+/**
+ * This class is responsible for launching a new server instance
+ */
+public class Server {
+
+    /**
+     * Defines how the connections of the server are served
+     */
+    public enum ExecutionMode {
+        /** Blocking connections, each served by its own thread of an unbounded thread pool */
+        THREAD_POOL,
+        /** Blocking connections, each served by its own virtual thread */
+        VIRTUAL_THREADS,
+        /** Non-blocking connections, all served by a fixed number of selector based event loops */
+        EVENT_LOOP
+    }
+
+    /** Execution mode used if none is specified on the command line. */
+    public static final ExecutionMode DEFAULT_EXECUTION_MODE = ExecutionMode.THREAD_POOL;
+
+    /** Log of the server. */
+    private static final Log LOG = Log.get("server");
+
+    /** Network server for incoming connections. */
+    private NetworkHandler.NetworkServer<Message> networkServer;
+
+    /** Execution mode defining how connections are served. */
+    private final ExecutionMode executionMode;
+
+    /** Tunable settings of the server. */
+    private final ServerSettings settings;
+
+    /** Registry for open connections. */
+    private final ConnectionRegistry connections = new ConnectionRegistry();
+
+    /** Metrics of the server, exposed through JMX and the metrics endpoint. */
+    private final ServerMetrics metrics = new ServerMetrics(connections);
+
+    /** Rate limits of the messages received from clients, changeable through JMX. */
+    private final RateLimits rateLimits;
+
+    /** Closes connections which do not register or stop answering heartbeats. */
+    private final HeartbeatMonitor heartbeats;
+
+    /** Endpoint serving the metrics as plain text, null if disabled. */
+    private MetricsEndpoint metricsEndpoint;
+
+    /** Durable log of the messages, replayed to connecting clients, null if disabled. */
+    private MessageLog messageLog;
+
+    /** Durable queues of direct messages to users which are not connected, null if disabled. */
+    private OfflineQueues offlineQueues;
+
+    /** Node relaying messages to the other servers of the cluster, null if running standalone. */
+    private ClusterNode cluster;
+
+    /**
+     * Create a new server instance.
+     * Several instances can run in the same JVM, e.g. as nodes of a cluster on one machine, if they use different
+     * ports and directories.
+     * @param serverPort Port to listen on.
+     * @param executionMode How the connections are served.
+     * @param settings Tunable settings of the server.
+     * @throws IOException If the server could not be created.
+     */
+    public Server(int serverPort, ExecutionMode executionMode, ServerSettings settings) throws IOException {
+        LOG.info("Create server connection (%s, %s)", executionMode, settings.getWireFormat());
+        this.executionMode = executionMode;
+        this.settings = settings;
+        this.rateLimits = new RateLimits(settings);
+        this.heartbeats = new HeartbeatMonitor(settings);
+        networkServer = switch (executionMode) {
+            case THREAD_POOL, VIRTUAL_THREADS ->
+                NetworkHandler.createServer(serverPort, settings.getWireFormat()::newCodec, settings.getSocketOptions());
+            case EVENT_LOOP -> NetworkHandler.createEventDrivenServer(serverPort, NetworkHandler.DEFAULT_EVENT_LOOPS,
+                settings.getWireFormat()::newCodec, settings.getSocketOptions());
+        };
+        LOG.info("Listening on %s:%d", networkServer.getHostAddress(), networkServer.getHostPort());
+        startMetrics();
+        rateLimits.registerMBean();
+        openMessageLog();
+        openOfflineQueues();
+        openCluster();
+    }
+
+    /**
+     * Opens the message log, unless disabled. The server also runs without the log if it can not be opened, e.g.
+     * because its directory is not writable, the messages are then neither logged nor replayed.
+     */
+    private void openMessageLog() {
+        if (settings.getMessageLogDirectory().isBlank()) return;
+        try {
+            messageLog = new MessageLog(Path.of(settings.getMessageLogDirectory()), settings.getMessageLogSegmentSize(),
+                settings.getMessageLogSegments(), settings.getReplayCount(), settings.getWireFormat());
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Failed to open message log %s", e.getMessage());
+        }
+    }
+
+    /**
+     * Starts collecting the metrics and exposes them through JMX and, unless disabled, the metrics endpoint.
+     * The server also runs if the metrics endpoint can not be opened, e.g. because its port is in use.
+     */
+    private void startMetrics() {
+        metrics.startSampling();
+        metrics.registerMBean();
+        if (settings.getMetricsPort() > 0) {
+            try {
+                metricsEndpoint = new MetricsEndpoint(settings.getMetricsPort(), metrics);
+                LOG.info("Metrics available on http://localhost:%d%s", metricsEndpoint.getPort(), MetricsEndpoint.PATH);
+            } catch (IOException e) {
+                LOG.warn("Failed to open metrics endpoint %s", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Opens the offline queues, unless disabled. If they can not be opened, the server runs without them and rejects
+     * direct messages to users which are not connected.
+     */
+    private void openOfflineQueues() {
+        if (settings.getOfflineQueueDirectory().isBlank()) return;
+        try {
+            offlineQueues = new OfflineQueues(Path.of(settings.getOfflineQueueDirectory()),
+                settings.getOfflineQueueQuota(), settings.getOfflineQueueUsers());
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Failed to open offline queues %s", e.getMessage());
+        }
+    }
+
+    /**
+     * Joins the cluster, unless running standalone. If the cluster port can not be opened, the server runs
+     * standalone.
+     */
+    private void openCluster() {
+        if (settings.getClusterPort() == 0) return;
+        try {
+            cluster = new ClusterNode(settings, connections, messageLog, offlineQueues);
+        } catch (IOException e) {
+            LOG.warn("Failed to open cluster port %s", e.getMessage());
+        }
+    }
+
+    /**
+     * Start the server.
+     * Opens a network server and waits for incoming connections.
+     * For each connection a new {@link ServerConnectionHandler} is created and started in a new (platform or virtual)
+     * thread depending on the {@link ExecutionMode}, or for an
+     * event driven network server, attached to the event loop serving the connection.
+     * The outbound queues of the connections are drained by writer tasks running on the same executor. In event loop
+     * mode, writers never block, so a small fixed pool is sufficient.
+     * If the network server is closed, all connections are closed and the server is stopped.
+     * Blocks until the server is terminated.
+     */
+    public void start() {
+        LOG.info("Server started.");
+        ExecutorService executorService = switch (executionMode) {
+            case THREAD_POOL -> Executors.newCachedThreadPool();
+            case VIRTUAL_THREADS -> Executors.newVirtualThreadPerTaskExecutor();
+            case EVENT_LOOP -> Executors.newFixedThreadPool(NetworkHandler.DEFAULT_EVENT_LOOPS);
+        };
+        while (networkServer.isAvailable()) {
+            try {
+                NetworkHandler.NetworkConnection<Message> connection = networkServer.waitForConnection();
+                ServerConnectionHandler connectionHandler =
+                    new ServerConnectionHandler(connection, connections, executorService, settings, metrics,
+                        messageLog, offlineQueues, cluster, rateLimits);
+                connections.register(connectionHandler);
+                heartbeats.watch(connectionHandler);
+                metrics.connected();
+                if (connection.isEventDriven()) {
+                    connectionHandler.startReceiving();
+                } else {
+                    executorService.submit(connectionHandler::startReceiving);
+                }
+                if (LOG.isEnabled(Log.Level.INFO)) {
+                    LOG.info("Connected new Client %s with IP:Port <%s:%d>",
+                        connectionHandler.getUserName(),
+                        connection.getRemoteHost(),
+                        connection.getRemotePort()
+                    );
+                }
+            } catch (IOException e) {
+            	LOG.warn("Connect failed %s", e.getMessage());
+            }
+        }
+        executorService.shutdown();
+        LOG.info("Server Stopped.");
+    }
+
+    /**
+     * Terminate the server.
+     * Closes the network server, which will terminate the server and close all connections.
+     */
+    public void terminate() {
+        try {
+            LOG.info("Close server connection.");
+            if (metricsEndpoint != null) {
+                metricsEndpoint.close();
+            }
+            metrics.close();
+            rateLimits.close();
+            heartbeats.close();
+            networkServer.close();
+        } catch (IOException e) {
+        	LOG.error("Failed to close server connection: %s", e.getMessage());
+        } finally {
+            if (cluster != null) {
+                cluster.close();
+            }
+            if (messageLog != null) {
+                messageLog.close();
+            }
+            if (offlineQueues != null) {
+                offlineQueues.close();
+            }
+        }
+    }
+
+    /**
+     * Main method for starting the server.
+     * It will open a network server on the given port and wait for incoming connections.
+     * If no port is specified, the default port is used (@see NetworkHandler#DEFAULT_PORT)
+     * If no execution mode is specified, the default mode is used (@see #DEFAULT_EXECUTION_MODE)
+     * @param args Command line arguments.
+     */
+    public static void main(String[] args) {
+        Server server = null;
+        try {
+            int port = NetworkHandler.DEFAULT_PORT;
+            ExecutionMode executionMode = DEFAULT_EXECUTION_MODE;
+            switch (args.length) {
+                case 0 -> { }
+                case 1 -> port = Integer.parseInt(args[0]);
+                case 2 -> {
+                    port = Integer.parseInt(args[0]);
+                    executionMode = ExecutionMode.valueOf(args[1].toUpperCase());
+                }
+                default -> {
+                    System.out.println("Illegal number of arguments:  [<ServerPort> [THREAD_POOL|VIRTUAL_THREADS|EVENT_LOOP]]");
+                    return;
+                }
+            }
+            server = new Server(port, executionMode, ServerSettings.fromSystemProperties());
+            server.start();
+        } catch (IOException e) {
+            LOG.error("Error while starting server. %s", e.getMessage());
+        } finally {
+            if (server != null) {
+                LOG.info("Shutting initiated...");
+                server.terminate();
+            }
+            LOG.info("Shutdown complete.");
+        }
+    }
+
+}
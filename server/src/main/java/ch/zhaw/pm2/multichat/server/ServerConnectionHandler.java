@@ -1,221 +1,886 @@
-package ch.zhaw.pm2.multichat.server;
-
-import ch.zhaw.pm2.multichat.protocol.*;
-
-import java.io.EOFException;
-import java.io.IOException;
-import java.net.SocketException;
-import java.util.Map;
-import java.util.Objects;
-import java.util.concurrent.atomic.AtomicInteger;
-
-
-/**
- * This class is responsible for creating and handling connections between server and client
- * It extends the ConnectionHandler class
- */
-public class ServerConnectionHandler extends ConnectionHandler {
-
-    /** The current state of this connection */
-    private Config.State state = Config.State.NEW;
-
-	/**
-	 * Global counter to generate connection IDs
-	 */
-	private static final AtomicInteger connectionCounter = new AtomicInteger(0);
-
-    /** The network connection to be used for receiving and sending requests */
-    private final NetworkHandler.NetworkConnection<String> connection;
-
-	/**
-	 * The ID of this connection
-	 */
-	private final int connectionId = connectionCounter.incrementAndGet();
-
-	/**
-	 * Reference to the registry managing all connections
-	 */
-	private final Map<String, ServerConnectionHandler> connectionRegistry;
-
-
-	/**
-	 * The username associated with this connection
-	 * Using Anonymous-{@link #connectionId} if not specified by the client
-	 */
-	private String userName = "Anonymous-" + connectionId;
-
-
-	/**
-	 * Creates a new `ServerConnectionHandler` object with the given network connection and connection registry.
-	 * @param connection The network connection to handle.
-	 * @param registry The registry of all connections.
-	 */
-	public ServerConnectionHandler(NetworkHandler.NetworkConnection<String> connection,
-								   Map<String, ServerConnectionHandler> registry) {
-		Objects.requireNonNull(connection, "Connection must not be null");
-		Objects.requireNonNull(registry, "Registry must not be null");
-        this.connection = connection;
-		this.connectionRegistry = registry;
-	}
-
-
-	public String getUserName() {
-		return this.userName;
-	}
-
-	/**
-	 * Start receiving packages from the network connection.
-	 * It continuously receives packages from the network connection and processes it depending on the package type
-	 */
-	@Override
-	public void startReceiving() {
-		System.out.println("Starting Connection Handler for " + userName);
-		try {
-			System.out.println("Start receiving data...");
-			while (connection.isAvailable()) {
-				String data = connection.receive();
-				processData(data);
-			}
-		} catch (SocketException e) {
-			System.out.println("Connection terminated locally");
-			connectionRegistry.remove(userName);
-			System.out.println("Unregistered because connection terminated: " + userName + " " + e.getMessage());
-		} catch (EOFException e) {
-			System.out.println("Connection terminated by remote peer");
-			connectionRegistry.remove(userName);
-			System.out.println("Unregistered because connection terminated: " + userName + " " + e.getMessage());
-		} catch (IOException e) {
-			System.err.println("Communication error: " + e.getMessage());
-		} catch (ClassNotFoundException e) {
-			System.err.println("Received object of unknown type: " + e.getMessage());
-		}
-		System.out.println("Ended Connection Handler for " + userName);
-	}
-
-
-
-	/**
-	 * Processes the received data depending on the package type.
-	 * @param data The received data.
-	 */
-	@Override
-	protected void processData(String data) {
-		try {
-			Message message = parseData(data);
-			switch (message.getType()) {
-				case CONNECT -> handleConnectionRequest(message);
-				case DISCONNECT -> handleDisconnectionRequest(message);
-                case CONFIRM -> System.out.println("Not expecting to receive a CONFIRM request from client");
-				case MESSAGE -> handleMessage(message);
-				case ERROR -> handleError(message);
-				default -> System.out.println("Unknown data type received: " + message.getType());
-			}
-		} catch (ChatProtocolException error) {
-			System.err.println("Error while processing data: " + error.getMessage());
-			sendData(new Message(Config.USER_NONE, userName, Config.MessageType.ERROR, error.getMessage()));
-		}
-	}
-
-
-    /**
-     * This method sends a message object over the stored connection
-     * @param message
-     */
-    @Override
-    protected void sendData(Message message) {
-        if (connection.isAvailable()) {
-            try {
-                connection.send(message.toString());
-            } catch (SocketException e) {
-                System.err.println("Connection closed: " + e.getMessage());
-            } catch (EOFException e) {
-                System.err.println("Connection terminated by remote peer");
-            } catch (IOException e) {
-                System.err.println("Communication error: " + e.getMessage());
-            }
-        }
-    }
-
-	/**
-	 * Handles an error message.
-	 * @param message the error message
-	 */
-	@Override
-	protected void handleError(Message message) {
-		System.out.println("Received error from client (" + message.getSender() + "): " + message.getPayload());
-	}
-
-	/**
-	 * Sends a message to the appropriate client(s).
-	 * @param message the message to send
-	 * @throws ChatProtocolException if there was an error processing the message
-	 */
-	@Override
-	protected void handleMessage(Message message) throws ChatProtocolException {
-		if (state != Config.State.CONNECTED) throw new ChatProtocolException("Illegal state for message request: " + state);
-		if (Config.USER_ALL.equals(message.getReceiver())) {
-			for (ServerConnectionHandler handler : connectionRegistry.values()) {
-				handler.sendData(message);
-			}
-		} else {
-			ServerConnectionHandler handler = connectionRegistry.get(message.getReceiver());
-			if (handler != null) {
-				handler.sendData(message);
-                this.sendData(message);
-			} else {
-				this.sendData(new Message(Config.USER_NONE, userName, Config.MessageType.ERROR, "Unknown User: " + message.getReceiver()));
-			}
-		}
-	}
-
-    /**
-	 * Handles a disconnection request from a client.
-	 * @param message the disconnection message
-	 * @throws ChatProtocolException if there was an error processing the message
-	 */
-	@Override
-	protected void handleDisconnectionRequest(Message message) throws ChatProtocolException {
-		if (state == Config.State.DISCONNECTED) {
-			throw new ChatProtocolException("Illegal state for disconnect request: " + state);
-		}
-		if(state == Config.State.CONNECTED) {
-			connectionRegistry.remove(userName);
-		}
-		state = Config.State.DISCONNECTED;
-		sendData(new Message(userName, Config.USER_NONE, Config.MessageType.DISCONNECT, "User " + userName + " has successfully disconnected"));
-		stopReceiving();
-	}
-
-	/**
-	 * Handles a connection request from a client.
-	 * @param message the connection message
-	 * @throws ChatProtocolException if there was an error processing the message
-	 */
-	private void handleConnectionRequest(Message message) throws ChatProtocolException {
-		if (this.state != Config.State.NEW) throw new ChatProtocolException("Illegal state for connect request: " + state);
-		if (message.getSender() == null || message.getSender().isBlank()) message.setSender(userName);
-		if (connectionRegistry.containsKey(message.getSender()))
-			throw new ChatProtocolException("User name already taken: " + message.getSender());
-		userName = message.getSender();
-		connectionRegistry.put(userName, this);
-		sendData(new Message(Config.USER_NONE, userName, Config.MessageType.CONFIRM, Config.REGISTRATION_SUCCESSFUL + userName));
-		state = Config.State.CONNECTED;
-	}
-
-
-	/**
-	 * Stops receiving packages from the network connection.
-	 */
-	@Override
-    protected void stopReceiving() {
-        System.out.println("Closing Connection Handler for " + userName + "...");
-        try {
-            System.out.println("Stop receiving data...");
-            connection.close();
-            System.out.println("Stopped receiving data.");
-        } catch (IOException e) {
-            System.err.println("Failed to close connection." + e.getMessage());
-        }
-        System.out.println("Closed Connection Handler for " + userName);
-    }
-}
+package ch.zhaw.pm2.multichat.server;
+
+import ch.zhaw.pm2.multichat.protocol.*;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectStreamException;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Pattern;
+
+
+/**
+ * This class is responsible for creating and handling connections between server and client
+ * It extends the ConnectionHandler class
+ */
+public class ServerConnectionHandler extends ConnectionHandler {
+
+	/** Log of the connections, lifecycle details and messages are logged at debug level */
+	private static final Log LOG = Log.get("server.connection");
+
+	/** Valid room names: the room prefix followed by word characters and dashes */
+	private static final Pattern ROOM_NAME = Pattern.compile(Pattern.quote(Config.ROOM_PREFIX) + "[\\w-]+");
+
+    /** The current state of this connection */
+    private volatile Config.State state = Config.State.NEW;
+
+	/**
+	 * Global counter to generate connection IDs
+	 */
+	private static final AtomicInteger connectionCounter = new AtomicInteger(0);
+
+    /** The network connection to be used for receiving and sending requests */
+    private final NetworkHandler.NetworkConnection<Message> connection;
+
+	/**
+	 * The ID of this connection
+	 */
+	private final int connectionId = connectionCounter.incrementAndGet();
+
+	/**
+	 * Reference to the registry managing all connections
+	 */
+	private final ConnectionRegistry connectionRegistry;
+
+	/**
+	 * Frames waiting to be sent to the client, written by a separate writer task
+	 */
+	private final OutboundQueue outboundQueue;
+
+	/**
+	 * Minimum size of a frame body to be compressed, 0 if compression is disabled
+	 */
+	private final int compressionThreshold;
+
+	/**
+	 * Number of frames the client may send before it needs new credits, 0 to disable flow control
+	 */
+	private final int creditWindow;
+
+	/**
+	 * Metrics of the server, updated for every message and byte transferred
+	 */
+	private final ServerMetrics metrics;
+
+	/**
+	 * Durable log of the messages, replayed to the client on connect, null if disabled
+	 */
+	private final MessageLog messageLog;
+
+	/**
+	 * Durable queues of the direct messages to users which are not connected, null if disabled
+	 */
+	private final OfflineQueues offlineQueues;
+
+	/**
+	 * Node relaying messages to the users connected to other servers of the cluster, null if standalone
+	 */
+	private final ClusterNode cluster;
+
+	/**
+	 * Rate limiter of this connection, null if not limited
+	 */
+	private final RateLimits.Limiter rateLimiter;
+
+
+	/**
+	 * The username associated with this connection
+	 * Using Anonymous-{@link #connectionId} if not specified by the client
+	 */
+	private volatile String userName = "Anonymous-" + connectionId;
+
+	/**
+	 * Names of the rooms this connection has joined, to leave them when the connection ends
+	 */
+	private final Set<String> joinedRooms = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Flow control agreed with the client on connect, null if the client did not offer it
+	 */
+	private volatile FlowControl flowControl;
+
+	/**
+	 * Interval in milliseconds at which an idle client is sent a heartbeat, 0 if heartbeats are disabled
+	 */
+	private final int heartbeatInterval;
+
+	/**
+	 * True if the client answers heartbeats
+	 */
+	private volatile boolean heartbeatAgreed;
+
+	/**
+	 * Time the last message has been received ({@link System#nanoTime()}), checked by the {@link HeartbeatMonitor}
+	 */
+	private volatile long lastReceived = System.nanoTime();
+
+
+	/**
+	 * Creates a new `ServerConnectionHandler` object with the given network connection and connection registry,
+	 * which neither logs nor replays messages and rejects direct messages to users which are not connected.
+	 * @param connection The network connection to handle.
+	 * @param registry The registry of all connections.
+	 * @param writerExecutor The executor running the writer task of the outbound queue.
+	 * @param settings The settings of the server.
+	 * @param metrics The metrics of the server.
+	 */
+	public ServerConnectionHandler(NetworkHandler.NetworkConnection<Message> connection,
+								   ConnectionRegistry registry,
+								   Executor writerExecutor, ServerSettings settings, ServerMetrics metrics) {
+		this(connection, registry, writerExecutor, settings, metrics, null, null, null, null);
+	}
+
+	/**
+	 * Creates a new `ServerConnectionHandler` object with the given network connection and connection registry.
+	 * @param connection The network connection to handle.
+	 * @param registry The registry of all connections.
+	 * @param writerExecutor The executor running the writer task of the outbound queue.
+	 * @param settings The settings of the server.
+	 * @param metrics The metrics of the server.
+	 * @param messageLog The log all messages are appended to and replayed from, null to disable logging.
+	 * @param offlineQueues The queues of direct messages to users which are not connected, null to reject them.
+	 * @param cluster The node relaying messages to other servers of the cluster, null if the server is standalone.
+	 * @param rateLimits The rate limits of the messages received, null to not limit them.
+	 */
+	public ServerConnectionHandler(NetworkHandler.NetworkConnection<Message> connection,
+								   ConnectionRegistry registry,
+								   Executor writerExecutor, ServerSettings settings, ServerMetrics metrics,
+								   MessageLog messageLog, OfflineQueues offlineQueues, ClusterNode cluster,
+								   RateLimits rateLimits) {
+		Objects.requireNonNull(connection, "Connection must not be null");
+		Objects.requireNonNull(registry, "Registry must not be null");
+		Objects.requireNonNull(metrics, "Metrics must not be null");
+        this.connection = connection;
+		this.connectionRegistry = registry;
+		this.metrics = metrics;
+		connection.setTrafficListener(metrics);
+		this.outboundQueue = new OutboundQueue(connection, writerExecutor,
+			settings.getOutboundQueueCapacity(), settings.getOutboundQueuePolicy());
+		this.compressionThreshold = settings.getCompressionThreshold();
+		this.creditWindow = settings.getCreditWindow();
+		this.heartbeatInterval = settings.getHeartbeatInterval();
+		this.messageLog = messageLog;
+		this.offlineQueues = offlineQueues;
+		this.cluster = cluster;
+		this.rateLimiter = rateLimits == null ? null : rateLimits.newLimiter();
+	}
+
+
+	public String getUserName() {
+		return this.userName;
+	}
+
+	/**
+	 * @return live view of the names of the rooms this connection has joined
+	 */
+	public Set<String> getJoinedRooms() {
+		return joinedRooms;
+	}
+
+	/**
+	 * @return the ID of this connection, unique within the server
+	 */
+	public int getConnectionId() {
+		return connectionId;
+	}
+
+	/**
+	 * Returns the number of messages waiting to be sent to this client.
+	 * A growing depth indicates a client which does not keep up with its incoming traffic.
+	 * @return depth of the outbound queue
+	 */
+	public int getOutboundQueueDepth() {
+		return outboundQueue.depth();
+	}
+
+	/**
+	 * @return the current state of the connection
+	 */
+	Config.State getState() {
+		return state;
+	}
+
+	/**
+	 * @return time the last message has been received from the client ({@link System#nanoTime()})
+	 */
+	long getLastReceived() {
+		return lastReceived;
+	}
+
+	/**
+	 * @return true if the client has agreed to answer heartbeats
+	 */
+	boolean isHeartbeatAgreed() {
+		return heartbeatAgreed;
+	}
+
+	/**
+	 * @return true if the network connection is still open
+	 */
+	boolean isOpen() {
+		return connection.isAvailable();
+	}
+
+	/**
+	 * Sends a heartbeat to the client, ahead of all queued frames.
+	 */
+	void sendHeartbeat() {
+		try {
+			if (outboundQueue.offerControl(connection.encode(
+				new Message(Config.USER_NONE, userName, Config.MessageType.HEARTBEAT, null)))) {
+				metrics.messageSent(Config.MessageType.HEARTBEAT);
+			}
+		} catch (IOException e) {
+			LOG.error("Failed to encode message: %s", e.getMessage());
+		}
+	}
+
+	/**
+	 * Closes the connection of a client considered dead, without waiting for queued frames.
+	 * The handler is unregistered as for any other closed connection, which releases the user name.
+	 * @param reason reason logged for closing the connection
+	 */
+	void timeout(String reason) {
+		LOG.info("%s, closing connection of %s", reason, userName);
+		try {
+			connection.close();
+		} catch (IOException e) {
+			LOG.error("Failed to close connection. %s", e.getMessage());
+		}
+	}
+
+	/**
+	 * Start receiving packages from the network connection.
+	 * It continuously receives packages from the network connection and processes it depending on the package type.
+	 * For an event driven connection, the method registers this handler as receive listener and returns immediately.
+	 */
+	@Override
+	public void startReceiving() {
+		LOG.debug("Starting Connection Handler for %s", userName);
+		LOG.debug("Start receiving data...");
+		if (connection.isEventDriven()) {
+			connection.setReceiveListener(new NetworkHandler.ReceiveListener<>() {
+				@Override
+				public void onReceive(Message message) {
+					processData(message);
+				}
+
+				@Override
+				public void onClosed(IOException cause) {
+					connectionClosed(cause);
+				}
+			});
+			return;
+		}
+		try {
+			while (connection.isAvailable()) {
+				Message message = connection.receive();
+				processData(message);
+			}
+		} catch (IOException e) {
+			connectionClosed(e);
+			return;
+		} catch (ClassNotFoundException e) {
+			LOG.error("Received object of unknown type: %s", e.getMessage());
+			metrics.parseError();
+		} catch (RuntimeException e) {
+			LOG.error("Closing connection of %s after unexpected error: %s", userName, e);
+			try {
+				connection.close();
+			} catch (IOException closeError) {
+				LOG.debug("Failed to close connection: %s", closeError.getMessage());
+			}
+			connectionClosed(new IOException(e));
+			return;
+		}
+		LOG.debug("Ended Connection Handler for %s", userName);
+	}
+
+	/**
+	 * Unregisters this handler after the network connection has been terminated.
+	 * @param cause reason for the termination of the connection
+	 */
+	private void connectionClosed(IOException cause) {
+		connectionRegistry.unregister(this);
+		usersChanged();
+		metrics.disconnected();
+		if (cause instanceof ObjectStreamException) {
+			metrics.parseError();
+		}
+		if (cause instanceof SocketException) {
+			LOG.info("Connection terminated locally: %s", userName);
+			LOG.debug("Unregistered because connection terminated: %s %s", userName, cause.getMessage());
+		} else if (cause instanceof EOFException) {
+			LOG.info("Connection terminated by remote peer: %s", userName);
+			LOG.debug("Unregistered because connection terminated: %s %s", userName, cause.getMessage());
+		} else {
+			LOG.error("Communication error: %s", cause.getMessage());
+		}
+		LOG.debug("Ended Connection Handler for %s", userName);
+	}
+
+
+	/**
+	 * Processes the received message depending on the package type.
+	 * If flow control has been agreed, a message the client had no credit for is discarded and answered with an
+	 * error. Processed messages are credited back to the client in batches of half the window.
+	 * A message exceeding a rate limit is not processed but answered with an error telling the client when to retry.
+	 * @param message The received message.
+	 */
+	@Override
+	protected void processData(Message message) {
+		lastReceived = System.nanoTime();
+		metrics.messageReceived(message.getType());
+		FlowControl flow = flowControl;
+		boolean counted = flow != null && FlowControl.isCounted(message.getType());
+		if (counted && !flow.received()) {
+			LOG.warn("Flow control window exceeded by %s", userName);
+			metrics.protocolError();
+			sendData(new Message(Config.USER_NONE, userName, Config.MessageType.ERROR,
+				"Flow control window exceeded, message discarded"));
+			return;
+		}
+		long retryNanos = rateLimiter == null ? 0 : rateLimiter.acquire(message);
+		if (retryNanos > 0) {
+			metrics.rateLimited();
+			sendData(new Message(Config.USER_NONE, userName, Config.MessageType.ERROR, String.format(
+				"Rate limit exceeded, %s discarded, retry in %d ms", message.getType(),
+				TimeUnit.NANOSECONDS.toMillis(retryNanos) + 1)));
+		} else {
+			dispatch(message);
+		}
+		if (counted) {
+			int credits = flow.processed();
+			if (credits > 0) {
+				sendCredit(credits);
+			}
+		}
+	}
+
+	/**
+	 * Hands a received message to the handler of its type. A message violating the protocol is answered with an
+	 * error.
+	 * @param message The received message.
+	 */
+	private void dispatch(Message message) {
+		try {
+			switch (message.getType()) {
+				case CONNECT -> handleConnectionRequest(message);
+				case DISCONNECT -> handleDisconnectionRequest(message);
+                case CONFIRM -> LOG.warn("Not expecting to receive a CONFIRM request from client");
+				case MESSAGE -> handleMessage(message);
+				case ERROR -> handleError(message);
+				case JOIN -> handleJoinRequest(message);
+				case LEAVE -> handleLeaveRequest(message);
+				case LIST -> handleListRequest(message);
+				case CREDIT -> handleCredit(message);
+				case HEARTBEAT -> LOG.debug("Heartbeat from %s", userName);
+				default -> LOG.warn("Unknown data type received: %s", message.getType());
+			}
+		} catch (ChatProtocolException error) {
+			LOG.warn("Error while processing data: %s", error.getMessage());
+			metrics.protocolError();
+			sendData(new Message(Config.USER_NONE, userName, Config.MessageType.ERROR, error.getMessage()));
+		}
+	}
+
+	/**
+	 * Handles the credits granted by the client, resuming the frames waiting for them.
+	 * @param message the credit message, its payload holding the number of frames granted
+	 * @throws ChatProtocolException if flow control has not been agreed or the payload is not a positive number
+	 */
+	private void handleCredit(Message message) throws ChatProtocolException {
+		if (flowControl == null) throw new ChatProtocolException("Flow control not agreed");
+		int credits;
+		try {
+			credits = Integer.parseInt(message.getPayload());
+		} catch (NumberFormatException e) {
+			credits = 0;
+		}
+		if (credits <= 0) throw new ChatProtocolException("Invalid credit: " + message.getPayload());
+		outboundQueue.grant(credits);
+	}
+
+	/**
+	 * Grants the client new credits. The credit message is sent ahead of all queued frames.
+	 * @param credits number of frames the client may send in addition
+	 */
+	private void sendCredit(int credits) {
+		try {
+			Frame frame = connection.encode(new Message(Config.USER_NONE, userName, Config.MessageType.CREDIT,
+				String.valueOf(credits)));
+			if (outboundQueue.offerControl(frame)) {
+				metrics.messageSent(Config.MessageType.CREDIT);
+			}
+		} catch (IOException e) {
+			LOG.error("Failed to encode message: %s", e.getMessage());
+		}
+	}
+
+
+    /**
+     * This method sends a message object over the stored connection
+     * @param message
+     */
+    @Override
+    protected void sendData(Message message) {
+        try {
+            sendFrame(connection.encode(message), message.getType());
+        } catch (IOException e) {
+            LOG.error("Failed to encode message: %s", e.getMessage());
+        }
+    }
+
+    /**
+     * Queues an already encoded message to be sent over the stored connection.
+     * Returns immediately, the frame is written by the writer task of the outbound queue.
+     * The same frame may be sent to many connections, e.g. for a broadcast.
+     * @param frame the encoded message
+     * @param type the type of the encoded message, counted in the metrics
+     */
+    void sendFrame(Frame frame, Config.MessageType type) {
+        if (connection.isAvailable()) {
+            if (outboundQueue.offer(frame)) {
+                metrics.messageSent(type);
+            } else {
+                metrics.messageDropped();
+            }
+        }
+    }
+
+	/**
+	 * Handles an error message.
+	 * @param message the error message
+	 */
+	@Override
+	protected void handleError(Message message) {
+		LOG.info("Received error from client (%s): %s", message.getSender(), message.getPayload());
+	}
+
+	/**
+	 * Sends a message to the appropriate client(s).
+	 * If the message log is enabled, delivered messages are appended to it before they are queued to the recipients.
+	 * Direct messages to users which are not connected are stored in their offline queue, if enabled, and delivered
+	 * when the user registers the next time. Messages to a room are only delivered to its current members, the
+	 * sender has to be a member itself.
+	 * <p>In a cluster, broadcasts and room messages are also relayed to all other nodes, and direct messages to users
+	 * connected to another node are relayed to that node.</p>
+	 * @param message the message to send
+	 * @throws ChatProtocolException if there was an error processing the message
+	 */
+	@Override
+	protected void handleMessage(Message message) throws ChatProtocolException {
+		if (state != Config.State.CONNECTED) throw new ChatProtocolException("Illegal state for message request: " + state);
+		if (message.getReceiver() == null || message.getReceiver().isEmpty()) {
+			throw new ChatProtocolException("Message without receiver");
+		}
+		if (Config.USER_ALL.equals(message.getReceiver())) {
+			Frame frame = encode(message).shared();
+			deliver(MessageLog.Kind.BROADCAST, message, frame, () -> {
+				long start = System.nanoTime();
+				for (ServerConnectionHandler handler : connectionRegistry.namedConnections()) {
+					handler.sendFrame(frame, message.getType());
+				}
+				metrics.broadcastFannedOut(System.nanoTime() - start);
+			});
+			if (cluster != null) {
+				cluster.relayToAll(ClusterNode.RelayKind.BROADCAST, message.getSender(), message.getReceiver(), frame);
+			}
+		} else if (isRoom(message.getReceiver())) {
+			RoomRegistry rooms = connectionRegistry.getRooms();
+			if (!rooms.isMember(message.getReceiver(), this)) {
+				throw new ChatProtocolException("Not a member of room: " + message.getReceiver());
+			}
+			Frame frame = encode(message).shared();
+			for (ServerConnectionHandler handler : rooms.members(message.getReceiver())) {
+				handler.sendFrame(frame, message.getType());
+			}
+			if (cluster != null) {
+				cluster.relayToAll(ClusterNode.RelayKind.ROOM, message.getSender(), message.getReceiver(), frame);
+			}
+		} else if (cluster != null && connectionRegistry.getByName(message.getReceiver()) == null
+			&& cluster.nodeOf(message.getReceiver()) != null) {
+			Frame frame = encode(message);
+			deliver(MessageLog.Kind.DIRECT, message, frame, () -> this.sendFrame(frame, message.getType()));
+			cluster.relayDirect(message.getSender(), message.getReceiver(), frame);
+		} else if (offlineQueues == null && connectionRegistry.getByName(message.getReceiver()) == null) {
+			this.sendData(new Message(Config.USER_NONE, userName, Config.MessageType.ERROR, "Unknown User: " + message.getReceiver()));
+		} else {
+			Frame frame = encode(message);
+			OfflineQueues.StoreResult result = offlineQueues == null ? OfflineQueues.StoreResult.ONLINE
+				: offlineQueues.store(message.getReceiver(), frame,
+					() -> connectionRegistry.getByName(message.getReceiver()) == null,
+					forced -> storeCompleted(message, frame, forced));
+			switch (result) {
+				case ONLINE -> deliver(MessageLog.Kind.DIRECT, message, frame, () -> {
+					ServerConnectionHandler handler = connectionRegistry.getByName(message.getReceiver());
+					if (handler != null) {
+						handler.sendFrame(frame, message.getType());
+					}
+					this.sendFrame(frame, message.getType());
+				});
+				// the sender is answered once the message has been forced to disk
+				case STORED -> { }
+				default -> storeCompleted(message, frame, result);
+			}
+		}
+	}
+
+	/**
+	 * Answers the sender of a direct message to a user which is not connected: echoes the message if it has been
+	 * queued, or reports why not.
+	 * @param message the message
+	 * @param frame the encoded message
+	 * @param result the result of queueing the message
+	 */
+	private void storeCompleted(Message message, Frame frame, OfflineQueues.StoreResult result) {
+		switch (result) {
+			case STORED -> this.sendFrame(frame, message.getType());
+			case QUOTA_EXCEEDED -> this.sendData(new Message(Config.USER_NONE, userName, Config.MessageType.ERROR,
+				"Offline queue full: " + message.getReceiver()));
+			default -> this.sendData(new Message(Config.USER_NONE, userName, Config.MessageType.ERROR,
+				"Failed to queue message for: " + message.getReceiver()));
+		}
+	}
+
+	/**
+	 * Handles a request to join the room given as receiver. The room is created if it does not exist yet.
+	 * @param message the join message
+	 * @throws ChatProtocolException if the client is not connected or the room name is invalid
+	 */
+	private void handleJoinRequest(Message message) throws ChatProtocolException {
+		String room = requireRoom(message);
+		joinedRooms.add(room);
+		if (connectionRegistry.getRooms().join(room, this)) {
+			sendRoomResponse(Config.MessageType.JOIN, room, "Joined room " + room);
+		} else {
+			sendRoomResponse(Config.MessageType.JOIN, room, "Already a member of room " + room);
+		}
+	}
+
+	/**
+	 * Handles a request to leave the room given as receiver. The room is removed once it has no members left.
+	 * @param message the leave message
+	 * @throws ChatProtocolException if the client is not connected, the room name is invalid or the client is
+	 *                               not a member of the room
+	 */
+	private void handleLeaveRequest(Message message) throws ChatProtocolException {
+		String room = requireRoom(message);
+		if (!connectionRegistry.getRooms().leave(room, this)) {
+			throw new ChatProtocolException("Not a member of room: " + room);
+		}
+		joinedRooms.remove(room);
+		sendRoomResponse(Config.MessageType.LEAVE, room, "Left room " + room);
+	}
+
+	/**
+	 * Handles a request to list the members of the room given as receiver, or all rooms if no room is given.
+	 * @param message the list message
+	 * @throws ChatProtocolException if the client is not connected or the room name is invalid
+	 */
+	private void handleListRequest(Message message) throws ChatProtocolException {
+		if (state != Config.State.CONNECTED) throw new ChatProtocolException("Illegal state for list request: " + state);
+		String room = message.getReceiver();
+		StringJoiner list;
+		if (room == null || room.isEmpty()) {
+			list = new StringJoiner(", ", "Rooms: ", "");
+			list.setEmptyValue("No rooms");
+			for (Map.Entry<String, Integer> entry : connectionRegistry.getRooms().roomSizes().entrySet()) {
+				list.add(entry.getKey() + " (" + entry.getValue() + ")");
+			}
+		} else {
+			requireRoom(message);
+			list = new StringJoiner(", ", "Members of " + room + ": ", "");
+			list.setEmptyValue("No members in " + room);
+			for (ServerConnectionHandler handler : connectionRegistry.getRooms().members(room)) {
+				list.add(handler.getUserName());
+			}
+		}
+		sendRoomResponse(Config.MessageType.LIST, room, list.toString());
+	}
+
+	/**
+	 * Checks a room request and returns the room given as receiver.
+	 */
+	private String requireRoom(Message message) throws ChatProtocolException {
+		if (state != Config.State.CONNECTED) {
+			throw new ChatProtocolException("Illegal state for " + message.getType() + " request: " + state);
+		}
+		String room = message.getReceiver();
+		if (room == null || !ROOM_NAME.matcher(room).matches()) {
+			throw new ChatProtocolException("Invalid room name: " + room);
+		}
+		return room;
+	}
+
+	private void sendRoomResponse(Config.MessageType type, String room, String text) {
+		sendData(new Message(room == null ? Config.USER_NONE : room, userName, type, text));
+	}
+
+	/**
+	 * Publishes the changed users of this server to the cluster, if any.
+	 */
+	private void usersChanged() {
+		if (cluster != null) {
+			cluster.localUsersChanged();
+		}
+	}
+
+	private static boolean isRoom(String receiver) {
+		return receiver != null && receiver.startsWith(Config.ROOM_PREFIX);
+	}
+
+	/**
+	 * Delivers an encoded message, appending it to the message log first if enabled.
+	 * @param kind kind of the message, defining to whom it is replayed
+	 * @param message the message
+	 * @param frame the encoded message
+	 * @param delivery queues the frame to the recipients
+	 */
+	private void deliver(MessageLog.Kind kind, Message message, Frame frame, Runnable delivery) {
+		if (messageLog == null) {
+			delivery.run();
+		} else {
+			messageLog.deliver(kind, message.getSender(), message.getReceiver(), frame, delivery);
+		}
+	}
+
+	/**
+	 * Encodes a message once, so it can be delivered to several connections.
+	 * All connections of the server use the same wire format.
+	 * @param message the message to encode
+	 * @return the encoded frame
+	 * @throws ChatProtocolException if the message can not be encoded
+	 */
+	private Frame encode(Message message) throws ChatProtocolException {
+		try {
+			return connection.encode(message);
+		} catch (IOException e) {
+			throw new ChatProtocolException("Failed to encode message: " + e.getMessage());
+		}
+	}
+
+    /**
+	 * Handles a disconnection request from a client.
+	 * @param message the disconnection message
+	 * @throws ChatProtocolException if there was an error processing the message
+	 */
+	@Override
+	protected void handleDisconnectionRequest(Message message) throws ChatProtocolException {
+		if (state == Config.State.DISCONNECTED) {
+			throw new ChatProtocolException("Illegal state for disconnect request: " + state);
+		}
+		if(state == Config.State.CONNECTED) {
+			connectionRegistry.releaseName(userName, this);
+			connectionRegistry.getRooms().leaveAll(joinedRooms, this);
+			joinedRooms.clear();
+			usersChanged();
+		}
+		state = Config.State.DISCONNECTED;
+		sendData(new Message(userName, Config.USER_NONE, Config.MessageType.DISCONNECT, "User " + userName + " has successfully disconnected"));
+		stopReceiving();
+	}
+
+	/**
+	 * Handles a connection request from a client.
+	 * The payload lists the capabilities offered by the client, separated by {@value Config#CAPABILITY_DELIMITER}.
+	 * If the client offers the {@value Compression#DEFLATE} capability and compression is enabled,
+	 * the capability is accepted in the CONFIRM payload and all following frames to the client may be compressed.
+	 * <p>If the message log is enabled, the logged messages are replayed to the client right after the CONFIRM
+	 * message: all messages since the position supplied with the {@value Config#CAPABILITY_REPLAY} capability, or
+	 * the most recent broadcasts. If the client offered the capability, the CONFIRM payload contains the position to
+	 * supply on the next connect.</p>
+	 * <p>The direct messages stored in the offline queue of the user are sent in a single batch after the replayed
+	 * messages. Live messages for the client are held back until these frames are queued, so they always follow
+	 * them. The stored messages are read by the sync thread of the offline queues, the handler does not wait for
+	 * them.</p>
+	 * <p>If the client offers the {@value FlowControl#CREDIT} capability with its window and flow control is enabled,
+	 * the server accepts it with its own window. From the CONFIRM message on, both sides only send frames they have
+	 * credits for.</p>
+	 * @param message the connection message
+	 * @throws ChatProtocolException if there was an error processing the message
+	 */
+	private void handleConnectionRequest(Message message) throws ChatProtocolException {
+		if (this.state != Config.State.NEW) throw new ChatProtocolException("Illegal state for connect request: " + state);
+		if (message.getSender() == null || message.getSender().isBlank()) message.setSender(userName);
+		String requestedName = message.getSender();
+		if (isRoom(requestedName) || Config.USER_ALL.equals(requestedName))
+			throw new ChatProtocolException("Invalid user name: " + requestedName);
+		if (cluster != null && cluster.nodeOf(requestedName) != null)
+			throw new ChatProtocolException("User name already taken: " + requestedName);
+		boolean compress = false;
+		boolean heartbeat = false;
+		boolean replay = false;
+		long replayPosition = -1;
+		int clientWindow = 0;
+		if (message.getPayload() != null) {
+			for (String capability : message.getPayload().split(Config.CAPABILITY_DELIMITER)) {
+				if (FlowControl.parseCapability(capability) > 0) {
+					clientWindow = creditWindow > 0 ? FlowControl.parseCapability(capability) : 0;
+				} else if (Compression.DEFLATE.equals(capability)) {
+					compress = compressionThreshold > 0;
+				} else if (Config.CAPABILITY_HEARTBEAT.equals(capability)) {
+					heartbeat = heartbeatInterval > 0;
+				} else if (Config.CAPABILITY_REPLAY.equals(capability)) {
+					replay = true;
+				} else if (capability.startsWith(Config.CAPABILITY_REPLAY + Config.CAPABILITY_VALUE_SEPARATOR)) {
+					replay = true;
+					replayPosition = parsePosition(capability.substring(
+						Config.CAPABILITY_REPLAY.length() + Config.CAPABILITY_VALUE_SEPARATOR.length()));
+				}
+			}
+		}
+		List<String> accepted = new ArrayList<>();
+		if (compress) {
+			accepted.add(Compression.DEFLATE);
+		}
+		if (heartbeat) {
+			accepted.add(Config.CAPABILITY_HEARTBEAT + Config.CAPABILITY_VALUE_SEPARATOR + heartbeatInterval);
+		}
+		// frames offered once the name is claimed wait behind the confirmation, replayed and stored messages
+		outboundQueue.hold();
+		AtomicReference<Iterator<Frame>> replayed = new AtomicReference<>(Collections.emptyIterator());
+		boolean registered;
+		if (messageLog == null) {
+			registered = connectionRegistry.claimName(requestedName, this);
+		} else {
+			boolean acceptReplay = replay;
+			registered = messageLog.register(requestedName, replayPosition, (position, replayFrames) -> {
+				if (!connectionRegistry.claimName(requestedName, this)) return false;
+				if (acceptReplay) {
+					accepted.add(Config.CAPABILITY_REPLAY + Config.CAPABILITY_VALUE_SEPARATOR + position);
+				}
+				replayed.set(replayFrames);
+				return true;
+			});
+		}
+		if (!registered) {
+			outboundQueue.resume();
+			throw new ChatProtocolException("User name already taken: " + requestedName);
+		}
+		userName = requestedName;
+		startFlowControl(clientWindow, accepted);
+		sendFirst(confirmation(accepted), replayed.get());
+		if (compress) {
+			connection.enableCompression(compressionThreshold);
+		}
+		heartbeatAgreed = heartbeat;
+		state = Config.State.CONNECTED;
+		usersChanged();
+	}
+
+	/**
+	 * Starts flow control for all frames from the CONFIRM message on, if offered by the client and enabled.
+	 * @param clientWindow window advertised by the client, 0 if not offered
+	 * @param accepted capabilities accepted, the server window is added to them
+	 */
+	private void startFlowControl(int clientWindow, List<String> accepted) {
+		if (clientWindow <= 0) return;
+		FlowControl flow = new FlowControl(creditWindow, clientWindow);
+		outboundQueue.enableFlowControl(flow);
+		accepted.add(FlowControl.capability(creditWindow));
+		flowControl = flow;
+	}
+
+	/**
+	 * Creates the CONFIRM message of a successful registration.
+	 * @param capabilities capabilities accepted, appended to the payload if not empty
+	 * @return the confirmation
+	 */
+	private Message confirmation(List<String> capabilities) {
+		String confirmation = Config.REGISTRATION_SUCCESSFUL + userName;
+		if (!capabilities.isEmpty()) {
+			confirmation += Config.CAPABILITIES_SEPARATOR + String.join(Config.CAPABILITY_DELIMITER, capabilities);
+		}
+		return new Message(Config.USER_NONE, userName, Config.MessageType.CONFIRM, confirmation);
+	}
+
+	/**
+	 * Queues a message followed by replayed frames and the frames stored for this user while it was not connected,
+	 * ahead of all frames queued later. The message is encoded right away, but only queued once the stored frames
+	 * have been taken from the offline queues, which does not wait for the disk.
+	 * @param message the message to send first
+	 * @param replayed the frames to send after the message, read lazily by the writer task
+	 */
+	private void sendFirst(Message message, Iterator<Frame> replayed) {
+		Frame first;
+		try {
+			first = connection.encode(message);
+		} catch (IOException e) {
+			LOG.error("Failed to encode message: %s", e.getMessage());
+			outboundQueue.resume();
+			return;
+		}
+		if (offlineQueues == null) {
+			sendFirst(first, message.getType(), replayed, List.of());
+		} else {
+			offlineQueues.take(userName, stored -> sendFirst(first, message.getType(), replayed, stored));
+		}
+	}
+
+	/**
+	 * Queues an encoded message followed by replayed and stored frames ahead of all frames queued later.
+	 * @param first the encoded message to send first
+	 * @param type the type of the message
+	 * @param replayed the frames to send after the message, read lazily by the writer task
+	 * @param stored the frames to send after the replayed frames
+	 */
+	private void sendFirst(Frame first, Config.MessageType type, Iterator<Frame> replayed, List<Frame> stored) {
+		metrics.messageSent(type);
+		for (int i = 0; i < stored.size(); i++) {
+			metrics.messageSent(Config.MessageType.MESSAGE);
+		}
+		Iterator<Frame> storedFrames = stored.iterator();
+		outboundQueue.sendFirst(new Iterator<>() {
+			private boolean firstSent = false;
+
+			@Override
+			public boolean hasNext() {
+				return !firstSent || replayed.hasNext() || storedFrames.hasNext();
+			}
+
+			@Override
+			public Frame next() {
+				if (!firstSent) {
+					firstSent = true;
+					return first;
+				}
+				return replayed.hasNext() ? replayed.next() : storedFrames.next();
+			}
+		});
+	}
+
+	private static long parsePosition(String position) {
+		try {
+			return Long.parseLong(position);
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+
+	/**
+	 * Stops receiving packages from the network connection.
+	 * The connection is closed as soon the messages already queued for the client have been sent.
+	 */
+	@Override
+    protected void stopReceiving() {
+        LOG.debug("Closing Connection Handler for %s...", userName);
+        LOG.debug("Stop receiving data...");
+        outboundQueue.close();
+        LOG.debug("Closed Connection Handler for %s", userName);
+    }
+}
@@ -0,0 +1,408 @@
+package ch.zhaw.pm2.multichat.server;
+
+import ch.zhaw.pm2.multichat.protocol.Config;
+import ch.zhaw.pm2.multichat.protocol.LatencyHistogram;
+import ch.zhaw.pm2.multichat.protocol.Log;
+import ch.zhaw.pm2.multichat.protocol.NetworkHandler;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.Closeable;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of a {@link Server}: connection counts and rates, messages and bytes transferred, broadcast fan-out times,
+ * outbound queue depths and errors.
+ * Counters are {@link LongAdder}s, so the connection handlers can update them concurrently without contending on a
+ * shared variable. Gauges are computed from the {@link ConnectionRegistry} when they are read.
+ * The metrics are exposed through JMX (see {@link #registerMBean()}) and as plain text (see {@link #scrape()}),
+ * which is served by the {@link MetricsEndpoint}.
+ */
+public class ServerMetrics implements ServerMetricsMXBean, NetworkHandler.TrafficListener, Closeable {
+
+    /** Name of the MBean registered by {@link #registerMBean()} */
+    public static final String OBJECT_NAME = "ch.zhaw.pm2.multichat:type=ServerMetrics";
+
+    /** Interval in seconds at which the per second rates are calculated */
+    private static final int SAMPLING_INTERVAL = 1;
+
+    private static final Config.MessageType[] MESSAGE_TYPES = Config.MessageType.values();
+
+    private static final Log LOG = Log.get("server.metrics");
+
+    private final ConnectionRegistry connectionRegistry;
+    private final LongAdder connects = new LongAdder();
+    private final LongAdder disconnects = new LongAdder();
+    private final LongAdder[] inboundMessages = newCounters(MESSAGE_TYPES.length);
+    private final LongAdder[] outboundMessages = newCounters(MESSAGE_TYPES.length);
+    private final LongAdder droppedMessages = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder parseErrors = new LongAdder();
+    private final LongAdder protocolErrors = new LongAdder();
+    private final LongAdder rateLimited = new LongAdder();
+    private final LatencyHistogram broadcastFanoutNanos = new LatencyHistogram();
+
+    private ScheduledExecutorService sampler;
+    private ObjectName registeredName;
+    private long lastConnects;
+    private long lastDisconnects;
+    private volatile double connectsPerSecond;
+    private volatile double disconnectsPerSecond;
+
+    /**
+     * Creates the metrics of a server.
+     * @param connectionRegistry registry of the connections of the server, used to compute the gauges
+     */
+    public ServerMetrics(ConnectionRegistry connectionRegistry) {
+        this.connectionRegistry = connectionRegistry;
+    }
+
+    private static LongAdder[] newCounters(int count) {
+        LongAdder[] counters = new LongAdder[count];
+        for (int i = 0; i < count; i++) {
+            counters[i] = new LongAdder();
+        }
+        return counters;
+    }
+
+    /**
+     * Starts calculating the per second rates in a background thread.
+     * Without sampling, the rates stay 0 while all other metrics are collected.
+     */
+    public synchronized void startSampling() {
+        if (sampler != null) return;
+        sampler = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "metrics-sampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sampler.scheduleAtFixedRate(this::sample, SAMPLING_INTERVAL, SAMPLING_INTERVAL, TimeUnit.SECONDS);
+    }
+
+    private void sample() {
+        long currentConnects = connects.sum();
+        long currentDisconnects = disconnects.sum();
+        connectsPerSecond = (double) (currentConnects - lastConnects) / SAMPLING_INTERVAL;
+        disconnectsPerSecond = (double) (currentDisconnects - lastDisconnects) / SAMPLING_INTERVAL;
+        lastConnects = currentConnects;
+        lastDisconnects = currentDisconnects;
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server as {@value #OBJECT_NAME}.
+     * If another server of the same JVM has already registered its metrics, a warning is printed and the metrics of
+     * this server are only available through {@link #scrape()}.
+     */
+    public synchronized void registerMBean() {
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+            registeredName = name;
+        } catch (JMException e) {
+            LOG.warn("Failed to register metrics MBean %s", e.getMessage());
+        }
+    }
+
+    /**
+     * Stops the sampling and unregisters the MBean. Invoking this method more than once has no effect.
+     */
+    @Override
+    public synchronized void close() {
+        if (sampler != null) {
+            sampler.shutdownNow();
+            sampler = null;
+        }
+        if (registeredName != null) {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            try {
+                mBeanServer.unregisterMBean(registeredName);
+            } catch (JMException e) {
+                LOG.error("Failed to unregister metrics MBean: %s", e.getMessage());
+            }
+            registeredName = null;
+        }
+    }
+
+    /** Counts an accepted connection */
+    public void connected() {
+        connects.increment();
+    }
+
+    /** Counts a terminated connection */
+    public void disconnected() {
+        disconnects.increment();
+    }
+
+    /**
+     * Counts a message received from a client.
+     * @param type type of the message
+     */
+    public void messageReceived(Config.MessageType type) {
+        inboundMessages[type.ordinal()].increment();
+    }
+
+    /**
+     * Counts a message handed to the outbound queue of a client.
+     * @param type type of the message
+     */
+    public void messageSent(Config.MessageType type) {
+        outboundMessages[type.ordinal()].increment();
+    }
+
+    /** Counts a message discarded because the outbound queue of the recipient was full */
+    public void messageDropped() {
+        droppedMessages.increment();
+    }
+
+    /** Counts a connection closed because a frame could not be decoded */
+    public void parseError() {
+        parseErrors.increment();
+    }
+
+    /** Counts a request violating the chat protocol */
+    public void protocolError() {
+        protocolErrors.increment();
+    }
+
+    /** Counts a request rejected because the client exceeded a rate limit */
+    public void rateLimited() {
+        rateLimited.increment();
+    }
+
+    /**
+     * Records the time taken to hand a broadcast to all recipients.
+     * @param nanos fan-out time in nanoseconds
+     */
+    public void broadcastFannedOut(long nanos) {
+        broadcastFanoutNanos.record(nanos);
+    }
+
+    @Override
+    public void onBytesReceived(int count) {
+        bytesIn.add(count);
+    }
+
+    @Override
+    public void onBytesSent(int count) {
+        bytesOut.add(count);
+    }
+
+    @Override
+    public int getActiveConnections() {
+        return connectionRegistry.size();
+    }
+
+    @Override
+    public int getNamedConnections() {
+        return connectionRegistry.namedCount();
+    }
+
+    @Override
+    public long getConnects() {
+        return connects.sum();
+    }
+
+    @Override
+    public long getDisconnects() {
+        return disconnects.sum();
+    }
+
+    @Override
+    public double getConnectsPerSecond() {
+        return connectsPerSecond;
+    }
+
+    @Override
+    public double getDisconnectsPerSecond() {
+        return disconnectsPerSecond;
+    }
+
+    @Override
+    public Map<String, Long> getInboundMessages() {
+        return byMessageType(inboundMessages);
+    }
+
+    @Override
+    public Map<String, Long> getOutboundMessages() {
+        return byMessageType(outboundMessages);
+    }
+
+    private static Map<String, Long> byMessageType(LongAdder[] counters) {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (Config.MessageType type : MESSAGE_TYPES) {
+            counts.put(type.name(), counters[type.ordinal()].sum());
+        }
+        return counts;
+    }
+
+    @Override
+    public long getDroppedMessages() {
+        return droppedMessages.sum();
+    }
+
+    @Override
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    @Override
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    @Override
+    public long getParseErrors() {
+        return parseErrors.sum();
+    }
+
+    @Override
+    public long getProtocolErrors() {
+        return protocolErrors.sum();
+    }
+
+    @Override
+    public long getRateLimited() {
+        return rateLimited.sum();
+    }
+
+    @Override
+    public long getBroadcasts() {
+        return broadcastFanoutNanos.getCount();
+    }
+
+    @Override
+    public long getBroadcastFanoutMedianMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(broadcastFanoutNanos.getPercentile(50));
+    }
+
+    @Override
+    public long getBroadcastFanout99thPercentileMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(broadcastFanoutNanos.getPercentile(99));
+    }
+
+    @Override
+    public long getBroadcastFanoutMaxMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(broadcastFanoutNanos.getMax());
+    }
+
+    @Override
+    public long getOutboundQueueDepthTotal() {
+        long total = 0;
+        for (ServerConnectionHandler handler : connectionRegistry.allConnections()) {
+            total += handler.getOutboundQueueDepth();
+        }
+        return total;
+    }
+
+    @Override
+    public int getOutboundQueueDepthMax() {
+        int max = 0;
+        for (ServerConnectionHandler handler : connectionRegistry.allConnections()) {
+            max = Math.max(max, handler.getOutboundQueueDepth());
+        }
+        return max;
+    }
+
+    @Override
+    public Map<String, Integer> getOutboundQueueDepths() {
+        Map<String, Integer> depths = new TreeMap<>();
+        for (ServerConnectionHandler handler : connectionRegistry.allConnections()) {
+            depths.put(handler.getUserName(), handler.getOutboundQueueDepth());
+        }
+        return depths;
+    }
+
+    /**
+     * Renders all metrics in the plain text exposition format understood by Prometheus and similar collectors:
+     * one {@code name{labels} value} line per sample. The depth of the individual outbound queues is only listed for
+     * queues holding messages, to keep the output small on servers with many idle connections.
+     * @return the current metrics as text
+     */
+    public String scrape() {
+        StringBuilder out = new StringBuilder(4096);
+        gauge(out, "multichat_connections_active", "Open connections", getActiveConnections());
+        gauge(out, "multichat_connections_named", "Connections which have claimed a user name", getNamedConnections());
+        counter(out, "multichat_connects_total", "Accepted connections", getConnects());
+        counter(out, "multichat_disconnects_total", "Terminated connections", getDisconnects());
+        gauge(out, "multichat_connects_per_second", "Accepted connections per second", getConnectsPerSecond());
+        gauge(out, "multichat_disconnects_per_second", "Terminated connections per second", getDisconnectsPerSecond());
+        header(out, "multichat_messages_in_total", "Messages received by type", "counter");
+        for (Config.MessageType type : MESSAGE_TYPES) {
+            sample(out, "multichat_messages_in_total{type=\"" + type + "\"}", inboundMessages[type.ordinal()].sum());
+        }
+        header(out, "multichat_messages_out_total", "Messages queued for sending by type", "counter");
+        for (Config.MessageType type : MESSAGE_TYPES) {
+            sample(out, "multichat_messages_out_total{type=\"" + type + "\"}", outboundMessages[type.ordinal()].sum());
+        }
+        counter(out, "multichat_messages_dropped_total", "Messages discarded by full outbound queues", getDroppedMessages());
+        counter(out, "multichat_bytes_in_total", "Bytes received", getBytesIn());
+        counter(out, "multichat_bytes_out_total", "Bytes sent", getBytesOut());
+        counter(out, "multichat_parse_errors_total", "Connections closed because of undecodable frames", getParseErrors());
+        counter(out, "multichat_protocol_errors_total", "Requests violating the chat protocol", getProtocolErrors());
+        counter(out, "multichat_rate_limited_total", "Requests rejected because of a rate limit", getRateLimited());
+        header(out, "multichat_broadcast_fanout_seconds", "Time to queue a broadcast for all recipients", "summary");
+        for (String quantile : new String[] {"0.5", "0.9", "0.99", "0.999"}) {
+            sample(out, "multichat_broadcast_fanout_seconds{quantile=\"" + quantile + "\"}",
+                broadcastFanoutNanos.getPercentile(Double.parseDouble(quantile) * 100) / 1e9);
+        }
+        sample(out, "multichat_broadcast_fanout_seconds_count", broadcastFanoutNanos.getCount());
+        gauge(out, "multichat_broadcast_fanout_max_seconds", "Longest broadcast fan-out",
+            broadcastFanoutNanos.getMax() / 1e9);
+        header(out, "multichat_outbound_queue_depth", "Messages waiting to be sent to a connection", "gauge");
+        long total = 0;
+        int max = 0;
+        for (ServerConnectionHandler handler : connectionRegistry.allConnections()) {
+            int depth = handler.getOutboundQueueDepth();
+            if (depth > 0) {
+                sample(out, "multichat_outbound_queue_depth{connection=\"" + handler.getConnectionId()
+                    + "\",user=\"" + escape(handler.getUserName()) + "\"}", depth);
+            }
+            total += depth;
+            max = Math.max(max, depth);
+        }
+        gauge(out, "multichat_outbound_queue_depth_total", "Messages waiting in all outbound queues", total);
+        gauge(out, "multichat_outbound_queue_depth_max", "Depth of the fullest outbound queue", max);
+        return out.toString();
+    }
+
+    private static void counter(StringBuilder out, String name, String help, long value) {
+        header(out, name, help, "counter");
+        sample(out, name, value);
+    }
+
+    private static void gauge(StringBuilder out, String name, String help, long value) {
+        header(out, name, help, "gauge");
+        sample(out, name, value);
+    }
+
+    private static void gauge(StringBuilder out, String name, String help, double value) {
+        header(out, name, help, "gauge");
+        sample(out, name, value);
+    }
+
+    private static void header(StringBuilder out, String name, String help, String type) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, long value) {
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, double value) {
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static String escape(String label) {
+        return label.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
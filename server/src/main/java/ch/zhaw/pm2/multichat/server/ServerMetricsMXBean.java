@@ -0,0 +1,74 @@
+package ch.zhaw.pm2.multichat.server;
+
+import java.util.Map;
+
+/**
+ * Management interface of the {@link ServerMetrics}, registered with the platform MBean server as
+ * {@value ServerMetrics#OBJECT_NAME}, so the metrics can be inspected using JConsole, VisualVM or any JMX client.
+ * Counters are totals since the server has been started, gauges reflect the current state.
+ */
+public interface ServerMetricsMXBean {
+
+    /** @return number of open connections, including those which have not yet claimed a user name */
+    int getActiveConnections();
+
+    /** @return number of connections which have claimed a user name */
+    int getNamedConnections();
+
+    /** @return total number of accepted connections */
+    long getConnects();
+
+    /** @return total number of terminated connections */
+    long getDisconnects();
+
+    /** @return accepted connections per second, averaged over the last sampling interval */
+    double getConnectsPerSecond();
+
+    /** @return terminated connections per second, averaged over the last sampling interval */
+    double getDisconnectsPerSecond();
+
+    /** @return number of messages received from clients by message type */
+    Map<String, Long> getInboundMessages();
+
+    /** @return number of messages queued to be sent to clients by message type */
+    Map<String, Long> getOutboundMessages();
+
+    /** @return number of messages discarded because the outbound queue of the recipient was full */
+    long getDroppedMessages();
+
+    /** @return total number of bytes received, including frame headers */
+    long getBytesIn();
+
+    /** @return total number of bytes sent, including frame headers and after compression */
+    long getBytesOut();
+
+    /** @return number of connections closed because of a frame which could not be decoded */
+    long getParseErrors();
+
+    /** @return number of requests answered with an ERROR message because they violated the chat protocol */
+    long getProtocolErrors();
+
+    /** @return number of requests answered with an ERROR message because the client exceeded a rate limit */
+    long getRateLimited();
+
+    /** @return number of broadcast messages handed to the recipients */
+    long getBroadcasts();
+
+    /** @return median time to hand a broadcast to the outbound queues of all recipients in microseconds */
+    long getBroadcastFanoutMedianMicros();
+
+    /** @return 99th percentile of the broadcast fan-out time in microseconds */
+    long getBroadcastFanout99thPercentileMicros();
+
+    /** @return longest broadcast fan-out time in microseconds */
+    long getBroadcastFanoutMaxMicros();
+
+    /** @return sum of the messages waiting in all outbound queues */
+    long getOutboundQueueDepthTotal();
+
+    /** @return depth of the fullest outbound queue */
+    int getOutboundQueueDepthMax();
+
+    /** @return depth of the outbound queue of every connection by user name */
+    Map<String, Integer> getOutboundQueueDepths();
+}
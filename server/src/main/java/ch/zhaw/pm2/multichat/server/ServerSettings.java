@@ -0,0 +1,436 @@
+package ch.zhaw.pm2.multichat.server;
+
+import ch.zhaw.pm2.multichat.protocol.Compression;
+import ch.zhaw.pm2.multichat.protocol.FlowControl;
+import ch.zhaw.pm2.multichat.protocol.SocketOptions;
+import ch.zhaw.pm2.multichat.protocol.WireFormat;
+
+/**
+ * Tunable settings of a {@link Server} instance.
+ * The defaults can be overridden using system properties (e.g. {@code -Dmultichat.outboundQueueCapacity=256}),
+ * see {@link #fromSystemProperties()}.
+ */
+public class ServerSettings {
+    /** Prefix of all system properties read by {@link #fromSystemProperties()} */
+    public static final String PROPERTY_PREFIX = "multichat.";
+
+    /** Default port of the metrics endpoint, next to the default chat port */
+    public static final int DEFAULT_METRICS_PORT = 22244;
+
+    private WireFormat wireFormat = WireFormat.BINARY;
+    private int outboundQueueCapacity = 1024;
+    private OutboundQueue.OverflowPolicy outboundQueuePolicy = OutboundQueue.OverflowPolicy.DISCONNECT;
+    private SocketOptions socketOptions = new SocketOptions();
+    private int compressionThreshold = Compression.DEFAULT_THRESHOLD;
+    private int creditWindow = FlowControl.DEFAULT_WINDOW;
+    private int messageRate = 20;
+    private int messageBurst = 50;
+    private int requestRate = 5;
+    private int requestBurst = 20;
+    private int broadcastRate = 500;
+    private int broadcastBurst = 1000;
+    private int metricsPort = DEFAULT_METRICS_PORT;
+    private String messageLogDirectory = "multichat-log";
+    private int messageLogSegmentSize = 64 * 1024 * 1024;
+    private int messageLogSegments = 16;
+    private int replayCount = 100;
+    private String offlineQueueDirectory = "multichat-offline";
+    private int offlineQueueQuota = 1024 * 1024;
+    private int offlineQueueUsers = 10_000;
+    private int handshakeTimeout = 10_000;
+    private int heartbeatInterval = 30_000;
+    private int idleTimeout = 90_000;
+    private int clusterPort = 0;
+    private String clusterHost = "localhost";
+    private String clusterSeeds = "";
+    private int clusterGossipInterval = 500;
+
+    /**
+     * Creates the settings using the defaults, overridden by the matching system properties.
+     * @return settings of the server
+     * @throws IllegalArgumentException if a property has an invalid value
+     */
+    public static ServerSettings fromSystemProperties() {
+        ServerSettings settings = new ServerSettings();
+        settings.setWireFormat(WireFormat.configured());
+        settings.setSocketOptions(SocketOptions.configured());
+        settings.setCompressionThreshold(Compression.configuredThreshold());
+        settings.setCreditWindow(FlowControl.configuredWindow());
+        settings.setOutboundQueueCapacity(intProperty("outboundQueueCapacity", settings.getOutboundQueueCapacity()));
+        settings.setOutboundQueuePolicy(OutboundQueue.OverflowPolicy.valueOf(
+            stringProperty("outboundQueuePolicy", settings.getOutboundQueuePolicy().name()).toUpperCase()));
+        settings.setMetricsPort(intProperty("metricsPort", settings.getMetricsPort()));
+        settings.setMessageLogDirectory(stringProperty("messageLogDirectory", settings.getMessageLogDirectory()));
+        settings.setMessageLogSegmentSize(intProperty("messageLogSegmentSize", settings.getMessageLogSegmentSize()));
+        settings.setMessageLogSegments(intProperty("messageLogSegments", settings.getMessageLogSegments()));
+        settings.setReplayCount(intProperty("replayCount", settings.getReplayCount()));
+        settings.setOfflineQueueDirectory(stringProperty("offlineQueueDirectory", settings.getOfflineQueueDirectory()));
+        settings.setOfflineQueueQuota(intProperty("offlineQueueQuota", settings.getOfflineQueueQuota()));
+        settings.setOfflineQueueUsers(intProperty("offlineQueueUsers", settings.getOfflineQueueUsers()));
+        settings.setMessageRate(intProperty("messageRate", settings.getMessageRate()));
+        settings.setMessageBurst(intProperty("messageBurst", settings.getMessageBurst()));
+        settings.setRequestRate(intProperty("requestRate", settings.getRequestRate()));
+        settings.setRequestBurst(intProperty("requestBurst", settings.getRequestBurst()));
+        settings.setBroadcastRate(intProperty("broadcastRate", settings.getBroadcastRate()));
+        settings.setBroadcastBurst(intProperty("broadcastBurst", settings.getBroadcastBurst()));
+        settings.setHandshakeTimeout(intProperty("handshakeTimeout", settings.getHandshakeTimeout()));
+        settings.setHeartbeatInterval(intProperty("heartbeatInterval", settings.getHeartbeatInterval()));
+        settings.setIdleTimeout(intProperty("idleTimeout", settings.getIdleTimeout()));
+        settings.setClusterPort(intProperty("clusterPort", settings.getClusterPort()));
+        settings.setClusterHost(stringProperty("clusterHost", settings.getClusterHost()));
+        settings.setClusterSeeds(stringProperty("clusterSeeds", settings.getClusterSeeds()));
+        settings.setClusterGossipInterval(intProperty("clusterGossipInterval", settings.getClusterGossipInterval()));
+        return settings;
+    }
+
+    private static String stringProperty(String name, String defaultValue) {
+        return System.getProperty(PROPERTY_PREFIX + name, defaultValue);
+    }
+
+    private static int intProperty(String name, int defaultValue) {
+        return Integer.parseInt(stringProperty(name, String.valueOf(defaultValue)));
+    }
+
+    public WireFormat getWireFormat() {
+        return wireFormat;
+    }
+
+    public void setWireFormat(WireFormat wireFormat) {
+        this.wireFormat = wireFormat;
+    }
+
+    public int getOutboundQueueCapacity() {
+        return outboundQueueCapacity;
+    }
+
+    /**
+     * Sets the maximum number of frames waiting to be sent to a single client.
+     * @param outboundQueueCapacity capacity of each outbound queue (at least 1)
+     */
+    public void setOutboundQueueCapacity(int outboundQueueCapacity) {
+        if (outboundQueueCapacity < 1) throw new IllegalArgumentException("Outbound queue capacity must be positive");
+        this.outboundQueueCapacity = outboundQueueCapacity;
+    }
+
+    public OutboundQueue.OverflowPolicy getOutboundQueuePolicy() {
+        return outboundQueuePolicy;
+    }
+
+    public void setOutboundQueuePolicy(OutboundQueue.OverflowPolicy outboundQueuePolicy) {
+        this.outboundQueuePolicy = outboundQueuePolicy;
+    }
+
+    public SocketOptions getSocketOptions() {
+        return socketOptions;
+    }
+
+    /**
+     * Sets the TCP tuning applied to the server socket and to all accepted connections.
+     * @param socketOptions socket options of the server
+     */
+    public void setSocketOptions(SocketOptions socketOptions) {
+        this.socketOptions = socketOptions;
+    }
+
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    /**
+     * Sets the minimum size of a message body to be compressed, for clients which offer compression.
+     * @param compressionThreshold minimum size in bytes, 0 to never compress
+     */
+    public void setCompressionThreshold(int compressionThreshold) {
+        if (compressionThreshold < 0) throw new IllegalArgumentException("Compression threshold must not be negative");
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    public int getCreditWindow() {
+        return creditWindow;
+    }
+
+    /**
+     * Sets the number of frames a client may send before it has to wait for new credits, if the client supports
+     * {@link FlowControl}.
+     * @param creditWindow window in frames, 0 to disable flow control
+     */
+    public void setCreditWindow(int creditWindow) {
+        if (creditWindow < 0) throw new IllegalArgumentException("Credit window must not be negative");
+        this.creditWindow = creditWindow;
+    }
+
+    public int getMetricsPort() {
+        return metricsPort;
+    }
+
+    /**
+     * Sets the port of the loopback interface serving the server metrics as plain text (see {@link MetricsEndpoint}).
+     * @param metricsPort port of the metrics endpoint, 0 to disable the endpoint
+     */
+    public void setMetricsPort(int metricsPort) {
+        if (metricsPort < 0 || metricsPort > 65535) throw new IllegalArgumentException("Invalid metrics port: " + metricsPort);
+        this.metricsPort = metricsPort;
+    }
+
+    public String getMessageLogDirectory() {
+        return messageLogDirectory;
+    }
+
+    /**
+     * Sets the directory holding the segments of the {@link MessageLog}, relative to the working directory.
+     * @param messageLogDirectory directory of the message log, empty to disable logging and replay of messages
+     */
+    public void setMessageLogDirectory(String messageLogDirectory) {
+        this.messageLogDirectory = messageLogDirectory == null ? "" : messageLogDirectory;
+    }
+
+    public int getMessageLogSegmentSize() {
+        return messageLogSegmentSize;
+    }
+
+    /**
+     * Sets the size of each segment file of the message log, which is also the limit for the size of a message.
+     * @param messageLogSegmentSize segment size in bytes (at least 64 KiB)
+     */
+    public void setMessageLogSegmentSize(int messageLogSegmentSize) {
+        if (messageLogSegmentSize < 64 * 1024) throw new IllegalArgumentException("Message log segments must have at least 64 KiB");
+        this.messageLogSegmentSize = messageLogSegmentSize;
+    }
+
+    public int getMessageLogSegments() {
+        return messageLogSegments;
+    }
+
+    /**
+     * Sets the number of segments kept by the message log, older segments are deleted.
+     * @param messageLogSegments maximum number of segments (at least 2)
+     */
+    public void setMessageLogSegments(int messageLogSegments) {
+        if (messageLogSegments < 2) throw new IllegalArgumentException("Message log must keep at least 2 segments");
+        this.messageLogSegments = messageLogSegments;
+    }
+
+    public int getReplayCount() {
+        return replayCount;
+    }
+
+    /**
+     * Sets the number of recent broadcasts replayed to a client connecting without a log position.
+     * @param replayCount number of replayed broadcasts, 0 to only replay to clients supplying a position
+     */
+    public void setReplayCount(int replayCount) {
+        if (replayCount < 0) throw new IllegalArgumentException("Replay count must not be negative");
+        this.replayCount = replayCount;
+    }
+
+    public String getOfflineQueueDirectory() {
+        return offlineQueueDirectory;
+    }
+
+    /**
+     * Sets the directory holding the {@link OfflineQueues}, relative to the working directory.
+     * @param offlineQueueDirectory directory of the offline queues, empty to reject direct messages to users which are
+     *                              not connected
+     */
+    public void setOfflineQueueDirectory(String offlineQueueDirectory) {
+        this.offlineQueueDirectory = offlineQueueDirectory == null ? "" : offlineQueueDirectory;
+    }
+
+    public int getOfflineQueueQuota() {
+        return offlineQueueQuota;
+    }
+
+    /**
+     * Sets the maximum size of the messages queued for a single user which is not connected.
+     * @param offlineQueueQuota quota per user in bytes (at least 1)
+     */
+    public void setOfflineQueueQuota(int offlineQueueQuota) {
+        if (offlineQueueQuota < 1) throw new IllegalArgumentException("Offline queue quota must be positive");
+        this.offlineQueueQuota = offlineQueueQuota;
+    }
+
+    public int getOfflineQueueUsers() {
+        return offlineQueueUsers;
+    }
+
+    /**
+     * Sets the maximum number of users which are not connected and have queued messages.
+     * @param offlineQueueUsers maximum number of offline queues (at least 1)
+     */
+    public void setOfflineQueueUsers(int offlineQueueUsers) {
+        if (offlineQueueUsers < 1) throw new IllegalArgumentException("Offline queue users must be positive");
+        this.offlineQueueUsers = offlineQueueUsers;
+    }
+
+    public int getMessageRate() {
+        return messageRate;
+    }
+
+    /**
+     * Sets the initial number of messages a single user may send per second, see {@link RateLimits}.
+     * @param messageRate messages per second, 0 for no limit
+     */
+    public void setMessageRate(int messageRate) {
+        if (messageRate < 0) throw new IllegalArgumentException("Message rate must not be negative");
+        this.messageRate = messageRate;
+    }
+
+    public int getMessageBurst() {
+        return messageBurst;
+    }
+
+    /**
+     * Sets the initial number of messages a single user may send at once after being idle.
+     * @param messageBurst burst in messages (at least 1)
+     */
+    public void setMessageBurst(int messageBurst) {
+        if (messageBurst < 1) throw new IllegalArgumentException("Message burst must be positive");
+        this.messageBurst = messageBurst;
+    }
+
+    public int getRequestRate() {
+        return requestRate;
+    }
+
+    /**
+     * Sets the initial number of room requests (JOIN, LEAVE, LIST) a single user may send per second.
+     * @param requestRate requests per second, 0 for no limit
+     */
+    public void setRequestRate(int requestRate) {
+        if (requestRate < 0) throw new IllegalArgumentException("Request rate must not be negative");
+        this.requestRate = requestRate;
+    }
+
+    public int getRequestBurst() {
+        return requestBurst;
+    }
+
+    /**
+     * Sets the initial number of room requests a single user may send at once after being idle.
+     * @param requestBurst burst in requests (at least 1)
+     */
+    public void setRequestBurst(int requestBurst) {
+        if (requestBurst < 1) throw new IllegalArgumentException("Request burst must be positive");
+        this.requestBurst = requestBurst;
+    }
+
+    public int getBroadcastRate() {
+        return broadcastRate;
+    }
+
+    /**
+     * Sets the initial number of broadcasts all users together may send per second.
+     * @param broadcastRate broadcasts per second, 0 for no limit
+     */
+    public void setBroadcastRate(int broadcastRate) {
+        if (broadcastRate < 0) throw new IllegalArgumentException("Broadcast rate must not be negative");
+        this.broadcastRate = broadcastRate;
+    }
+
+    public int getBroadcastBurst() {
+        return broadcastBurst;
+    }
+
+    /**
+     * Sets the initial number of broadcasts all users together may send at once after being idle.
+     * @param broadcastBurst burst in broadcasts (at least 1)
+     */
+    public void setBroadcastBurst(int broadcastBurst) {
+        if (broadcastBurst < 1) throw new IllegalArgumentException("Broadcast burst must be positive");
+        this.broadcastBurst = broadcastBurst;
+    }
+
+    public int getHandshakeTimeout() {
+        return handshakeTimeout;
+    }
+
+    /**
+     * Sets the time a new connection has to register with a CONNECT request, see {@link HeartbeatMonitor}.
+     * @param handshakeTimeout timeout in milliseconds, 0 to wait forever
+     */
+    public void setHandshakeTimeout(int handshakeTimeout) {
+        if (handshakeTimeout < 0) throw new IllegalArgumentException("Handshake timeout must not be negative");
+        this.handshakeTimeout = handshakeTimeout;
+    }
+
+    public int getHeartbeatInterval() {
+        return heartbeatInterval;
+    }
+
+    /**
+     * Sets the time without messages from a client after which it is sent a heartbeat, if the client supports them.
+     * @param heartbeatInterval interval in milliseconds, 0 to disable heartbeats
+     */
+    public void setHeartbeatInterval(int heartbeatInterval) {
+        if (heartbeatInterval < 0) throw new IllegalArgumentException("Heartbeat interval must not be negative");
+        this.heartbeatInterval = heartbeatInterval;
+    }
+
+    public int getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    /**
+     * Sets the time without messages after which a registered client is considered dead. Should span several
+     * heartbeat intervals, clients not supporting heartbeats have to send messages on their own within it.
+     * @param idleTimeout timeout in milliseconds, 0 to keep idle clients connected
+     */
+    public void setIdleTimeout(int idleTimeout) {
+        if (idleTimeout < 0) throw new IllegalArgumentException("Idle timeout must not be negative");
+        this.idleTimeout = idleTimeout;
+    }
+
+    public int getClusterPort() {
+        return clusterPort;
+    }
+
+    /**
+     * Sets the port the {@link ClusterNode} listens on for its peers.
+     * @param clusterPort port of the cluster node, 0 to run the server standalone
+     */
+    public void setClusterPort(int clusterPort) {
+        if (clusterPort < 0 || clusterPort > 65535) throw new IllegalArgumentException("Invalid cluster port");
+        this.clusterPort = clusterPort;
+    }
+
+    public String getClusterHost() {
+        return clusterHost;
+    }
+
+    /**
+     * Sets the host name under which the peers reach the {@link ClusterNode}. Together with the cluster port it
+     * identifies the node within the cluster.
+     * @param clusterHost host name or address of this server
+     */
+    public void setClusterHost(String clusterHost) {
+        if (clusterHost == null || clusterHost.isBlank()) throw new IllegalArgumentException("Cluster host must not be empty");
+        this.clusterHost = clusterHost;
+    }
+
+    public String getClusterSeeds() {
+        return clusterSeeds;
+    }
+
+    /**
+     * Sets the nodes contacted to join the cluster. Any live node of the cluster will do, the others are learned
+     * from it.
+     * @param clusterSeeds comma separated {@code host:port} addresses of cluster ports, empty for the first node
+     */
+    public void setClusterSeeds(String clusterSeeds) {
+        this.clusterSeeds = clusterSeeds == null ? "" : clusterSeeds;
+    }
+
+    public int getClusterGossipInterval() {
+        return clusterGossipInterval;
+    }
+
+    /**
+     * Sets the interval of the gossip rounds of the {@link ClusterNode}, which also defines how fast failed nodes
+     * are detected.
+     * @param clusterGossipInterval interval in milliseconds (at least 10)
+     */
+    public void setClusterGossipInterval(int clusterGossipInterval) {
+        if (clusterGossipInterval < 10) throw new IllegalArgumentException("Cluster gossip interval must be at least 10 ms");
+        this.clusterGossipInterval = clusterGossipInterval;
+    }
+}
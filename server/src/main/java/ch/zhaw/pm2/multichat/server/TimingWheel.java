@@ -0,0 +1,151 @@
+package ch.zhaw.pm2.multichat.server;
+
+import ch.zhaw.pm2.multichat.protocol.Log;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hashed timing wheel running the timeouts of any number of connections on a single thread.
+ * <p>The wheel is an array of buckets, each covering one tick. A timeout is put into the bucket of the tick its
+ * deadline falls into, together with the number of rounds the wheel has to turn before it is due. On every tick,
+ * the worker thread only visits the timeouts of the current bucket, so scheduling costs O(1) and the cost of a tick
+ * depends on the number of timeouts per bucket, not on their total number. A bucket is visited once its tick has
+ * passed, so timeouts never fire early but up to one tick late.</p>
+ * <p>Timeouts are scheduled from any thread through a lock-free queue and handed to the buckets by the worker.
+ * Cancelled timeouts stay in their bucket until it is visited. The tasks run on the worker thread and must return
+ * quickly.</p>
+ */
+public final class TimingWheel implements Closeable {
+
+    private static final Log LOG = Log.get("server");
+
+    private final long tickNanos;
+    private final int mask;
+    private final Queue<Timeout>[] buckets;
+    private final Queue<Timeout> scheduled = new ConcurrentLinkedQueue<>();
+    private final long startTime = System.nanoTime();
+    private final Thread worker;
+    private long tick;
+    private volatile boolean closed;
+
+    /**
+     * Scheduled task, which can be cancelled until it has run.
+     */
+    public static final class Timeout {
+        private final Runnable task;
+        private final long deadline;
+        private long remainingRounds;
+        private volatile boolean cancelled;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Cancels the task, if it has not run yet.
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+    }
+
+    /**
+     * Creates a timing wheel and starts its worker thread.
+     * @param name          name of the worker thread
+     * @param tickDuration  duration of a tick, the resolution of the timeouts
+     * @param unit          unit of the tick duration
+     * @param ticksPerWheel number of buckets, rounded up to a power of two
+     */
+    public TimingWheel(String name, long tickDuration, TimeUnit unit, int ticksPerWheel) {
+        if (tickDuration <= 0) throw new IllegalArgumentException("Tick duration must be positive");
+        if (ticksPerWheel < 1 || ticksPerWheel > 1 << 20) throw new IllegalArgumentException("Invalid ticks per wheel");
+        this.tickNanos = unit.toNanos(tickDuration);
+        int size = Integer.highestOneBit(ticksPerWheel - 1) << 1;
+        size = Math.max(1, size);
+        this.mask = size - 1;
+        @SuppressWarnings("unchecked")
+        Queue<Timeout>[] buckets = (Queue<Timeout>[]) new Queue<?>[size];
+        this.buckets = buckets;
+        for (int i = 0; i < size; i++) {
+            buckets[i] = new ArrayDeque<>();
+        }
+        worker = new Thread(this::run, name);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Schedules a task to run once after the given delay.
+     * @param task  task to run on the worker thread
+     * @param delay delay until the task is due
+     * @param unit  unit of the delay
+     * @return the timeout, to cancel the task
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        Timeout timeout = new Timeout(task, System.nanoTime() + Math.max(0, unit.toNanos(delay)));
+        if (!closed) {
+            scheduled.add(timeout);
+        }
+        return timeout;
+    }
+
+    /**
+     * Worker: waits for each tick, moves newly scheduled timeouts into their buckets and runs the due timeouts of
+     * the bucket of the tick.
+     */
+    private void run() {
+        while (!closed) {
+            long tickTime = startTime + (tick + 1) * tickNanos;
+            long wait;
+            while ((wait = tickTime - System.nanoTime()) > 0 && !closed) {
+                LockSupport.parkNanos(this, wait);
+            }
+            transferScheduled();
+            expire(buckets[(int) (tick & mask)]);
+            tick++;
+        }
+    }
+
+    private void transferScheduled() {
+        Timeout timeout;
+        while ((timeout = scheduled.poll()) != null) {
+            if (timeout.cancelled) continue;
+            // the bucket of a tick is visited at its end, so the tick the deadline falls into is the first one due
+            long dueTick = Math.max(tick, (timeout.deadline - startTime) / tickNanos);
+            timeout.remainingRounds = (dueTick - tick) / buckets.length;
+            buckets[(int) (dueTick & mask)].add(timeout);
+        }
+    }
+
+    private void expire(Queue<Timeout> bucket) {
+        for (int i = bucket.size(); i > 0; i--) {
+            Timeout timeout = bucket.poll();
+            if (timeout.cancelled) continue;
+            if (timeout.remainingRounds > 0) {
+                timeout.remainingRounds--;
+                bucket.add(timeout);
+                continue;
+            }
+            try {
+                timeout.task.run();
+            } catch (RuntimeException e) {
+                LOG.error("Timeout task failed: %s", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Stops the worker thread, pending timeouts are discarded.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(worker);
+    }
+}
@@ -0,0 +1,68 @@
+package ch.zhaw.pm2.multichat.server;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket, refilled at a given rate up to a maximum burst.
+ * <p>Instead of a number of tokens, the bucket only keeps the time at which it will be full again (the theoretical
+ * arrival time of the generic cell rate algorithm) in a single {@link AtomicLong}: taking a token moves this time
+ * one interval into the future, and a token is available as long as the time lies less than the burst ahead of now.
+ * Taking a token is a single compare-and-set, so concurrent callers never block, and the limit can be changed at any
+ * time as it is passed on every call.</p>
+ */
+public class TokenBucket {
+
+    /**
+     * Rate limit applied to a bucket.
+     * @param rate  tokens added per second, 0 for no limit
+     * @param burst maximum number of tokens taken at once after the bucket has been idle
+     */
+    public record Limit(int rate, int burst) {
+        public Limit {
+            if (rate < 0) throw new IllegalArgumentException("Rate must not be negative");
+            if (rate > 0 && burst < 1) throw new IllegalArgumentException("Burst must be positive");
+        }
+
+        /** @return true if every token is granted */
+        public boolean isUnlimited() {
+            return rate == 0;
+        }
+
+        private long intervalNanos() {
+            return TimeUnit.SECONDS.toNanos(1) / rate;
+        }
+    }
+
+    /** Time at which the bucket is full again ({@link System#nanoTime()}) */
+    private final AtomicLong fullAt = new AtomicLong(System.nanoTime());
+
+    /**
+     * Takes a token if available.
+     * @param limit rate limit of the bucket
+     * @return 0 if a token has been taken, otherwise the time in nanoseconds until the next token is available
+     */
+    public long tryAcquire(Limit limit) {
+        if (limit.isUnlimited()) return 0;
+        long interval = limit.intervalNanos();
+        long tolerance = interval * limit.burst();
+        long now = System.nanoTime();
+        while (true) {
+            long current = fullAt.get();
+            long base = current - now > 0 ? current : now;
+            long next = base + interval;
+            long ahead = next - now;
+            if (ahead > tolerance) return ahead - tolerance;
+            if (fullAt.compareAndSet(current, next)) return 0;
+        }
+    }
+
+    /**
+     * Returns a token taken by {@link #tryAcquire(Limit)}, e.g. if the request has been rejected by another limit.
+     * @param limit rate limit the token has been taken with
+     */
+    public void release(Limit limit) {
+        if (limit.isUnlimited()) return;
+        fullAt.addAndGet(-limit.intervalNanos());
+    }
+}
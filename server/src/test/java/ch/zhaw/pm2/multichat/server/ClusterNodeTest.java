@@ -0,0 +1,223 @@
+package ch.zhaw.pm2.multichat.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the merging of digests and node states by the {@link ClusterNode}. The test plays a peer, speaking the
+ * cluster protocol over its own sockets.
+ */
+class ClusterNodeTest {
+
+    private static final byte PACKET_HELLO = 1;
+    private static final byte PACKET_DIGEST = 2;
+    private static final byte PACKET_STATES = 3;
+    private static final int GOSSIP_INTERVAL = 50;
+
+    private ServerSettings settings;
+    private ClusterNode node;
+    /** Cluster port of the simulated peer, the node connects to it to answer */
+    private ServerSocket peerPort;
+    private String peer;
+    /** Connection of the simulated peer to the node */
+    private Socket link;
+    private DataOutputStream out;
+
+    @BeforeEach
+    void startNode() throws IOException {
+        settings = new ServerSettings();
+        settings.setClusterHost("localhost");
+        settings.setClusterGossipInterval(GOSSIP_INTERVAL);
+        node = new ClusterNode(settings, new ConnectionRegistry(), null, null);
+        peerPort = new ServerSocket(0);
+        peer = "localhost:" + peerPort.getLocalPort();
+        int separator = node.getAddress().lastIndexOf(':');
+        link = new Socket();
+        link.connect(new InetSocketAddress("localhost", Integer.parseInt(node.getAddress().substring(separator + 1))));
+        out = new DataOutputStream(link.getOutputStream());
+        send(PACKET_HELLO, hello -> {
+            hello.writeUTF(peer);
+            hello.writeByte(settings.getWireFormat().ordinal());
+        });
+    }
+
+    @AfterEach
+    void close() throws IOException {
+        link.close();
+        peerPort.close();
+        node.close();
+    }
+
+    @Test
+    void takesOverNewerUserListsOfPeers() throws IOException {
+        sendState(peer, 1, 1, 1, List.of("bob", "carol"));
+        await(() -> peer.equals(node.nodeOf("carol")));
+        assertEquals(peer, node.nodeOf("bob"));
+        assertEquals(Set.of(peer), node.livePeers());
+
+        sendState(peer, 1, 2, 0, List.of("dave"));
+        sendState(peer, 1, 3, 2, List.of("carol", "erin"));
+        await(() -> peer.equals(node.nodeOf("erin")));
+        assertNull(node.nodeOf("bob"));
+        assertNull(node.nodeOf("dave"));
+        assertEquals(peer, node.nodeOf("carol"));
+    }
+
+    @Test
+    void takesOverUserNamesLongerThanModifiedUtf8Allows() throws IOException {
+        String longName = "\uD83D\uDE00".repeat(20000);
+        sendState(peer, 1, 1, 1, List.of(longName, "bob"));
+        await(() -> peer.equals(node.nodeOf("bob")));
+        assertEquals(peer, node.nodeOf(longName));
+    }
+
+    @Test
+    void replacesTheStateOfARestartedPeer() throws IOException {
+        sendState(peer, 1, 5, 3, List.of("bob"));
+        await(() -> peer.equals(node.nodeOf("bob")));
+
+        sendDigest(false, peer, 2, 1, -1);
+        await(() -> node.nodeOf("bob") == null);
+        assertEquals(Set.of(peer), node.livePeers());
+
+        sendState(peer, 2, 2, 0, List.of("carol"));
+        await(() -> peer.equals(node.nodeOf("carol")));
+        assertNull(node.nodeOf("bob"));
+    }
+
+    @Test
+    void ignoresStatesOfAnOlderGeneration() throws IOException {
+        sendState(peer, 2, 1, 1, List.of("bob"));
+        sendState(peer, 1, 9, 5, List.of("carol"));
+        sendState(peer, 2, 2, 2, List.of("bob", "dave"));
+        await(() -> peer.equals(node.nodeOf("dave")));
+        assertNull(node.nodeOf("carol"));
+    }
+
+    @Test
+    void answersADigestWithTheMissingStatesAndItsOwnDigest() throws IOException {
+        sendDigest(false, peer, 1, 1, -1);
+        try (Socket answer = peerPort.accept()) {
+            answer.setSoTimeout(5000);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(answer.getInputStream()));
+            assertEquals(PACKET_HELLO, readPacket(in).readByte());
+            boolean ownState = false;
+            boolean replyDigest = false;
+            while (!ownState || !replyDigest) {
+                DataInputStream packet = readPacket(in);
+                byte type = packet.readByte();
+                if (type == PACKET_STATES) {
+                    int count = packet.readInt();
+                    for (int i = 0; i < count; i++) {
+                        String address = packet.readUTF();
+                        packet.readLong();
+                        packet.readLong();
+                        assertTrue(packet.readLong() >= 0);
+                        int users = packet.readInt();
+                        for (int j = 0; j < users; j++) {
+                            packet.skipNBytes(packet.readInt());
+                        }
+                        ownState |= address.equals(node.getAddress());
+                    }
+                } else if (type == PACKET_DIGEST && packet.readBoolean()) {
+                    assertTrue(ownState, "states are sent before the digest");
+                    replyDigest = true;
+                }
+            }
+        }
+    }
+
+    @Test
+    void marksSilentPeersAsFailedUntilTheirHeartbeatAdvances() throws IOException {
+        sendState(peer, 1, 1, 1, List.of("bob"));
+        await(() -> peer.equals(node.nodeOf("bob")));
+
+        await(() -> node.livePeers().isEmpty());
+        assertNull(node.nodeOf("bob"));
+
+        sendDigest(true, peer, 1, 1, 1);
+        sendDigest(true, peer, 1, 2, 1);
+        await(() -> peer.equals(node.nodeOf("bob")));
+        assertEquals(Set.of(peer), node.livePeers());
+    }
+
+    @FunctionalInterface
+    private interface PacketWriter {
+        void write(DataOutputStream packet) throws IOException;
+    }
+
+    private void send(byte type, PacketWriter writer) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream packet = new DataOutputStream(bytes);
+        packet.writeByte(type);
+        writer.write(packet);
+        out.writeInt(bytes.size());
+        bytes.writeTo(out);
+        out.flush();
+    }
+
+    private void sendState(String address, long generation, long heartbeat, long usersVersion, List<String> users)
+        throws IOException {
+        send(PACKET_STATES, packet -> {
+            packet.writeInt(1);
+            packet.writeUTF(address);
+            packet.writeLong(generation);
+            packet.writeLong(heartbeat);
+            packet.writeLong(usersVersion);
+            packet.writeInt(users.size());
+            for (String user : users) {
+                byte[] name = user.getBytes(StandardCharsets.UTF_8);
+                packet.writeInt(name.length);
+                packet.write(name);
+            }
+        });
+    }
+
+    private void sendDigest(boolean reply, String address, long generation, long heartbeat, long usersVersion)
+        throws IOException {
+        send(PACKET_DIGEST, packet -> {
+            packet.writeBoolean(reply);
+            packet.writeInt(1);
+            packet.writeUTF(address);
+            packet.writeLong(generation);
+            packet.writeLong(heartbeat);
+            packet.writeLong(usersVersion);
+        });
+    }
+
+    private static DataInputStream readPacket(DataInputStream in) throws IOException {
+        byte[] packet = new byte[in.readInt()];
+        in.readFully(packet);
+        return new DataInputStream(new ByteArrayInputStream(packet));
+    }
+
+    private static void await(BooleanSupplier condition) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "condition not reached in time");
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                fail(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package ch.zhaw.pm2.multichat.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests claiming and releasing user names in the {@link ConnectionRegistry}, in particular concurrent claims of the
+ * same name.
+ */
+class ConnectionRegistryTest {
+
+    private static final int HANDLER_COUNT = 8;
+    private static final int ROUNDS = 200;
+
+    private final ConnectionRegistry registry = new ConnectionRegistry();
+    private Connections connections;
+    private final List<ServerConnectionHandler> handlers = new ArrayList<>();
+
+    @BeforeEach
+    void connect() throws IOException {
+        connections = new Connections();
+        for (int i = 0; i < HANDLER_COUNT; i++) {
+            handlers.add(connections.newHandler(registry));
+        }
+    }
+
+    @AfterEach
+    void disconnect() throws IOException {
+        connections.close();
+    }
+
+    @Test
+    void assignsAConcurrentlyClaimedNameToOneConnection() throws InterruptedException, ExecutionException {
+        ExecutorService executor = Executors.newFixedThreadPool(HANDLER_COUNT);
+        try {
+            for (int round = 0; round < ROUNDS; round++) {
+                String name = "user-" + round;
+                CountDownLatch start = new CountDownLatch(1);
+                List<Future<Boolean>> claims = new ArrayList<>();
+                for (ServerConnectionHandler handler : handlers) {
+                    claims.add(executor.submit(() -> {
+                        start.await();
+                        return registry.claimName(name, handler);
+                    }));
+                }
+                start.countDown();
+                ServerConnectionHandler winner = null;
+                for (int i = 0; i < HANDLER_COUNT; i++) {
+                    if (claims.get(i).get()) {
+                        assertNull(winner, "name " + name + " claimed twice");
+                        winner = handlers.get(i);
+                    }
+                }
+                assertNotNull(winner, "name " + name + " not claimed");
+                assertSame(winner, registry.getByName(name));
+                registry.releaseName(name, winner);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(0, registry.namedCount());
+    }
+
+    @Test
+    void letsTheOwnerClaimItsNameAgain() {
+        assertTrue(registry.claimName("alice", handlers.get(0)));
+        assertTrue(registry.claimName("alice", handlers.get(0)));
+        assertFalse(registry.claimName("alice", handlers.get(1)));
+        assertEquals(1, registry.namedCount());
+    }
+
+    @Test
+    void releasesANameOnlyForItsOwner() {
+        registry.claimName("alice", handlers.get(0));
+        registry.releaseName("alice", handlers.get(1));
+        assertSame(handlers.get(0), registry.getByName("alice"));
+        registry.releaseName("alice", handlers.get(0));
+        assertNull(registry.getByName("alice"));
+        assertTrue(registry.claimName("alice", handlers.get(1)));
+    }
+
+    @Test
+    void indexesConnectionsByIdAndName() {
+        ServerConnectionHandler handler = handlers.get(0);
+        registry.claimName("alice", handler);
+        assertSame(handler, registry.getById(handler.getConnectionId()));
+        assertEquals(Set.of(handler), Set.copyOf(registry.namedConnections()));
+        assertEquals(HANDLER_COUNT, registry.size());
+        assertEquals(HANDLER_COUNT, registry.allConnections().size());
+    }
+
+    @Test
+    void unregistersConnectionsOnce() {
+        ServerConnectionHandler handler = handlers.get(0);
+        registry.unregister(handler);
+        registry.unregister(handler);
+        assertNull(registry.getById(handler.getConnectionId()));
+        assertEquals(HANDLER_COUNT - 1, registry.size());
+    }
+}
@@ -0,0 +1,66 @@
+package ch.zhaw.pm2.multichat.server;
+
+import ch.zhaw.pm2.multichat.protocol.Message;
+import ch.zhaw.pm2.multichat.protocol.MessageCodec;
+import ch.zhaw.pm2.multichat.protocol.NetworkHandler;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Creates connections through the loopback interface for tests, as well as {@link ServerConnectionHandler}s serving
+ * them. The handlers are registered, but not started.
+ */
+final class Connections implements Closeable {
+    private final NetworkHandler.NetworkServer<Message> server = NetworkHandler.createServer(0, MessageCodec::new);
+    private final List<NetworkHandler.NetworkConnection<Message>> connections = new ArrayList<>();
+
+    /**
+     * A connected client and the connection accepted for it by the server.
+     */
+    record Pair(NetworkHandler.NetworkConnection<Message> client, NetworkHandler.NetworkConnection<Message> server) {
+    }
+
+    Connections() throws IOException {
+    }
+
+    /**
+     * Connects a new client.
+     * @return the client connection and the accepted connection
+     * @throws IOException if the connection could not be established
+     */
+    Pair connect() throws IOException {
+        NetworkHandler.NetworkConnection<Message> client = NetworkHandler.openConnection(
+            NetworkHandler.DEFAULT_ADDRESS, server.getHostPort(), new MessageCodec());
+        connections.add(client);
+        NetworkHandler.NetworkConnection<Message> accepted = server.waitForConnection();
+        connections.add(accepted);
+        return new Pair(client, accepted);
+    }
+
+    /**
+     * Connects a new client and creates the handler of the accepted connection.
+     * @param registry registry the handler is registered at
+     * @return the registered handler
+     * @throws IOException if the connection could not be established
+     */
+    ServerConnectionHandler newHandler(ConnectionRegistry registry) throws IOException {
+        ServerConnectionHandler handler = new ServerConnectionHandler(connect().server(), registry, Runnable::run,
+            ServerSettings.fromSystemProperties(), new ServerMetrics(registry));
+        registry.register(handler);
+        return handler;
+    }
+
+    /**
+     * Closes all connections and the server port.
+     */
+    @Override
+    public void close() throws IOException {
+        for (NetworkHandler.NetworkConnection<Message> connection : connections) {
+            connection.close();
+        }
+        server.close();
+    }
+}
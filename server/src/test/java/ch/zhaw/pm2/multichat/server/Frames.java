@@ -0,0 +1,69 @@
+package ch.zhaw.pm2.multichat.server;
+
+import ch.zhaw.pm2.multichat.protocol.Config;
+import ch.zhaw.pm2.multichat.protocol.Frame;
+import ch.zhaw.pm2.multichat.protocol.Message;
+import ch.zhaw.pm2.multichat.protocol.MessageCodec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Creates and reads the binary frames of chat messages stored by the server in tests.
+ */
+final class Frames {
+    private static final MessageCodec CODEC = new MessageCodec();
+
+    private Frames() {
+    }
+
+    /**
+     * @return frame of a MESSAGE with the given fields, in the binary wire format
+     */
+    static Frame message(String sender, String receiver, String payload) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try {
+            CODEC.encode(new Message(sender, receiver, Config.MessageType.MESSAGE, payload), body);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        ByteBuffer frame = ByteBuffer.allocate(Integer.BYTES + body.size());
+        frame.putInt(body.size()).put(body.toByteArray()).flip();
+        return Frame.wrap(frame);
+    }
+
+    /**
+     * @return payload of the message held by the given frame
+     */
+    static String payload(Frame frame) {
+        ByteBuffer buffer = frame.buffer();
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        try {
+            return CODEC.decode(bytes, Integer.BYTES, bytes.length - Integer.BYTES).getPayload();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return payloads of all messages of the given frames
+     */
+    static List<String> payloads(Iterator<Frame> frames) {
+        List<String> payloads = new ArrayList<>();
+        frames.forEachRemaining(frame -> payloads.add(payload(frame)));
+        return payloads;
+    }
+
+    /**
+     * @return payloads of all messages of the given frames
+     */
+    static List<String> payloads(List<Frame> frames) {
+        return payloads(frames.iterator());
+    }
+}
@@ -0,0 +1,63 @@
+package ch.zhaw.pm2.multichat.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests when the {@link HeartbeatMonitor} checks registered connections again.
+ */
+class HeartbeatMonitorTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final List<HeartbeatMonitor> monitors = new ArrayList<>();
+
+    @AfterEach
+    void close() {
+        monitors.forEach(HeartbeatMonitor::close);
+    }
+
+    @Test
+    void stopsCheckingWithoutIdleTimeoutAndHeartbeats() {
+        HeartbeatMonitor monitor = monitor(5000, 0);
+        assertEquals(0, monitor.nextCheckDelay(0, false));
+        assertEquals(0, monitor.nextCheckDelay(10 * SECOND, false));
+    }
+
+    @Test
+    void checksForHeartbeatsWithoutIdleTimeout() {
+        HeartbeatMonitor monitor = monitor(5000, 0);
+        assertEquals(3 * SECOND, monitor.nextCheckDelay(2 * SECOND, true));
+        assertEquals(5 * SECOND, monitor.nextCheckDelay(7 * SECOND, true));
+    }
+
+    @Test
+    void checksForTheIdleTimeoutWithoutHeartbeats() {
+        HeartbeatMonitor monitor = monitor(5000, 20000);
+        assertEquals(18 * SECOND, monitor.nextCheckDelay(2 * SECOND, false));
+        monitor = monitor(0, 20000);
+        assertEquals(18 * SECOND, monitor.nextCheckDelay(2 * SECOND, false));
+    }
+
+    @Test
+    void checksForTheEarlierOfHeartbeatAndIdleTimeout() {
+        HeartbeatMonitor monitor = monitor(5000, 20000);
+        assertEquals(3 * SECOND, monitor.nextCheckDelay(2 * SECOND, true));
+        assertEquals(2 * SECOND, monitor.nextCheckDelay(18 * SECOND, true));
+    }
+
+    private HeartbeatMonitor monitor(int heartbeatInterval, int idleTimeout) {
+        ServerSettings settings = new ServerSettings();
+        settings.setHeartbeatInterval(heartbeatInterval);
+        settings.setIdleTimeout(idleTimeout);
+        HeartbeatMonitor monitor = new HeartbeatMonitor(settings);
+        monitors.add(monitor);
+        return monitor;
+    }
+}
@@ -0,0 +1,181 @@
+package ch.zhaw.pm2.multichat.server;
+
+import ch.zhaw.pm2.multichat.protocol.Frame;
+import ch.zhaw.pm2.multichat.protocol.WireFormat;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests appending to, recovering and replaying the {@link MessageLog}.
+ */
+class MessageLogTest {
+
+    private static final int SEGMENT_SIZE = 4096;
+    /** Position of the first record, after the header of the first segment */
+    private static final long FIRST_POSITION = 16;
+
+    @TempDir
+    Path directory;
+
+    private final List<MessageLog> logs = new ArrayList<>();
+
+    @AfterEach
+    void close() {
+        logs.forEach(MessageLog::close);
+    }
+
+    @Test
+    void replaysTheMostRecentBroadcasts() throws IOException {
+        MessageLog log = open(10, 3);
+        for (int i = 0; i < 5; i++) {
+            broadcast(log, "b" + i);
+        }
+        direct(log, "alice", "bob", "dm");
+        assertEquals(List.of("b2", "b3", "b4"), replay(log, "carol", -1));
+    }
+
+    @Test
+    void replaysDirectMessagesOnlyToSenderAndReceiver() throws IOException {
+        MessageLog log = open(10, 10);
+        broadcast(log, "b0");
+        direct(log, "alice", "bob", "dm");
+        assertEquals(List.of("b0", "dm"), replay(log, "alice", FIRST_POSITION));
+        assertEquals(List.of("b0", "dm"), replay(log, "bob", FIRST_POSITION));
+        assertEquals(List.of("b0"), replay(log, "carol", FIRST_POSITION));
+    }
+
+    @Test
+    void replaysFromTheSuppliedPosition() throws IOException {
+        MessageLog log = open(10, 10);
+        broadcast(log, "b0");
+        long position = log.getEndPosition();
+        broadcast(log, "b1");
+        broadcast(log, "b2");
+        assertEquals(List.of("b1", "b2"), replay(log, "alice", position));
+        assertEquals(List.of(), replay(log, "alice", log.getEndPosition()));
+    }
+
+    @Test
+    void replaysTheRecentBroadcastsForAPositionWhichIsNoRecordStart() throws IOException {
+        MessageLog log = open(10, 2);
+        broadcast(log, "b0");
+        broadcast(log, "b1");
+        broadcast(log, "b2");
+        assertEquals(List.of("b1", "b2"), replay(log, "alice", FIRST_POSITION + 1));
+    }
+
+    @Test
+    void rollsOverToNewSegmentsAndDeletesTheOldest() throws IOException {
+        MessageLog log = open(3, 1000);
+        String payload = "x".repeat(500);
+        for (int i = 0; i < 40; i++) {
+            broadcast(log, i + payload);
+        }
+        assertEquals(3, segmentFiles().size());
+        List<String> replayed = replay(log, "alice", -1);
+        assertFalse(replayed.isEmpty());
+        assertTrue(replayed.size() < 40);
+        assertEquals("39" + payload, replayed.getLast());
+    }
+
+    @Test
+    void recoversAllSegmentsOnReopening() throws IOException {
+        MessageLog log = open(10, 100);
+        String payload = "x".repeat(500);
+        for (int i = 0; i < 20; i++) {
+            broadcast(log, i + payload);
+        }
+        direct(log, "alice", "bob", "dm");
+        long end = log.getEndPosition();
+        log.close();
+
+        MessageLog reopened = open(10, 100);
+        assertEquals(end, reopened.getEndPosition());
+        List<String> replayed = replay(reopened, "bob", FIRST_POSITION);
+        assertEquals(21, replayed.size());
+        assertEquals("0" + payload, replayed.getFirst());
+        assertEquals("dm", replayed.getLast());
+        broadcast(reopened, "after");
+        assertEquals("after", replay(reopened, "bob", end).getFirst());
+    }
+
+    @Test
+    void endsAtTheFirstRecordWithAnInvalidChecksum() throws IOException {
+        MessageLog log = open(10, 10);
+        broadcast(log, "b0");
+        broadcast(log, "b1");
+        long corrupted = log.getEndPosition();
+        broadcast(log, "b2");
+        broadcast(log, "b3");
+        log.close();
+        // flip a bit in the frame of b2, behind the record header
+        try (FileChannel file = FileChannel.open(segmentFiles().getFirst(), StandardOpenOption.READ,
+            StandardOpenOption.WRITE)) {
+            ByteBuffer value = ByteBuffer.allocate(1);
+            file.read(value, corrupted + 12);
+            file.write(ByteBuffer.wrap(new byte[] {(byte) (value.get(0) ^ 1)}), corrupted + 12);
+        }
+
+        MessageLog reopened = open(10, 10);
+        assertEquals(corrupted, reopened.getEndPosition());
+        assertEquals(List.of("b0", "b1"), replay(reopened, "alice", FIRST_POSITION));
+        broadcast(reopened, "b4");
+        assertEquals(List.of("b0", "b1", "b4"), replay(reopened, "alice", FIRST_POSITION));
+    }
+
+    @Test
+    void registrationSeesAllMessagesDeliveredBefore() throws IOException {
+        MessageLog log = open(10, 10);
+        broadcast(log, "b0");
+        List<Long> positions = new ArrayList<>();
+        boolean registered = log.register("alice", -1, (position, replay) -> {
+            positions.add(position);
+            return true;
+        });
+        assertTrue(registered);
+        assertEquals(log.getEndPosition(), positions.getFirst());
+        assertFalse(log.register("alice", -1, (position, replay) -> false));
+    }
+
+    private MessageLog open(int maxSegments, int replayCount) throws IOException {
+        MessageLog log = new MessageLog(directory, SEGMENT_SIZE, maxSegments, replayCount, WireFormat.BINARY);
+        logs.add(log);
+        return log;
+    }
+
+    private static void broadcast(MessageLog log, String payload) {
+        Frame frame = Frames.message("alice", "*", payload);
+        log.deliver(MessageLog.Kind.BROADCAST, "alice", "*", frame, () -> { });
+    }
+
+    private static void direct(MessageLog log, String sender, String receiver, String payload) {
+        Frame frame = Frames.message(sender, receiver, payload);
+        log.deliver(MessageLog.Kind.DIRECT, sender, receiver, frame, () -> { });
+    }
+
+    private static List<String> replay(MessageLog log, String userName, long fromPosition) {
+        List<Iterator<Frame>> replays = new ArrayList<>();
+        log.register(userName, fromPosition, (position, replay) -> replays.add(replay));
+        return Frames.payloads(replays.getFirst());
+    }
+
+    private List<Path> segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.toString().endsWith(".segment")).sorted().toList();
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package ch.zhaw.pm2.multichat.server;
+
+import ch.zhaw.pm2.multichat.protocol.Frame;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests storing, taking, recovering and compacting the {@link OfflineQueues}.
+ */
+class OfflineQueuesTest {
+
+    private static final Path QUEUE_FILE = Path.of("offline.queue");
+
+    @TempDir
+    Path directory;
+
+    private final List<OfflineQueues> queues = new ArrayList<>();
+
+    @AfterEach
+    void close() {
+        queues.forEach(OfflineQueues::close);
+    }
+
+    @Test
+    void handsOverTheStoredMessagesOnceInOrder() throws IOException {
+        OfflineQueues offline = open(1024 * 1024, 10);
+        assertEquals(OfflineQueues.StoreResult.STORED, store(offline, "bob", "m0"));
+        assertEquals(OfflineQueues.StoreResult.STORED, store(offline, "carol", "c0"));
+        assertEquals(OfflineQueues.StoreResult.STORED, store(offline, "bob", "m1"));
+        assertEquals(List.of("m0", "m1"), Frames.payloads(take(offline, "bob")));
+        assertEquals(List.of(), take(offline, "bob"));
+        assertEquals(List.of("c0"), Frames.payloads(take(offline, "carol")));
+    }
+
+    @Test
+    void doesNotStoreMessagesForConnectedUsers() throws IOException {
+        OfflineQueues offline = open(1024 * 1024, 10);
+        Frame frame = Frames.message("alice", "bob", "live");
+        assertEquals(OfflineQueues.StoreResult.ONLINE, offline.store("bob", frame, () -> false, forced -> fail()));
+        assertEquals(List.of(), take(offline, "bob"));
+    }
+
+    @Test
+    void rejectsMessagesBeyondTheQuotaOfAUser() throws IOException {
+        Frame frame = Frames.message("alice", "bob", "x".repeat(100));
+        OfflineQueues offline = open(3 * frame.size(), 10);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(OfflineQueues.StoreResult.STORED, store(offline, "bob", frame));
+        }
+        assertEquals(OfflineQueues.StoreResult.QUOTA_EXCEEDED, store(offline, "bob", frame));
+        assertEquals(OfflineQueues.StoreResult.STORED, store(offline, "carol", frame));
+        assertEquals(3, take(offline, "bob").size());
+        assertEquals(OfflineQueues.StoreResult.STORED, store(offline, "bob", frame));
+    }
+
+    @Test
+    void handsOverMessagesWithTheLargestQuota() throws IOException {
+        OfflineQueues offline = open(Integer.MAX_VALUE, 10);
+        assertEquals(OfflineQueues.StoreResult.STORED, store(offline, "bob", "m0"));
+        assertEquals(List.of("m0"), Frames.payloads(take(offline, "bob")));
+    }
+
+    @Test
+    void rejectsMessagesForTooManyUsers() throws IOException {
+        OfflineQueues offline = open(1024 * 1024, 2);
+        assertEquals(OfflineQueues.StoreResult.STORED, store(offline, "bob", "m0"));
+        assertEquals(OfflineQueues.StoreResult.STORED, store(offline, "carol", "c0"));
+        assertEquals(OfflineQueues.StoreResult.QUOTA_EXCEEDED, store(offline, "dave", "d0"));
+        assertEquals(OfflineQueues.StoreResult.STORED, store(offline, "bob", "m1"));
+        take(offline, "carol");
+        assertEquals(OfflineQueues.StoreResult.STORED, store(offline, "dave", "d0"));
+    }
+
+    @Test
+    void recoversTheQueuesOnReopening() throws IOException {
+        OfflineQueues offline = open(1024 * 1024, 10);
+        store(offline, "bob", "m0");
+        store(offline, "carol", "c0");
+        store(offline, "bob", "m1");
+        take(offline, "carol");
+        offline.close();
+
+        OfflineQueues reopened = open(1024 * 1024, 10);
+        assertEquals(List.of("m0", "m1"), Frames.payloads(take(reopened, "bob")));
+        assertEquals(List.of(), take(reopened, "carol"));
+    }
+
+    @Test
+    void truncatesAnIncompleteLastRecord() throws IOException {
+        OfflineQueues offline = open(1024 * 1024, 10);
+        store(offline, "bob", "m0");
+        store(offline, "bob", "m1");
+        offline.close();
+        Path file = directory.resolve(QUEUE_FILE);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+
+        OfflineQueues reopened = open(1024 * 1024, 10);
+        assertEquals(List.of("m0"), Frames.payloads(take(reopened, "bob")));
+        assertEquals(OfflineQueues.StoreResult.STORED, store(reopened, "bob", "m2"));
+        assertEquals(List.of("m2"), Frames.payloads(take(reopened, "bob")));
+    }
+
+    @Test
+    void compactsTheFileOnceMostMessagesAreDelivered() throws IOException {
+        OfflineQueues offline = open(4 * 1024 * 1024, 10);
+        String payload = "x".repeat(4096);
+        store(offline, "carol", "kept0");
+        for (int i = 0; i < 300; i++) {
+            store(offline, "bob", payload);
+        }
+        store(offline, "carol", "kept1");
+        Path file = directory.resolve(QUEUE_FILE);
+        long sizeBefore = Files.size(file);
+        assertTrue(sizeBefore > 1024 * 1024);
+
+        assertEquals(300, take(offline, "bob").size());
+        assertTrue(Files.size(file) < 1024, "size after compacting " + Files.size(file));
+        assertEquals(OfflineQueues.StoreResult.STORED, store(offline, "carol", "kept2"));
+        offline.close();
+
+        OfflineQueues reopened = open(4 * 1024 * 1024, 10);
+        assertEquals(List.of("kept0", "kept1", "kept2"), Frames.payloads(take(reopened, "carol")));
+        assertEquals(List.of(), take(reopened, "bob"));
+    }
+
+    @Test
+    void completesStoresAndTakesOnTheSyncThread() throws IOException {
+        OfflineQueues offline = open(1024 * 1024, 10);
+        CompletableFuture<String> forcedBy = new CompletableFuture<>();
+        assertEquals(OfflineQueues.StoreResult.STORED, offline.store("bob", Frames.message("alice", "bob", "m0"),
+            () -> true, forced -> forcedBy.complete(forced + " " + Thread.currentThread().getName())));
+        assertEquals("STORED offline-queue-sync", forcedBy.join());
+        CompletableFuture<String> handedOverBy = new CompletableFuture<>();
+        offline.take("bob", frames -> handedOverBy.complete(frames.size() + " " + Thread.currentThread().getName()));
+        assertEquals("1 offline-queue-sync", handedOverBy.join());
+    }
+
+    @Test
+    void handsOverNothingOnceClosed() throws IOException {
+        OfflineQueues offline = open(1024 * 1024, 10);
+        store(offline, "bob", "m0");
+        offline.close();
+        assertEquals(OfflineQueues.StoreResult.FAILED, store(offline, "bob", "m1"));
+        assertEquals(List.of(), take(offline, "bob"));
+    }
+
+    @Test
+    void keepsMessagesStoredWhileCompacting() throws Exception {
+        OfflineQueues offline = open(4 * 1024 * 1024, 10);
+        String payload = "x".repeat(4096);
+        for (int i = 0; i < 300; i++) {
+            store(offline, "bob", payload);
+        }
+        List<CompletableFuture<OfflineQueues.StoreResult>> stored = new ArrayList<>();
+        Thread sender = Thread.ofPlatform().start(() -> {
+            for (int i = 0; i < 200; i++) {
+                CompletableFuture<OfflineQueues.StoreResult> forced = new CompletableFuture<>();
+                String receiver = i % 2 == 0 ? "carol" : "dave";
+                assertEquals(OfflineQueues.StoreResult.STORED, offline.store(receiver,
+                    Frames.message("alice", receiver, "m" + i), () -> true, forced::complete));
+                stored.add(forced);
+            }
+        });
+        assertEquals(300, take(offline, "bob").size());
+        sender.join();
+        for (CompletableFuture<OfflineQueues.StoreResult> forced : stored) {
+            assertEquals(OfflineQueues.StoreResult.STORED, forced.join());
+        }
+        assertTrue(Files.size(directory.resolve(QUEUE_FILE)) < 1024 * 1024);
+        assertEquals(100, take(offline, "carol").size());
+        offline.close();
+
+        OfflineQueues reopened = open(4 * 1024 * 1024, 10);
+        List<String> expected = new ArrayList<>();
+        for (int i = 1; i < 200; i += 2) {
+            expected.add("m" + i);
+        }
+        assertEquals(expected, Frames.payloads(take(reopened, "dave")));
+        assertEquals(List.of(), take(reopened, "carol"));
+    }
+
+    @Test
+    void rejectsReceiversWithTooLongNames() throws IOException {
+        OfflineQueues offline = open(1024 * 1024, 10);
+        String receiver = "\u00e9".repeat(0x8000);
+        // the binary codec limits names as well, other wire formats do not
+        assertEquals(OfflineQueues.StoreResult.FAILED, store(offline, receiver, Frames.message("alice", "bob", "m0")));
+        assertEquals(List.of(), take(offline, receiver));
+    }
+
+    @Test
+    void compactsQueuesOfUsersWithLongNames() throws IOException {
+        OfflineQueues offline = open(4 * 1024 * 1024, 10);
+        String receiver = "\u00e9".repeat(0x7FFF);
+        store(offline, receiver, "kept0");
+        for (int i = 0; i < 300; i++) {
+            store(offline, "bob", "x".repeat(4096));
+        }
+        store(offline, receiver, "kept1");
+        assertEquals(300, take(offline, "bob").size());
+        assertTrue(Files.size(directory.resolve(QUEUE_FILE)) < 1024 * 1024);
+        offline.close();
+
+        OfflineQueues reopened = open(4 * 1024 * 1024, 10);
+        assertEquals(List.of("kept0", "kept1"), Frames.payloads(take(reopened, receiver)));
+    }
+
+    private OfflineQueues open(int quota, int maxUsers) throws IOException {
+        OfflineQueues offline = new OfflineQueues(directory, quota, maxUsers);
+        queues.add(offline);
+        return offline;
+    }
+
+    private static OfflineQueues.StoreResult store(OfflineQueues offline, String receiver, String payload) {
+        return store(offline, receiver, Frames.message("alice", receiver, payload));
+    }
+
+    /**
+     * Stores a message and waits until it has been forced to disk.
+     */
+    private static OfflineQueues.StoreResult store(OfflineQueues offline, String receiver, Frame frame) {
+        CompletableFuture<OfflineQueues.StoreResult> forced = new CompletableFuture<>();
+        OfflineQueues.StoreResult result = offline.store(receiver, frame, () -> true, forced::complete);
+        return result == OfflineQueues.StoreResult.STORED ? forced.join() : result;
+    }
+
+    /**
+     * Takes the messages of a user and waits until they are handed over.
+     */
+    private static List<Frame> take(OfflineQueues offline, String receiver) {
+        CompletableFuture<List<Frame>> handover = new CompletableFuture<>();
+        offline.take(receiver, handover::complete);
+        return handover.join();
+    }
+}
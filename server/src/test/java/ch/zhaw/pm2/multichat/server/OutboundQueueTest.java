@@ -0,0 +1,145 @@
+package ch.zhaw.pm2.multichat.server;
+
+import ch.zhaw.pm2.multichat.protocol.FlowControl;
+import ch.zhaw.pm2.multichat.protocol.Message;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the overflow policies, the backlog and the credits of the {@link OutboundQueue} of a loopback connection.
+ * The writer tasks are only run when the test calls {@link #runWriter()}, so the queue fills up deterministically.
+ */
+class OutboundQueueTest {
+
+    private final Queue<Runnable> writerTasks = new ArrayDeque<>();
+    private Connections connections;
+    private Connections.Pair pair;
+
+    @BeforeEach
+    void connect() throws IOException {
+        connections = new Connections();
+        pair = connections.connect();
+    }
+
+    @AfterEach
+    void disconnect() throws IOException {
+        connections.close();
+    }
+
+    @Test
+    void writesTheQueuedFramesInOrder() throws Exception {
+        OutboundQueue queue = newQueue(10, OutboundQueue.OverflowPolicy.DROP_NEWEST);
+        offer(queue, "one", "two", "three");
+        assertEquals(3, queue.depth());
+        runWriter();
+        assertEquals(0, queue.depth());
+        assertEquals(List.of("one", "two", "three"), receive(3));
+    }
+
+    @Test
+    void dropsTheNewestFrameOfAFullQueue() throws Exception {
+        OutboundQueue queue = newQueue(2, OutboundQueue.OverflowPolicy.DROP_NEWEST);
+        assertTrue(queue.offer(Frames.message("alice", "bob", "one")));
+        assertTrue(queue.offer(Frames.message("alice", "bob", "two")));
+        assertFalse(queue.offer(Frames.message("alice", "bob", "three")));
+        runWriter();
+        offer(queue, "four");
+        runWriter();
+        assertEquals(List.of("one", "two", "four"), receive(3));
+    }
+
+    @Test
+    void dropsTheOldestFrameOfAFullQueue() throws Exception {
+        OutboundQueue queue = newQueue(2, OutboundQueue.OverflowPolicy.DROP_OLDEST);
+        offer(queue, "one", "two");
+        assertTrue(queue.offer(Frames.message("alice", "bob", "three")));
+        assertEquals(2, queue.depth());
+        runWriter();
+        offer(queue, "four");
+        runWriter();
+        assertEquals(List.of("two", "three", "four"), receive(3));
+    }
+
+    @Test
+    void disconnectsALaggingClient() {
+        OutboundQueue queue = newQueue(2, OutboundQueue.OverflowPolicy.DISCONNECT);
+        offer(queue, "one", "two");
+        assertFalse(queue.offer(Frames.message("alice", "bob", "three")));
+        assertFalse(pair.server().isAvailable());
+        assertEquals(0, queue.depth());
+    }
+
+    @Test
+    void sendsTheBacklogBeforeFramesOfferedWhileHeld() throws Exception {
+        OutboundQueue queue = newQueue(10, OutboundQueue.OverflowPolicy.DROP_NEWEST);
+        queue.hold();
+        offer(queue, "live");
+        queue.offerControl(Frames.message("server", "alice", "control"));
+        runWriter();
+        assertEquals(List.of("control"), receive(1));
+        queue.sendFirst(List.of(Frames.message("bob", "alice", "history")).iterator());
+        runWriter();
+        assertEquals(List.of("history", "live"), receive(2));
+    }
+
+    @Test
+    void writesOnlyAsManyFramesAsCreditsWereGranted() throws Exception {
+        OutboundQueue queue = newQueue(10, OutboundQueue.OverflowPolicy.DROP_NEWEST);
+        queue.enableFlowControl(new FlowControl(10, 1));
+        offer(queue, "one", "two", "three");
+        queue.offerControl(Frames.message("server", "alice", "control"));
+        runWriter();
+        assertEquals(List.of("control", "one"), receive(2));
+        assertEquals(2, queue.depth());
+        queue.grant(2);
+        runWriter();
+        assertEquals(List.of("two", "three"), receive(2));
+    }
+
+    @Test
+    void writesTheRemainingFramesBeforeClosing() throws Exception {
+        OutboundQueue queue = newQueue(10, OutboundQueue.OverflowPolicy.DROP_NEWEST);
+        queue.enableFlowControl(new FlowControl(10, 1));
+        offer(queue, "one", "two", "three");
+        queue.close();
+        assertFalse(queue.offer(Frames.message("alice", "bob", "four")));
+        runWriter();
+        assertEquals(List.of("one", "two", "three"), receive(3));
+        assertFalse(pair.server().isAvailable());
+    }
+
+    private OutboundQueue newQueue(int capacity, OutboundQueue.OverflowPolicy policy) {
+        return new OutboundQueue(pair.server(), writerTasks::add, capacity, policy);
+    }
+
+    private static void offer(OutboundQueue queue, String... payloads) {
+        for (String payload : payloads) {
+            queue.offer(Frames.message("alice", "bob", payload));
+        }
+    }
+
+    private void runWriter() {
+        Runnable task;
+        while ((task = writerTasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    private List<String> receive(int count) throws IOException, ClassNotFoundException {
+        List<String> payloads = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Message message = pair.client().receive();
+            payloads.add(message.getPayload());
+        }
+        return payloads;
+    }
+}
@@ -0,0 +1,121 @@
+package ch.zhaw.pm2.multichat.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests joining and leaving chat rooms using the copy-on-write member arrays of the {@link RoomRegistry}.
+ */
+class RoomRegistryTest {
+
+    private static final int HANDLER_COUNT = 8;
+
+    private final ConnectionRegistry registry = new ConnectionRegistry();
+    private final RoomRegistry rooms = registry.getRooms();
+    private final List<ServerConnectionHandler> handlers = new ArrayList<>();
+    private Connections connections;
+
+    @BeforeEach
+    void connect() throws IOException {
+        connections = new Connections();
+        for (int i = 0; i < HANDLER_COUNT; i++) {
+            handlers.add(connections.newHandler(registry));
+        }
+    }
+
+    @AfterEach
+    void disconnect() throws IOException {
+        connections.close();
+    }
+
+    @Test
+    void joinsARoomOnce() {
+        assertTrue(rooms.join("java", handlers.get(0)));
+        assertFalse(rooms.join("java", handlers.get(0)));
+        assertTrue(rooms.join("java", handlers.get(1)));
+        assertArrayEquals(new ServerConnectionHandler[] {handlers.get(0), handlers.get(1)}, rooms.members("java"));
+        assertTrue(rooms.isMember("java", handlers.get(1)));
+        assertFalse(rooms.isMember("java", handlers.get(2)));
+    }
+
+    @Test
+    void removesARoomWithItsLastMember() {
+        rooms.join("java", handlers.get(0));
+        rooms.join("java", handlers.get(1));
+        assertFalse(rooms.leave("java", handlers.get(2)));
+        assertTrue(rooms.leave("java", handlers.get(0)));
+        assertArrayEquals(new ServerConnectionHandler[] {handlers.get(1)}, rooms.members("java"));
+        assertTrue(rooms.leave("java", handlers.get(1)));
+        assertEquals(0, rooms.members("java").length);
+        assertEquals(Map.of(), rooms.roomSizes());
+        assertFalse(rooms.leave("java", handlers.get(1)));
+    }
+
+    @Test
+    void keepsTheMembersReturnedBeforeAChange() {
+        rooms.join("java", handlers.get(0));
+        ServerConnectionHandler[] members = rooms.members("java");
+        rooms.join("java", handlers.get(1));
+        rooms.leave("java", handlers.get(0));
+        assertArrayEquals(new ServerConnectionHandler[] {handlers.get(0)}, members);
+    }
+
+    @Test
+    void listsTheRoomsSortedByName() {
+        rooms.join("rust", handlers.get(0));
+        rooms.join("java", handlers.get(0));
+        rooms.join("java", handlers.get(1));
+        assertEquals(List.of("java", "rust"), List.copyOf(rooms.roomSizes().keySet()));
+        assertEquals(Map.of("java", 2, "rust", 1), rooms.roomSizes());
+    }
+
+    @Test
+    void leavesAllGivenRooms() {
+        rooms.join("java", handlers.get(0));
+        rooms.join("rust", handlers.get(0));
+        rooms.join("rust", handlers.get(1));
+        rooms.leaveAll(Set.of("java", "rust"), handlers.get(0));
+        assertEquals(Map.of("rust", 1), rooms.roomSizes());
+    }
+
+    @Test
+    void keepsAllConcurrentJoinsAndLeaves() throws InterruptedException, ExecutionException {
+        ExecutorService executor = Executors.newFixedThreadPool(HANDLER_COUNT);
+        try {
+            rooms.join("java", handlers.get(0));
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> changes = new ArrayList<>();
+            for (ServerConnectionHandler handler : handlers) {
+                changes.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < 1000; i++) {
+                        rooms.join("java", handler);
+                        rooms.leave("java", handler);
+                    }
+                    return rooms.join("java", handler);
+                }));
+            }
+            start.countDown();
+            for (Future<?> change : changes) {
+                change.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(Set.copyOf(handlers), Set.of(rooms.members("java")));
+    }
+}
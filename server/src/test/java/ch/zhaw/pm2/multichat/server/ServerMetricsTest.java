@@ -0,0 +1,99 @@
+package ch.zhaw.pm2.multichat.server;
+
+import ch.zhaw.pm2.multichat.protocol.Config;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the counters of the {@link ServerMetrics} and scraping them through the {@link MetricsEndpoint}.
+ */
+class ServerMetricsTest {
+
+    private final ConnectionRegistry registry = new ConnectionRegistry();
+    private final ServerMetrics metrics = new ServerMetrics(registry);
+    private Connections connections;
+    private MetricsEndpoint endpoint;
+
+    @AfterEach
+    void close() throws IOException {
+        metrics.close();
+        if (endpoint != null) {
+            endpoint.close();
+        }
+        if (connections != null) {
+            connections.close();
+        }
+    }
+
+    @Test
+    void countsConnectionsAndMessages() {
+        metrics.connected();
+        metrics.connected();
+        metrics.disconnected();
+        metrics.messageReceived(Config.MessageType.MESSAGE);
+        metrics.messageSent(Config.MessageType.MESSAGE);
+        metrics.messageSent(Config.MessageType.MESSAGE);
+        metrics.messageSent(Config.MessageType.INFO);
+        metrics.messageDropped();
+        metrics.onBytesReceived(100);
+        metrics.onBytesSent(250);
+        assertEquals(2, metrics.getConnects());
+        assertEquals(1, metrics.getDisconnects());
+        assertEquals(1L, metrics.getInboundMessages().get("MESSAGE"));
+        assertEquals(2L, metrics.getOutboundMessages().get("MESSAGE"));
+        assertEquals(1L, metrics.getOutboundMessages().get("INFO"));
+        assertEquals(1, metrics.getDroppedMessages());
+        assertEquals(100, metrics.getBytesIn());
+        assertEquals(250, metrics.getBytesOut());
+    }
+
+    @Test
+    void rendersEverySampleInTheExpositionFormat() {
+        metrics.messageReceived(Config.MessageType.JOIN);
+        metrics.broadcastFannedOut(2_000_000);
+        String text = metrics.scrape();
+        assertTrue(text.contains("# TYPE multichat_connects_total counter\n"), text);
+        assertTrue(text.contains("multichat_messages_in_total{type=\"JOIN\"} 1\n"), text);
+        assertTrue(text.contains("multichat_broadcast_fanout_seconds_count 1\n"), text);
+        assertTrue(text.contains("multichat_broadcast_fanout_max_seconds 0.002\n"), text);
+        for (String line : text.split("\n")) {
+            assertTrue(line.startsWith("# HELP ") || line.startsWith("# TYPE ") || line.matches("\\S+ \\S+"), line);
+        }
+    }
+
+    @Test
+    void scrapesOnlyOutboundQueuesHoldingMessages() throws IOException {
+        connections = new Connections();
+        ServerConnectionHandler first = connections.newHandler(registry);
+        ServerConnectionHandler second = connections.newHandler(registry);
+        assertEquals(2, metrics.getActiveConnections());
+        assertEquals(0, metrics.getOutboundQueueDepthTotal());
+        assertEquals(Map.of(first.getUserName(), 0, second.getUserName(), 0), metrics.getOutboundQueueDepths());
+        assertFalse(metrics.scrape().contains("multichat_outbound_queue_depth{"));
+    }
+
+    @Test
+    void servesTheMetricsOverHttp() throws IOException, InterruptedException {
+        metrics.connected();
+        endpoint = new MetricsEndpoint(0, metrics);
+        URI uri = URI.create("http://localhost:" + endpoint.getPort() + MetricsEndpoint.PATH);
+        try (HttpClient client = HttpClient.newHttpClient()) {
+            HttpResponse<String> response = client.send(HttpRequest.newBuilder(uri).build(),
+                HttpResponse.BodyHandlers.ofString());
+            assertEquals(200, response.statusCode());
+            assertTrue(response.body().contains("multichat_connects_total 1\n"), response.body());
+            HttpResponse<String> post = client.send(HttpRequest.newBuilder(uri)
+                .POST(HttpRequest.BodyPublishers.noBody()).build(), HttpResponse.BodyHandlers.ofString());
+            assertEquals(405, post.statusCode());
+        }
+    }
+}
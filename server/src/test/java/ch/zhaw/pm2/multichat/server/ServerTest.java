@@ -0,0 +1,116 @@
+package ch.zhaw.pm2.multichat.server;
+
+import ch.zhaw.pm2.multichat.protocol.Config;
+import ch.zhaw.pm2.multichat.protocol.Message;
+import ch.zhaw.pm2.multichat.protocol.MessageCodec;
+import ch.zhaw.pm2.multichat.protocol.NetworkHandler;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests a {@link Server} in each {@link Server.ExecutionMode}, with clients speaking the chat protocol through the
+ * loopback interface. Logging, offline queues and the metrics endpoint are disabled.
+ */
+@Timeout(10)
+class ServerTest {
+
+    private Server server;
+    private Thread serverThread;
+    private final List<NetworkHandler.NetworkConnection<Message>> clients = new ArrayList<>();
+
+    @AfterEach
+    void terminate() throws IOException, InterruptedException {
+        for (NetworkHandler.NetworkConnection<Message> client : clients) {
+            client.close();
+        }
+        if (server != null) {
+            server.terminate();
+            serverThread.join();
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(Server.ExecutionMode.class)
+    void deliversDirectMessages(Server.ExecutionMode mode) throws Exception {
+        int port = start(mode);
+        NetworkHandler.NetworkConnection<Message> alice = connect(port, "alice");
+        NetworkHandler.NetworkConnection<Message> bob = connect(port, "bob");
+        alice.send(new Message("alice", "bob", Config.MessageType.MESSAGE, "hello bob"));
+        Message received = receiveMessage(bob);
+        assertEquals("alice", received.getSender());
+        assertEquals("hello bob", received.getPayload());
+    }
+
+    @ParameterizedTest
+    @EnumSource(Server.ExecutionMode.class)
+    void broadcastsMessagesToAllUsers(Server.ExecutionMode mode) throws Exception {
+        int port = start(mode);
+        List<NetworkHandler.NetworkConnection<Message>> users = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            users.add(connect(port, "user-" + i));
+        }
+        users.get(0).send(new Message("user-0", Config.USER_ALL, Config.MessageType.MESSAGE, "hello all"));
+        for (NetworkHandler.NetworkConnection<Message> user : users.subList(1, users.size())) {
+            assertEquals("hello all", receiveMessage(user).getPayload());
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(Server.ExecutionMode.class)
+    void rejectsANameInUse(Server.ExecutionMode mode) throws Exception {
+        int port = start(mode);
+        connect(port, "alice");
+        NetworkHandler.NetworkConnection<Message> other = open(port);
+        other.send(new Message("alice", null, Config.MessageType.CONNECT, null));
+        assertEquals(Config.MessageType.ERROR, other.receive().getType());
+    }
+
+    private int start(Server.ExecutionMode mode) throws IOException {
+        int port;
+        try (ServerSocket free = new ServerSocket(0)) {
+            port = free.getLocalPort();
+        }
+        ServerSettings settings = new ServerSettings();
+        settings.setMetricsPort(0);
+        settings.setMessageLogDirectory("");
+        settings.setOfflineQueueDirectory("");
+        server = new Server(port, mode, settings);
+        serverThread = new Thread(server::start, "server");
+        serverThread.start();
+        return port;
+    }
+
+    private NetworkHandler.NetworkConnection<Message> open(int port) throws IOException {
+        NetworkHandler.NetworkConnection<Message> client =
+            NetworkHandler.openConnection(NetworkHandler.DEFAULT_ADDRESS, port, new MessageCodec());
+        clients.add(client);
+        return client;
+    }
+
+    private NetworkHandler.NetworkConnection<Message> connect(int port, String userName) throws Exception {
+        NetworkHandler.NetworkConnection<Message> client = open(port);
+        client.send(new Message(userName, null, Config.MessageType.CONNECT, null));
+        assertEquals(Config.MessageType.CONFIRM, client.receive().getType());
+        return client;
+    }
+
+    /**
+     * Receives the next chat message, skipping notifications like users joining.
+     */
+    private static Message receiveMessage(NetworkHandler.NetworkConnection<Message> client) throws Exception {
+        Message message;
+        do {
+            message = client.receive();
+        } while (message.getType() != Config.MessageType.MESSAGE);
+        return message;
+    }
+}
@@ -0,0 +1,94 @@
+package ch.zhaw.pm2.multichat.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests firing and cancelling timeouts of the {@link TimingWheel}.
+ */
+class TimingWheelTest {
+
+    private static final long TICK_MILLIS = 10;
+
+    private final TimingWheel wheel = new TimingWheel("test-wheel", TICK_MILLIS, TimeUnit.MILLISECONDS, 8);
+
+    @AfterEach
+    void close() {
+        wheel.close();
+    }
+
+    @Test
+    void firesNotBeforeTheDelay() throws InterruptedException {
+        CountDownLatch fired = new CountDownLatch(1);
+        long start = System.nanoTime();
+        long[] firedAfter = new long[1];
+        wheel.schedule(() -> {
+            firedAfter[0] = System.nanoTime() - start;
+            fired.countDown();
+        }, 50, TimeUnit.MILLISECONDS);
+        assertTrue(fired.await(5, TimeUnit.SECONDS));
+        assertTrue(firedAfter[0] >= TimeUnit.MILLISECONDS.toNanos(50), "fired after " + firedAfter[0]);
+    }
+
+    @Test
+    void firesDelaysLongerThanOneRound() throws InterruptedException {
+        // 8 ticks of 10 ms per round
+        CountDownLatch fired = new CountDownLatch(1);
+        long start = System.nanoTime();
+        wheel.schedule(fired::countDown, 250, TimeUnit.MILLISECONDS);
+        assertTrue(fired.await(5, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(250));
+    }
+
+    @Test
+    void firesInTheOrderOfTheDeadlines() throws InterruptedException {
+        List<Integer> order = new CopyOnWriteArrayList<>();
+        CountDownLatch fired = new CountDownLatch(3);
+        wheel.schedule(() -> { order.add(3); fired.countDown(); }, 150, TimeUnit.MILLISECONDS);
+        wheel.schedule(() -> { order.add(1); fired.countDown(); }, 20, TimeUnit.MILLISECONDS);
+        wheel.schedule(() -> { order.add(2); fired.countDown(); }, 90, TimeUnit.MILLISECONDS);
+        assertTrue(fired.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of(1, 2, 3), order);
+    }
+
+    @Test
+    void firesPastDeadlinesOnTheNextTick() throws InterruptedException {
+        CountDownLatch fired = new CountDownLatch(1);
+        wheel.schedule(fired::countDown, -5, TimeUnit.MILLISECONDS);
+        assertTrue(fired.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void doesNotFireCancelledTimeouts() throws InterruptedException {
+        CountDownLatch cancelledFired = new CountDownLatch(1);
+        CountDownLatch laterFired = new CountDownLatch(1);
+        TimingWheel.Timeout timeout = wheel.schedule(cancelledFired::countDown, 30, TimeUnit.MILLISECONDS);
+        wheel.schedule(laterFired::countDown, 100, TimeUnit.MILLISECONDS);
+        timeout.cancel();
+        assertTrue(laterFired.await(5, TimeUnit.SECONDS));
+        assertEquals(1, cancelledFired.getCount());
+    }
+
+    @Test
+    void keepsFiringAfterAFailingTask() throws InterruptedException {
+        CountDownLatch fired = new CountDownLatch(1);
+        wheel.schedule(() -> { throw new IllegalStateException("failing task"); }, 10, TimeUnit.MILLISECONDS);
+        wheel.schedule(fired::countDown, 40, TimeUnit.MILLISECONDS);
+        assertTrue(fired.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void discardsTimeoutsAfterClosing() throws InterruptedException {
+        CountDownLatch fired = new CountDownLatch(1);
+        wheel.schedule(fired::countDown, 30, TimeUnit.MILLISECONDS);
+        wheel.close();
+        assertFalse(fired.await(200, TimeUnit.MILLISECONDS));
+    }
+}
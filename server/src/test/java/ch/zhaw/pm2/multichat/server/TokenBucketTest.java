@@ -0,0 +1,87 @@
+package ch.zhaw.pm2.multichat.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the {@link TokenBucket}, in particular the retry times it reports for rejected requests.
+ */
+class TokenBucketTest {
+
+    private static final long INTERVAL = TimeUnit.MILLISECONDS.toNanos(100);
+
+    @Test
+    void grantsTheBurstAtOnce() {
+        TokenBucket bucket = new TokenBucket();
+        TokenBucket.Limit limit = new TokenBucket.Limit(10, 5);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, bucket.tryAcquire(limit));
+        }
+        assertTrue(bucket.tryAcquire(limit) > 0);
+    }
+
+    @Test
+    void reportsTheTimeUntilTheNextToken() {
+        TokenBucket bucket = new TokenBucket();
+        TokenBucket.Limit limit = new TokenBucket.Limit(10, 1);
+        long before = System.nanoTime();
+        assertEquals(0, bucket.tryAcquire(limit));
+        long wait = bucket.tryAcquire(limit);
+        long elapsed = System.nanoTime() - before;
+        assertTrue(wait > INTERVAL - elapsed - 1 && wait <= INTERVAL, "wait " + wait);
+    }
+
+    @Test
+    void rejectedRequestsDoNotTakeTokens() {
+        TokenBucket bucket = new TokenBucket();
+        TokenBucket.Limit limit = new TokenBucket.Limit(10, 1);
+        assertEquals(0, bucket.tryAcquire(limit));
+        long first = bucket.tryAcquire(limit);
+        long second = bucket.tryAcquire(limit);
+        assertTrue(second > 0 && second <= first, "first " + first + ", second " + second);
+    }
+
+    @Test
+    void refillsAtTheRate() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket();
+        TokenBucket.Limit limit = new TokenBucket.Limit(10, 1);
+        assertEquals(0, bucket.tryAcquire(limit));
+        long wait = bucket.tryAcquire(limit);
+        assertTrue(wait > 0);
+        TimeUnit.NANOSECONDS.sleep(wait);
+        assertEquals(0, bucket.tryAcquire(limit));
+    }
+
+    @Test
+    void releasedTokensCanBeTakenAgain() {
+        TokenBucket bucket = new TokenBucket();
+        TokenBucket.Limit limit = new TokenBucket.Limit(1, 2);
+        assertEquals(0, bucket.tryAcquire(limit));
+        assertEquals(0, bucket.tryAcquire(limit));
+        assertTrue(bucket.tryAcquire(limit) > 0);
+        bucket.release(limit);
+        assertEquals(0, bucket.tryAcquire(limit));
+        assertTrue(bucket.tryAcquire(limit) > 0);
+    }
+
+    @Test
+    void appliesAChangedLimitImmediately() {
+        TokenBucket bucket = new TokenBucket();
+        TokenBucket.Limit strict = new TokenBucket.Limit(1, 1);
+        assertEquals(0, bucket.tryAcquire(strict));
+        assertTrue(bucket.tryAcquire(strict) > 0);
+        TokenBucket.Limit unlimited = new TokenBucket.Limit(0, 1);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(0, bucket.tryAcquire(unlimited));
+        }
+    }
+
+    @Test
+    void rejectsInvalidLimits() {
+        assertThrows(IllegalArgumentException.class, () -> new TokenBucket.Limit(-1, 1));
+        assertThrows(IllegalArgumentException.class, () -> new TokenBucket.Limit(1, 0));
+    }
+}